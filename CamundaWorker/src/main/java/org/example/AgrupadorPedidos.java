@@ -0,0 +1,146 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Junta em lotes os pedidos de alimentos que chegam quase ao mesmo tempo ("micro-batching").
+ *
+ * <p>
+ * Cada pedido submetido ({@link #submeter(PedidoAlimentos)}) entra numa fila. A thread
+ * {@code stock-lotes} retira o primeiro pedido, espera no máximo a janela configurada por
+ * outros pedidos e avalia o lote todo numa única chamada (por exemplo
+ * {@link LivroStock#reservarLote(PedidoAlimentos[], long)}). Os pedidos ficam no lote pela
+ * ordem de chegada, que desempata os de igual prioridade.
+ * </p>
+ *
+ * <p>
+ * O lote fecha antes do fim da janela quando atinge o tamanho do lote anterior, juntando
+ * ainda os pedidos que já estiverem na fila, até ao tamanho máximo. Com um número estável
+ * de jobs em curso, cada lote fecha assim que esses jobs voltam a pedir, sem esperar pela
+ * janela; um lote que só fecha no fim da janela passa a ser o tamanho esperado do seguinte.
+ * </p>
+ *
+ * <p>
+ * Com tráfego baixo, cada pedido espera no máximo a janela; com muitos pedidos em
+ * simultâneo, os locks do stock e a espera pelo diário são pagos uma vez por lote em vez de
+ * uma vez por pedido. Se a avaliação falhar, todos os pedidos do lote terminam com o erro.
+ * </p>
+ */
+public final class AgrupadorPedidos {
+
+    private final long janelaNs;
+    private final int maximo;
+    private final Function<PedidoAlimentos[], VeredictoPedido[]> avaliar;
+    private final LinkedBlockingQueue<Pendente> fila = new LinkedBlockingQueue<>();
+
+    private final AtomicLong lotes = new AtomicLong();
+    private final AtomicLong pedidos = new AtomicLong();
+
+    /**
+     * Cria o agrupador e inicia a sua thread.
+     *
+     * @param janela  tempo máximo que o primeiro pedido de um lote espera por outros.
+     * @param maximo  número máximo de pedidos por lote.
+     * @param avaliar avaliação de um lote; devolve um veredicto por pedido, com o mesmo índice.
+     */
+    public AgrupadorPedidos(Duration janela, int maximo, Function<PedidoAlimentos[], VeredictoPedido[]> avaliar) {
+        if (maximo < 1) {
+            throw new IllegalArgumentException("Tamanho máximo do lote inválido: " + maximo);
+        }
+        this.janelaNs = janela.toNanos();
+        this.maximo = maximo;
+        this.avaliar = avaliar;
+        Thread thread = new Thread(this::agrupar, "stock-lotes");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Junta um pedido ao próximo lote.
+     *
+     * @param pedido pedido de alimentos.
+     * @return veredicto do pedido, quando o seu lote for avaliado.
+     */
+    public CompletableFuture<VeredictoPedido> submeter(PedidoAlimentos pedido) {
+        Pendente pendente = new Pendente(pedido);
+        fila.add(pendente);
+        return pendente.veredicto;
+    }
+
+    /**
+     * @return número de lotes avaliados.
+     */
+    public long getLotes() {
+        return lotes.get();
+    }
+
+    /**
+     * @return número de pedidos avaliados, em todos os lotes.
+     */
+    public long getPedidos() {
+        return pedidos.get();
+    }
+
+    private void agrupar() {
+        List<Pendente> lote = new ArrayList<>(maximo);
+        int esperado = maximo;
+        try {
+            while (true) {
+                lote.add(fila.take());
+                long limite = System.nanoTime() + janelaNs;
+                // Espera pelo resto da janela só enquanto o lote for menor do que o anterior
+                while (lote.size() < Math.min(esperado, maximo)) {
+                    long resta = limite - System.nanoTime();
+                    Pendente seguinte = resta > 0 ? fila.poll(resta, TimeUnit.NANOSECONDS) : null;
+                    if (seguinte == null) {
+                        break;
+                    }
+                    lote.add(seguinte);
+                }
+                fila.drainTo(lote, maximo - lote.size());
+                esperado = lote.size();
+                avaliar(lote);
+                lote.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void avaliar(List<Pendente> lote) {
+        PedidoAlimentos[] doLote = new PedidoAlimentos[lote.size()];
+        for (int i = 0; i < doLote.length; i++) {
+            doLote[i] = lote.get(i).pedido;
+        }
+        try {
+            VeredictoPedido[] veredictos = avaliar.apply(doLote);
+            lotes.incrementAndGet();
+            pedidos.addAndGet(doLote.length);
+            for (int i = 0; i < doLote.length; i++) {
+                lote.get(i).veredicto.complete(veredictos[i]);
+            }
+        } catch (RuntimeException | Error e) {
+            Registo.erro(e, "Lote de %d pedidos de stock não avaliado", doLote.length);
+            for (Pendente pendente : lote) {
+                pendente.veredicto.completeExceptionally(e);
+            }
+        }
+    }
+
+    /** Pedido à espera do seu lote. */
+    private static final class Pendente {
+        final PedidoAlimentos pedido;
+        final CompletableFuture<VeredictoPedido> veredicto = new CompletableFuture<>();
+
+        Pendente(PedidoAlimentos pedido) {
+            this.pedido = pedido;
+        }
+    }
+}
@@ -0,0 +1,606 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Arquivo de documentos (etiquetas e relatórios) em segmentos só de acrescentar, com um
+ * índice do identificador de cada documento para o segmento e a posição onde ficou.
+ *
+ * <p>
+ * Os documentos são acrescentados a {@code documentos-<n>.seg}; quando um documento já não
+ * cabe no segmento atual, passa para o seguinte. Cada registo tem o formato
+ * {@code [tamanho:int][crc32c:int][tipo:byte][id:short+utf8][lote:short+utf8][dados]}, como
+ * no {@link DiarioStock}. Quando um segmento é fechado, o seu índice é gravado em
+ * {@code documentos-<n>.idx}; ao abrir o arquivo, os índices são lidos e os segmentos sem
+ * índice (o último antes de uma falha do processo) são percorridos até ao primeiro
+ * registo incompleto. O arquivo nunca acrescenta a um segmento de uma execução anterior.
+ * </p>
+ *
+ * <p>
+ * Escrita em grupo ("group commit"): {@link #guardar} apenas reserva a posição do
+ * documento e põe-no na fila da thread {@code arquivo-documentos}, que escreve todos os
+ * documentos em fila e faz um único {@code force} para eles. Em modo síncrono,
+ * {@code guardar} espera por esse {@code force}; sem modo síncrono, só espera se houver
+ * mais de {@link #PENDENTE_MAXIMO} bytes por escrever. Uma falha de escrita torna o
+ * arquivo indisponível: os pedidos seguintes falham, em vez de deixarem buracos num segmento.
+ * </p>
+ */
+public final class ArquivoDocumentos implements DestinoDocumentos {
+
+    /** Tamanho máximo de cada segmento, quando não indicado: 64 MiB. */
+    public static final int TAMANHO_SEGMENTO_OMISSAO = 64 << 20;
+
+    /** Sem modo síncrono, bytes em fila a partir dos quais {@link #guardar} espera pela thread do arquivo. */
+    public static final long PENDENTE_MAXIMO = 32 << 20;
+
+    private static final int MAGIA_SEGMENTO = 0x53444f43;
+    private static final int MAGIA_INDICE = 0x53444f49;
+    private static final int VERSAO = 1;
+    /** Cabeçalho de cada segmento: magia, versão e número do segmento. */
+    private static final int CABECALHO_SEGMENTO = 16;
+    private static final int CABECALHO_REGISTO = 8;
+
+    private final Path pasta;
+    private final int tamanhoSegmento;
+    private final boolean sincrono;
+    private final Map<String, Localizacao> indice;
+
+    /** Acorda a thread do arquivo; protege a fila, as posições de escrita e {@link #fechado}. */
+    private final Object sinal = new Object();
+    private ArrayList<Pedido> fila = new ArrayList<>();
+    /** Segmento e posição do próximo documento. */
+    private long numeroSegmento;
+    private int posicao;
+    /** Total de bytes de registos aceites desde a abertura. */
+    private long escrito;
+    private boolean fechado;
+
+    /** Threads à espera de que {@link #duravel} avance. */
+    private final Object monitor = new Object();
+    /** Total de bytes de registos já forçados para disco. */
+    private volatile long duravel;
+    private volatile IOException falha;
+
+    /** Segmento aberto pela thread do arquivo e os documentos escritos nele; só usados por essa thread. */
+    private FileChannel canal;
+    private long segmentoAberto = -1;
+    private final List<Entrada> entradas = new ArrayList<>();
+
+    private final LongAdder documentos = new LongAdder();
+    private final LongAdder forcas = new LongAdder();
+    private final Thread thread;
+
+    private ArquivoDocumentos(Path pasta, int tamanhoSegmento, boolean sincrono, long proximoSegmento,
+                              Map<String, Localizacao> indice) {
+        this.pasta = pasta;
+        this.tamanhoSegmento = tamanhoSegmento;
+        this.sincrono = sincrono;
+        this.indice = indice;
+        this.numeroSegmento = proximoSegmento;
+        this.posicao = CABECALHO_SEGMENTO;
+
+        thread = new Thread(this::escoar, "arquivo-documentos");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Abre (ou cria) o arquivo na pasta indicada e reconstrói o índice dos documentos já guardados.
+     *
+     * @param pasta           pasta dos segmentos e índices.
+     * @param tamanhoSegmento tamanho máximo de cada segmento, em bytes.
+     * @param sincrono        se {@link #guardar} espera que o documento esteja em disco.
+     * @return arquivo aberto, com a thread de escrita iniciada.
+     * @throws IOException se a pasta ou os segmentos não puderem ser lidos.
+     */
+    public static ArquivoDocumentos abrir(Path pasta, int tamanhoSegmento, boolean sincrono) throws IOException {
+        if (tamanhoSegmento <= CABECALHO_SEGMENTO + CABECALHO_REGISTO) {
+            throw new IllegalArgumentException("Segmento do arquivo demasiado pequeno: " + tamanhoSegmento);
+        }
+        Files.createDirectories(pasta);
+        TreeMap<Long, Path> segmentos = listar(pasta, "documentos-", ".seg");
+        Map<String, Localizacao> indice = new ConcurrentHashMap<>();
+        for (Map.Entry<Long, Path> e : segmentos.entrySet()) {
+            long numero = e.getKey();
+            Path ficheiroIndice = pasta.resolve(nomeFicheiro("documentos-", numero, ".idx"));
+            List<Entrada> lidas = null;
+            if (Files.exists(ficheiroIndice)) {
+                try {
+                    lidas = lerIndice(ficheiroIndice, numero);
+                } catch (IOException ex) {
+                    Registo.aviso("Índice do arquivo de documentos inválido, a percorrer o segmento: %s", ficheiroIndice);
+                }
+            }
+            if (lidas == null) {
+                lidas = percorrer(e.getValue(), numero);
+                if (lidas == null) {
+                    Registo.aviso("Segmento do arquivo de documentos sem cabeçalho válido, ignorado: %s", e.getValue());
+                    continue;
+                }
+                gravarIndice(pasta, numero, lidas);
+            }
+            for (Entrada entrada : lidas) {
+                indice.put(entrada.id, entrada.localizacao);
+            }
+        }
+        long proximo = segmentos.isEmpty() ? 1 : segmentos.lastKey() + 1;
+        Registo.info("Arquivo de documentos em %s: %d documentos em %d segmentos", pasta, indice.size(),
+                segmentos.size());
+        return new ArquivoDocumentos(pasta, tamanhoSegmento, sincrono, proximo, indice);
+    }
+
+    /**
+     * Acrescenta um documento ao arquivo. Um documento com o identificador de outro já
+     * guardado passa a ser o devolvido por {@link #ler(String)}; o anterior continua no arquivo.
+     *
+     * @return {@code <pasta>/documentos-<n>.seg@<posição>}.
+     * @throws IOException           se o arquivo estiver indisponível por uma falha de escrita.
+     * @throws IllegalStateException se o arquivo estiver fechado.
+     */
+    @Override
+    public String guardar(Tipo tipo, String id, String lote, byte[] dados, int tamanho) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        byte[] loteBytes = lote.getBytes(StandardCharsets.UTF_8);
+        if (idBytes.length > 0xFFFF || loteBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Identificador ou lote demasiado longo para o arquivo");
+        }
+        int corpo = 1 + 2 + idBytes.length + 2 + loteBytes.length + tamanho;
+        int total = CABECALHO_REGISTO + corpo;
+        if (CABECALHO_SEGMENTO + total > tamanhoSegmento) {
+            throw new IllegalArgumentException("Documento maior do que um segmento do arquivo: " + tamanho + " bytes");
+        }
+
+        // O registo é montado fora do lock; a thread do arquivo só o copia para o segmento
+        byte[] registo = new byte[total];
+        ByteBuffer b = ByteBuffer.wrap(registo);
+        b.putInt(corpo).putInt(0).put((byte) (tipo.ordinal() + 1))
+                .putShort((short) idBytes.length).put(idBytes)
+                .putShort((short) loteBytes.length).put(loteBytes)
+                .put(dados, 0, tamanho);
+        CRC32C crc = new CRC32C();
+        crc.update(registo, CABECALHO_REGISTO, corpo);
+        b.putInt(4, (int) crc.getValue());
+
+        Pedido pedido;
+        synchronized (sinal) {
+            if (fechado) {
+                throw new IllegalStateException("Arquivo de documentos fechado");
+            }
+            verificarFalha();
+            if (posicao + total > tamanhoSegmento) {
+                numeroSegmento++;
+                posicao = CABECALHO_SEGMENTO;
+            }
+            escrito += total;
+            pedido = new Pedido(id, registo, new Localizacao(numeroSegmento, posicao, total, escrito));
+            posicao += total;
+            fila.add(pedido);
+            sinal.notify();
+        }
+        indice.put(id, pedido.localizacao);
+
+        aguardar(sincrono ? pedido.localizacao.fim : pedido.localizacao.fim - PENDENTE_MAXIMO);
+        return pasta.resolve(nomeFicheiro("documentos-", pedido.localizacao.segmento, ".seg"))
+                + "@" + pedido.localizacao.posicao;
+    }
+
+    /**
+     * @return localização do último documento guardado com o identificador, ou {@code null}.
+     */
+    public Localizacao localizar(String id) {
+        return indice.get(id);
+    }
+
+    /**
+     * Lê um documento do arquivo, esperando que esteja escrito se ainda estiver em fila.
+     *
+     * @return conteúdo do último documento guardado com o identificador, ou {@code null}.
+     * @throws IOException se o segmento não puder ser lido ou o registo estiver corrompido.
+     */
+    public byte[] ler(String id) throws IOException {
+        Localizacao localizacao = indice.get(id);
+        if (localizacao == null) {
+            return null;
+        }
+        aguardar(localizacao.fim);
+        ByteBuffer registo = ByteBuffer.allocate(localizacao.tamanho);
+        try (FileChannel leitura = FileChannel.open(
+                pasta.resolve(nomeFicheiro("documentos-", localizacao.segmento, ".seg")), StandardOpenOption.READ)) {
+            while (registo.hasRemaining()) {
+                if (leitura.read(registo, localizacao.posicao + registo.position()) < 0) {
+                    throw new IOException("Registo do arquivo incompleto: " + id);
+                }
+            }
+        }
+        registo.flip();
+        Entrada entrada = lerRegisto(registo, 0, localizacao.segmento);
+        if (entrada == null) {
+            throw new IOException("Registo do arquivo corrompido: " + id);
+        }
+        // Os dados vêm depois do tipo, do identificador e do lote
+        int inicio = CABECALHO_REGISTO + 3 + (registo.getShort(CABECALHO_REGISTO + 1) & 0xFFFF);
+        inicio += 2 + (registo.getShort(inicio) & 0xFFFF);
+        byte[] dados = new byte[localizacao.tamanho - inicio];
+        registo.get(inicio, dados);
+        return dados;
+    }
+
+    /**
+     * @return número de documentos no índice.
+     */
+    public int tamanho() {
+        return indice.size();
+    }
+
+    /**
+     * @return documentos escritos desde a abertura.
+     */
+    public long getDocumentos() {
+        return documentos.sum();
+    }
+
+    /**
+     * @return número de {@code force} feitos desde a abertura; cada um cobre todos os documentos em fila.
+     */
+    public long getForcas() {
+        return forcas.sum();
+    }
+
+    /**
+     * @return bytes de registos escritos desde a abertura.
+     */
+    public long getEscrito() {
+        return duravel;
+    }
+
+    /**
+     * Escreve os documentos em fila, fecha o segmento atual com o seu índice e termina a
+     * thread do arquivo. Os pedidos seguintes falham com {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        synchronized (sinal) {
+            if (fechado) {
+                return;
+            }
+            fechado = true;
+            sinal.notify();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Espera até os registos aceites até {@code alvo} estarem em disco.
+     */
+    private void aguardar(long alvo) throws IOException {
+        if (duravel >= alvo) {
+            return;
+        }
+        boolean interrompido = false;
+        try {
+            synchronized (monitor) {
+                while (duravel < alvo) {
+                    verificarFalha();
+                    if (!thread.isAlive()) {
+                        throw new IllegalStateException("Arquivo de documentos fechado");
+                    }
+                    try {
+                        monitor.wait();
+                    } catch (InterruptedException e) {
+                        interrompido = true;
+                    }
+                }
+            }
+        } finally {
+            if (interrompido) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void verificarFalha() throws IOException {
+        IOException erro = falha;
+        if (erro != null) {
+            throw new IOException("Arquivo de documentos indisponível: " + erro.getMessage(), erro);
+        }
+    }
+
+    /** Thread do arquivo: escrever os documentos em fila e forçá-los para disco em grupo. */
+    private void escoar() {
+        ArrayList<Pedido> lote = new ArrayList<>();
+        while (true) {
+            boolean terminar;
+            synchronized (sinal) {
+                while (fila.isEmpty() && !fechado) {
+                    try {
+                        sinal.wait();
+                    } catch (InterruptedException e) {
+                        fechado = true;
+                    }
+                }
+                ArrayList<Pedido> vazia = lote;
+                lote = fila;
+                fila = vazia;
+                terminar = fechado;
+            }
+            try {
+                if (!lote.isEmpty() && falha == null) {
+                    escrever(lote);
+                }
+                if (terminar) {
+                    fecharSegmento();
+                }
+            } catch (IOException | RuntimeException e) {
+                falha = e instanceof IOException ? (IOException) e : new IOException(e);
+                Registo.erro(e, "Falha no arquivo de documentos");
+            }
+            lote.clear();
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+            if (terminar) {
+                return;
+            }
+        }
+    }
+
+    private void escrever(List<Pedido> lote) throws IOException {
+        for (Pedido pedido : lote) {
+            Localizacao l = pedido.localizacao;
+            if (l.segmento != segmentoAberto) {
+                fecharSegmento();
+                abrirSegmento(l.segmento);
+            }
+            ByteBuffer b = ByteBuffer.wrap(pedido.registo);
+            long p = l.posicao;
+            while (b.hasRemaining()) {
+                p += canal.write(b, p);
+            }
+            entradas.add(new Entrada(pedido.id, l));
+        }
+        canal.force(false);
+        forcas.increment();
+        documentos.add(lote.size());
+        synchronized (monitor) {
+            duravel = lote.get(lote.size() - 1).localizacao.fim;
+        }
+    }
+
+    private void abrirSegmento(long numero) throws IOException {
+        canal = FileChannel.open(pasta.resolve(nomeFicheiro("documentos-", numero, ".seg")),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer cabecalho = ByteBuffer.allocate(CABECALHO_SEGMENTO);
+        cabecalho.putInt(MAGIA_SEGMENTO).putInt(VERSAO).putLong(numero).flip();
+        while (cabecalho.hasRemaining()) {
+            canal.write(cabecalho, cabecalho.position());
+        }
+        segmentoAberto = numero;
+        forcarPasta(pasta);
+    }
+
+    /** Força e fecha o segmento aberto e grava o seu índice. */
+    private void fecharSegmento() throws IOException {
+        if (canal == null) {
+            return;
+        }
+        canal.force(false);
+        canal.close();
+        canal = null;
+        gravarIndice(pasta, segmentoAberto, entradas);
+        entradas.clear();
+    }
+
+    /**
+     * Percorre um segmento até ao fim ou ao primeiro registo incompleto.
+     *
+     * @return documentos do segmento, ou {@code null} se o cabeçalho não for válido.
+     */
+    private static List<Entrada> percorrer(Path ficheiro, long numero) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel leitura = FileChannel.open(ficheiro, StandardOpenOption.READ)) {
+            buffer = leitura.map(FileChannel.MapMode.READ_ONLY, 0, leitura.size());
+        }
+        if (buffer.limit() < CABECALHO_SEGMENTO || buffer.getInt(0) != MAGIA_SEGMENTO
+                || buffer.getInt(4) != VERSAO || buffer.getLong(8) != numero) {
+            return null;
+        }
+        List<Entrada> lidas = new ArrayList<>();
+        int p = CABECALHO_SEGMENTO;
+        Entrada entrada;
+        while ((entrada = lerRegisto(buffer, p, numero)) != null) {
+            lidas.add(entrada);
+            p += entrada.localizacao.tamanho;
+        }
+        return lidas;
+    }
+
+    /**
+     * @return documento do registo na posição {@code p}, ou {@code null} se o registo estiver incompleto.
+     */
+    private static Entrada lerRegisto(ByteBuffer buffer, int p, long numero) {
+        if (p + CABECALHO_REGISTO > buffer.limit()) {
+            return null;
+        }
+        int corpo = buffer.getInt(p);
+        if (corpo < 5 || corpo > buffer.limit() - p - CABECALHO_REGISTO) {
+            return null;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(p + CABECALHO_REGISTO + corpo).position(p + CABECALHO_REGISTO));
+        if ((int) crc.getValue() != buffer.getInt(p + 4)) {
+            return null;
+        }
+        int tamanhoId = buffer.getShort(p + CABECALHO_REGISTO + 1) & 0xFFFF;
+        byte[] id = new byte[tamanhoId];
+        buffer.get(p + CABECALHO_REGISTO + 3, id);
+        return new Entrada(new String(id, StandardCharsets.UTF_8),
+                new Localizacao(numero, p, CABECALHO_REGISTO + corpo, 0));
+    }
+
+    /** Grava o índice de um segmento num ficheiro temporário e muda-lhe o nome, para nunca ficar a meio. */
+    private static void gravarIndice(Path pasta, long numero, List<Entrada> lidas) throws IOException {
+        Path destino = pasta.resolve(nomeFicheiro("documentos-", numero, ".idx"));
+        Path temporario = pasta.resolve(nomeFicheiro("documentos-", numero, ".idx.tmp"));
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     Channels.newOutputStream(canal), 1 << 16))) {
+            out.writeInt(MAGIA_INDICE);
+            out.writeInt(VERSAO);
+            out.writeLong(numero);
+            out.writeInt(lidas.size());
+            for (Entrada entrada : lidas) {
+                byte[] id = entrada.id.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(id.length);
+                out.write(id);
+                out.writeInt(entrada.localizacao.posicao);
+                out.writeInt(entrada.localizacao.tamanho);
+            }
+            out.flush();
+            canal.force(true);
+        }
+        Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forcarPasta(pasta);
+    }
+
+    private static List<Entrada> lerIndice(Path ficheiro, long numero) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(ficheiro), 1 << 16))) {
+            if (in.readInt() != MAGIA_INDICE || in.readInt() != VERSAO || in.readLong() != numero) {
+                throw new IOException("cabeçalho inválido");
+            }
+            int n = in.readInt();
+            List<Entrada> lidas = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                byte[] id = new byte[in.readUnsignedShort()];
+                in.readFully(id);
+                lidas.add(new Entrada(new String(id, StandardCharsets.UTF_8),
+                        new Localizacao(numero, in.readInt(), in.readInt(), 0)));
+            }
+            return lidas;
+        }
+    }
+
+    private static TreeMap<Long, Path> listar(Path pasta, String prefixo, String sufixo) throws IOException {
+        TreeMap<Long, Path> ficheiros = new TreeMap<>();
+        try (Stream<Path> lista = Files.list(pasta)) {
+            lista.forEach(f -> {
+                String nome = f.getFileName().toString();
+                if (nome.startsWith(prefixo) && nome.endsWith(sufixo)) {
+                    try {
+                        ficheiros.put(Long.parseLong(nome.substring(prefixo.length(),
+                                nome.length() - sufixo.length())), f);
+                    } catch (NumberFormatException e) {
+                        // ficheiro com outro nome, não faz parte do arquivo
+                    }
+                }
+            });
+        }
+        return ficheiros;
+    }
+
+    private static String nomeFicheiro(String prefixo, long numero, String sufixo) {
+        return String.format("%s%020d%s", prefixo, numero, sufixo);
+    }
+
+    /** Garante que a criação ou mudança de nome de ficheiros na pasta fica em disco. */
+    private static void forcarPasta(Path pasta) {
+        try (FileChannel canal = FileChannel.open(pasta, StandardOpenOption.READ)) {
+            canal.force(true);
+        } catch (IOException e) {
+            // nem todos os sistemas de ficheiros permitem abrir ou forçar uma pasta
+        }
+    }
+
+    /**
+     * Posição de um documento no arquivo.
+     */
+    public static final class Localizacao {
+
+        private final long segmento;
+        private final int posicao;
+        private final int tamanho;
+        /** Valor de {@link #duravel} a partir do qual o documento está em disco; {@code 0} se já estava ao abrir. */
+        private final long fim;
+
+        Localizacao(long segmento, int posicao, int tamanho, long fim) {
+            this.segmento = segmento;
+            this.posicao = posicao;
+            this.tamanho = tamanho;
+            this.fim = fim;
+        }
+
+        /**
+         * @return número do segmento ({@code documentos-<n>.seg}).
+         */
+        public long getSegmento() {
+            return segmento;
+        }
+
+        /**
+         * @return posição do registo no segmento, em bytes.
+         */
+        public int getPosicao() {
+            return posicao;
+        }
+
+        /**
+         * @return tamanho do registo, com cabeçalho, em bytes.
+         */
+        public int getTamanho() {
+            return tamanho;
+        }
+
+        @Override
+        public String toString() {
+            return nomeFicheiro("documentos-", segmento, ".seg") + "@" + posicao;
+        }
+    }
+
+    /** Documento à espera da thread do arquivo. */
+    private static final class Pedido {
+        final String id;
+        final byte[] registo;
+        final Localizacao localizacao;
+
+        Pedido(String id, byte[] registo, Localizacao localizacao) {
+            this.id = id;
+            this.registo = registo;
+            this.localizacao = localizacao;
+        }
+    }
+
+    /** Documento de um segmento, para o índice. */
+    private static final class Entrada {
+        final String id;
+        final Localizacao localizacao;
+
+        Entrada(String id, Localizacao localizacao) {
+            this.id = id;
+            this.localizacao = localizacao;
+        }
+    }
+}
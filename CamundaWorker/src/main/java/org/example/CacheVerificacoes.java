@@ -0,0 +1,340 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache limitada dos resultados de {@link LivroStock#verificarLote(PedidoAlimentos[])} para
+ * pedidos repetidos, como os menus que chegam sempre com as mesmas strings de alimentos e
+ * quantidades.
+ *
+ * <p>
+ * Cada pedido é guardado com a chave normalizada: os nomes dobrados como no
+ * {@link DicionarioAlimentos} e as linhas ordenadas por nome e quantidade, pelo que o mesmo
+ * menu escrito noutra ordem ou grafia ({@code "Feijão.arroz"} e {@code "arroz.feijao"}) é
+ * verificado uma só vez. O par de strings tal como chega do processo fica como atalho para
+ * essa entrada, com o veredicto já pela ordem das suas linhas: um pedido repetido com as
+ * mesmas strings não volta a ser separado, convertido nem normalizado. Cada entrada guarda a
+ * versão do stock
+ * ({@link StockManager#versao()}) e a versão de cada alimento que tocou; só é usada se
+ * nenhuma delas tiver mudado, ou seja, se o ficheiro de stock não foi recarregado e nenhum
+ * dos seus alimentos mudou de quantidade disponível. Uma entrada desatualizada é calculada
+ * de novo e substituída.
+ * </p>
+ *
+ * <p>
+ * As entradas estão distribuídas por {@link #SEGMENTOS} segmentos, cada um com o seu lock e
+ * a sua ordem LRU: quando um segmento passa da sua parte da capacidade, sai a entrada usada
+ * há mais tempo. Os acertos, falhas, despejos e invalidações são contados para as métricas.
+ * </p>
+ */
+public final class CacheVerificacoes {
+
+    /** Número de segmentos (potência de 2). */
+    public static final int SEGMENTOS = 16;
+
+    private final Segmento[] segmentos = new Segmento[SEGMENTOS];
+
+    private final LongAdder acertos = new LongAdder();
+    private final LongAdder falhas = new LongAdder();
+    private final LongAdder despejos = new LongAdder();
+    private final LongAdder invalidacoes = new LongAdder();
+
+    /**
+     * @param capacidade número máximo de entradas, repartido pelos segmentos.
+     */
+    public CacheVerificacoes(int capacidade) {
+        if (capacidade < SEGMENTOS) {
+            throw new IllegalArgumentException("Capacidade da cache inferior a " + SEGMENTOS + ": " + capacidade);
+        }
+        for (int i = 0; i < SEGMENTOS; i++) {
+            segmentos[i] = new Segmento(capacidade / SEGMENTOS);
+        }
+    }
+
+    /**
+     * Verifica um pedido no livro indicado, reutilizando o resultado guardado se ainda for válido.
+     *
+     * @param alimentosStr   alimentos separados por ponto.
+     * @param quantidadesStr quantidades separadas por ponto.
+     * @param versao         versão do stock, lida antes de {@code livro}.
+     * @param livro          livro em uso nessa versão.
+     * @return veredicto do pedido, sem reserva.
+     * @throws NumberFormatException    se alguma quantidade não for um número inteiro.
+     * @throws IllegalArgumentException se o número de alimentos e de quantidades for diferente.
+     */
+    public VeredictoPedido verificar(String alimentosStr, String quantidadesStr, long versao, LivroStock livro) {
+        Chave chave = new Chave(alimentosStr, quantidadesStr);
+        Entrada entrada = procurar(chave);
+        if (valida(entrada, versao, livro)) {
+            acertos.increment();
+            return entrada.veredicto;
+        }
+        boolean desatualizada = entrada != null;
+
+        PedidoAlimentos pedido = entrada != null
+                ? entrada.veredicto.getPedido()
+                : PedidoAlimentos.ler(alimentosStr, quantidadesStr);
+        Normalizado normalizado = Normalizado.de(pedido);
+        Entrada comum = procurar(normalizado.chave);
+        if (valida(comum, versao, livro)) {
+            acertos.increment();
+        } else {
+            desatualizada |= comum != null;
+            falhas.increment();
+            // As versões são lidas antes das quantidades: uma alteração pelo meio só invalida a entrada
+            int[] ids = livro.ids(normalizado.pedido.getAlimentos());
+            int[] versoes = new int[ids.length];
+            livro.lerVersoes(ids, versoes);
+            VeredictoPedido veredicto = livro.verificarLote(new PedidoAlimentos[]{normalizado.pedido})[0];
+            comum = new Entrada(versao, ids, versoes, veredicto);
+            guardar(normalizado.chave, comum);
+        }
+        if (desatualizada) {
+            invalidacoes.increment();
+        }
+        if (chave.equals(normalizado.chave)) {
+            return comum.veredicto;
+        }
+
+        // Atalho pelas strings recebidas, com as linhas pela ordem do pedido
+        int n = normalizado.posicoes.length;
+        int[] ids = new int[n];
+        int[] versoes = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = comum.ids[normalizado.posicoes[i]];
+            versoes[i] = comum.versoes[normalizado.posicoes[i]];
+        }
+        VeredictoPedido veredicto = normalizado.reordenar(pedido, ids, comum.veredicto);
+        guardar(chave, new Entrada(comum.versao, ids, versoes, veredicto));
+        return veredicto;
+    }
+
+    private Segmento segmento(Chave chave) {
+        return segmentos[(chave.hash ^ (chave.hash >>> 16)) & (SEGMENTOS - 1)];
+    }
+
+    private Entrada procurar(Chave chave) {
+        Segmento segmento = segmento(chave);
+        segmento.lock.lock();
+        try {
+            return segmento.entradas.get(chave);
+        } finally {
+            segmento.lock.unlock();
+        }
+    }
+
+    private void guardar(Chave chave, Entrada entrada) {
+        Segmento segmento = segmento(chave);
+        segmento.lock.lock();
+        try {
+            segmento.guardar(chave, entrada);
+        } finally {
+            segmento.lock.unlock();
+        }
+    }
+
+    /** @return {@code true} se a entrada existe e nem o stock nem os seus alimentos mudaram. */
+    private static boolean valida(Entrada entrada, long versao, LivroStock livro) {
+        return entrada != null && entrada.versao == versao && livro.versoesIguais(entrada.ids, entrada.versoes);
+    }
+
+    /**
+     * @return número de verificações respondidas pela cache.
+     */
+    public long getAcertos() {
+        return acertos.sum();
+    }
+
+    /**
+     * @return número de verificações calculadas, por não haver entrada ou por estar desatualizada.
+     */
+    public long getFalhas() {
+        return falhas.sum();
+    }
+
+    /**
+     * @return número de entradas retiradas por falta de espaço.
+     */
+    public long getDespejos() {
+        return despejos.sum();
+    }
+
+    /**
+     * @return número de entradas encontradas desatualizadas (stock recarregado ou alimento alterado).
+     */
+    public long getInvalidacoes() {
+        return invalidacoes.sum();
+    }
+
+    /**
+     * @return número de entradas guardadas.
+     */
+    public int tamanho() {
+        int total = 0;
+        for (Segmento segmento : segmentos) {
+            segmento.lock.lock();
+            try {
+                total += segmento.entradas.size();
+            } finally {
+                segmento.lock.unlock();
+            }
+        }
+        return total;
+    }
+
+    /** Par de strings do pedido, tal como chega ou normalizado, com o hash calculado uma vez. */
+    private static final class Chave {
+        final String alimentos;
+        final String quantidades;
+        final int hash;
+
+        Chave(String alimentos, String quantidades) {
+            this.alimentos = alimentos;
+            this.quantidades = quantidades;
+            this.hash = 31 * alimentos.hashCode() + quantidades.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Chave c && hash == c.hash
+                    && alimentos.equals(c.alimentos) && quantidades.equals(c.quantidades);
+        }
+    }
+
+    /**
+     * Pedido com as linhas por ordem de nome dobrado e quantidade, e a linha normalizada de
+     * cada linha do pedido original.
+     */
+    private static final class Normalizado {
+        final Chave chave;
+        final PedidoAlimentos pedido;
+        /** Posição de cada linha do pedido original nas linhas de {@link #pedido}. */
+        final int[] posicoes;
+
+        private Normalizado(Chave chave, PedidoAlimentos pedido, int[] posicoes) {
+            this.chave = chave;
+            this.pedido = pedido;
+            this.posicoes = posicoes;
+        }
+
+        static Normalizado de(PedidoAlimentos original) {
+            String[] alimentos = original.getAlimentos();
+            int[] quantidades = original.getQuantidades();
+            int n = alimentos.length;
+            String[] dobrados = new String[n];
+            Integer[] ordem = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                dobrados[i] = DicionarioAlimentos.dobrar(alimentos[i]);
+                ordem[i] = i;
+            }
+            // Ordenação estável: linhas iguais mantêm a ordem do pedido
+            Arrays.sort(ordem, Comparator.<Integer, String>comparing(i -> dobrados[i])
+                    .thenComparingInt(i -> quantidades[i]));
+
+            String[] nomes = new String[n];
+            int[] qtds = new int[n];
+            int[] posicoes = new int[n];
+            StringBuilder textoAlimentos = new StringBuilder();
+            StringBuilder textoQuantidades = new StringBuilder();
+            for (int j = 0; j < n; j++) {
+                int i = ordem[j];
+                nomes[j] = dobrados[i];
+                qtds[j] = quantidades[i];
+                posicoes[i] = j;
+                textoAlimentos.append(j == 0 ? "" : ".").append(nomes[j]);
+                textoQuantidades.append(j == 0 ? "" : ".").append(qtds[j]);
+            }
+            return new Normalizado(new Chave(textoAlimentos.toString(), textoQuantidades.toString()),
+                    new PedidoAlimentos(nomes, qtds), posicoes);
+        }
+
+        /**
+         * Veredicto do pedido original a partir do veredicto do pedido normalizado.
+         *
+         * <p>
+         * A falta total de cada alimento não depende da ordem das linhas; quando um alimento
+         * aparece em várias linhas, a falta fica nas últimas pela ordem do pedido original,
+         * como em {@link LivroStock#verificarLote(PedidoAlimentos[])}.
+         * </p>
+         *
+         * @param ids identificador de cada linha do pedido original.
+         */
+        VeredictoPedido reordenar(PedidoAlimentos original, int[] ids, VeredictoPedido normal) {
+            int[] quantidades = original.getQuantidades();
+            int n = quantidades.length;
+            // Falta de cada alimento, guardada na primeira das suas linhas normalizadas
+            String[] nomes = pedido.getAlimentos();
+            int[] primeira = new int[n];
+            int[] faltaAlimento = new int[n];
+            for (int j = 0; j < n; j++) {
+                primeira[j] = j > 0 && nomes[j].equals(nomes[j - 1]) ? primeira[j - 1] : j;
+                faltaAlimento[primeira[j]] += normal.emFalta(j);
+            }
+
+            int[] emFalta = new int[n];
+            boolean[] desconhecidos = null;
+            for (int i = n - 1; i >= 0; i--) {
+                int j = posicoes[i];
+                if (ids[i] < 0) {
+                    if (desconhecidos == null) {
+                        desconhecidos = new boolean[n];
+                    }
+                    desconhecidos[i] = true;
+                    emFalta[i] = normal.emFalta(j);
+                } else if (quantidades[i] > 0) {
+                    int falta = Math.min(quantidades[i], faltaAlimento[primeira[j]]);
+                    emFalta[i] = falta;
+                    faltaAlimento[primeira[j]] -= falta;
+                }
+            }
+            return new VeredictoPedido(original, null, normal.isAtendido(), emFalta, desconhecidos);
+        }
+    }
+
+    /** Veredicto guardado e as versões com que foi calculado. */
+    private static final class Entrada {
+        final long versao;
+        final int[] ids;
+        final int[] versoes;
+        final VeredictoPedido veredicto;
+
+        Entrada(long versao, int[] ids, int[] versoes, VeredictoPedido veredicto) {
+            this.versao = versao;
+            this.ids = ids;
+            this.versoes = versoes;
+            this.veredicto = veredicto;
+        }
+    }
+
+    /** Segmento com ordem de acesso (LRU), usado apenas com {@link #lock} bloqueado. */
+    private final class Segmento {
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<Chave, Entrada> entradas = new LinkedHashMap<>(16, 0.75f, true);
+        private final int capacidade;
+
+        Segmento(int capacidade) {
+            this.capacidade = capacidade;
+        }
+
+        /** Guarda a entrada e, se o segmento passar da capacidade, despeja a menos usada. */
+        void guardar(Chave chave, Entrada entrada) {
+            entradas.put(chave, entrada);
+            if (entradas.size() > capacidade) {
+                Iterator<Chave> maisAntiga = entradas.keySet().iterator();
+                maisAntiga.next();
+                maisAntiga.remove();
+                despejos.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Quantidades iniciais de stock em forma compacta: o {@link DicionarioAlimentos} dos
+ * alimentos e um array com a quantidade de cada um, indexado pelo identificador.
+ *
+ * <p>
+ * {@link #ler(InputStream)} lê o ficheiro de stock token a token com o parser de streaming
+ * do Jackson. Os nomes passam diretamente do buffer do parser para a arena do dicionário,
+ * sem criar uma {@link String} nem uma entrada de mapa por alimento, pelo que um ficheiro
+ * com milhões de alimentos ocupa em memória pouco mais do que o próprio texto.
+ * </p>
+ *
+ * <p>
+ * Se várias grafias do mesmo alimento aparecerem com quantidades (por exemplo
+ * {@code "feijão"} e {@code "feijao"}), são tratadas como o mesmo stock listado duas vezes:
+ * fica a maior quantidade, com um aviso se as quantidades forem diferentes.
+ * </p>
+ */
+public final class CatalogoStock {
+
+    /** Sem canonicalização dos nomes de campos: cada alimento aparece uma vez. */
+    private static final JsonFactory FABRICA = JsonFactory.builder()
+            .disable(JsonFactory.Feature.CANONICALIZE_FIELD_NAMES)
+            .build();
+
+    private final DicionarioAlimentos dicionario;
+    private final int[] quantidades;
+    private final int linhas;
+
+    private CatalogoStock(Construtor c) {
+        dicionario = c.nomes.construir();
+        quantidades = Arrays.copyOf(c.quantidades, dicionario.tamanho());
+        linhas = c.linhas;
+    }
+
+    /**
+     * Lê e valida um ficheiro de stock: um objeto JSON não vazio de nomes para quantidades
+     * inteiras não negativas.
+     *
+     * @param in conteúdo do ficheiro; não é fechado.
+     * @return catálogo com as quantidades lidas.
+     * @throws IOException              se o conteúdo não for JSON válido.
+     * @throws IllegalArgumentException se não for um objeto de alimentos e quantidades válidas.
+     */
+    public static CatalogoStock ler(InputStream in) throws IOException {
+        Construtor c = new Construtor();
+        try (JsonParser p = FABRICA.createParser(in)) {
+            p.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("o stock tem de ser um objeto {alimento: quantidade}");
+            }
+            char[] nome = new char[64];
+            JsonToken token;
+            while ((token = p.nextToken()) == JsonToken.FIELD_NAME) {
+                // O buffer do parser só é válido até ao próximo token: o nome é copiado antes do valor
+                int comprimento = p.getTextLength();
+                if (comprimento > nome.length) {
+                    nome = new char[Math.max(comprimento, nome.length * 2)];
+                }
+                System.arraycopy(p.getTextCharacters(), p.getTextOffset(), nome, 0, comprimento);
+                if (emBranco(nome, comprimento)) {
+                    throw new IllegalArgumentException("alimento sem nome");
+                }
+
+                JsonToken valor = p.nextToken();
+                if (valor != JsonToken.VALUE_NUMBER_INT || p.getNumberType() != JsonParser.NumberType.INT
+                        || p.getIntValue() < 0) {
+                    throw new IllegalArgumentException("quantidade inválida para "
+                            + new String(nome, 0, comprimento) + ": " + p.getText());
+                }
+                c.juntar(CharBuffer.wrap(nome, 0, comprimento), p.getIntValue());
+            }
+            if (token != JsonToken.END_OBJECT || p.nextToken() != null) {
+                throw new IllegalArgumentException("o stock tem de ser um objeto {alimento: quantidade}");
+            }
+        }
+        if (c.linhas == 0) {
+            throw new IllegalArgumentException("stock vazio");
+        }
+        return new CatalogoStock(c);
+    }
+
+    /**
+     * Cria o catálogo a partir de um mapa, pela ordem de iteração do mapa.
+     *
+     * @param stock quantidade de cada alimento.
+     * @return catálogo com as quantidades do mapa.
+     */
+    public static CatalogoStock de(Map<String, Integer> stock) {
+        Construtor c = new Construtor();
+        for (Map.Entry<String, Integer> e : stock.entrySet()) {
+            c.juntar(e.getKey(), e.getValue());
+        }
+        return new CatalogoStock(c);
+    }
+
+    /**
+     * @return dicionário dos alimentos do catálogo.
+     */
+    public DicionarioAlimentos getDicionario() {
+        return dicionario;
+    }
+
+    /**
+     * @return número de alimentos distintos, depois de juntar as grafias repetidas.
+     */
+    public int tamanho() {
+        return dicionario.tamanho();
+    }
+
+    /**
+     * @param id identificador do alimento no {@linkplain #getDicionario() dicionário}.
+     * @return quantidade do alimento.
+     */
+    public int quantidade(int id) {
+        return quantidades[id];
+    }
+
+    /**
+     * @return número de linhas lidas, contando as grafias repetidas.
+     */
+    public int getLinhas() {
+        return linhas;
+    }
+
+    /**
+     * Junta alimentos e quantidades um de cada vez. Os identificadores são os do
+     * {@link DicionarioAlimentos.Construtor} usado para os nomes.
+     */
+    static final class Construtor {
+
+        final DicionarioAlimentos.Construtor nomes = new DicionarioAlimentos.Construtor();
+        private int[] quantidades = new int[1 << 8];
+        /** Alimentos com quantidade definida; os identificadores são atribuídos por ordem. */
+        private int definidos;
+        private int linhas;
+
+        /**
+         * Junta um alimento listado no ficheiro de stock. Um alimento já listado (noutra
+         * grafia) fica com a maior das duas quantidades.
+         */
+        void juntar(CharSequence nome, int quantidade) {
+            int id = nomes.acrescentar(nome);
+            if (id < definidos && quantidades[id] != quantidade) {
+                Registo.aviso("Stock de %s com quantidades diferentes (%d e %d); fica a maior",
+                        nome.toString(), quantidades[id], quantidade);
+                quantidade = Math.max(quantidade, quantidades[id]);
+            }
+            definir(id, quantidade);
+            linhas++;
+        }
+
+        /**
+         * Garante que o alimento existe; se ainda não existir, fica com a quantidade indicada.
+         *
+         * @return identificador do alimento.
+         */
+        int garantir(CharSequence nome, int quantidade) {
+            int id = nomes.acrescentar(nome);
+            if (id >= definidos) {
+                definir(id, quantidade);
+            }
+            return id;
+        }
+
+        /**
+         * @return catálogo com os alimentos juntados; o construtor não deve voltar a ser usado.
+         */
+        CatalogoStock construir() {
+            return new CatalogoStock(this);
+        }
+
+        private void definir(int id, int quantidade) {
+            if (id >= quantidades.length) {
+                quantidades = Arrays.copyOf(quantidades, Math.max(quantidades.length * 2, id + 1));
+            }
+            quantidades[id] = quantidade;
+            definidos = Math.max(definidos, id + 1);
+        }
+    }
+
+    private static boolean emBranco(char[] nome, int comprimento) {
+        for (int i = 0; i < comprimento; i++) {
+            if (!Character.isWhitespace(nome[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
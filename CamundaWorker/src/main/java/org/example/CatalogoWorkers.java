@@ -0,0 +1,127 @@
+package org.example;
+
+import io.camunda.zeebe.client.ZeebeClient;
+import io.camunda.zeebe.client.api.worker.JobHandler;
+import io.camunda.zeebe.client.api.worker.JobWorker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Catálogo dos workers: cada tipo de job declara aqui o seu handler e as variáveis que lê,
+ * e o timeout, o {@code maxJobsActive} e o executor vêm de {@link ConfiguracaoWorkers}.
+ *
+ * <p>
+ * Ao abrir os workers ({@link #abrir(ZeebeClient)}), cada handler é instrumentado pelo
+ * {@link MetricasJob} do seu tipo e limitado às vagas de execução do tipo
+ * ({@link ExecucaoJobs#isolar(String, int, JobHandler)}). Com o controlo adaptativo ligado,
+ * o {@code maxJobsActive} de cada tipo é ajustado por um {@link ControladorConcorrencia}, e o
+ * worker é reaberto com o novo limite sempre que este muda.
+ * </p>
+ */
+public class CatalogoWorkers {
+
+    private final ConfiguracaoWorkers configuracao;
+    private final Map<String, Definicao> definicoes = new LinkedHashMap<>();
+    private final Map<String, JobWorker> abertos = new ConcurrentHashMap<>();
+
+    /**
+     * Cria um catálogo vazio.
+     *
+     * @param configuracao configuração dos workers por tipo de job.
+     */
+    public CatalogoWorkers(ConfiguracaoWorkers configuracao) {
+        this.configuracao = configuracao;
+    }
+
+    /**
+     * Devolve as métricas de um tipo de job, criadas com o timeout configurado para o tipo.
+     * Os handlers usam-nas para medir as etapas de descodificação e de negócio.
+     *
+     * @param jobType tipo de job.
+     * @return métricas do tipo de job.
+     */
+    public MetricasJob metricas(String jobType) {
+        return MetricasJobs.registar(jobType, configuracao.para(jobType).getTimeout());
+    }
+
+    /**
+     * Declara o handler de um tipo de job.
+     *
+     * @param jobType        tipo de job.
+     * @param handler        handler do worker.
+     * @param fetchVariables variáveis lidas pelo handler; o gateway só envia estas.
+     * @throws IllegalStateException se o tipo de job já tiver um handler.
+     */
+    public void registar(String jobType, JobHandler handler, String... fetchVariables) {
+        if (definicoes.putIfAbsent(jobType, new Definicao(handler, fetchVariables)) != null) {
+            throw new IllegalStateException("Tipo de job registado duas vezes: " + jobType);
+        }
+    }
+
+    /**
+     * Abre um worker por cada tipo de job declarado.
+     *
+     * @param client cliente Zeebe já ligado ao gateway.
+     */
+    public void abrir(ZeebeClient client) {
+        for (Map.Entry<String, Definicao> e : definicoes.entrySet()) {
+            String jobType = e.getKey();
+            Definicao definicao = e.getValue();
+            ConfiguracaoWorkers.Worker config = configuracao.para(jobType);
+            MetricasJob metricas = metricas(jobType);
+
+            JobHandler handler = ExecucaoJobs.isolar(jobType, config.getThreads(),
+                    metricas.instrumentar(definicao.handler));
+            if (ControladorConcorrencia.ativo()) {
+                ControladorConcorrencia controlador = ControladorConcorrencia.registar(jobType, config, metricas,
+                        limite -> reabrir(client, jobType, limite));
+                handler = controlador.instrumentar(handler);
+            }
+            definicao.aberto = handler;
+
+            abertos.put(jobType, abrirWorker(client, jobType, config.getMaxJobsActive()));
+            Registo.info("Worker %s: timeout %s, maxJobsActive %d", jobType,
+                    config.getTimeout(), config.getMaxJobsActive());
+        }
+    }
+
+    /**
+     * Substitui o worker de um tipo de job por outro com um novo {@code maxJobsActive}.
+     * O anterior é fechado antes de abrir o novo, para que os dois nunca ativem jobs ao
+     * mesmo tempo e o total ativado não passe a soma dos dois limites; os jobs já ativados
+     * pelo anterior continuam a ser tratados até ao fim.
+     */
+    private synchronized void reabrir(ZeebeClient client, String jobType, int maxJobsActive) {
+        JobWorker anterior = abertos.remove(jobType);
+        if (anterior != null) {
+            anterior.close();
+        }
+        abertos.put(jobType, abrirWorker(client, jobType, maxJobsActive));
+    }
+
+    private JobWorker abrirWorker(ZeebeClient client, String jobType, int maxJobsActive) {
+        Definicao definicao = definicoes.get(jobType);
+        return client.newWorker()
+                .jobType(jobType)
+                .handler(definicao.aberto)
+                .fetchVariables(definicao.fetchVariables)
+                .timeout(configuracao.para(jobType).getTimeout())
+                .maxJobsActive(maxJobsActive)
+                .open();
+    }
+
+    private static class Definicao {
+        final JobHandler handler;
+        final String[] fetchVariables;
+
+        /** Handler instrumentado e isolado, registado no worker aberto. */
+        JobHandler aberto;
+
+        Definicao(JobHandler handler, String[] fetchVariables) {
+            this.handler = handler;
+            this.fetchVariables = fetchVariables;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.example;
+
+/**
+ * Codificação de texto em código de barras Code 128, sem bibliotecas de imagem.
+ *
+ * <p>
+ * O resultado é a sequência de módulos do símbolo (barras e espaços de largura 1), do
+ * início ao fim do carácter de paragem, sem zonas de silêncio. O texto é escrito no
+ * conjunto B (ASCII imprimível), passa ao conjunto A para caracteres de controlo e ao
+ * conjunto C (dois algarismos por símbolo) nas sequências de algarismos longas o
+ * suficiente para encurtar o código: 4 ou mais no início ou no fim, 6 ou mais no meio.
+ * </p>
+ */
+public final class Codigo128 {
+
+    /** Larguras (barra, espaço, barra, espaço, barra, espaço) dos valores 0 a 105. */
+    private static final String PADROES =
+            "212222222122222221121223121322131222122213122312132212221213"
+                    + "221312231212112232122132122231113222123122123221223211221132"
+                    + "221231213212223112312131311222321122321221312212322112322211"
+                    + "212123212321232121111323131123131321112313132113132311211313"
+                    + "231113231311112133112331132131113123113321133121313121211331"
+                    + "231131213113213311213131311123311321331121312113312311332111"
+                    + "314111221411431111111224111422121124121421141122141221112214"
+                    + "112412122114122411142112142211241211221114413111241112134111"
+                    + "111242121142121241114212124112124211411212421112421211212141"
+                    + "214121412121111143111341131141114113114311411113411311113141"
+                    + "114131311141411131211412211214211232";
+    /** Carácter de paragem: 13 módulos, a terminar numa barra. */
+    private static final String PARAGEM = "2331112";
+
+    private static final int CODIGO_C = 99;
+    private static final int CODIGO_B = 100;
+    private static final int CODIGO_A = 101;
+    private static final int INICIO_A = 103;
+    private static final int INICIO_B = 104;
+    private static final int INICIO_C = 105;
+
+    private static final int CONJUNTO_A = 0;
+    private static final int CONJUNTO_B = 1;
+    private static final int CONJUNTO_C = 2;
+
+    private Codigo128() {
+    }
+
+    /**
+     * Codifica o texto.
+     *
+     * @param texto texto ASCII (códigos 0 a 127), não vazio.
+     * @return módulos do símbolo: {@code true} para barra, {@code false} para espaço.
+     * @throws IllegalArgumentException se o texto estiver vazio ou tiver caracteres fora do ASCII.
+     */
+    public static boolean[] codificar(CharSequence texto) {
+        int n = texto.length();
+        if (n == 0) {
+            throw new IllegalArgumentException("Code 128 sem texto");
+        }
+        // No pior caso cada carácter tem um valor e uma mudança de conjunto
+        int[] valores = new int[2 * n + 2];
+        int k = 0;
+
+        int algarismos = algarismos(texto, 0);
+        int conjunto;
+        if (algarismos % 2 == 0 && (algarismos >= 4 || algarismos == n)) {
+            conjunto = CONJUNTO_C;
+            valores[k++] = INICIO_C;
+        } else if (texto.charAt(0) < 32) {
+            conjunto = CONJUNTO_A;
+            valores[k++] = INICIO_A;
+        } else {
+            conjunto = CONJUNTO_B;
+            valores[k++] = INICIO_B;
+        }
+
+        int i = 0;
+        while (i < n) {
+            if (conjunto == CONJUNTO_C) {
+                if (algarismos(texto, i) >= 2) {
+                    valores[k++] = (texto.charAt(i) - '0') * 10 + (texto.charAt(i + 1) - '0');
+                    i += 2;
+                    continue;
+                }
+                conjunto = texto.charAt(i) < 32 ? CONJUNTO_A : CONJUNTO_B;
+                valores[k++] = conjunto == CONJUNTO_A ? CODIGO_A : CODIGO_B;
+            }
+
+            algarismos = algarismos(texto, i);
+            if (algarismos >= 6 || (algarismos >= 4 && i + algarismos == n)) {
+                if (algarismos % 2 == 1) {
+                    valores[k++] = texto.charAt(i++) - 32;
+                }
+                valores[k++] = CODIGO_C;
+                conjunto = CONJUNTO_C;
+                continue;
+            }
+
+            char c = texto.charAt(i++);
+            if (c > 127) {
+                throw new IllegalArgumentException("Code 128 só aceita ASCII: '" + c + "'");
+            }
+            if (conjunto == CONJUNTO_B && c < 32) {
+                valores[k++] = CODIGO_A;
+                conjunto = CONJUNTO_A;
+            } else if (conjunto == CONJUNTO_A && c >= 96) {
+                valores[k++] = CODIGO_B;
+                conjunto = CONJUNTO_B;
+            }
+            valores[k++] = conjunto == CONJUNTO_A && c < 32 ? c + 64 : c - 32;
+        }
+
+        int soma = valores[0];
+        for (int j = 1; j < k; j++) {
+            soma += valores[j] * j;
+        }
+        int verificacao = soma % 103;
+
+        boolean[] modulos = new boolean[(k + 1) * 11 + 13];
+        int posicao = 0;
+        for (int j = 0; j < k; j++) {
+            posicao = escrever(modulos, posicao, PADROES, valores[j] * 6, 6);
+        }
+        posicao = escrever(modulos, posicao, PADROES, verificacao * 6, 6);
+        escrever(modulos, posicao, PARAGEM, 0, 7);
+        return modulos;
+    }
+
+    /** Número de algarismos seguidos a partir de {@code inicio}. */
+    private static int algarismos(CharSequence texto, int inicio) {
+        int i = inicio;
+        while (i < texto.length() && texto.charAt(i) >= '0' && texto.charAt(i) <= '9') {
+            i++;
+        }
+        return i - inicio;
+    }
+
+    /** Escreve as barras e espaços de um padrão, a começar por uma barra. */
+    private static int escrever(boolean[] modulos, int posicao, String padroes, int inicio, int larguras) {
+        for (int j = 0; j < larguras; j++) {
+            boolean barra = j % 2 == 0;
+            for (int w = padroes.charAt(inicio + j) - '0'; w > 0; w--) {
+                modulos[posicao++] = barra;
+            }
+        }
+        return posicao;
+    }
+}
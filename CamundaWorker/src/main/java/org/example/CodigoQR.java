@@ -0,0 +1,535 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Código QR (ISO/IEC 18004) codificado em memória, sem bibliotecas de imagem.
+ *
+ * <p>
+ * Os dados são escritos em modo byte (texto em UTF-8), na versão mais pequena (1 a 40)
+ * em que cabem com o nível de correção pedido. A máscara é a de menor penalização entre
+ * as oito do padrão. O resultado é a matriz de módulos, sem a zona de silêncio de 4
+ * módulos à volta, que fica a cargo de quem desenha o símbolo.
+ * </p>
+ */
+public final class CodigoQR {
+
+    /** Nível de correção de erros: percentagem aproximada de símbolos recuperáveis. */
+    public enum Correcao {
+        /** ~7%. */
+        L(1, new byte[]{7, 10, 15, 20, 26, 18, 20, 24, 30, 18, 20, 24, 26, 30, 22, 24, 28, 30, 28, 28,
+                28, 28, 30, 30, 26, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+                new byte[]{1, 1, 1, 1, 1, 2, 2, 2, 2, 4, 4, 4, 4, 4, 6, 6, 6, 6, 7, 8,
+                        8, 9, 9, 10, 12, 12, 12, 13, 14, 15, 16, 17, 18, 19, 19, 20, 21, 22, 24, 25}),
+        /** ~15%. */
+        M(0, new byte[]{10, 16, 26, 18, 24, 16, 18, 22, 22, 26, 30, 22, 22, 24, 24, 28, 28, 26, 26, 26,
+                26, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28},
+                new byte[]{1, 1, 1, 2, 2, 4, 4, 4, 5, 5, 5, 8, 9, 9, 10, 10, 11, 13, 14, 16,
+                        17, 17, 18, 20, 21, 23, 25, 26, 28, 29, 31, 33, 35, 37, 38, 40, 43, 45, 47, 49}),
+        /** ~25%. */
+        Q(3, new byte[]{13, 22, 18, 26, 18, 24, 18, 22, 20, 24, 28, 26, 24, 20, 30, 24, 28, 28, 26, 30,
+                28, 30, 30, 30, 30, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+                new byte[]{1, 1, 2, 2, 4, 4, 6, 6, 8, 8, 8, 10, 12, 16, 12, 17, 16, 18, 21, 20,
+                        23, 23, 25, 27, 29, 34, 34, 35, 38, 40, 43, 45, 48, 51, 53, 56, 59, 62, 65, 68}),
+        /** ~30%. */
+        H(2, new byte[]{17, 28, 22, 16, 22, 28, 26, 26, 24, 28, 24, 28, 22, 24, 24, 30, 28, 28, 26, 28,
+                30, 24, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+                new byte[]{1, 1, 2, 4, 4, 4, 5, 6, 8, 8, 11, 11, 16, 16, 18, 16, 19, 21, 25, 25,
+                        25, 34, 30, 32, 35, 37, 40, 42, 45, 48, 51, 54, 57, 60, 63, 66, 70, 74, 77, 81});
+
+        /** Bits do nível na informação de formato. */
+        private final int bitsFormato;
+        /** Símbolos de correção por bloco e número de blocos, por versão (índice {@code versao - 1}). */
+        private final byte[] correcaoPorBloco;
+        private final byte[] blocos;
+
+        Correcao(int bitsFormato, byte[] correcaoPorBloco, byte[] blocos) {
+            this.bitsFormato = bitsFormato;
+            this.correcaoPorBloco = correcaoPorBloco;
+            this.blocos = blocos;
+        }
+
+        /**
+         * @return número de bytes de dados (incluindo o cabeçalho do segmento) na versão.
+         */
+        int bytesDados(int versao) {
+            return modulosDados(versao) / 8 - correcaoPorBloco[versao - 1] * blocos[versao - 1];
+        }
+    }
+
+    private static final int[] EXPOENTES = new int[255];
+    private static final int[] LOGARITMOS = new int[256];
+    /** Polinómios geradores Reed-Solomon, por grau (7 a 30), criados no primeiro uso. */
+    private static final byte[][] GERADORES = new byte[31][];
+    /** Padrões fixos e máscaras de cada versão, criados no primeiro uso. */
+    private static final Molde[] MOLDES = new Molde[41];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXPOENTES[i] = x;
+            LOGARITMOS[x] = i;
+            x <<= 1;
+            if (x >= 256) {
+                x ^= 0x11D;
+            }
+        }
+    }
+
+    private final int versao;
+    private final int tamanho;
+    private final Correcao correcao;
+    private final int mascara;
+    private final boolean[][] modulos;
+
+    private CodigoQR(int versao, Correcao correcao, int mascara, boolean[][] modulos) {
+        this.versao = versao;
+        this.tamanho = modulos.length;
+        this.correcao = correcao;
+        this.mascara = mascara;
+        this.modulos = modulos;
+    }
+
+    /**
+     * Codifica texto em UTF-8.
+     *
+     * @see #codificar(byte[], int, Correcao)
+     */
+    public static CodigoQR codificar(String texto, Correcao correcao) {
+        byte[] dados = texto.getBytes(StandardCharsets.UTF_8);
+        return codificar(dados, dados.length, correcao);
+    }
+
+    /**
+     * Codifica os primeiros {@code tamanho} bytes de {@code dados} em modo byte.
+     *
+     * @return o símbolo, na versão mais pequena em que os dados cabem.
+     * @throws IllegalArgumentException se os dados não couberem na versão 40.
+     */
+    public static CodigoQR codificar(byte[] dados, int tamanho, Correcao correcao) {
+        int versao = 1;
+        // Cabeçalho: 4 bits de modo e 8 (versões 1 a 9) ou 16 bits de comprimento
+        while (4 + (versao >= 10 ? 16 : 8) + 8L * tamanho > 8L * correcao.bytesDados(versao)) {
+            if (++versao > 40) {
+                throw new IllegalArgumentException("dados demasiado longos para um código QR: " + tamanho + " bytes");
+            }
+        }
+
+        // Segmento em modo byte: 0100, número de bytes (8 ou 16 bits), dados, terminador e enchimento
+        byte[] palavras = new byte[correcao.bytesDados(versao)];
+        int bit = 0;
+        bit = escreverBits(palavras, bit, 0b0100, 4);
+        bit = escreverBits(palavras, bit, tamanho, versao >= 10 ? 16 : 8);
+        for (int i = 0; i < tamanho; i++) {
+            bit = escreverBits(palavras, bit, dados[i] & 0xFF, 8);
+        }
+        bit = Math.min(bit + 4, palavras.length * 8);
+        for (int i = (bit + 7) / 8, enchimento = 0xEC; i < palavras.length; i++, enchimento ^= 0xEC ^ 0x11) {
+            palavras[i] = (byte) enchimento;
+        }
+
+        byte[] codigo = intercalar(palavras, versao, correcao);
+
+        Molde molde = molde(versao);
+        boolean[][] modulos = new boolean[molde.modulos.length][];
+        for (int y = 0; y < modulos.length; y++) {
+            modulos[y] = molde.modulos[y].clone();
+        }
+        colocarDados(modulos, molde.funcao, codigo);
+
+        int melhor = 0;
+        int menorPenalizacao = Integer.MAX_VALUE;
+        for (int m = 0; m < 8; m++) {
+            aplicarMascara(modulos, molde.mascaras[m]);
+            desenharFormato(modulos, null, correcao, m);
+            int penalizacao = penalizacao(modulos);
+            if (penalizacao < menorPenalizacao) {
+                melhor = m;
+                menorPenalizacao = penalizacao;
+            }
+            aplicarMascara(modulos, molde.mascaras[m]);
+        }
+        aplicarMascara(modulos, molde.mascaras[melhor]);
+        desenharFormato(modulos, null, correcao, melhor);
+        return new CodigoQR(versao, correcao, melhor, modulos);
+    }
+
+    /**
+     * @return versão do símbolo (1 a 40).
+     */
+    public int getVersao() {
+        return versao;
+    }
+
+    /**
+     * @return número de módulos de cada lado ({@code 4 * versão + 17}).
+     */
+    public int getTamanho() {
+        return tamanho;
+    }
+
+    /**
+     * @return nível de correção de erros.
+     */
+    public Correcao getCorrecao() {
+        return correcao;
+    }
+
+    /**
+     * @return máscara aplicada (0 a 7).
+     */
+    public int getMascara() {
+        return mascara;
+    }
+
+    /**
+     * @param x coluna, a partir da esquerda.
+     * @param y linha, a partir do topo.
+     * @return {@code true} se o módulo for escuro.
+     */
+    public boolean escuro(int x, int y) {
+        return modulos[y][x];
+    }
+
+    /** Número de módulos disponíveis para dados e correção numa versão. */
+    private static int modulosDados(int versao) {
+        int resultado = (16 * versao + 128) * versao + 64;
+        if (versao >= 2) {
+            int alinhamentos = versao / 7 + 2;
+            resultado -= (25 * alinhamentos - 10) * alinhamentos - 55;
+            if (versao >= 7) {
+                resultado -= 36;
+            }
+        }
+        return resultado;
+    }
+
+    private static int escreverBits(byte[] destino, int bit, int valor, int n) {
+        for (int i = n - 1; i >= 0; i--, bit++) {
+            if (((valor >>> i) & 1) != 0) {
+                destino[bit >>> 3] |= (byte) (0x80 >>> (bit & 7));
+            }
+        }
+        return bit;
+    }
+
+    /** Divide os dados em blocos, acrescenta a correção Reed-Solomon de cada um e intercala-os. */
+    private static byte[] intercalar(byte[] dados, int versao, Correcao correcao) {
+        int blocos = correcao.blocos[versao - 1];
+        int porBloco = correcao.correcaoPorBloco[versao - 1];
+        int total = modulosDados(versao) / 8;
+        int curtos = blocos - total % blocos;
+        int tamanhoCurto = total / blocos;
+        byte[] gerador = gerador(porBloco);
+
+        byte[] resultado = new byte[total];
+        byte[] restoBloco = new byte[porBloco];
+        int inicio = 0;
+        for (int b = 0; b < blocos; b++) {
+            int n = tamanhoCurto - porBloco + (b < curtos ? 0 : 1);
+            // Dados: byte i do bloco b vai para i * blocos + b, mas os blocos curtos não têm o último
+            for (int i = 0; i < n; i++) {
+                int destino = i < tamanhoCurto - porBloco ? i * blocos + b
+                        : (tamanhoCurto - porBloco) * blocos + (b - curtos);
+                resultado[destino] = dados[inicio + i];
+            }
+            resto(dados, inicio, n, gerador, restoBloco);
+            int baseCorrecao = total - porBloco * blocos;
+            for (int i = 0; i < porBloco; i++) {
+                resultado[baseCorrecao + i * blocos + b] = restoBloco[i];
+            }
+            inicio += n;
+        }
+        return resultado;
+    }
+
+    private static synchronized Molde molde(int versao) {
+        Molde molde = MOLDES[versao];
+        if (molde == null) {
+            molde = new Molde(versao);
+            MOLDES[versao] = molde;
+        }
+        return molde;
+    }
+
+    private static synchronized byte[] gerador(int grau) {
+        byte[] g = GERADORES[grau];
+        if (g == null) {
+            g = new byte[grau];
+            g[grau - 1] = 1;
+            int raiz = 1;
+            for (int i = 0; i < grau; i++) {
+                for (int j = 0; j < grau; j++) {
+                    g[j] = (byte) multiplicar(g[j] & 0xFF, raiz);
+                    if (j + 1 < grau) {
+                        g[j] ^= g[j + 1];
+                    }
+                }
+                raiz = multiplicar(raiz, 2);
+            }
+            GERADORES[grau] = g;
+        }
+        return g;
+    }
+
+    private static void resto(byte[] dados, int inicio, int n, byte[] gerador, byte[] resto) {
+        Arrays.fill(resto, (byte) 0);
+        for (int i = inicio; i < inicio + n; i++) {
+            int fator = (dados[i] ^ resto[0]) & 0xFF;
+            System.arraycopy(resto, 1, resto, 0, resto.length - 1);
+            resto[resto.length - 1] = 0;
+            for (int j = 0; j < resto.length; j++) {
+                resto[j] ^= (byte) multiplicar(gerador[j] & 0xFF, fator);
+            }
+        }
+    }
+
+    private static int multiplicar(int a, int b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        return EXPOENTES[(LOGARITMOS[a] + LOGARITMOS[b]) % 255];
+    }
+
+    /** Padrões de localização, temporização e alinhamento, informação de versão e módulo escuro. */
+    private static void desenharPadroes(boolean[][] modulos, boolean[][] funcao, int versao) {
+        int lado = modulos.length;
+        for (int i = 0; i < lado; i++) {
+            marcar(modulos, funcao, 6, i, i % 2 == 0);
+            marcar(modulos, funcao, i, 6, i % 2 == 0);
+        }
+
+        localizacao(modulos, funcao, 3, 3);
+        localizacao(modulos, funcao, lado - 4, 3);
+        localizacao(modulos, funcao, 3, lado - 4);
+
+        int[] posicoes = alinhamentos(versao);
+        for (int i = 0; i < posicoes.length; i++) {
+            for (int j = 0; j < posicoes.length; j++) {
+                boolean canto = (i == 0 && j == 0) || (i == 0 && j == posicoes.length - 1)
+                        || (i == posicoes.length - 1 && j == 0);
+                if (!canto) {
+                    for (int dy = -2; dy <= 2; dy++) {
+                        for (int dx = -2; dx <= 2; dx++) {
+                            marcar(modulos, funcao, posicoes[i] + dx, posicoes[j] + dy,
+                                    Math.max(Math.abs(dx), Math.abs(dy)) != 1);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Reserva as zonas do formato, escritas depois de escolhida a máscara
+        desenharFormato(modulos, funcao, Correcao.M, 0);
+
+        if (versao >= 7) {
+            int resto = versao;
+            for (int i = 0; i < 12; i++) {
+                resto = (resto << 1) ^ ((resto >>> 11) * 0x1F25);
+            }
+            int bits = versao << 12 | resto;
+            for (int i = 0; i < 18; i++) {
+                boolean escuro = ((bits >>> i) & 1) != 0;
+                int a = lado - 11 + i % 3;
+                int b = i / 3;
+                marcar(modulos, funcao, a, b, escuro);
+                marcar(modulos, funcao, b, a, escuro);
+            }
+        }
+    }
+
+    private static void localizacao(boolean[][] modulos, boolean[][] funcao, int cx, int cy) {
+        int lado = modulos.length;
+        for (int dy = -4; dy <= 4; dy++) {
+            for (int dx = -4; dx <= 4; dx++) {
+                int x = cx + dx;
+                int y = cy + dy;
+                if (x >= 0 && x < lado && y >= 0 && y < lado) {
+                    int distancia = Math.max(Math.abs(dx), Math.abs(dy));
+                    marcar(modulos, funcao, x, y, distancia != 2 && distancia != 4);
+                }
+            }
+        }
+    }
+
+    /** Centros dos padrões de alinhamento, em cada eixo. */
+    private static int[] alinhamentos(int versao) {
+        if (versao == 1) {
+            return new int[0];
+        }
+        int n = versao / 7 + 2;
+        int passo = versao == 32 ? 26 : (versao * 4 + n * 2 + 1) / (n * 2 - 2) * 2;
+        int[] posicoes = new int[n];
+        posicoes[0] = 6;
+        for (int i = n - 1, p = versao * 4 + 10; i >= 1; i--, p -= passo) {
+            posicoes[i] = p;
+        }
+        return posicoes;
+    }
+
+    /** Escreve as duas cópias da informação de formato (nível e máscara, BCH 15,5) e o módulo escuro. */
+    private static void desenharFormato(boolean[][] modulos, boolean[][] funcao, Correcao correcao, int mascara) {
+        int lado = modulos.length;
+        int dados = correcao.bitsFormato << 3 | mascara;
+        int resto = dados;
+        for (int i = 0; i < 10; i++) {
+            resto = (resto << 1) ^ ((resto >>> 9) * 0x537);
+        }
+        int bits = (dados << 10 | resto) ^ 0x5412;
+
+        for (int i = 0; i <= 5; i++) {
+            marcar(modulos, funcao, 8, i, bit(bits, i));
+        }
+        marcar(modulos, funcao, 8, 7, bit(bits, 6));
+        marcar(modulos, funcao, 8, 8, bit(bits, 7));
+        marcar(modulos, funcao, 7, 8, bit(bits, 8));
+        for (int i = 9; i < 15; i++) {
+            marcar(modulos, funcao, 14 - i, 8, bit(bits, i));
+        }
+        for (int i = 0; i < 8; i++) {
+            marcar(modulos, funcao, lado - 1 - i, 8, bit(bits, i));
+        }
+        for (int i = 8; i < 15; i++) {
+            marcar(modulos, funcao, 8, lado - 15 + i, bit(bits, i));
+        }
+        marcar(modulos, funcao, 8, lado - 8, true);
+    }
+
+    private static boolean bit(int valor, int i) {
+        return ((valor >>> i) & 1) != 0;
+    }
+
+    /** Desenha um módulo de um padrão fixo; {@code funcao} é {@code null} fora do {@link Molde}. */
+    private static void marcar(boolean[][] modulos, boolean[][] funcao, int x, int y, boolean escuro) {
+        modulos[y][x] = escuro;
+        if (funcao != null) {
+            funcao[y][x] = true;
+        }
+    }
+
+    /** Coloca os bits em ziguezague, em pares de colunas da direita para a esquerda. */
+    private static void colocarDados(boolean[][] modulos, boolean[][] funcao, byte[] codigo) {
+        int lado = modulos.length;
+        int i = 0;
+        for (int direita = lado - 1; direita >= 1; direita -= 2) {
+            if (direita == 6) {
+                direita = 5;
+            }
+            boolean subir = ((direita + 1) & 2) == 0;
+            for (int v = 0; v < lado; v++) {
+                int y = subir ? lado - 1 - v : v;
+                for (int j = 0; j < 2; j++) {
+                    int x = direita - j;
+                    if (!funcao[y][x] && i < codigo.length * 8) {
+                        modulos[y][x] = ((codigo[i >>> 3] >>> (7 - (i & 7))) & 1) != 0;
+                        i++;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Inverte os módulos selecionados pela máscara; aplicar duas vezes desfaz. */
+    private static void aplicarMascara(boolean[][] modulos, boolean[][] mascara) {
+        for (int y = 0; y < modulos.length; y++) {
+            boolean[] linha = modulos[y];
+            boolean[] inverter = mascara[y];
+            for (int x = 0; x < linha.length; x++) {
+                linha[x] ^= inverter[x];
+            }
+        }
+    }
+
+    /** Condições das oito máscaras do padrão, para a coluna {@code x} e a linha {@code y}. */
+    private static boolean inverter(int mascara, int x, int y) {
+        switch (mascara) {
+            case 0: return (x + y) % 2 == 0;
+            case 1: return y % 2 == 0;
+            case 2: return x % 3 == 0;
+            case 3: return (x + y) % 3 == 0;
+            case 4: return (x / 3 + y / 2) % 2 == 0;
+            case 5: return x * y % 2 + x * y % 3 == 0;
+            case 6: return (x * y % 2 + x * y % 3) % 2 == 0;
+            default: return ((x + y) % 2 + x * y % 3) % 2 == 0;
+        }
+    }
+
+    /** Penalização do padrão para a escolha da máscara (regras N1 a N4). */
+    private static int penalizacao(boolean[][] modulos) {
+        int lado = modulos.length;
+        int resultado = 0;
+        int escuros = 0;
+        for (int a = 0; a < lado; a++) {
+            resultado += penalizacaoLinha(modulos, a, true) + penalizacaoLinha(modulos, a, false);
+            for (int b = 0; b < lado; b++) {
+                if (modulos[a][b]) {
+                    escuros++;
+                }
+                if (a + 1 < lado && b + 1 < lado) {
+                    boolean c = modulos[a][b];
+                    if (c == modulos[a][b + 1] && c == modulos[a + 1][b] && c == modulos[a + 1][b + 1]) {
+                        resultado += 3;
+                    }
+                }
+            }
+        }
+        int total = lado * lado;
+        int k = (Math.abs(escuros * 20 - total * 10) + total - 1) / total - 1;
+        return resultado + k * 10;
+    }
+
+    /** Sequências de 5 ou mais módulos iguais e padrões 1:1:3:1:1 com 4 claros de um dos lados. */
+    private static int penalizacaoLinha(boolean[][] modulos, int a, boolean horizontal) {
+        int lado = modulos.length;
+        int resultado = 0;
+        int sequencia = 0;
+        boolean anterior = false;
+        int padrao = 0;
+        for (int b = 0; b < lado; b++) {
+            boolean c = horizontal ? modulos[a][b] : modulos[b][a];
+            if (b > 0 && c == anterior) {
+                sequencia++;
+                if (sequencia == 5) {
+                    resultado += 3;
+                } else if (sequencia > 5) {
+                    resultado++;
+                }
+            } else {
+                sequencia = 1;
+            }
+            anterior = c;
+            padrao = ((padrao << 1) | (c ? 1 : 0)) & 0x7FF;
+            if (b >= 10 && (padrao == 0b10111010000 || padrao == 0b00001011101)) {
+                resultado += 40;
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Padrões fixos de uma versão (localização, temporização, alinhamento, versão e zonas
+     * do formato) e as oito máscaras já restritas aos módulos de dados. Só de leitura
+     * depois de criado, partilhado por todos os símbolos da versão.
+     */
+    private static final class Molde {
+        final boolean[][] modulos;
+        final boolean[][] funcao;
+        final boolean[][][] mascaras = new boolean[8][][];
+
+        Molde(int versao) {
+            int lado = versao * 4 + 17;
+            modulos = new boolean[lado][lado];
+            funcao = new boolean[lado][lado];
+            desenharPadroes(modulos, funcao, versao);
+            for (int m = 0; m < 8; m++) {
+                mascaras[m] = new boolean[lado][lado];
+                for (int y = 0; y < lado; y++) {
+                    for (int x = 0; x < lado; x++) {
+                        mascaras[m][y][x] = !funcao[y][x] && inverter(m, x, y);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.camunda.zeebe.client.api.response.ActivatedJob;
+import io.camunda.zeebe.client.api.worker.JobClient;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Classe responsável por completar e falhar jobs Zeebe de forma assíncrona.
+ *
+ * <p>
+ * Em vez de bloquear a thread do worker com {@code send().join()} durante a ida e volta
+ * ao gateway, os handlers chamam {@link #completar(JobClient, ActivatedJob, Map)} ou
+ * {@link #falhar(JobClient, ActivatedJob, int, String)}, que enviam o comando e
+ * encadeiam o tratamento da resposta no futuro devolvido.
+ * </p>
+ *
+ * <p>
+ * O número de comandos em curso é limitado por tipo de job (propriedade de sistema
+ * {@code worker.conclusoes.<jobType>}, omissão {@link #LIMITE_OMISSAO}). Quando o limite
+ * é atingido, o handler espera até uma resposta chegar; como o handler ainda não
+ * terminou, o worker deixa de ativar novos jobs desse tipo até haver capacidade.
+ * </p>
+ *
+ * <p>
+ * Com {@link #completarAlteracoes(JobClient, ActivatedJob, VariaveisJob, Map)} apenas as
+ * variáveis alteradas pelo handler são enviadas, em vez de todo o mapa de variáveis
+ * recebido. Variáveis devolvidas com o mesmo valor que tinham à entrada são assinaladas
+ * e retiradas do envio.
+ * </p>
+ */
+public class ConclusaoJobs {
+
+    /** Número máximo de comandos de conclusão em curso por tipo de job, quando não configurado. */
+    public static final int LIMITE_OMISSAO = 16;
+
+    /** Semáforos que limitam os comandos em curso, um por tipo de job. */
+    private static final Map<String, Semaphore> limites = new ConcurrentHashMap<>();
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** Bytes de variáveis enviados nas conclusões por alterações. */
+    private static final AtomicLong bytesEnviados = new AtomicLong();
+
+    /** Bytes que seriam reenviados se as variáveis de entrada fossem devolvidas por inteiro. */
+    private static final AtomicLong bytesPoupados = new AtomicLong();
+
+    /**
+     * Completa o job com as variáveis indicadas, sem esperar pela resposta do gateway.
+     *
+     * @param jobClient cliente para envio de comandos relacionados com o job.
+     * @param job       job a completar.
+     * @param variaveis variáveis de saída do job.
+     * @return estágio concluído quando o gateway confirmar (ou recusar) o comando.
+     */
+    public static CompletionStage<?> completar(JobClient jobClient, ActivatedJob job, Map<String, Object> variaveis) {
+        return enviar(() -> jobClient.newCompleteCommand(job.getKey())
+                .variables(variaveis)
+                .send(), job, "completar", -1);
+    }
+
+    /**
+     * Completa o job com variáveis que descrevem um erro do handler (por exemplo,
+     * {@code etiquetaGerada = false}), para o processo decidir o que fazer sem o job
+     * ficar em incidente. Para o gateway é uma conclusão normal, mas nas métricas do tipo
+     * de job ({@link MetricasJob}) conta como falha e não como sucesso.
+     *
+     * @param jobClient cliente para envio de comandos relacionados com o job.
+     * @param job       job a completar.
+     * @param variaveis variáveis de erro do job.
+     * @return estágio concluído quando o gateway confirmar (ou recusar) o comando.
+     */
+    public static CompletionStage<?> completarComErro(JobClient jobClient, ActivatedJob job,
+                                                      Map<String, Object> variaveis) {
+        return enviar(() -> jobClient.newCompleteCommand(job.getKey())
+                .variables(variaveis)
+                .send(), job, "completar", 0);
+    }
+
+    /**
+     * Completa o job enviando apenas as variáveis alteradas pelo handler.
+     *
+     * <p>
+     * Cada variável de {@code alteracoes} que já existia na entrada com o mesmo valor é
+     * assinalada como eco desnecessário e não é enviada. O documento JSON é serializado
+     * uma única vez, e o seu tamanho é somado a {@link #bytesEnviados()}; o tamanho em
+     * bytes UTF-8 das variáveis de entrada que ficaram fora do envio
+     * ({@link VariaveisJob#bytesOmitidos(java.util.Set)}) é somado a {@link #bytesPoupados()}.
+     * </p>
+     *
+     * @param jobClient  cliente para envio de comandos relacionados com o job.
+     * @param job        job a completar.
+     * @param entrada    variáveis recebidas pelo handler.
+     * @param alteracoes variáveis novas ou alteradas pelo handler.
+     * @return estágio concluído quando o gateway confirmar (ou recusar) o comando.
+     * @throws JsonProcessingException se alguma variável não puder ser serializada.
+     */
+    public static CompletionStage<?> completarAlteracoes(JobClient jobClient, ActivatedJob job,
+                                                        VariaveisJob entrada,
+                                                        Map<String, Object> alteracoes)
+            throws JsonProcessingException {
+        Map<String, Object> delta = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> e : alteracoes.entrySet()) {
+            if (entrada.containsKey(e.getKey()) && Objects.equals(entrada.get(e.getKey()), e.getValue())) {
+                Registo.registar(Registo.Nivel.AVISO, job,
+                        "Variável '%s' devolvida sem alterações; não será enviada.", e.getKey());
+            } else {
+                delta.put(e.getKey(), e.getValue());
+            }
+        }
+
+        String json = MAPPER.writeValueAsString(delta);
+        int enviados = json.getBytes(StandardCharsets.UTF_8).length;
+        long poupados = entrada.bytesOmitidos(delta.keySet());
+        bytesEnviados.addAndGet(enviados);
+        bytesPoupados.addAndGet(poupados);
+        Registo.registar(Registo.Nivel.DEBUG, job, "Variáveis enviadas: %d bytes (poupados %d bytes)",
+                enviados, poupados);
+
+        return enviar(() -> jobClient.newCompleteCommand(job.getKey())
+                .variables(json)
+                .send(), job, "completar", -1);
+    }
+
+    /**
+     * Falha o job com a mensagem indicada, sem esperar pela resposta do gateway.
+     *
+     * @param jobClient cliente para envio de comandos relacionados com o job.
+     * @param job       job a falhar.
+     * @param retries   número de tentativas restantes.
+     * @param mensagem  mensagem de erro a registar no job.
+     * @return estágio concluído quando o gateway confirmar (ou recusar) o comando.
+     */
+    public static CompletionStage<?> falhar(JobClient jobClient, ActivatedJob job, int retries, String mensagem) {
+        return enviar(() -> jobClient.newFailCommand(job.getKey())
+                .retries(retries)
+                .errorMessage(mensagem)
+                .send(), job, "falhar", retries);
+    }
+
+    /**
+     * Devolve o número de comandos de conclusão em curso para um tipo de job.
+     *
+     * @param jobType tipo de job.
+     * @return número de comandos enviados e ainda sem resposta.
+     */
+    public static int emCurso(String jobType) {
+        Semaphore limite = limites.get(jobType);
+        return limite == null ? 0 : limiteConfigurado(jobType) - limite.availablePermits();
+    }
+
+    /**
+     * Devolve o total de bytes de variáveis enviados pelas conclusões por alterações.
+     *
+     * @return bytes enviados desde o arranque.
+     */
+    public static long bytesEnviados() {
+        return bytesEnviados.get();
+    }
+
+    /**
+     * Devolve o total de bytes que deixaram de ser reenviados ao gateway por as
+     * conclusões enviarem apenas as alterações.
+     *
+     * @return bytes poupados desde o arranque.
+     */
+    public static long bytesPoupados() {
+        return bytesPoupados.get();
+    }
+
+    /**
+     * Ocupa uma vaga de comando em curso e envia o comando criado por {@code comando}. Se
+     * a criação ou o envio falharem logo na chamada (por exemplo, variáveis que não podem
+     * ser convertidas em JSON), a vaga é libertada antes de a exceção ser propagada; sem
+     * isso, cada falha deixaria uma vaga ocupada até o tipo de job bloquear.
+     */
+    private static <T> CompletionStage<T> enviar(Supplier<CompletionStage<T>> comando, ActivatedJob job,
+                                                 String acao, int retriesFalha) {
+        Semaphore limite = reservar(job.getType());
+        long enviadoEm = System.nanoTime();
+        CompletionStage<T> envio;
+        try {
+            envio = comando.get();
+        } catch (RuntimeException | Error e) {
+            limite.release();
+            throw e;
+        }
+        return aoResponder(envio, limite, job, acao, enviadoEm, retriesFalha);
+    }
+
+    /**
+     * Liberta a vaga ocupada pelo comando quando chegar a resposta do gateway, regista
+     * eventuais erros e atualiza as métricas do tipo de job ({@link MetricasJob}): duração
+     * da etapa de conclusão e contadores de sucesso, falha e nova tentativa.
+     * {@code retriesFalha} é {@code -1} para conclusões, {@code 0} para conclusões com
+     * variáveis de erro e o número de tentativas restantes para falhas.
+     */
+    private static <T> CompletionStage<T> aoResponder(CompletionStage<T> envio, Semaphore limite,
+                                                      ActivatedJob job, String acao,
+                                                      long enviadoEm, int retriesFalha) {
+        return envio.whenComplete((resposta, erro) -> {
+            limite.release();
+            MetricasJob metricas = MetricasJobs.para(job.getType());
+            if (metricas != null) {
+                metricas.registar(MetricasJob.Etapa.CONCLUSAO, System.nanoTime() - enviadoEm);
+            }
+            if (erro != null) {
+                Registo.registar(Registo.Nivel.ERRO, job, "ERRO ao %s job: %s", acao, erro.getMessage());
+            }
+            if (metricas != null) {
+                if (erro != null || retriesFalha == 0) {
+                    metricas.falhas.increment();
+                } else if (retriesFalha > 0) {
+                    metricas.retentativas.increment();
+                } else {
+                    metricas.sucessos.increment();
+                }
+            }
+        });
+    }
+
+    /**
+     * Ocupa uma vaga de comando em curso para o tipo de job, esperando se o limite foi atingido.
+     *
+     * @param jobType tipo de job.
+     * @return semáforo onde a vaga deve ser libertada quando chegar a resposta.
+     */
+    private static Semaphore reservar(String jobType) {
+        Semaphore limite = limites.computeIfAbsent(jobType, t -> new Semaphore(limiteConfigurado(t)));
+        limite.acquireUninterruptibly();
+        return limite;
+    }
+
+    private static int limiteConfigurado(String jobType) {
+        return Integer.getInteger("worker.conclusoes." + jobType, LIMITE_OMISSAO);
+    }
+}
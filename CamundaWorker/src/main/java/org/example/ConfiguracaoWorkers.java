@@ -0,0 +1,168 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Configuração dos workers por tipo de job: timeout, {@code maxJobsActive} (inicial e
+ * limites do controlo adaptativo) e número de threads do executor próprio do tipo.
+ *
+ * <p>
+ * É lida do ficheiro indicado pela propriedade de sistema {@code workers.config} ou, na
+ * sua falta, do recurso {@code workers.properties}. Cada tipo de job usa as chaves
+ * {@code <jobType>.timeout} (duração ISO-8601), {@code <jobType>.maxJobsActive},
+ * {@code <jobType>.maxJobsActiveMin}, {@code <jobType>.maxJobsActiveMax} e
+ * {@code <jobType>.threads}; os valores em falta tomam os valores por omissão. No modo
+ * virtual, o {@code maxJobsActive} inicial vem de {@code worker.concorrencia.<jobType>}
+ * ({@link ExecucaoJobs#maxJobsActive(String, int)}).
+ * </p>
+ */
+public class ConfiguracaoWorkers {
+
+    /** Recurso lido quando {@code workers.config} não está definido. */
+    public static final String RECURSO_OMISSAO = "workers.properties";
+
+    /** Timeout usado quando o tipo de job não o configura. */
+    public static final Duration TIMEOUT_OMISSAO = Duration.ofMinutes(1);
+
+    /** {@code maxJobsActive} usado quando o tipo de job não o configura. */
+    public static final int MAX_JOBS_ATIVOS_OMISSAO = 5;
+
+    /**
+     * Múltiplo do {@code maxJobsActive} inicial usado como máximo do controlo adaptativo,
+     * quando o tipo de job não o configura.
+     */
+    public static final int FATOR_MAXIMO_OMISSAO = 4;
+
+    private final Properties propriedades;
+    private final Map<String, Worker> workers = new HashMap<>();
+
+    private ConfiguracaoWorkers(Properties propriedades) {
+        this.propriedades = propriedades;
+    }
+
+    /**
+     * Carrega a configuração do ficheiro {@code workers.config} ou do recurso por omissão.
+     *
+     * @return configuração carregada.
+     * @throws IllegalStateException se o ficheiro não existir ou não puder ser lido.
+     */
+    public static ConfiguracaoWorkers carregar() {
+        String caminho = System.getProperty("workers.config");
+        Properties p = new Properties();
+        try {
+            if (caminho != null) {
+                try (Reader r = Files.newBufferedReader(Path.of(caminho), StandardCharsets.UTF_8)) {
+                    p.load(r);
+                }
+            } else {
+                try (InputStream is = ConfiguracaoWorkers.class.getClassLoader()
+                        .getResourceAsStream(RECURSO_OMISSAO)) {
+                    if (is == null) {
+                        throw new IllegalStateException(RECURSO_OMISSAO + " não encontrado!");
+                    }
+                    p.load(new InputStreamReader(is, StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Erro ao ler a configuração dos workers: " + e.getMessage(), e);
+        }
+        Registo.info("Configuração dos workers lida de %s", caminho != null ? caminho : RECURSO_OMISSAO);
+        return new ConfiguracaoWorkers(p);
+    }
+
+    /**
+     * Devolve a configuração de um tipo de job.
+     *
+     * @param jobType tipo de job.
+     * @return configuração do tipo, com os valores por omissão nas chaves em falta.
+     * @throws IllegalArgumentException se algum valor configurado for inválido.
+     */
+    public synchronized Worker para(String jobType) {
+        return workers.computeIfAbsent(jobType, this::ler);
+    }
+
+    private Worker ler(String jobType) {
+        String timeoutStr = propriedades.getProperty(jobType + ".timeout");
+        Duration timeout = timeoutStr == null ? TIMEOUT_OMISSAO : Duration.parse(timeoutStr.trim());
+        int maxJobsAtivos = ExecucaoJobs.maxJobsActive(jobType,
+                inteiro(jobType + ".maxJobsActive", MAX_JOBS_ATIVOS_OMISSAO));
+        int minimo = inteiro(jobType + ".maxJobsActiveMin", 1);
+        int maximo = inteiro(jobType + ".maxJobsActiveMax", maxJobsAtivos * FATOR_MAXIMO_OMISSAO);
+        int threads = inteiro(jobType + ".threads", maxJobsAtivos);
+        if (timeout.isNegative() || timeout.isZero() || threads < 1
+                || minimo < 1 || minimo > maxJobsAtivos || maxJobsAtivos > maximo) {
+            throw new IllegalArgumentException("Configuração inválida para " + jobType);
+        }
+        return new Worker(timeout, maxJobsAtivos, minimo, maximo, threads);
+    }
+
+    private int inteiro(String chave, int omissao) {
+        String valor = propriedades.getProperty(chave);
+        return valor == null ? omissao : Integer.parseInt(valor.trim());
+    }
+
+    /**
+     * Configuração de um tipo de job.
+     */
+    public static class Worker {
+
+        private final Duration timeout;
+        private final int maxJobsActive;
+        private final int maxJobsActiveMin;
+        private final int maxJobsActiveMax;
+        private final int threads;
+
+        Worker(Duration timeout, int maxJobsActive, int maxJobsActiveMin, int maxJobsActiveMax, int threads) {
+            this.timeout = timeout;
+            this.maxJobsActive = maxJobsActive;
+            this.maxJobsActiveMin = maxJobsActiveMin;
+            this.maxJobsActiveMax = maxJobsActiveMax;
+            this.threads = threads;
+        }
+
+        /**
+         * @return tempo que o job fica reservado para o worker.
+         */
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        /**
+         * @return número máximo de jobs ativados pelo worker, no arranque.
+         */
+        public int getMaxJobsActive() {
+            return maxJobsActive;
+        }
+
+        /**
+         * @return menor {@code maxJobsActive} permitido ao controlo adaptativo.
+         */
+        public int getMaxJobsActiveMin() {
+            return maxJobsActiveMin;
+        }
+
+        /**
+         * @return maior {@code maxJobsActive} permitido ao controlo adaptativo.
+         */
+        public int getMaxJobsActiveMax() {
+            return maxJobsActiveMax;
+        }
+
+        /**
+         * @return número de handlers do tipo de job em execução ao mesmo tempo, no modo isolado.
+         */
+        public int getThreads() {
+            return threads;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Quantidades de cada alimento de um {@link LivroStock}: a disponível, a reservada e uma
+ * versão que aumenta a cada alteração da quantidade disponível.
+ *
+ * <p>
+ * Os métodos que alteram uma quantidade verificam-na e alteram-na como uma única operação
+ * e devolvem a nova quantidade disponível, para que o livro avalie os pontos de encomenda
+ * sem a voltar a ler. A implementação em memória ({@link Memoria}) conta com a listra do
+ * alimento bloqueada no livro; a partilhada entre processos ({@link StockPartilhado}) usa
+ * compare-and-set e pode recusar uma operação que a leitura anterior dava como possível.
+ * </p>
+ *
+ * <p>
+ * As operações sem verificações usadas para reconstruir um livro (repetição do diário,
+ * recuperação de reservas e recarga do ficheiro de stock) estão à parte, em
+ * {@link Reconstrucao}: só a implementação em memória as tem, porque a tabela partilhada
+ * nunca é reconstruída por este processo.
+ * </p>
+ */
+interface ContadoresStock {
+
+    /** @return número de alimentos. */
+    int tamanho();
+
+    /** @return quantidade disponível do alimento. */
+    int disponivel(int id);
+
+    /** @return quantidade reservada e ainda não confirmada do alimento. */
+    int reservado(int id);
+
+    /** @return versão da quantidade disponível do alimento. */
+    int versao(int id);
+
+    /**
+     * Passa {@code quantidade} de disponível para reservada, se houver.
+     *
+     * @return nova quantidade disponível, ou {@code -1} se não havia a quantidade.
+     */
+    int reservar(int id, int quantidade);
+
+    /**
+     * Devolve uma quantidade reservada ao stock disponível.
+     *
+     * @return nova quantidade disponível.
+     */
+    int libertar(int id, int quantidade);
+
+    /** Retira do stock uma quantidade reservada. */
+    void confirmar(int id, int quantidade);
+
+    /**
+     * Soma uma quantidade recebida ao stock disponível.
+     *
+     * @return nova quantidade disponível, ou {@code -1} se ultrapassasse {@link Integer#MAX_VALUE}.
+     */
+    int receber(int id, int quantidade);
+
+    /**
+     * Retira uma quantidade do stock disponível, se houver.
+     *
+     * @return nova quantidade disponível, ou {@code -1} se não havia a quantidade.
+     */
+    int retirar(int id, int quantidade);
+
+    /**
+     * Retira do stock disponível até {@code quantidade}, o que houver.
+     *
+     * @return quantidade retirada.
+     */
+    int retirarAte(int id, int quantidade);
+
+    /**
+     * Regista as linhas de uma reserva acabada de fazer, para que sejam devolvidas ao stock
+     * se este processo terminar sem as fechar. Os contadores em memória terminam com o
+     * processo e não registam nada.
+     *
+     * @return registo de cada linha, ou {@code null} se a reserva ficar sem registo.
+     */
+    default long[] registarReserva(int[] itens, int[] quantidades, int n, long expiraEm) {
+        return null;
+    }
+
+    /**
+     * Retira o registo de uma linha de reserva que vai ser fechada.
+     *
+     * @return {@code false} se a linha já foi devolvida ao stock por outro processo.
+     */
+    default boolean retirarRegisto(long registo) {
+        return true;
+    }
+
+    /**
+     * Contadores que podem ser reconstruídos sem verificações, enquanto o livro ainda não é
+     * partilhado entre threads.
+     */
+    interface Reconstrucao extends ContadoresStock {
+
+        /** Soma uma quantidade ao stock disponível, sem verificações (repetição do diário). */
+        void ajustar(int id, int quantidade);
+
+        /** Soma uma quantidade ao stock reservado, sem mexer no disponível (reservas recuperadas). */
+        void restaurarReservado(int id, int quantidade);
+
+        /** Define a quantidade disponível de um livro ainda não partilhado, sem mudar a versão. */
+        void definirDisponivel(int id, int quantidade);
+    }
+
+    /**
+     * Quantidades guardadas na memória do processo. Cada alimento só é alterado com a sua
+     * listra bloqueada no livro, pelo que há um só escritor por alimento e as leituras não
+     * usam locks.
+     */
+    final class Memoria implements Reconstrucao {
+
+        private final AtomicIntegerArray disponivel;
+        private final AtomicIntegerArray reservado;
+        private final AtomicIntegerArray versoes;
+
+        Memoria(CatalogoStock catalogo) {
+            int n = catalogo.tamanho();
+            disponivel = new AtomicIntegerArray(n);
+            reservado = new AtomicIntegerArray(n);
+            versoes = new AtomicIntegerArray(n);
+            for (int i = 0; i < n; i++) {
+                disponivel.set(i, catalogo.quantidade(i));
+            }
+        }
+
+        @Override
+        public int tamanho() {
+            return disponivel.length();
+        }
+
+        @Override
+        public int disponivel(int id) {
+            return disponivel.get(id);
+        }
+
+        @Override
+        public int reservado(int id) {
+            return reservado.get(id);
+        }
+
+        @Override
+        public int versao(int id) {
+            return versoes.get(id);
+        }
+
+        @Override
+        public int reservar(int id, int quantidade) {
+            if (disponivel.get(id) < quantidade) {
+                return -1;
+            }
+            int atual = disponivel.addAndGet(id, -quantidade);
+            alterado(id);
+            reservado.addAndGet(id, quantidade);
+            return atual;
+        }
+
+        @Override
+        public int libertar(int id, int quantidade) {
+            reservado.addAndGet(id, -quantidade);
+            int atual = disponivel.addAndGet(id, quantidade);
+            alterado(id);
+            return atual;
+        }
+
+        @Override
+        public void confirmar(int id, int quantidade) {
+            reservado.addAndGet(id, -quantidade);
+        }
+
+        @Override
+        public int receber(int id, int quantidade) {
+            if (disponivel.get(id) > Integer.MAX_VALUE - quantidade) {
+                return -1;
+            }
+            int atual = disponivel.addAndGet(id, quantidade);
+            alterado(id);
+            return atual;
+        }
+
+        @Override
+        public int retirar(int id, int quantidade) {
+            if (disponivel.get(id) < quantidade) {
+                return -1;
+            }
+            int atual = disponivel.addAndGet(id, -quantidade);
+            alterado(id);
+            return atual;
+        }
+
+        @Override
+        public int retirarAte(int id, int quantidade) {
+            int retirado = Math.min(quantidade, disponivel.get(id));
+            if (retirado > 0) {
+                disponivel.addAndGet(id, -retirado);
+                alterado(id);
+            }
+            return Math.max(retirado, 0);
+        }
+
+        @Override
+        public void ajustar(int id, int quantidade) {
+            disponivel.addAndGet(id, quantidade);
+            alterado(id);
+        }
+
+        @Override
+        public void restaurarReservado(int id, int quantidade) {
+            reservado.addAndGet(id, quantidade);
+        }
+
+        @Override
+        public void definirDisponivel(int id, int quantidade) {
+            disponivel.set(id, quantidade);
+        }
+
+        /** Um só escritor por alimento: não é preciso um incremento atómico. */
+        private void alterado(int id) {
+            versoes.setRelease(id, versoes.getPlain(id) + 1);
+        }
+    }
+}
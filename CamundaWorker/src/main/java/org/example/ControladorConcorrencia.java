@@ -0,0 +1,242 @@
+package org.example;
+
+import io.camunda.zeebe.client.api.response.ActivatedJob;
+import io.camunda.zeebe.client.api.worker.JobHandler;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Controlo adaptativo (AIMD) do {@code maxJobsActive} de um tipo de job.
+ *
+ * <p>
+ * Em cada janela ({@code worker.adaptativo.janela}, em milissegundos; omissão
+ * {@link #JANELA_OMISSAO_MS}) o controlador observa, para os jobs terminados nessa janela,
+ * o tempo desde a ativação até ao fim do handler e os resultados registados em
+ * {@link MetricasJob}. Há congestionamento se:
+ * <ul>
+ *     <li>algum job gastou mais de {@link #FRACAO_TIMEOUT_MAXIMA} do timeout;</li>
+ *     <li>a taxa de falhas e novas tentativas passou {@link #TAXA_ERROS_MAXIMA};</li>
+ *     <li>o tempo médio passou o dobro do tempo de referência (o menor tempo médio
+ *         observado, que sobe lentamente) mais {@link #FOLGA_LATENCIA_MS} ms.</li>
+ * </ul>
+ * Com congestionamento, o limite é multiplicado por {@link #FATOR_REDUCAO} e a janela seguinte
+ * não é avaliada, para que os jobs já ativados com o limite anterior não o voltem a reduzir.
+ * Sem congestionamento, o limite sobe uma unidade se tiver sido atingido durante a janela.
+ * O limite fica sempre entre o mínimo e o máximo configurados.
+ * </p>
+ *
+ * <p>
+ * O cliente Zeebe não permite alterar o {@code maxJobsActive} de um worker aberto; cada
+ * alteração é entregue ao {@link IntConsumer} indicado, que reabre o worker com o novo
+ * limite ({@link CatalogoWorkers}). O controlo pode ser desligado com
+ * {@code -Dworker.adaptativo=false}.
+ * </p>
+ */
+public class ControladorConcorrencia {
+
+    /** Duração da janela de avaliação, quando não configurada. */
+    public static final long JANELA_OMISSAO_MS = 1000;
+
+    /** Fração do timeout a partir da qual um job está em risco de ser entregue de novo. */
+    public static final double FRACAO_TIMEOUT_MAXIMA = 0.5;
+
+    /** Fração de jobs falhados ou devolvidos a partir da qual o limite é reduzido. */
+    public static final double TAXA_ERROS_MAXIMA = 0.1;
+
+    /** Fator aplicado ao limite quando há congestionamento. */
+    public static final double FATOR_REDUCAO = 0.7;
+
+    /** Aumento de tempo médio tolerado, além do dobro da referência, para jobs muito rápidos. */
+    public static final long FOLGA_LATENCIA_MS = 10;
+
+    private static final Map<String, ControladorConcorrencia> controladores = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService avaliacao;
+
+    private final String jobType;
+    private final long timeoutMs;
+    private final int minimo;
+    private final int maximo;
+    private final MetricasJob metricas;
+    private final IntConsumer aoAlterar;
+
+    private volatile int limite;
+
+    private final AtomicInteger emCurso = new AtomicInteger();
+    private final AtomicInteger maxEmCurso = new AtomicInteger();
+    private final LongAdder terminados = new LongAdder();
+    private final LongAdder somaLatenciaMs = new LongAdder();
+    private final AtomicLong maxLatenciaMs = new AtomicLong();
+
+    // Estado usado apenas pela thread de avaliação
+    private long sucessosAnteriores;
+    private long errosAnteriores;
+    private double referenciaMs = Double.NaN;
+    private boolean ignorarJanela;
+
+    ControladorConcorrencia(String jobType, Duration timeout, int inicial, int minimo, int maximo,
+                            MetricasJob metricas, IntConsumer aoAlterar) {
+        this.jobType = jobType;
+        this.timeoutMs = timeout.toMillis();
+        this.minimo = minimo;
+        this.maximo = maximo;
+        this.metricas = metricas;
+        this.aoAlterar = aoAlterar;
+        this.limite = Math.max(minimo, Math.min(maximo, inicial));
+    }
+
+    /**
+     * Indica se o controlo adaptativo está ligado ({@code worker.adaptativo}, omissão {@code true}).
+     *
+     * @return {@code true} se o {@code maxJobsActive} deve ser ajustado.
+     */
+    public static boolean ativo() {
+        return !"false".equalsIgnoreCase(System.getProperty("worker.adaptativo", "true").trim());
+    }
+
+    /**
+     * Cria o controlador de um tipo de job e inclui-o na avaliação periódica.
+     *
+     * @param jobType   tipo de job.
+     * @param config    configuração do tipo (timeout e limites de {@code maxJobsActive}).
+     * @param metricas  métricas do tipo, de onde são lidos os sucessos e as falhas.
+     * @param aoAlterar chamado com o novo limite sempre que este muda.
+     * @return controlador do tipo de job.
+     */
+    public static synchronized ControladorConcorrencia registar(String jobType, ConfiguracaoWorkers.Worker config,
+                                                                MetricasJob metricas, IntConsumer aoAlterar) {
+        ControladorConcorrencia c = new ControladorConcorrencia(jobType, config.getTimeout(),
+                config.getMaxJobsActive(), config.getMaxJobsActiveMin(), config.getMaxJobsActiveMax(),
+                metricas, aoAlterar);
+        controladores.put(jobType, c);
+        if (avaliacao == null) {
+            long janela = Long.getLong("worker.adaptativo.janela", JANELA_OMISSAO_MS);
+            avaliacao = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "controlo-concorrencia");
+                t.setDaemon(true);
+                return t;
+            });
+            avaliacao.scheduleAtFixedRate(ControladorConcorrencia::avaliarTodos, janela, janela, TimeUnit.MILLISECONDS);
+        }
+        return c;
+    }
+
+    /**
+     * Devolve o limite atual de um tipo de job.
+     *
+     * @param jobType tipo de job.
+     * @return {@code maxJobsActive} atual, ou {@code -1} se o tipo não tiver controlador.
+     */
+    public static int limite(String jobType) {
+        ControladorConcorrencia c = controladores.get(jobType);
+        return c == null ? -1 : c.limite;
+    }
+
+    /**
+     * @return {@code maxJobsActive} atual.
+     */
+    public int getLimite() {
+        return limite;
+    }
+
+    /**
+     * Envolve o handler para medir os jobs em curso e o tempo desde a ativação até ao fim
+     * do handler. Deve ser o invólucro exterior, para contar também a espera por uma vaga
+     * de execução do tipo de job.
+     *
+     * @param handler handler do worker.
+     * @return handler instrumentado.
+     */
+    public JobHandler instrumentar(JobHandler handler) {
+        return (jobClient, job) -> {
+            int n = emCurso.incrementAndGet();
+            maxEmCurso.accumulateAndGet(n, Math::max);
+            try {
+                handler.handle(jobClient, job);
+            } finally {
+                emCurso.decrementAndGet();
+                registarFim(job);
+            }
+        };
+    }
+
+    private void registarFim(ActivatedJob job) {
+        long ativadoEm = job.getDeadline() - timeoutMs;
+        long latencia = Math.max(0, System.currentTimeMillis() - ativadoEm);
+        terminados.increment();
+        somaLatenciaMs.add(latencia);
+        maxLatenciaMs.accumulateAndGet(latencia, Math::max);
+    }
+
+    private static void avaliarTodos() {
+        for (ControladorConcorrencia c : controladores.values()) {
+            try {
+                c.avaliar();
+            } catch (RuntimeException e) {
+                Registo.erro(e, "Erro no controlo de concorrência de %s", c.jobType);
+            }
+        }
+    }
+
+    /**
+     * Fecha a janela atual e ajusta o limite.
+     */
+    void avaliar() {
+        long n = terminados.sumThenReset();
+        long soma = somaLatenciaMs.sumThenReset();
+        long maxLatencia = maxLatenciaMs.getAndSet(0);
+        int saturacao = maxEmCurso.getAndSet(emCurso.get());
+
+        long sucessos = metricas.sucessos.sum();
+        long erros = metricas.falhas.sum() + metricas.retentativas.sum();
+        long novosSucessos = sucessos - sucessosAnteriores;
+        long novosErros = erros - errosAnteriores;
+        sucessosAnteriores = sucessos;
+        errosAnteriores = erros;
+
+        if (ignorarJanela) {
+            ignorarJanela = false;
+            return;
+        }
+        if (n == 0) {
+            return;
+        }
+
+        double media = (double) soma / n;
+        boolean latenciaAlta = !Double.isNaN(referenciaMs) && media > 2 * referenciaMs + FOLGA_LATENCIA_MS;
+        boolean pertoDoTimeout = maxLatencia > FRACAO_TIMEOUT_MAXIMA * timeoutMs;
+        long resultados = novosSucessos + novosErros;
+        boolean erroAlto = resultados > 0 && (double) novosErros / resultados > TAXA_ERROS_MAXIMA;
+
+        if (Double.isNaN(referenciaMs) || media < referenciaMs) {
+            referenciaMs = media;
+        } else if (!latenciaAlta) {
+            referenciaMs += (media - referenciaMs) * 0.05;
+        }
+
+        int atual = limite;
+        int novo = atual;
+        if (pertoDoTimeout || erroAlto || latenciaAlta) {
+            novo = Math.max(minimo, (int) (atual * FATOR_REDUCAO));
+            ignorarJanela = true;
+        } else if (saturacao >= atual) {
+            novo = Math.min(maximo, atual + 1);
+        }
+
+        if (novo != atual) {
+            limite = novo;
+            Registo.info("maxJobsActive de %s: %d -> %d (média %.1f ms, máx %d ms, erros %d/%d)",
+                    jobType, atual, novo, media, maxLatencia, novosErros, resultados);
+            aoAlterar.accept(novo);
+        }
+    }
+}
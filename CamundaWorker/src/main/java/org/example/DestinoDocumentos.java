@@ -0,0 +1,200 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Destino onde são guardados os documentos gerados pelos workers: etiquetas e relatórios
+ * de desperdício.
+ *
+ * <p>
+ * O destino é escolhido com a propriedade de sistema {@code documentos.destino}:
+ * <ul>
+ *     <li>{@code arquivo} (omissão) – {@link ArquivoDocumentos}: segmentos só de
+ *         acrescentar, escritos por uma thread própria com {@code fsync} em grupo;</li>
+ *     <li>{@code ficheiros} – {@link Ficheiros}: um ficheiro por documento, em
+ *         {@code etiquetas_geradas} e {@code relatorios}.</li>
+ * </ul>
+ * </p>
+ */
+public interface DestinoDocumentos extends AutoCloseable {
+
+    /**
+     * Tipos de documento, com a pasta e o nome dos ficheiros no destino {@link Ficheiros}.
+     * Novos tipos são acrescentados no fim: o arquivo guarda a posição do tipo.
+     */
+    enum Tipo {
+        /** Etiqueta de produto; o lote fica no nome só com letras, algarismos, {@code -} e {@code _}. */
+        ETIQUETA("etiquetas_geradas", "ETQ_", Pattern.compile("[^a-zA-Z0-9-_]"), "", ".txt"),
+        /** Relatório de desperdício; os caracteres do lote que não são letras nem algarismos passam a {@code _}. */
+        RELATORIO("relatorios", "DESP_", Pattern.compile("[^a-zA-Z0-9]"), "_", ".txt"),
+        /** Etiqueta de produto em ZPL ({@link EtiquetaZpl}), com os nomes de {@link #ETIQUETA}. */
+        ETIQUETA_ZPL("etiquetas_geradas", "ETQ_", Pattern.compile("[^a-zA-Z0-9-_]"), "", ".zpl");
+
+        private final String pasta;
+        private final String prefixo;
+        private final Pattern invalidos;
+        private final String substituto;
+        private final String extensao;
+
+        Tipo(String pasta, String prefixo, Pattern invalidos, String substituto, String extensao) {
+            this.pasta = pasta;
+            this.prefixo = prefixo;
+            this.invalidos = invalidos;
+            this.substituto = substituto;
+            this.extensao = extensao;
+        }
+
+        /**
+         * @return pasta dos ficheiros deste tipo.
+         */
+        public String getPasta() {
+            return pasta;
+        }
+
+        /**
+         * @return extensão dos ficheiros deste tipo, com o ponto.
+         */
+        public String getExtensao() {
+            return extensao;
+        }
+
+        /**
+         * @return lote com os caracteres que não podem ir no nome de um ficheiro tratados.
+         */
+        String lotePara(String lote) {
+            return invalidos.matcher(lote).replaceAll(substituto);
+        }
+    }
+
+    /**
+     * Guarda um documento.
+     *
+     * @param tipo     tipo do documento.
+     * @param id       identificador do documento (por exemplo, o {@code produtoId}).
+     * @param lote     lote a que o documento pertence.
+     * @param dados    conteúdo do documento, em UTF-8, nas primeiras {@code tamanho} posições.
+     * @param tamanho  número de bytes do documento.
+     * @return onde o documento ficou: o caminho do ficheiro ou a posição no arquivo.
+     * @throws IOException se o documento não puder ser guardado.
+     */
+    String guardar(Tipo tipo, String id, String lote, byte[] dados, int tamanho) throws IOException;
+
+    /**
+     * Escreve para disco os documentos pendentes e liberta os recursos do destino.
+     */
+    @Override
+    void close();
+
+    /**
+     * Destino configurado com {@code documentos.destino}, criado no primeiro uso e fechado
+     * no fim do processo.
+     *
+     * @return destino partilhado por todos os workers.
+     * @throws IllegalStateException    se o arquivo não puder ser aberto.
+     * @throws IllegalArgumentException se o destino configurado não existir.
+     */
+    static DestinoDocumentos configurado() {
+        return Configurado.obter();
+    }
+
+    /**
+     * Um ficheiro por documento, em {@code <pasta>/<prefixo><lote>_<yyyyMMdd_HHmmss><extensão>}.
+     * Se o ficheiro já existir (dois documentos do mesmo lote no mesmo segundo), é
+     * acrescentado {@code _2}, {@code _3}, ... ao nome, em vez de o substituir.
+     */
+    final class Ficheiros implements DestinoDocumentos {
+
+        private static final DateTimeFormatter FORMATO_FICHEIRO = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+
+        @Override
+        public String guardar(Tipo tipo, String id, String lote, byte[] dados, int tamanho) throws IOException {
+            File pasta = new File(tipo.pasta);
+            if (!pasta.exists()) {
+                pasta.mkdirs();
+            }
+
+            String base = tipo.pasta + "/" + tipo.prefixo + tipo.lotePara(lote) + "_"
+                    + FORMATO_FICHEIRO.format(LocalDateTime.now());
+            String caminho = base + tipo.extensao;
+            for (int n = 2; ; n++) {
+                try (OutputStream os = Files.newOutputStream(Paths.get(caminho), StandardOpenOption.CREATE_NEW)) {
+                    os.write(dados, 0, tamanho);
+                    return caminho;
+                } catch (FileAlreadyExistsException e) {
+                    caminho = base + "_" + n + tipo.extensao;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            // cada documento é escrito e fechado em guardar()
+        }
+    }
+
+    /** Destino criado no primeiro uso de {@link #configurado()}. */
+    final class Configurado {
+
+        private static volatile DestinoDocumentos destino;
+
+        private Configurado() {
+        }
+
+        /** Se a criação falhar, a exceção chega ao job e a próxima chamada tenta de novo. */
+        static DestinoDocumentos obter() {
+            DestinoDocumentos atual = destino;
+            if (atual == null) {
+                synchronized (Configurado.class) {
+                    atual = destino;
+                    if (atual == null) {
+                        atual = criar();
+                        destino = atual;
+                    }
+                }
+            }
+            return atual;
+        }
+
+        private static DestinoDocumentos criar() {
+            String tipo = System.getProperty("documentos.destino", "arquivo").trim().toLowerCase(Locale.ROOT);
+            switch (tipo) {
+                case "ficheiros":
+                    Registo.info("Documentos guardados em ficheiros individuais");
+                    return new Ficheiros();
+                case "arquivo":
+                    ArquivoDocumentos arquivo;
+                    try {
+                        arquivo = ArquivoDocumentos.abrir(
+                                Paths.get(System.getProperty("documentos.arquivo.pasta", "arquivo_documentos")),
+                                Integer.getInteger("documentos.arquivo.segmento",
+                                        ArquivoDocumentos.TAMANHO_SEGMENTO_OMISSAO),
+                                Boolean.parseBoolean(System.getProperty("documentos.arquivo.sincrono", "true")));
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Não foi possível abrir o arquivo de documentos: "
+                                + e.getMessage(), e);
+                    }
+                    MetricasJobs.registarIndicador("documentos_arquivo_total", "counter",
+                            "Documentos escritos no arquivo", arquivo::getDocumentos);
+                    MetricasJobs.registarIndicador("documentos_arquivo_fsync_total", "counter",
+                            "Escritas para disco do arquivo, cada uma para todos os documentos em fila",
+                            arquivo::getForcas);
+                    MetricasJobs.registarIndicador("documentos_arquivo_bytes_total", "counter",
+                            "Bytes escritos no arquivo", arquivo::getEscrito);
+                    Runtime.getRuntime().addShutdownHook(new Thread(arquivo::close, "arquivo-documentos-fecho"));
+                    return arquivo;
+                default:
+                    throw new IllegalArgumentException("Destino de documentos desconhecido: " + tipo);
+            }
+        }
+    }
+}
@@ -0,0 +1,940 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Diário persistente dos movimentos de um {@link LivroStock} ("write-ahead log"), com
+ * snapshots periódicos.
+ *
+ * <p>
+ * Os movimentos são acrescentados a segmentos de tamanho fixo mapeados em memória
+ * ({@code diario-<n>.wal}). Cada registo tem o formato
+ * {@code [tamanho:int][crc32c:int][tipo:byte][dados]}; um tamanho {@code 0} marca o fim
+ * do segmento e um CRC errado um registo incompleto, que é ignorado na recuperação. Os
+ * registos guardam apenas o identificador inteiro de cada alimento: os nomes, pela ordem
+ * dos identificadores, ficam uma vez por geração em {@code alimentos-<g>.bin}, e o
+ * cabeçalho de cada segmento indica a geração. Há uma geração nova quando o diário é
+ * aberto com alimentos novos e a cada troca de livro.
+ * </p>
+ *
+ * <p>
+ * As entradas e os desperdícios de um lote, e a retirada de um lote expirado, levam também
+ * o código e a validade do lote, e os snapshots guardam os lotes com quantidade, para que a
+ * recuperação reconstrua os {@link LotesStock} do livro com os mesmos lotes e validades.
+ * </p>
+ *
+ * <p>
+ * Escrita em grupo ("group commit"): as threads escrevem os seus registos no segmento e,
+ * em modo síncrono, esperam que a thread {@code stock-diario} force os registos para disco;
+ * um único {@code force} cobre todos os registos escritos entretanto. Sem modo síncrono, os
+ * registos sobrevivem a uma falha do processo (estão na cache de páginas do sistema) e são
+ * forçados para disco a cada {@link #INTERVALO_MS} ms.
+ * </p>
+ *
+ * <p>
+ * Quando um segmento enche, a thread do diário tira uma fotografia consistente do livro
+ * ({@link LivroStock#fotografar(Runnable)}), abre um segmento novo no mesmo corte e grava
+ * o snapshot {@code snapshot-<n>.bin}, que substitui todos os segmentos anteriores a
+ * {@code n}. A recuperação lê o último snapshot válido e repete apenas os segmentos
+ * seguintes, pelo que o tempo de arranque depende do tamanho do segmento e não do
+ * histórico total.
+ * </p>
+ */
+public class DiarioStock implements AutoCloseable {
+
+    static final byte RESERVA = 1;
+    static final byte CONFIRMACAO = 2;
+    static final byte LIBERTACAO = 3;
+    static final byte ENTRADA = 4;
+    static final byte DESPERDICIO = 5;
+    /** Retirada de um lote expirado: o lote deixa de existir, mesmo com parte reservada. */
+    static final byte EXPIRACAO = 6;
+
+    /** Intervalo máximo, em milissegundos, entre duas escritas para disco. */
+    public static final long INTERVALO_MS = 100;
+
+    /** Tamanho de cada segmento, quando não indicado: 64 MiB. */
+    public static final int TAMANHO_SEGMENTO_OMISSAO = 64 << 20;
+
+    private static final int MAGIA_SEGMENTO = 0x53544b57;
+    private static final int MAGIA_SNAPSHOT = 0x53544b53;
+    private static final int MAGIA_NOMES = 0x53544b4e;
+    private static final int VERSAO = 1;
+    /** Versão dos snapshots: a 2 acrescenta os lotes; os da versão 1 continuam a ser lidos. */
+    private static final int VERSAO_SNAPSHOT = 2;
+    private static final int VERSAO_SEGMENTO = 2;
+    /** Cabeçalho de cada segmento: magia, versão, número do segmento e geração dos nomes. */
+    private static final int CABECALHO_SEGMENTO = 24;
+    private static final int CABECALHO_REGISTO = 8;
+
+    private final Path pasta;
+    private final int tamanhoSegmento;
+    private final boolean sincrono;
+    private volatile LivroStock livro;
+    /** Geração do ficheiro de nomes do livro atual; só muda com {@link #snapshots} e {@link #escrita}. */
+    private long geracao;
+    /** Garante que só um snapshot é gravado de cada vez. */
+    private final Object snapshots = new Object();
+
+    /** Protege o segmento atual e as posições de escrita. */
+    private final ReentrantLock escrita = new ReentrantLock();
+    private final CRC32C crc = new CRC32C();
+    private MappedByteBuffer segmento;
+    private ByteBuffer vista;
+    private long numeroSegmento;
+    private int posicao;
+    /** Total de bytes de registos escritos, em todos os segmentos. */
+    private volatile long escrito;
+    /** Valor de {@link #escrito} no início do segmento atual. */
+    private long escritoNoSegmento;
+
+    /** Acorda a thread do diário; protege {@link #pedido} e {@link #snapshotPendente}. */
+    private final Object sinal = new Object();
+    private boolean pedido;
+    private boolean snapshotPendente;
+    /** Threads à espera de que {@link #duravel} avance. */
+    private final Object monitor = new Object();
+    /** Total de bytes de registos já forçados para disco. */
+    private volatile long duravel;
+    private volatile boolean fechado;
+    private final Thread thread;
+
+    private DiarioStock(Path pasta, int tamanhoSegmento, boolean sincrono, LivroStock livro,
+                        long numeroSegmento, long geracao, boolean snapshotPendente) throws IOException {
+        this.pasta = pasta;
+        this.tamanhoSegmento = tamanhoSegmento;
+        this.sincrono = sincrono;
+        this.livro = livro;
+        this.geracao = geracao;
+        this.snapshotPendente = snapshotPendente;
+        abrirSegmento(numeroSegmento);
+
+        thread = new Thread(this::escoar, "stock-diario");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Recupera o livro de stock a partir da pasta do diário e passa a registar nela todos
+     * os movimentos.
+     *
+     * <p>
+     * Sem snapshot nem segmentos, o livro começa com as quantidades de {@code inicial}. Com
+     * diário, as quantidades vêm do último snapshot e dos segmentos seguintes; os alimentos
+     * de {@code inicial} que o diário não conhece são acrescentados com a quantidade indicada.
+     * </p>
+     *
+     * @param pasta           pasta do diário; é criada se não existir.
+     * @param inicial         quantidades iniciais de cada alimento (o ficheiro de stock).
+     * @param tamanhoSegmento tamanho de cada segmento, em bytes.
+     * @param sincrono        se cada movimento espera pela escrita em disco.
+     * @return diário aberto; o livro recuperado está em {@link #getLivro()}.
+     * @throws IOException se a pasta não puder ser lida ou escrita.
+     */
+    public static DiarioStock abrir(Path pasta, CatalogoStock inicial, int tamanhoSegmento,
+                                    boolean sincrono) throws IOException {
+        if (tamanhoSegmento <= CABECALHO_SEGMENTO + CABECALHO_REGISTO) {
+            throw new IllegalArgumentException("Segmento do diário demasiado pequeno: " + tamanhoSegmento);
+        }
+        Files.createDirectories(pasta);
+        long inicio = System.nanoTime();
+
+        TreeMap<Long, Path> segmentos = listar(pasta, "diario-", ".wal");
+        TreeMap<Long, Path> snapshots = listar(pasta, "snapshot-", ".bin");
+        TreeMap<Long, Path> geracoes = listar(pasta, "alimentos-", ".bin");
+
+        // Alimentos do snapshot, depois os do ficheiro de stock e os das gerações dos segmentos
+        CatalogoStock.Construtor quantidades = null;
+        Snapshot snapshot = null;
+        for (Map.Entry<Long, Path> e : snapshots.descendingMap().entrySet()) {
+            CatalogoStock.Construtor c = new CatalogoStock.Construtor();
+            try {
+                snapshot = lerSnapshot(e.getValue(), e.getKey(), c);
+                quantidades = c;
+                break;
+            } catch (IOException ex) {
+                Registo.aviso("Snapshot de stock inválido, ignorado: %s (%s)", e.getValue(), ex.getMessage());
+            }
+        }
+        if (quantidades == null) {
+            quantidades = new CatalogoStock.Construtor();
+        }
+        DicionarioAlimentos semente = inicial.getDicionario();
+        for (int i = 0; i < semente.tamanho(); i++) {
+            quantidades.garantir(semente.nome(i), inicial.quantidade(i));
+        }
+
+        Map<Long, Path> aRepetir = snapshot == null ? segmentos : segmentos.tailMap(snapshot.numeroSegmento);
+        Map<Long, int[]> idsPorGeracao = new HashMap<>();
+        List<Segmento> lidos = new ArrayList<>();
+        for (Map.Entry<Long, Path> e : aRepetir.entrySet()) {
+            Segmento lido = Segmento.ler(e.getValue(), e.getKey());
+            if (lido == null) {
+                Registo.aviso("Segmento do diário de stock sem cabeçalho válido, ignorado: %s", e.getValue());
+                continue;
+            }
+            if (!idsPorGeracao.containsKey(lido.geracao)) {
+                int[] ids = null;
+                Path nomes = geracoes.get(lido.geracao);
+                try {
+                    if (nomes == null) {
+                        throw new IOException("ficheiro em falta");
+                    }
+                    ids = lerNomes(nomes, lido.geracao, quantidades);
+                } catch (IOException ex) {
+                    Registo.aviso("Nomes da geração %d do diário de stock inválidos (%s)", lido.geracao, ex.getMessage());
+                }
+                idsPorGeracao.put(lido.geracao, ids);
+            }
+            lido.ids = idsPorGeracao.get(lido.geracao);
+            if (lido.ids == null) {
+                Registo.aviso("Segmento do diário de stock sem nomes de alimentos, ignorado: %s", e.getValue());
+                continue;
+            }
+            lidos.add(lido);
+        }
+
+        LivroStock livro = new LivroStock(quantidades.construir());
+        if (snapshot != null) {
+            for (Snapshot.Pendente p : snapshot.pendentes) {
+                int[] itens = new int[p.itens.length];
+                for (int k = 0; k < itens.length; k++) {
+                    itens[k] = snapshot.ids[p.itens[k]];
+                }
+                livro.restaurar(p.id, p.expiraEm, itens, p.quantidades);
+            }
+            for (Snapshot.Lote l : snapshot.lotes) {
+                livro.restaurarLote(snapshot.ids[l.item], l.codigo, l.validadeMs, l.quantidade);
+            }
+            livro.retomarNumeracao(snapshot.proximaReserva);
+        }
+        long movimentos = 0;
+        for (Segmento lido : lidos) {
+            movimentos += lido.repetir(livro);
+        }
+
+        // A última geração serve se tiver exatamente os alimentos do livro, pela mesma ordem
+        long geracao = geracoes.isEmpty() ? 0 : geracoes.lastKey();
+        if (!mesmaOrdem(idsPorGeracao.get(geracao), livro.tamanho())) {
+            geracao++;
+            gravarNomes(pasta, geracao, livro);
+        }
+
+        long proximoSegmento = 1 + Math.max(segmentos.isEmpty() ? 0 : segmentos.lastKey(),
+                snapshots.isEmpty() ? 0 : snapshots.lastKey());
+        DiarioStock diario = new DiarioStock(pasta, tamanhoSegmento, sincrono, livro, proximoSegmento,
+                geracao, !lidos.isEmpty());
+        livro.ligarDiario(diario);
+
+        Registo.info("Diário de stock recuperado em %d ms: snapshot %s, %d segmentos, %d movimentos, %d reservas pendentes",
+                (System.nanoTime() - inicio) / 1_000_000, snapshot == null ? "nenhum" : snapshot.numeroSegmento,
+                lidos.size(), movimentos, livro.reservasPendentes());
+        return diario;
+    }
+
+    private static boolean mesmaOrdem(int[] ids, int tamanho) {
+        if (ids == null || ids.length != tamanho) {
+            return false;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return livro de stock cujos movimentos são registados neste diário (o último, depois
+     *         de uma troca).
+     */
+    public LivroStock getLivro() {
+        return livro;
+    }
+
+    /**
+     * Força para disco os registos pendentes e termina a thread do diário. Os movimentos
+     * seguintes do livro falham com {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        synchronized (sinal) {
+            if (fechado) {
+                return;
+            }
+            fechado = true;
+            sinal.notify();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        escrita.lock();
+        try {
+            segmento.force();
+        } finally {
+            escrita.unlock();
+        }
+    }
+
+    /**
+     * Substitui o livro registado neste diário (recarga do ficheiro de stock). Grava logo um
+     * snapshot do livro novo, num segmento novo da geração dos seus nomes, pelo que a
+     * recuperação parte dele.
+     * Nenhum dos dois livros pode receber movimentos durante a troca.
+     *
+     * @param novo livro que passa a ser registado.
+     * @throws IOException se o snapshot não puder ser gravado.
+     */
+    void trocarLivro(LivroStock novo) throws IOException {
+        synchronized (snapshots) {
+            long novaGeracao = geracao + 1;
+            gravarNomes(pasta, novaGeracao, novo);
+            escrita.lock();
+            try {
+                geracao = novaGeracao;
+                livro = novo;
+            } finally {
+                escrita.unlock();
+            }
+            novo.ligarDiario(this);
+            gravarSnapshot(novo);
+        }
+    }
+
+    long reserva(LivroStock.Reserva reserva) {
+        int n = reserva.itens.length;
+        escrita.lock();
+        try {
+            int p = iniciarRegisto(1 + 8 + 8 + 4 + 8 * n);
+            segmento.put(p, RESERVA);
+            segmento.putLong(p + 1, reserva.getId());
+            segmento.putLong(p + 9, reserva.getExpiraEm());
+            segmento.putInt(p + 17, n);
+            for (int k = 0; k < n; k++) {
+                segmento.putInt(p + 21 + 8 * k, reserva.itens[k]);
+                segmento.putInt(p + 25 + 8 * k, reserva.quantidades[k]);
+            }
+            return terminarRegisto(p);
+        } finally {
+            escrita.unlock();
+        }
+    }
+
+    long fecho(byte tipo, long idReserva) {
+        escrita.lock();
+        try {
+            int p = iniciarRegisto(1 + 8);
+            segmento.put(p, tipo);
+            segmento.putLong(p + 1, idReserva);
+            return terminarRegisto(p);
+        } finally {
+            escrita.unlock();
+        }
+    }
+
+    long movimento(byte tipo, int item, int quantidade) {
+        return movimento(tipo, item, quantidade, null, 0);
+    }
+
+    /**
+     * Regista um movimento de um alimento; com {@code lote}, o registo leva também o código
+     * e a validade do lote.
+     */
+    long movimento(byte tipo, int item, int quantidade, String lote, long validadeMs) {
+        byte[] codigo = lote == null ? null : lote.getBytes(StandardCharsets.UTF_8);
+        escrita.lock();
+        try {
+            int p = iniciarRegisto(codigo == null ? 1 + 4 + 4 : 1 + 4 + 4 + 8 + 4 + codigo.length);
+            segmento.put(p, tipo);
+            segmento.putInt(p + 1, item);
+            segmento.putInt(p + 5, quantidade);
+            if (codigo != null) {
+                segmento.putLong(p + 9, validadeMs);
+                segmento.putInt(p + 17, codigo.length);
+                segmento.put(p + 21, codigo);
+            }
+            return terminarRegisto(p);
+        } finally {
+            escrita.unlock();
+        }
+    }
+
+    /**
+     * Em modo síncrono, espera até os registos escritos até {@code posicao} estarem em disco.
+     */
+    void aguardar(long posicao) {
+        if (!sincrono || duravel >= posicao) {
+            return;
+        }
+        synchronized (sinal) {
+            if (!pedido) {
+                pedido = true;
+                sinal.notify();
+            }
+        }
+        boolean interrompido = false;
+        synchronized (monitor) {
+            while (duravel < posicao) {
+                if (fechado) {
+                    throw new IllegalStateException("Diário de stock fechado");
+                }
+                try {
+                    monitor.wait();
+                } catch (InterruptedException e) {
+                    interrompido = true;
+                }
+            }
+        }
+        if (interrompido) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reserva espaço para um registo com {@code tamanho} bytes de dados e devolve a posição
+     * dos dados no segmento. Muda de segmento se o atual não tiver espaço.
+     */
+    private int iniciarRegisto(int tamanho) {
+        if (fechado) {
+            throw new IllegalStateException("Diário de stock fechado");
+        }
+        if (CABECALHO_SEGMENTO + CABECALHO_REGISTO + tamanho > tamanhoSegmento) {
+            throw new IllegalArgumentException("Movimento maior do que um segmento do diário: " + tamanho + " bytes");
+        }
+        if (posicao + CABECALHO_REGISTO + tamanho > tamanhoSegmento) {
+            rolar();
+            synchronized (sinal) {
+                snapshotPendente = true;
+                sinal.notify();
+            }
+        }
+        segmento.putInt(posicao, tamanho);
+        return posicao + CABECALHO_REGISTO;
+    }
+
+    /** Calcula o CRC dos dados a partir de {@code p} e avança a posição de escrita. */
+    private long terminarRegisto(int p) {
+        int tamanho = segmento.getInt(p - CABECALHO_REGISTO);
+        vista.limit(p + tamanho).position(p);
+        crc.reset();
+        crc.update(vista);
+        segmento.putInt(p - 4, (int) crc.getValue());
+        posicao = p + tamanho;
+        escrito += CABECALHO_REGISTO + tamanho;
+        return escrito;
+    }
+
+    /** Força o segmento atual para disco e abre o seguinte. Chamado com {@link #escrita} bloqueado. */
+    private void rolar() {
+        try {
+            segmento.force();
+            marcarDuravel(escrito);
+            abrirSegmento(numeroSegmento + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Não foi possível abrir um novo segmento do diário de stock", e);
+        }
+    }
+
+    private void abrirSegmento(long numero) throws IOException {
+        Path ficheiro = pasta.resolve(nomeFicheiro("diario-", numero, ".wal"));
+        try (FileChannel canal = FileChannel.open(ficheiro, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segmento = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamanhoSegmento);
+        }
+        segmento.putInt(0, MAGIA_SEGMENTO);
+        segmento.putInt(4, VERSAO_SEGMENTO);
+        segmento.putLong(8, numero);
+        segmento.putLong(16, geracao);
+        segmento.force();
+        forcarPasta(pasta);
+        vista = segmento.duplicate();
+        numeroSegmento = numero;
+        posicao = CABECALHO_SEGMENTO;
+        escritoNoSegmento = escrito;
+    }
+
+    /** Thread do diário: forçar registos para disco e gravar snapshots. */
+    private void escoar() {
+        while (true) {
+            boolean fazerSnapshot;
+            boolean terminar;
+            synchronized (sinal) {
+                if (!pedido && !snapshotPendente && !fechado) {
+                    try {
+                        sinal.wait(INTERVALO_MS);
+                    } catch (InterruptedException e) {
+                        fechado = true;
+                    }
+                }
+                pedido = false;
+                fazerSnapshot = snapshotPendente;
+                snapshotPendente = false;
+                terminar = fechado;
+            }
+            try {
+                forcar();
+                if (fazerSnapshot && !terminar) {
+                    gravarSnapshot();
+                }
+            } catch (IOException | RuntimeException e) {
+                Registo.erro(e, "Falha no diário de stock");
+            }
+            if (terminar) {
+                synchronized (monitor) {
+                    monitor.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /** Força para disco os registos do segmento atual ainda não forçados. */
+    private void forcar() {
+        MappedByteBuffer buffer;
+        long alvo;
+        int de;
+        int ate;
+        escrita.lock();
+        try {
+            alvo = escrito;
+            if (alvo <= duravel) {
+                return;
+            }
+            buffer = segmento;
+            de = CABECALHO_SEGMENTO + (int) (Math.max(duravel, escritoNoSegmento) - escritoNoSegmento);
+            ate = CABECALHO_SEGMENTO + (int) (alvo - escritoNoSegmento);
+        } finally {
+            escrita.unlock();
+        }
+        buffer.force(de, ate - de);
+        marcarDuravel(alvo);
+    }
+
+    private void marcarDuravel(long alvo) {
+        synchronized (monitor) {
+            if (alvo > duravel) {
+                duravel = alvo;
+            }
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * Fotografa o livro num segmento novo e grava o snapshot correspondente; depois apaga
+     * os segmentos e snapshots que este substitui.
+     */
+    private void gravarSnapshot() throws IOException {
+        synchronized (snapshots) {
+            gravarSnapshot(livro);
+        }
+    }
+
+    private void gravarSnapshot(LivroStock livro) throws IOException {
+        long[] corte = new long[2];
+        LivroStock.Fotografia foto = livro.fotografar(() -> {
+            escrita.lock();
+            try {
+                rolar();
+                corte[0] = numeroSegmento;
+                corte[1] = geracao;
+            } finally {
+                escrita.unlock();
+            }
+        });
+        long numero = corte[0];
+
+        gravar(pasta.resolve(nomeFicheiro("snapshot-", numero, ".bin")), out -> {
+            out.writeInt(MAGIA_SNAPSHOT);
+            out.writeInt(VERSAO_SNAPSHOT);
+            out.writeLong(numero);
+            out.writeLong(foto.proximaReserva);
+            out.writeInt(foto.disponivel.length);
+            for (int i = 0; i < foto.disponivel.length; i++) {
+                out.writeUTF(livro.nome(i));
+                out.writeInt(foto.disponivel[i]);
+            }
+            out.writeInt(foto.pendentes.size());
+            for (LivroStock.Reserva reserva : foto.pendentes) {
+                out.writeLong(reserva.getId());
+                out.writeLong(reserva.getExpiraEm());
+                out.writeInt(reserva.itens.length);
+                for (int k = 0; k < reserva.itens.length; k++) {
+                    out.writeInt(reserva.itens[k]);
+                    out.writeInt(reserva.quantidades[k]);
+                }
+            }
+            out.writeInt(foto.lotes.size());
+            for (LotesStock.Lote lote : foto.lotes) {
+                out.writeInt(lote.id);
+                out.writeUTF(lote.getCodigo());
+                out.writeLong(lote.getValidadeMs());
+                out.writeInt(lote.getQuantidade());
+            }
+        });
+
+        for (Path antigo : listar(pasta, "diario-", ".wal").headMap(numero).values()) {
+            Files.deleteIfExists(antigo);
+        }
+        for (Path antigo : listar(pasta, "snapshot-", ".bin").headMap(numero).values()) {
+            Files.deleteIfExists(antigo);
+        }
+        // Os segmentos que restam são todos da geração atual
+        for (Map.Entry<Long, Path> e : listar(pasta, "alimentos-", ".bin").entrySet()) {
+            if (e.getKey() != corte[1]) {
+                Files.deleteIfExists(e.getValue());
+            }
+        }
+        Registo.info("Snapshot de stock %d gravado: %d alimentos, %d reservas pendentes, %d lotes",
+                numero, foto.disponivel.length, foto.pendentes.size(), foto.lotes.size());
+    }
+
+    /**
+     * Lê um snapshot, acrescentando os seus alimentos e quantidades a {@code quantidades}.
+     * Se o snapshot for inválido, {@code quantidades} pode ter ficado incompleto.
+     */
+    private static Snapshot lerSnapshot(Path ficheiro, long numero, CatalogoStock.Construtor quantidades)
+            throws IOException {
+        try (DataInputStream in = abrirVerificado(ficheiro)) {
+            if (in.readInt() != MAGIA_SNAPSHOT) {
+                throw new IOException("cabeçalho inválido");
+            }
+            int versao = in.readInt();
+            if ((versao != VERSAO && versao != VERSAO_SNAPSHOT) || in.readLong() != numero) {
+                throw new IOException("cabeçalho inválido");
+            }
+            Snapshot s = new Snapshot();
+            s.numeroSegmento = numero;
+            s.proximaReserva = in.readLong();
+            s.ids = new int[in.readInt()];
+            for (int i = 0; i < s.ids.length; i++) {
+                String nome = in.readUTF();
+                s.ids[i] = quantidades.garantir(nome, in.readInt());
+            }
+            int pendentes = in.readInt();
+            for (int r = 0; r < pendentes; r++) {
+                Snapshot.Pendente p = new Snapshot.Pendente();
+                p.id = in.readLong();
+                p.expiraEm = in.readLong();
+                int linhas = in.readInt();
+                p.itens = new int[linhas];
+                p.quantidades = new int[linhas];
+                for (int k = 0; k < linhas; k++) {
+                    p.itens[k] = in.readInt();
+                    p.quantidades[k] = in.readInt();
+                }
+                s.pendentes.add(p);
+            }
+            int lotes = versao == VERSAO ? 0 : in.readInt();
+            for (int l = 0; l < lotes; l++) {
+                Snapshot.Lote lote = new Snapshot.Lote();
+                lote.item = in.readInt();
+                lote.codigo = in.readUTF();
+                lote.validadeMs = in.readLong();
+                lote.quantidade = in.readInt();
+                s.lotes.add(lote);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Grava os nomes dos alimentos do livro, pela ordem dos identificadores, como a geração
+     * {@code geracao}.
+     */
+    private static void gravarNomes(Path pasta, long geracao, LivroStock livro) throws IOException {
+        gravar(pasta.resolve(nomeFicheiro("alimentos-", geracao, ".bin")), out -> {
+            out.writeInt(MAGIA_NOMES);
+            out.writeInt(VERSAO);
+            out.writeLong(geracao);
+            out.writeInt(livro.tamanho());
+            for (int i = 0; i < livro.tamanho(); i++) {
+                out.writeUTF(livro.nome(i));
+            }
+        });
+    }
+
+    /**
+     * Lê os nomes de uma geração, acrescentando a {@code quantidades} (com quantidade
+     * {@code 0}) os que ainda não conhece.
+     *
+     * @return identificador em {@code quantidades} de cada alimento da geração.
+     */
+    private static int[] lerNomes(Path ficheiro, long geracao, CatalogoStock.Construtor quantidades)
+            throws IOException {
+        try (DataInputStream in = abrirVerificado(ficheiro)) {
+            if (in.readInt() != MAGIA_NOMES || in.readInt() != VERSAO || in.readLong() != geracao) {
+                throw new IOException("cabeçalho inválido");
+            }
+            int[] ids = new int[in.readInt()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = quantidades.garantir(in.readUTF(), 0);
+            }
+            return ids;
+        }
+    }
+
+    /** Conteúdo de um ficheiro gravado com {@link #gravar(Path, Conteudo)}. */
+    private interface Conteudo {
+        void escrever(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Grava um ficheiro de forma atómica: escreve-o ao lado, com o CRC32C do conteúdo no fim,
+     * força-o para disco e só depois lhe dá o nome final.
+     */
+    private static void gravar(Path destino, Conteudo conteudo) throws IOException {
+        Path temporario = destino.resolveSibling(destino.getFileName() + ".tmp");
+        CRC32C soma = new CRC32C();
+        try (OutputStream ficheiro = Files.newOutputStream(temporario);
+             CheckedOutputStream verificado = new CheckedOutputStream(new BufferedOutputStream(ficheiro, 1 << 16), soma);
+             DataOutputStream out = new DataOutputStream(verificado)) {
+            conteudo.escrever(out);
+            out.flush();
+            // O CRC de tudo o que foi escrito antes fica no fim do ficheiro
+            new DataOutputStream(ficheiro).writeInt((int) soma.getValue());
+        }
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.WRITE)) {
+            canal.force(true);
+        }
+        Files.move(temporario, destino, StandardCopyOption.ATOMIC_MOVE);
+        forcarPasta(destino.getParent());
+    }
+
+    /**
+     * Confirma o CRC32C no fim de um ficheiro gravado com {@link #gravar(Path, Conteudo)} e
+     * abre-o para leitura do conteúdo. O ficheiro é lido duas vezes, sem nunca estar todo
+     * em memória.
+     *
+     * @throws IOException se o ficheiro estiver truncado ou o CRC não coincidir.
+     */
+    private static DataInputStream abrirVerificado(Path ficheiro) throws IOException {
+        long resto = Files.size(ficheiro) - 4;
+        if (resto < 0) {
+            throw new IOException("ficheiro truncado");
+        }
+        CRC32C soma = new CRC32C();
+        byte[] buffer = new byte[1 << 16];
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(ficheiro))) {
+            while (resto > 0) {
+                int lidos = in.read(buffer, 0, (int) Math.min(buffer.length, resto));
+                if (lidos < 0) {
+                    throw new IOException("ficheiro truncado");
+                }
+                soma.update(buffer, 0, lidos);
+                resto -= lidos;
+            }
+            if ((int) soma.getValue() != in.readInt()) {
+                throw new IOException("CRC errado");
+            }
+        }
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(ficheiro), 1 << 16));
+    }
+
+    private static TreeMap<Long, Path> listar(Path pasta, String prefixo, String sufixo) throws IOException {
+        TreeMap<Long, Path> ficheiros = new TreeMap<>();
+        try (Stream<Path> lista = Files.list(pasta)) {
+            lista.forEach(f -> {
+                String nome = f.getFileName().toString();
+                if (nome.startsWith(prefixo) && nome.endsWith(sufixo)) {
+                    try {
+                        ficheiros.put(Long.parseLong(nome.substring(prefixo.length(),
+                                nome.length() - sufixo.length())), f);
+                    } catch (NumberFormatException e) {
+                        // ficheiro com outro nome, não faz parte do diário
+                    }
+                }
+            });
+        }
+        return ficheiros;
+    }
+
+    private static String nomeFicheiro(String prefixo, long numero, String sufixo) {
+        return String.format("%s%020d%s", prefixo, numero, sufixo);
+    }
+
+    /** Garante que a criação ou mudança de nome de ficheiros na pasta fica em disco. */
+    private static void forcarPasta(Path pasta) {
+        try (FileChannel canal = FileChannel.open(pasta, StandardOpenOption.READ)) {
+            canal.force(true);
+        } catch (IOException e) {
+            // nem todos os sistemas de ficheiros permitem abrir ou forçar uma pasta
+        }
+    }
+
+    /**
+     * Conteúdo de um snapshot lido do disco.
+     */
+    private static class Snapshot {
+        long numeroSegmento;
+        long proximaReserva;
+        /** Identificador no livro recuperado de cada alimento do snapshot. */
+        int[] ids;
+        final List<Pendente> pendentes = new ArrayList<>();
+        /** Lotes com quantidade, pela ordem em que são consumidos. */
+        final List<Lote> lotes = new ArrayList<>();
+
+        static class Pendente {
+            long id;
+            long expiraEm;
+            int[] itens;
+            int[] quantidades;
+        }
+
+        static class Lote {
+            int item;
+            String codigo;
+            long validadeMs;
+            int quantidade;
+        }
+    }
+
+    /**
+     * Segmento do diário aberto para recuperação.
+     */
+    private static class Segmento {
+        final Path ficheiro;
+        final MappedByteBuffer buffer;
+        final long geracao;
+        /** Identificador no livro recuperado de cada alimento da geração do segmento. */
+        int[] ids;
+
+        private Segmento(Path ficheiro, MappedByteBuffer buffer, long geracao) {
+            this.ficheiro = ficheiro;
+            this.buffer = buffer;
+            this.geracao = geracao;
+        }
+
+        /**
+         * @return segmento com o cabeçalho lido, ou {@code null} se o cabeçalho for inválido.
+         */
+        static Segmento ler(Path ficheiro, long numero) throws IOException {
+            MappedByteBuffer buffer;
+            try (FileChannel canal = FileChannel.open(ficheiro, StandardOpenOption.READ)) {
+                buffer = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            }
+            if (buffer.limit() < CABECALHO_SEGMENTO || buffer.getInt(0) != MAGIA_SEGMENTO
+                    || buffer.getInt(4) != VERSAO_SEGMENTO || buffer.getLong(8) != numero) {
+                return null;
+            }
+            return new Segmento(ficheiro, buffer, buffer.getLong(16));
+        }
+
+        /**
+         * Repete os movimentos do segmento no livro, até ao fim do segmento ou ao primeiro
+         * registo incompleto.
+         *
+         * @return número de movimentos repetidos.
+         */
+        long repetir(LivroStock livro) {
+            CRC32C crc = new CRC32C();
+            ByteBuffer vista = buffer.duplicate();
+            int limite = buffer.limit();
+            long movimentos = 0;
+            int p = CABECALHO_SEGMENTO;
+            while (p + CABECALHO_REGISTO <= limite) {
+                int tamanho = buffer.getInt(p);
+                if (tamanho == 0) {
+                    break;
+                }
+                int dados = p + CABECALHO_REGISTO;
+                if (tamanho < 0 || tamanho > limite - dados) {
+                    Registo.aviso("Registo inválido no diário de stock %s, posição %d; resto do segmento ignorado",
+                            ficheiro, p);
+                    break;
+                }
+                vista.limit(dados + tamanho).position(dados);
+                crc.reset();
+                crc.update(vista);
+                if ((int) crc.getValue() != buffer.getInt(p + 4)) {
+                    Registo.aviso("Registo incompleto no diário de stock %s, posição %d; resto do segmento ignorado",
+                            ficheiro, p);
+                    break;
+                }
+                aplicar(livro, dados);
+                movimentos++;
+                p = dados + tamanho;
+            }
+            return movimentos;
+        }
+
+        private void aplicar(LivroStock livro, int p) {
+            switch (buffer.get(p)) {
+                case RESERVA: {
+                    long id = buffer.getLong(p + 1);
+                    long expiraEm = buffer.getLong(p + 9);
+                    int n = buffer.getInt(p + 17);
+                    int[] itens = new int[n];
+                    int[] quantidades = new int[n];
+                    for (int k = 0; k < n; k++) {
+                        itens[k] = ids[buffer.getInt(p + 21 + 8 * k)];
+                        quantidades[k] = buffer.getInt(p + 25 + 8 * k);
+                        livro.ajustar(itens[k], -quantidades[k]);
+                    }
+                    livro.restaurar(id, expiraEm, itens, quantidades);
+                    break;
+                }
+                case CONFIRMACAO:
+                    livro.confirmar(buffer.getLong(p + 1));
+                    break;
+                case LIBERTACAO:
+                    livro.libertar(buffer.getLong(p + 1));
+                    break;
+                case ENTRADA:
+                    livro.repetirEntrada(ids[buffer.getInt(p + 1)], buffer.getInt(p + 5), lote(p), validade(p));
+                    break;
+                case DESPERDICIO:
+                    livro.repetirDesperdicio(ids[buffer.getInt(p + 1)], buffer.getInt(p + 5), lote(p));
+                    break;
+                case EXPIRACAO:
+                    livro.repetirExpiracao(ids[buffer.getInt(p + 1)], buffer.getInt(p + 5), lote(p));
+                    break;
+                default:
+                    throw new IllegalStateException("Tipo de movimento desconhecido no diário de stock: "
+                            + buffer.get(p));
+            }
+        }
+
+        /**
+         * @return código do lote do movimento com dados em {@code p}, ou {@code null} se o
+         *         registo não tiver lote.
+         */
+        private String lote(int p) {
+            if (buffer.getInt(p - CABECALHO_REGISTO) <= 1 + 4 + 4) {
+                return null;
+            }
+            byte[] codigo = new byte[buffer.getInt(p + 17)];
+            buffer.get(p + 21, codigo);
+            return new String(codigo, StandardCharsets.UTF_8);
+        }
+
+        /** @return validade do lote do movimento com dados em {@code p}, ou {@code 0} sem lote. */
+        private long validade(int p) {
+            return buffer.getInt(p - CABECALHO_REGISTO) <= 1 + 4 + 4 ? 0 : buffer.getLong(p + 9);
+        }
+    }
+}
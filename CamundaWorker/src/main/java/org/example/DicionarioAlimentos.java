@@ -0,0 +1,346 @@
+package org.example;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Dicionário de nomes de alimentos para identificadores inteiros densos ({@code 0..n-1}).
+ *
+ * <p>
+ * Os nomes são comparados depois de "dobrados": sem espaços nas pontas, em minúsculas e sem
+ * acentos, pelo que {@code "feijão"}, {@code "Feijao"} e {@code " FEIJÃO "} têm o mesmo
+ * identificador. Na procura ({@link #id(CharSequence)}) a dobragem é feita carácter a
+ * carácter sobre o nome recebido e sobre o nome guardado, sem criar strings nem outros
+ * objetos. Uma {@link String} é procurada primeiro pelo hash já guardado na
+ * {@code String}, que é o do nome dobrado quando a grafia já está dobrada; só as restantes
+ * grafias são dobradas para calcular o hash.
+ * </p>
+ *
+ * <p>
+ * Para caber em memória com milhões de alimentos, o dicionário não tem objetos por
+ * alimento: os nomes ficam seguidos numa única arena de bytes (um byte por carácter se o
+ * nome for todo Latin-1, dois caso contrário) e as tabelas de dispersão são arrays de
+ * primitivos. Pode ser construído um nome de cada vez com um {@link Construtor}.
+ * </p>
+ *
+ * <p>
+ * Os acentos são retirados para os caracteres latinos até {@code U+017F} (o que inclui
+ * todas as letras acentuadas do português); as marcas diacríticas combinadas
+ * ({@code U+0300}–{@code U+036F}) são ignoradas.
+ * </p>
+ */
+public final class DicionarioAlimentos {
+
+    /** Último carácter com dobragem de acentos pré-calculada. */
+    private static final char ULTIMO_DOBRADO = '\u017f';
+
+    /** Dobragem (minúscula e sem acento) de cada carácter até {@link #ULTIMO_DOBRADO}. */
+    private static final char[] DOBRA = new char[ULTIMO_DOBRADO + 1];
+
+    static {
+        for (char c = 0; c <= ULTIMO_DOBRADO; c++) {
+            String decomposto = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            DOBRA[c] = Character.toLowerCase(decomposto.charAt(0));
+        }
+    }
+
+    private final int n;
+    /** Nomes seguidos; o nome {@code i} ocupa {@code arena[inicio[i]..inicio[i+1])}. */
+    private final byte[] arena;
+    private final int[] inicio;
+    /** Bit {@code i} ligado se o nome {@code i} estiver em UTF-16 (dois bytes por carácter). */
+    private final long[] largos;
+    /** Hash do nome dobrado de cada alimento. */
+    private final int[] hashes;
+
+    /** Tabela por nome dobrado: identificador + 1, ou 0 se a posição estiver livre. */
+    private final int[] tabela;
+
+    private DicionarioAlimentos(Construtor c) {
+        n = c.n;
+        arena = Arrays.copyOf(c.arena, c.tamanhoArena);
+        inicio = Arrays.copyOf(c.inicio, n + 1);
+        largos = Arrays.copyOf(c.largos, (n + 63) >>> 6);
+        hashes = Arrays.copyOf(c.hashes, n);
+        tabela = c.tabela;
+    }
+
+    /**
+     * Cria o dicionário. Os nomes que dobram para o mesmo texto partilham o identificador,
+     * atribuído pela ordem da primeira ocorrência.
+     *
+     * @param todos nomes de alimentos, possivelmente com grafias repetidas.
+     */
+    public DicionarioAlimentos(Collection<String> todos) {
+        this(construtor(todos));
+    }
+
+    private static Construtor construtor(Collection<String> todos) {
+        Construtor c = new Construtor();
+        for (String nome : todos) {
+            c.acrescentar(nome);
+        }
+        return c;
+    }
+
+    /**
+     * Dobra um nome: sem espaços nas pontas, em minúsculas e sem acentos.
+     *
+     * @param nome nome do alimento.
+     * @return nome dobrado.
+     */
+    public static String dobrar(CharSequence nome) {
+        int inicio = inicio(nome);
+        int fim = fim(nome, inicio);
+        StringBuilder sb = new StringBuilder(fim - inicio);
+        for (int i = inicio; i < fim; i++) {
+            char c = nome.charAt(i);
+            if (!combinado(c)) {
+                sb.append(dobrar(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Procura o identificador de um nome, sem alocar memória.
+     *
+     * @param nome nome do alimento, em qualquer grafia.
+     * @return identificador, ou {@code -1} se o alimento não existir.
+     */
+    public int id(CharSequence nome) {
+        if (nome instanceof String) {
+            int id = procurar(arena, inicio, largos, hashes, tabela, nome, nome.hashCode());
+            if (id >= 0) {
+                return id;
+            }
+        }
+        return procurar(arena, inicio, largos, hashes, tabela, nome, hashDobrado(nome));
+    }
+
+    /**
+     * @return número de alimentos distintos.
+     */
+    public int tamanho() {
+        return n;
+    }
+
+    /**
+     * @param id identificador do alimento.
+     * @return primeira grafia registada para o alimento, sem espaços nas pontas.
+     */
+    public String nome(int id) {
+        if (id < 0 || id >= n) {
+            throw new IndexOutOfBoundsException("Alimento inexistente: " + id);
+        }
+        char[] chars = new char[comprimento(inicio, largos, id)];
+        for (int k = 0; k < chars.length; k++) {
+            chars[k] = caracter(arena, inicio[id], largo(largos, id), k);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Constrói um dicionário um nome de cada vez. Os caracteres são copiados para a arena,
+     * pelo que o nome pode ser uma vista sobre o buffer de um parser.
+     */
+    public static final class Construtor {
+
+        private int n;
+        private byte[] arena = new byte[1 << 12];
+        private int tamanhoArena;
+        private int[] inicio = new int[1 << 8];
+        private long[] largos = new long[4];
+        private int[] hashes = new int[1 << 8];
+        private int[] tabela = new int[1 << 9];
+
+        /**
+         * @return número de alimentos distintos acrescentados.
+         */
+        public int tamanho() {
+            return n;
+        }
+
+        /**
+         * Acrescenta um nome, se ainda não existir nenhum com a mesma forma dobrada.
+         *
+         * @param nome nome do alimento.
+         * @return identificador do alimento (novo se {@link #tamanho()} aumentou).
+         */
+        public int acrescentar(CharSequence nome) {
+            int h = hashDobrado(nome);
+            int id = procurar(arena, inicio, largos, hashes, tabela, nome, h);
+            return id >= 0 ? id : guardar(nome, h);
+        }
+
+        /**
+         * Termina a construção; o construtor não deve voltar a ser usado, porque o
+         * dicionário fica com a sua tabela de dispersão.
+         *
+         * @return dicionário com os nomes acrescentados.
+         */
+        public DicionarioAlimentos construir() {
+            return new DicionarioAlimentos(this);
+        }
+
+        private int guardar(CharSequence nome, int h) {
+            int a = DicionarioAlimentos.inicio(nome);
+            int fim = fim(nome, a);
+            boolean largo = false;
+            for (int i = a; i < fim; i++) {
+                largo |= nome.charAt(i) > 0xff;
+            }
+            int bytes = (fim - a) * (largo ? 2 : 1);
+            if (tamanhoArena + bytes > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(arena.length * 2, tamanhoArena + bytes));
+            }
+            for (int i = a; i < fim; i++) {
+                char c = nome.charAt(i);
+                if (largo) {
+                    arena[tamanhoArena++] = (byte) (c >>> 8);
+                }
+                arena[tamanhoArena++] = (byte) c;
+            }
+
+            int id = n++;
+            if (n + 1 > inicio.length) {
+                inicio = Arrays.copyOf(inicio, inicio.length * 2);
+                hashes = Arrays.copyOf(hashes, hashes.length * 2);
+            }
+            if ((id >>> 6) >= largos.length) {
+                largos = Arrays.copyOf(largos, largos.length * 2);
+            }
+            inicio[id + 1] = tamanhoArena;
+            if (largo) {
+                largos[id >>> 6] |= 1L << id;
+            }
+            hashes[id] = h;
+
+            if (n * 5 > tabela.length * 3) {
+                tabela = new int[tabela.length * 2];
+                for (int i = 0; i < id; i++) {
+                    inserir(tabela, hashes[i], i);
+                }
+            }
+            inserir(tabela, h, id);
+            return id;
+        }
+
+        private static void inserir(int[] tabela, int h, int id) {
+            int mascara = tabela.length - 1;
+            int pos = espalhar(h) & mascara;
+            while (tabela[pos] != 0) {
+                pos = (pos + 1) & mascara;
+            }
+            tabela[pos] = id + 1;
+        }
+    }
+
+    private static int procurar(byte[] arena, int[] inicio, long[] largos, int[] hashes, int[] tabela,
+                                CharSequence nome, int h) {
+        int mascara = tabela.length - 1;
+        for (int pos = espalhar(h) & mascara; tabela[pos] != 0; pos = (pos + 1) & mascara) {
+            int id = tabela[pos] - 1;
+            if (hashes[id] == h && iguais(arena, inicio, largos, id, nome)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /** Compara o nome guardado {@code id} com {@code nome}, ambos dobrados. */
+    private static boolean iguais(byte[] arena, int[] inicio, long[] largos, int id, CharSequence nome) {
+        int a = inicio(nome);
+        int fim = fim(nome, a);
+        int base = inicio[id];
+        boolean largo = largo(largos, id);
+        int comprimento = largo ? (inicio[id + 1] - base) >>> 1 : inicio[id + 1] - base;
+        if (!largo && fim - a == comprimento) {
+            // Caso habitual: a mesma grafia, comparada sem dobrar
+            int k = 0;
+            while (k < comprimento && nome.charAt(a + k) == (char) (arena[base + k] & 0xff)) {
+                k++;
+            }
+            if (k == comprimento) {
+                return true;
+            }
+        }
+        int k = 0;
+        while (true) {
+            while (a < fim && combinado(nome.charAt(a))) {
+                a++;
+            }
+            while (k < comprimento && combinado(caracter(arena, base, largo, k))) {
+                k++;
+            }
+            if (a == fim || k == comprimento) {
+                return a == fim && k == comprimento;
+            }
+            if (dobrar(nome.charAt(a++)) != dobrar(caracter(arena, base, largo, k++))) {
+                return false;
+            }
+        }
+    }
+
+    private static int comprimento(int[] inicio, long[] largos, int id) {
+        int bytes = inicio[id + 1] - inicio[id];
+        return largo(largos, id) ? bytes >>> 1 : bytes;
+    }
+
+    /** Carácter {@code k} do nome guardado a partir de {@code base} na arena. */
+    private static char caracter(byte[] arena, int base, boolean largo, int k) {
+        if (largo) {
+            int p = base + 2 * k;
+            return (char) (((arena[p] & 0xff) << 8) | (arena[p + 1] & 0xff));
+        }
+        return (char) (arena[base + k] & 0xff);
+    }
+
+    private static boolean largo(long[] largos, int id) {
+        return (largos[id >>> 6] & (1L << id)) != 0;
+    }
+
+    private static int hashDobrado(CharSequence nome) {
+        int inicio = inicio(nome);
+        int fim = fim(nome, inicio);
+        int h = 0;
+        for (int i = inicio; i < fim; i++) {
+            char c = nome.charAt(i);
+            if (!combinado(c)) {
+                h = 31 * h + dobrar(c);
+            }
+        }
+        return h;
+    }
+
+    private static int espalhar(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static char dobrar(char c) {
+        return c <= ULTIMO_DOBRADO ? DOBRA[c] : Character.toLowerCase(c);
+    }
+
+    /** Marca diacrítica combinada, que não conta para a comparação. */
+    private static boolean combinado(char c) {
+        return c >= '\u0300' && c <= '\u036f';
+    }
+
+    /** Primeira posição depois dos espaços iniciais, como em {@link String#trim()}. */
+    private static int inicio(CharSequence nome) {
+        int i = 0;
+        while (i < nome.length() && nome.charAt(i) <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int fim(CharSequence nome, int inicio) {
+        int fim = nome.length();
+        while (fim > inicio && nome.charAt(fim - 1) <= ' ') {
+            fim--;
+        }
+        return fim;
+    }
+}
@@ -0,0 +1,306 @@
+package org.example;
+
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.Arrays;
+
+/**
+ * Etiqueta de produto em ZPL, a linguagem das impressoras térmicas, para 4"x4" a 203 dpi.
+ *
+ * <p>
+ * Tem os mesmos campos da etiqueta de texto ({@link ModeloEtiqueta}) e dois códigos:
+ * <ul>
+ *     <li>Code 128 ({@link Codigo128}) do {@code produtoId}, com o texto por baixo;</li>
+ *     <li>QR ({@link CodigoQR}, correção M) com {@code produtoId|lote|validade}, a validade
+ *         em {@code yyyy-MM-dd} quando é uma data.</li>
+ * </ul>
+ * Os códigos são codificados aqui e enviados já rasterizados, como campos gráficos
+ * {@code ^GFA} em hexadecimal comprimido (contagens de repetição, {@code ,} e {@code !}
+ * para o fim da linha, {@code :} para uma linha igual à anterior): a impressora não tem
+ * de gerar os códigos nem de desenhar molduras de texto, só copia os pontos.
+ * </p>
+ *
+ * <p>
+ * Os textos são escritos em UTF-8 ({@code ^CI28}), com {@code ^FH} para os caracteres
+ * reservados do ZPL. Cada instância reutiliza os seus buffers entre etiquetas e não é
+ * thread-safe.
+ * </p>
+ */
+public final class EtiquetaZpl {
+
+    /** Largura da etiqueta, em pontos (4 polegadas a 203 dpi). */
+    public static final int LARGURA = 812;
+    /** Comprimento da etiqueta, em pontos. */
+    public static final int ALTURA = 812;
+    /** Tamanho aproximado de uma etiqueta, em bytes, para dimensionar buffers. */
+    public static final int TAMANHO_ESTIMADO = 4096;
+
+    private static final int MARGEM = 30;
+    /** Largura da coluna de texto, à esquerda do QR. */
+    private static final int LARGURA_TEXTO = 520;
+    /** Lado máximo do QR, em pontos. */
+    private static final int LADO_QR = 220;
+    private static final int ALTURA_CODIGO_BARRAS = 120;
+    /** Zona de silêncio do Code 128, em módulos, de cada lado. */
+    private static final int SILENCIO_128 = 10;
+
+    private static final DateTimeFormatter FORMATO_DATA_HORA = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss");
+    private static final DateTimeFormatter FORMATO_DATA = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final StringBuilder texto = new StringBuilder(128);
+    private final ModeloEtiqueta.Saida conteudoQR = new ModeloEtiqueta.Saida(256);
+    private byte[] linha = new byte[LARGURA / 8];
+    private byte[] anterior = new byte[LARGURA / 8];
+
+    /**
+     * Escreve a etiqueta ({@code ^XA} a {@code ^XZ}) no fim da saída.
+     *
+     * @param valores valores dos campos; {@code produtoId} é obrigatório e só pode ter ASCII.
+     * @param saida   saída onde a etiqueta é acrescentada.
+     * @throws IllegalArgumentException se o {@code produtoId} faltar ou não puder ir num Code 128.
+     */
+    public void renderizar(ModeloEtiqueta.Valores valores, ModeloEtiqueta.Saida saida) {
+        Object produtoId = valores.valor(ModeloEtiqueta.Campo.PRODUTO_ID);
+        if (!(produtoId instanceof CharSequence) || ((CharSequence) produtoId).length() == 0) {
+            throw new IllegalArgumentException("etiqueta ZPL sem produtoId");
+        }
+        CharSequence id = (CharSequence) produtoId;
+
+        saida.append("^XA\n^CI28\n^PW");
+        numero(saida, LARGURA);
+        saida.append("\n^LL");
+        numero(saida, ALTURA);
+        saida.append("\n^LH0,0\n");
+
+        texto(saida, MARGEM, 20, 40, LARGURA - 2 * MARGEM, 'L', "ETIQUETA DO PRODUTO", null, null);
+        int y = 90;
+        texto(saida, MARGEM, y, 26, LARGURA_TEXTO, 'L', "ID: ", id, null);
+        texto(saida, MARGEM, y += 36, 26, LARGURA_TEXTO, 'L', "Lote: ",
+                valores.valor(ModeloEtiqueta.Campo.LOTE), null);
+        texto(saida, MARGEM, y += 36, 26, LARGURA_TEXTO, 'L', "Embalamento: ",
+                valores.valor(ModeloEtiqueta.Campo.EMBALAMENTO), null);
+        texto(saida, MARGEM, y += 36, 26, LARGURA_TEXTO, 'L', "Embalado em: ",
+                valores.valor(ModeloEtiqueta.Campo.DATA_EMBALAMENTO), FORMATO_DATA_HORA);
+        texto(saida, MARGEM, y += 36, 26, LARGURA_TEXTO, 'L', "Válido até: ",
+                valores.valor(ModeloEtiqueta.Campo.DATA_VALIDADE), FORMATO_DATA);
+        texto(saida, MARGEM, y += 36, 26, LARGURA_TEXTO, 'L', "Embalado por: ",
+                valores.valor(ModeloEtiqueta.Campo.RESPONSAVEL), null);
+        Object unidade = valores.valor(ModeloEtiqueta.Campo.UNIDADE);
+        if (unidade != null) {
+            texto(saida, MARGEM, y += 36, 26, LARGURA_TEXTO, 'L', "Unidade: ", unidade, null);
+        }
+
+        graficoQR(saida, codigoQR(id, valores), 90);
+        graficoCode128(saida, Codigo128.codificar(id), 380);
+        texto(saida, 0, 380 + ALTURA_CODIGO_BARRAS + 10, 28, LARGURA, 'C', "", id, null);
+
+        y = 580;
+        texto(saida, MARGEM, y, 22, LARGURA - 2 * MARGEM, 'L', "- Conservar em local fresco e seco", null, null);
+        texto(saida, MARGEM, y += 30, 22, LARGURA - 2 * MARGEM, 'L', "- Consumir até data de validade", null, null);
+        texto(saida, MARGEM, y += 30, 22, LARGURA - 2 * MARGEM, 'L', "- Produto inspecionado e aprovado", null, null);
+        texto(saida, MARGEM, y += 30, 22, LARGURA - 2 * MARGEM, 'L',
+                "- Em caso de dúvida, contactar produção", null, null);
+        texto(saida, 0, ALTURA - 50, 20, LARGURA, 'C', "Etiqueta gerada automaticamente", null, null);
+        saida.append("^XZ\n");
+    }
+
+    /** QR com {@code produtoId|lote|validade}. */
+    private CodigoQR codigoQR(CharSequence id, ModeloEtiqueta.Valores valores) {
+        texto.setLength(0);
+        texto.append(id).append('|');
+        Object lote = valores.valor(ModeloEtiqueta.Campo.LOTE);
+        if (lote != null) {
+            texto.append(lote);
+        }
+        texto.append('|');
+        Object validade = valores.valor(ModeloEtiqueta.Campo.DATA_VALIDADE);
+        if (validade instanceof TemporalAccessor) {
+            DateTimeFormatter.ISO_LOCAL_DATE.formatTo((TemporalAccessor) validade, texto);
+        } else if (validade != null) {
+            texto.append(validade);
+        }
+        conteudoQR.limpar().append(texto);
+        return CodigoQR.codificar(conteudoQR.bytes(), conteudoQR.tamanho(), CodigoQR.Correcao.M);
+    }
+
+    /**
+     * Campo de texto numa linha ({@code ^FB} com largura fixa), com {@code rotulo} seguido
+     * do valor, se houver.
+     */
+    private void texto(ModeloEtiqueta.Saida saida, int x, int y, int altura, int largura, char alinhamento,
+                       String rotulo, Object valor, DateTimeFormatter formato) {
+        texto.setLength(0);
+        texto.append(rotulo);
+        if (valor instanceof TemporalAccessor && formato != null) {
+            formato.formatTo((TemporalAccessor) valor, texto);
+        } else if (valor instanceof CharSequence) {
+            texto.append((CharSequence) valor);
+        } else if (valor != null) {
+            texto.append(valor);
+        }
+
+        saida.append("^FO");
+        numero(saida, x);
+        saida.append(',');
+        numero(saida, y);
+        saida.append("^A0N,");
+        numero(saida, altura);
+        saida.append(',');
+        numero(saida, altura);
+        saida.append("^FB");
+        numero(saida, largura);
+        saida.append(",1,0,").append(alinhamento).append("^FH^FD");
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c == '^' || c == '~' || c == '_') {
+                // ^FH: _ seguido do código hexadecimal do carácter
+                saida.append('_').append(HEX[c >> 4]).append(HEX[c & 15]);
+            } else {
+                saida.append(c < ' ' ? ' ' : c);
+            }
+        }
+        saida.append("^FS\n");
+    }
+
+    /** Code 128 centrado, com o maior módulo (até 3 pontos) que deixa as zonas de silêncio na etiqueta. */
+    private void graficoCode128(ModeloEtiqueta.Saida saida, boolean[] modulos, int y) {
+        int escala = Math.max(1, Math.min(3, (LARGURA - 2 * MARGEM) / (modulos.length + 2 * SILENCIO_128)));
+        int largura = modulos.length * escala;
+        int porLinha = (largura + 7) / 8;
+        garantirLinhas(porLinha);
+        byte[] l = linhaVazia(porLinha);
+        for (int i = 0; i < modulos.length; i++) {
+            if (modulos[i]) {
+                pintar(l, i * escala, escala);
+            }
+        }
+        cabecalhoGrafico(saida, (LARGURA - largura) / 2, y, porLinha, ALTURA_CODIGO_BARRAS);
+        escreverLinha(saida, l, porLinha);
+        for (int r = 1; r < ALTURA_CODIGO_BARRAS; r++) {
+            saida.append(':');
+        }
+        saida.append("^FS\n");
+    }
+
+    /** QR encostado à direita, com módulos de 2 a 6 pontos, conforme a versão. */
+    private void graficoQR(ModeloEtiqueta.Saida saida, CodigoQR qr, int y) {
+        int n = qr.getTamanho();
+        int escala = Math.max(2, Math.min(6, LADO_QR / n));
+        int lado = n * escala;
+        int porLinha = (lado + 7) / 8;
+        cabecalhoGrafico(saida, LARGURA - MARGEM - lado, y, porLinha, lado);
+        garantirLinhas(porLinha);
+        boolean primeira = true;
+        for (int my = 0; my < n; my++) {
+            byte[] l = linhaVazia(porLinha);
+            for (int mx = 0; mx < n; mx++) {
+                if (qr.escuro(mx, my)) {
+                    pintar(l, mx * escala, escala);
+                }
+            }
+            if (!primeira && Arrays.equals(l, 0, porLinha, anterior, 0, porLinha)) {
+                saida.append(':');
+            } else {
+                escreverLinha(saida, l, porLinha);
+            }
+            for (int r = 1; r < escala; r++) {
+                saida.append(':');
+            }
+            // A linha escrita passa a ser a anterior; a outra é reutilizada na próxima
+            byte[] t = anterior;
+            anterior = linha;
+            linha = t;
+            primeira = false;
+        }
+        saida.append("^FS\n");
+    }
+
+    private void cabecalhoGrafico(ModeloEtiqueta.Saida saida, int x, int y, int porLinha, int linhas) {
+        saida.append("^FO");
+        numero(saida, x);
+        saida.append(',');
+        numero(saida, y);
+        saida.append("^GFA,");
+        numero(saida, porLinha * linhas);
+        saida.append(',');
+        numero(saida, porLinha * linhas);
+        saida.append(',');
+        numero(saida, porLinha);
+        saida.append(',');
+    }
+
+    private void garantirLinhas(int n) {
+        if (linha.length < n) {
+            linha = new byte[n];
+            anterior = new byte[n];
+        }
+    }
+
+    /** Linha de trabalho com os primeiros {@code n} bytes a zero. */
+    private byte[] linhaVazia(int n) {
+        Arrays.fill(linha, 0, n, (byte) 0);
+        return linha;
+    }
+
+    private static void pintar(byte[] l, int inicio, int n) {
+        for (int p = inicio; p < inicio + n; p++) {
+            l[p >>> 3] |= (byte) (0x80 >>> (p & 7));
+        }
+    }
+
+    /**
+     * Escreve uma linha do gráfico em hexadecimal comprimido: cada sequência de dígitos
+     * iguais leva à frente a contagem ({@code G}–{@code Y} = 1–19, {@code g}–{@code z} =
+     * 20–400), e o fim da linha só com {@code 0} ou {@code F} é {@code ,} ou {@code !}.
+     */
+    private static void escreverLinha(ModeloEtiqueta.Saida saida, byte[] l, int porLinha) {
+        int digitos = porLinha * 2;
+        int fim = digitos;
+        char fecho = 0;
+        int ultimo = digito(l, digitos - 1);
+        if (ultimo == 0 || ultimo == 15) {
+            while (fim > 0 && digito(l, fim - 1) == ultimo) {
+                fim--;
+            }
+            fecho = ultimo == 0 ? ',' : '!';
+        }
+        int i = 0;
+        while (i < fim) {
+            int d = digito(l, i);
+            int n = 1;
+            while (i + n < fim && digito(l, i + n) == d) {
+                n++;
+            }
+            i += n;
+            while (n > 0) {
+                int parte = Math.min(n, 419);
+                if (parte >= 20) {
+                    saida.append((char) ('g' + parte / 20 - 1));
+                }
+                if (parte % 20 > 1 || (parte % 20 == 1 && parte > 20)) {
+                    saida.append((char) ('G' + parte % 20 - 1));
+                }
+                saida.append(HEX[d]);
+                n -= parte;
+            }
+        }
+        if (fecho != 0) {
+            saida.append(fecho);
+        }
+    }
+
+    private static int digito(byte[] l, int i) {
+        int b = l[i >>> 1];
+        return (i & 1) == 0 ? (b >>> 4) & 15 : b & 15;
+    }
+
+    /** Acrescenta um inteiro não negativo sem criar texto intermédio. */
+    private static void numero(ModeloEtiqueta.Saida saida, int valor) {
+        if (valor >= 10) {
+            numero(saida, valor / 10);
+        }
+        saida.append((char) ('0' + valor % 10));
+    }
+}
@@ -0,0 +1,220 @@
+package org.example;
+
+import io.camunda.zeebe.client.api.worker.JobHandler;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Classe responsável pelo modo de execução dos handlers dos workers Zeebe.
+ *
+ * <p>
+ * No modo {@code partilhado}, o cliente Zeebe executa todos os handlers num pool
+ * partilhado de {@link #THREADS_PARTILHADAS} threads. Como os handlers bloqueiam em
+ * escritas de ficheiros, três jobs lentos bastam para parar todos os tipos de job.
+ * </p>
+ *
+ * <p>
+ * No modo {@code virtual}, cada job ativado é executado na sua própria thread virtual.
+ * O agendamento das ativações continua num pequeno pool de threads de plataforma, e o
+ * número de jobs em execução por tipo é o {@code maxJobsActive} de cada worker, lido de
+ * {@code worker.concorrencia.<jobType>} (omissão {@link #CONCORRENCIA_VIRTUAL_OMISSAO})
+ * em vez dos valores pequenos de {@code workers.properties}, pensados para threads de
+ * plataforma.
+ * </p>
+ *
+ * <p>
+ * No modo {@code isolado} (omissão), cada job ativado também corre na sua própria thread
+ * (virtual quando disponível), mas cada tipo de job só executa ao mesmo tempo tantos
+ * handlers quantas as threads configuradas em {@link ConfiguracaoWorkers}: um tipo de job
+ * com jobs lentos esgota apenas as suas vagas e nunca atrasa os restantes tipos. O handler
+ * corre na própria thread do job, depois de obter uma vaga do seu tipo, sem ser entregue a
+ * outro executor; o cliente Zeebe conta o job como ativo até ao fim do handler e continua
+ * a respeitar o {@code maxJobsActive}.
+ * </p>
+ *
+ * <p>
+ * O modo é escolhido com a propriedade de sistema {@code worker.modo}
+ * ({@code isolado}, {@code virtual} ou {@code partilhado}).
+ * Como o projeto é compilado para Java 17, as threads virtuais são obtidas por reflexão;
+ * numa JVM sem threads virtuais é usada uma thread de plataforma por job.
+ * </p>
+ */
+public class ExecucaoJobs {
+
+    /** Número de threads do pool partilhado usado no modo partilhado. */
+    public static final int THREADS_PARTILHADAS = 3;
+
+    /** Limite de jobs em execução por tipo no modo virtual, quando não configurado. */
+    public static final int CONCORRENCIA_VIRTUAL_OMISSAO = 32;
+
+    /** Número de threads de plataforma usadas apenas para agendar as ativações. */
+    private static final int THREADS_AGENDAMENTO = 2;
+
+    /** Vagas de execução de cada tipo de job, no modo isolado. */
+    private static final Map<String, Semaphore> vagasTipo = new ConcurrentHashMap<>();
+
+    /**
+     * Devolve o modo de execução configurado.
+     *
+     * @return {@code isolado}, {@code virtual} ou {@code partilhado}.
+     * @throws IllegalArgumentException se {@code worker.modo} tiver outro valor.
+     */
+    public static String modo() {
+        String modo = System.getProperty("worker.modo", "isolado").trim().toLowerCase(Locale.ROOT);
+        if (!modo.equals("isolado") && !modo.equals("virtual") && !modo.equals("partilhado")) {
+            throw new IllegalArgumentException("Modo de execução desconhecido: " + modo);
+        }
+        return modo;
+    }
+
+    /**
+     * Indica se cada job é executado numa thread própria (modos {@code virtual} e
+     * {@code isolado}), em vez de no pool partilhado do cliente.
+     *
+     * @return {@code true} se o cliente deve usar {@link #criarExecutorPorJob()}.
+     */
+    public static boolean threadPorJob() {
+        return !modo().equals("partilhado");
+    }
+
+    /**
+     * Devolve o {@code maxJobsActive} a usar para um tipo de job.
+     *
+     * <p>
+     * No modo virtual, cada job tem a sua thread, pelo que o {@code maxJobsActive} é o
+     * limite de concorrência do tipo de job, lido de {@code worker.concorrencia.<jobType>}.
+     * Nos outros modos é devolvido o valor configurado.
+     * </p>
+     *
+     * @param jobType     tipo de job do worker.
+     * @param configurado valor de {@code workers.properties}.
+     * @return número máximo de jobs ativos para o worker, no arranque.
+     */
+    public static int maxJobsActive(String jobType, int configurado) {
+        if (!modo().equals("virtual")) {
+            return configurado;
+        }
+        return Integer.getInteger("worker.concorrencia." + jobType, CONCORRENCIA_VIRTUAL_OMISSAO);
+    }
+
+    /**
+     * Envolve o handler de um tipo de job para limitar os handlers do tipo em execução
+     * simultânea, no modo isolado. Nos outros modos devolve o handler sem alterações.
+     *
+     * <p>
+     * O handler devolvido espera por uma vaga do tipo e executa o handler original na
+     * mesma thread, relançando a exceção que este lançar.
+     * </p>
+     *
+     * @param jobType tipo de job.
+     * @param threads número de handlers do tipo em execução ao mesmo tempo.
+     * @param handler handler do worker.
+     * @return handler a registar no worker.
+     */
+    public static JobHandler isolar(String jobType, int threads, JobHandler handler) {
+        if (!modo().equals("isolado")) {
+            return handler;
+        }
+        Semaphore vagas = vagasTipo.computeIfAbsent(jobType, t -> {
+            Registo.info("Execução de %s: até %d jobs em simultâneo", t, threads);
+            return new Semaphore(threads, true);
+        });
+        return (jobClient, job) -> {
+            vagas.acquire();
+            try {
+                handler.handle(jobClient, job);
+            } finally {
+                vagas.release();
+            }
+        };
+    }
+
+    /**
+     * Cria o executor a entregar ao cliente Zeebe nos modos virtual e isolado.
+     *
+     * <p>
+     * O executor devolvido agenda as ativações (métodos {@code schedule}) num pool
+     * pequeno de threads de plataforma, mas executa cada handler
+     * ({@link java.util.concurrent.Executor#execute(Runnable)}) numa thread nova.
+     * </p>
+     *
+     * @return executor para {@code ZeebeClientBuilder.jobWorkerExecutor(...)}.
+     */
+    public static ScheduledExecutorService criarExecutorPorJob() {
+        return new ExecutorPorJob(THREADS_AGENDAMENTO, criarExecutorThreadPorJob());
+    }
+
+    /**
+     * Cria um executor que lança uma thread por tarefa: virtual quando a JVM
+     * o suporta (Java 21+), de plataforma caso contrário.
+     *
+     * @return executor com uma thread por tarefa.
+     */
+    private static ExecutorService criarExecutorThreadPorJob() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            Registo.info("Modo de execução %s: threads virtuais", modo());
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Registo.aviso("JVM sem threads virtuais, a usar uma thread de plataforma por job");
+            AtomicInteger contador = new AtomicInteger();
+            ThreadFactory fabrica = r -> {
+                Thread t = new Thread(r, "job-handler-" + contador.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            };
+            return Executors.newCachedThreadPool(fabrica);
+        }
+    }
+
+    /**
+     * Executor agendado que delega a execução imediata de tarefas (os handlers dos jobs)
+     * num executor com uma thread por tarefa.
+     */
+    private static class ExecutorPorJob extends ScheduledThreadPoolExecutor {
+
+        private final ExecutorService porJob;
+
+        ExecutorPorJob(int threadsAgendamento, ExecutorService porJob) {
+            super(threadsAgendamento);
+            this.porJob = porJob;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            porJob.execute(command);
+        }
+
+        @Override
+        public void shutdown() {
+            super.shutdown();
+            porJob.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            porJob.shutdownNow();
+            return super.shutdownNow();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long limite = System.nanoTime() + unit.toNanos(timeout);
+            boolean agendamento = super.awaitTermination(timeout, unit);
+            long restante = limite - System.nanoTime();
+            return agendamento && porJob.awaitTermination(Math.max(0, restante), TimeUnit.NANOSECONDS);
+        }
+    }
+}
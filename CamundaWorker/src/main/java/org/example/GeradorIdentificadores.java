@@ -0,0 +1,260 @@
+package org.example;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Gerador de identificadores únicos de 63 bits, ao estilo Snowflake, para produtos,
+ * lotes e relatórios.
+ *
+ * <p>
+ * Cada identificador é composto, do bit mais significativo para o menos significativo, por:
+ * <ul>
+ *     <li>41 bits – milissegundos desde {@link #EPOCA} (2025-01-01T00:00:00Z), até ~2094;</li>
+ *     <li>10 bits – número do nó ({@code 0}–{@code 1023}), diferente em cada worker;</li>
+ *     <li>12 bits – sequência dentro do milissegundo (4096 identificadores por ms).</li>
+ * </ul>
+ * Dentro de um nó os identificadores são estritamente crescentes: o par
+ * {@code (milissegundo, sequência)} é um único {@link AtomicLong}, avançado com
+ * {@code compareAndSet} para o máximo entre o valor seguinte e o relógio atual, sem locks.
+ * Quando a sequência de um milissegundo se esgota, o gerador passa para o milissegundo
+ * seguinte em vez de esperar pelo relógio; se se adiantar mais de
+ * {@link #ADIANTAMENTO_MAXIMO_MS} ao relógio (carga contínua acima de ~4 milhões por
+ * segundo, ou relógio do sistema atrasado), espera que o relógio o alcance.
+ * </p>
+ *
+ * <p>
+ * O nó é definido com a propriedade de sistema {@code ids.no}. Sem ela, é derivado do
+ * nome da máquina e do PID, o que torna colisões entre workers improváveis mas não
+ * impossíveis.
+ * </p>
+ *
+ * <p>
+ * Para códigos de barras, {@link #codificar(long)} escreve o identificador em 13
+ * caracteres base32 de Crockford (algarismos e maiúsculas, sem {@code I}, {@code L},
+ * {@code O} e {@code U}); a ordem alfabética dos códigos é a ordem dos identificadores.
+ * </p>
+ */
+public final class GeradorIdentificadores {
+
+    /** Origem da componente de tempo: 2025-01-01T00:00:00Z, em milissegundos. */
+    public static final long EPOCA = 1_735_689_600_000L;
+
+    /** Número máximo de nós (workers) distintos. */
+    public static final int NOS = 1 << 10;
+
+    /** Quanto o gerador se pode adiantar ao relógio antes de esperar por ele. */
+    public static final long ADIANTAMENTO_MAXIMO_MS = 2_000;
+
+    /** Número máximo de identificadores de uma só {@link #reservar(int)}. */
+    public static final int RESERVA_MAXIMA = 1 << 22;
+
+    /** Número de caracteres de um identificador codificado. */
+    public static final int TAMANHO_CODIGO = 13;
+
+    private static final int BITS_SEQUENCIA = 12;
+    private static final int BITS_NO = 10;
+    private static final long MASCARA_SEQUENCIA = (1L << BITS_SEQUENCIA) - 1;
+    private static final long TEMPO_MAXIMO = (1L << 41) - 1;
+
+    private static final char[] BASE32 = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final byte[] VALOR_BASE32 = new byte[128];
+
+    static {
+        Arrays.fill(VALOR_BASE32, (byte) -1);
+        for (int i = 0; i < BASE32.length; i++) {
+            VALOR_BASE32[BASE32[i]] = (byte) i;
+            VALOR_BASE32[Character.toLowerCase(BASE32[i])] = (byte) i;
+        }
+        // Leituras tolerantes de Crockford: O como 0, I e L como 1
+        VALOR_BASE32['O'] = VALOR_BASE32['o'] = 0;
+        VALOR_BASE32['I'] = VALOR_BASE32['i'] = VALOR_BASE32['L'] = VALOR_BASE32['l'] = 1;
+    }
+
+    private final int no;
+    private final LongSupplier relogio;
+    /** Último par {@code (milissegundo << 12) | sequência} atribuído. */
+    private final AtomicLong estado;
+
+    /**
+     * @param no número do nó, entre {@code 0} e {@link #NOS}{@code  - 1}.
+     * @throws IllegalArgumentException se o número do nó estiver fora do intervalo.
+     */
+    public GeradorIdentificadores(int no) {
+        this(no, System::currentTimeMillis);
+    }
+
+    /**
+     * @param relogio relógio em milissegundos desde 1970, substituível nos benchmarks.
+     */
+    GeradorIdentificadores(int no, LongSupplier relogio) {
+        if (no < 0 || no >= NOS) {
+            throw new IllegalArgumentException("número de nó inválido: " + no + " (0 a " + (NOS - 1) + ")");
+        }
+        this.no = no;
+        this.relogio = relogio;
+        this.estado = new AtomicLong(((relogio.getAsLong() - EPOCA) << BITS_SEQUENCIA) - 1);
+    }
+
+    /**
+     * Gerador do processo, com o nó de {@code ids.no}, criado no primeiro uso.
+     *
+     * @throws IllegalArgumentException se {@code ids.no} não for um número de nó válido.
+     */
+    public static GeradorIdentificadores partilhado() {
+        return Partilhado.GERADOR;
+    }
+
+    /**
+     * @return um identificador novo, maior do que todos os anteriores deste gerador.
+     */
+    public long proximo() {
+        return reservar(1);
+    }
+
+    /**
+     * Reserva {@code quantidade} identificadores seguidos com uma única operação atómica.
+     * O identificador {@code k} da reserva é {@link #avancar(long, int) avancar(primeiro, k)}.
+     *
+     * @param quantidade número de identificadores, entre 1 e {@link #RESERVA_MAXIMA}.
+     * @return o primeiro identificador reservado.
+     * @throws IllegalArgumentException se a quantidade estiver fora do intervalo.
+     * @throws IllegalStateException    se a componente de tempo esgotar os 41 bits.
+     */
+    public long reservar(int quantidade) {
+        if (quantidade < 1 || quantidade > RESERVA_MAXIMA) {
+            throw new IllegalArgumentException("quantidade de identificadores inválida: " + quantidade);
+        }
+        while (true) {
+            long agora = relogio.getAsLong() - EPOCA;
+            long atual = estado.get();
+            long inicio = Math.max(atual + 1, agora << BITS_SEQUENCIA);
+            long fim = inicio + quantidade - 1;
+            long tempo = fim >>> BITS_SEQUENCIA;
+            if (tempo > TEMPO_MAXIMO) {
+                throw new IllegalStateException("componente de tempo dos identificadores esgotada");
+            }
+            if (tempo - agora > ADIANTAMENTO_MAXIMO_MS) {
+                // Demasiado à frente do relógio: um reinício agora poderia repetir identificadores
+                LockSupport.parkNanos(100_000);
+                continue;
+            }
+            if (estado.compareAndSet(atual, fim)) {
+                return compor(inicio);
+            }
+        }
+    }
+
+    /**
+     * @return número do nó deste gerador.
+     */
+    public int getNo() {
+        return no;
+    }
+
+    private long compor(long par) {
+        return (par >>> BITS_SEQUENCIA) << (BITS_NO + BITS_SEQUENCIA)
+                | (long) no << BITS_SEQUENCIA
+                | (par & MASCARA_SEQUENCIA);
+    }
+
+    /**
+     * @return o identificador {@code k} posições à frente de {@code id} no mesmo nó, como
+     *         atribuído por {@link #reservar(int)}.
+     */
+    public static long avancar(long id, int k) {
+        long par = ((id >>> (BITS_NO + BITS_SEQUENCIA)) << BITS_SEQUENCIA | (id & MASCARA_SEQUENCIA)) + k;
+        return (par >>> BITS_SEQUENCIA) << (BITS_NO + BITS_SEQUENCIA)
+                | (id & ((long) (NOS - 1) << BITS_SEQUENCIA))
+                | (par & MASCARA_SEQUENCIA);
+    }
+
+    /**
+     * @return instante (milissegundos desde 1970) em que o identificador foi atribuído.
+     */
+    public static long instante(long id) {
+        return (id >>> (BITS_NO + BITS_SEQUENCIA)) + EPOCA;
+    }
+
+    /**
+     * @return nó que atribuiu o identificador.
+     */
+    public static int no(long id) {
+        return (int) (id >>> BITS_SEQUENCIA) & (NOS - 1);
+    }
+
+    /**
+     * @return o identificador em {@link #TAMANHO_CODIGO} caracteres base32 de Crockford.
+     */
+    public static String codificar(long id) {
+        return codificar(id, new StringBuilder(TAMANHO_CODIGO)).toString();
+    }
+
+    /**
+     * Acrescenta o identificador codificado a {@code destino}, sem criar objetos.
+     *
+     * @return {@code destino}.
+     */
+    public static StringBuilder codificar(long id, StringBuilder destino) {
+        for (int desvio = (TAMANHO_CODIGO - 1) * 5; desvio >= 0; desvio -= 5) {
+            destino.append(BASE32[(int) (id >>> desvio) & 31]);
+        }
+        return destino;
+    }
+
+    /**
+     * Lê um identificador escrito por {@link #codificar(long)}; aceita minúsculas e as
+     * leituras {@code O}→0 e {@code I}/{@code L}→1.
+     *
+     * @throws IllegalArgumentException se o texto não for um código válido.
+     */
+    public static long descodificar(CharSequence codigo) {
+        if (codigo.length() != TAMANHO_CODIGO) {
+            throw new IllegalArgumentException("código de identificador inválido: " + codigo);
+        }
+        long id = 0;
+        for (int i = 0; i < TAMANHO_CODIGO; i++) {
+            char c = codigo.charAt(i);
+            int valor = c < VALOR_BASE32.length ? VALOR_BASE32[c] : -1;
+            if (valor < 0 || (i == 0 && valor > 7)) {
+                throw new IllegalArgumentException("código de identificador inválido: " + codigo);
+            }
+            id = id << 5 | valor;
+        }
+        return id;
+    }
+
+    /** Gerador do processo, criado no primeiro uso de {@link #partilhado()}. */
+    private static final class Partilhado {
+
+        static final GeradorIdentificadores GERADOR = new GeradorIdentificadores(lerNo());
+
+        private static int lerNo() {
+            String configurado = System.getProperty("ids.no");
+            if (configurado != null) {
+                int no;
+                try {
+                    no = Integer.parseInt(configurado.trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("ids.no inválido: " + configurado);
+                }
+                Registo.info("Identificadores gerados com o nó %d", no);
+                return no;
+            }
+            String maquina;
+            try {
+                maquina = InetAddress.getLocalHost().getHostName();
+            } catch (Exception e) {
+                maquina = "";
+            }
+            long pid = ProcessHandle.current().pid();
+            int no = (int) ((maquina.hashCode() * 31L + pid) & (NOS - 1));
+            Registo.aviso("ids.no não definido: identificadores gerados com o nó %d (máquina %s, PID %d)",
+                    no, maquina, pid);
+            return no;
+        }
+    }
+}
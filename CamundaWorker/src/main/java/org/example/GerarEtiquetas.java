@@ -1,10 +1,26 @@
 package org.example;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Classe responsável pela geração de etiquetas de produto.
@@ -12,12 +28,63 @@ import java.util.*;
  * <p>
  * A classe {@code GerarEtiquetas} recebe variáveis de contexto (por exemplo, do
  * processo BPMN) e gera uma etiqueta textual com informação sobre o lote,
- * embalamento, datas e responsável. A etiqueta é depois gravada em ficheiro
- * de texto e é devolvido um conjunto de variáveis com o resultado da operação.
+ * embalamento, datas e responsável. A etiqueta é depois guardada no
+ * {@link DestinoDocumentos} configurado (arquivo ou ficheiro de texto) e é devolvido
+ * um conjunto de variáveis com o resultado da operação.
+ * </p>
+ *
+ * <p>
+ * O texto da etiqueta segue o {@link ModeloEtiqueta} carregado no arranque (recurso
+ * {@code etiqueta.modelo} ou ficheiro {@code -Detiquetas.modelo}). Cada etiqueta é
+ * renderizada para um buffer emprestado de um pequeno conjunto partilhado, reutilizado
+ * entre etiquetas e entregue diretamente ao destino; as datas usam formatadores
+ * {@code java.time} partilhados.
+ * </p>
+ *
+ * <p>
+ * Um job com a variável {@code unidades} gera as etiquetas de todas as unidades do lote
+ * de uma vez ({@link #gerarEtiquetasLote(Map)}): as etiquetas são renderizadas em
+ * paralelo e escritas, por ordem, num único ficheiro, acompanhado de um índice com a
+ * posição de cada etiqueta.
+ * </p>
+ *
+ * <p>
+ * Com {@code -Detiquetas.formato=zpl}, as etiquetas são escritas em ZPL
+ * ({@link EtiquetaZpl}), com Code 128 e QR já rasterizados, e enviadas também para a
+ * {@link Impressora} configurada em {@code etiquetas.impressora}, se houver.
  * </p>
  */
 public class GerarEtiquetas {
 
+    /** Número máximo de unidades de um job em lote, quando {@code etiquetas.lote.maximo} não está definido. */
+    public static final int MAXIMO_UNIDADES_OMISSAO = 100_000;
+
+    /** Etiquetas renderizadas por cada tarefa paralela do modo em lote. */
+    static final int ETIQUETAS_POR_BLOCO = 64;
+
+    private static final DateTimeFormatter FORMATO_DATA_HORA = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss");
+    private static final DateTimeFormatter FORMATO_DATA = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    private static final DateTimeFormatter FORMATO_FICHEIRO = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+
+    /** Prefixo do {@code produtoId}, seguido do identificador de {@link GeradorIdentificadores} codificado. */
+    static final String PREFIXO_PRODUTO = "PROD-";
+
+    /** Formato das etiquetas, de {@code etiquetas.formato}: {@code texto} (omissão) ou {@code zpl}. */
+    private static final boolean FORMATO_ZPL = lerFormato();
+    private static final DestinoDocumentos.Tipo TIPO = FORMATO_ZPL
+            ? DestinoDocumentos.Tipo.ETIQUETA_ZPL : DestinoDocumentos.Tipo.ETIQUETA;
+
+    private static final ModeloEtiqueta MODELO = ModeloEtiqueta.carregar();
+
+    /**
+     * Buffers livres para renderizar. No modo isolado cada job corre numa thread virtual
+     * nova, pelo que um buffer por thread nunca seria reutilizado: os buffers são emprestados
+     * e devolvidos. Se não houver nenhum livre, é criado um; só os primeiros
+     * {@link #RENDERIZACOES_GUARDADAS} devolvidos ficam guardados.
+     */
+    private static final int RENDERIZACOES_GUARDADAS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private static final BlockingQueue<Renderizacao> RENDERIZACOES = new ArrayBlockingQueue<>(RENDERIZACOES_GUARDADAS);
+
     /**
      * Gera uma etiqueta completa com base nas variáveis fornecidas.
      *
@@ -37,14 +104,19 @@ public class GerarEtiquetas {
      *
      * <p>
      * O método gera um ID único de produto, constrói o conteúdo da etiqueta,
-     * grava-o em ficheiro de texto e devolve um mapa com:
+     * guarda-o no destino de documentos e devolve um mapa com:
      * <ul>
      *     <li>{@code sucesso} – {@code true} se tudo correu bem;</li>
      *     <li>{@code etiquetaGerada} – {@code true} se a etiqueta foi gerada;</li>
-     *     <li>{@code produtoId} – identificador gerado para o produto;</li>
+     *     <li>{@code produtoId} – identificador gerado para o produto, {@code PROD-} seguido
+     *         dos 13 caracteres de {@link GeradorIdentificadores#codificar(long)};</li>
      *     <li>{@code loteEmbalagem}, {@code embalamento}, {@code dataEmbalamento},
      *         {@code dataValidade}, {@code responsavelEmbalamento};</li>
-     *     <li>{@code caminhoEtiqueta} – caminho do ficheiro criado;</li>
+     *     <li>{@code caminhoEtiqueta} – caminho do ficheiro criado ou posição no arquivo;</li>
+     *     <li>{@code formatoEtiqueta} – {@code texto} ou {@code zpl};</li>
+     *     <li>{@code etiquetaImpressa} – {@code true} se a etiqueta foi enviada para a impressora;</li>
+     *     <li>se a impressora falhar, {@code erroImpressao} – mensagem de erro da impressão (a
+     *         etiqueta fica guardada e o job conta como bem-sucedido);</li>
      *     <li>{@code timestamp} – data/hora da operação;</li>
      *     <li>em caso de erro, {@code erro} – mensagem de erro.</li>
      * </ul>
@@ -55,82 +127,326 @@ public class GerarEtiquetas {
      */
     public static Map<String, Object> gerarEtiquetaCompleta(Map<String, Object> variaveis) {
         Map<String, Object> resultado = new HashMap<>();
+        Renderizacao renderizacao = emprestar();
 
         try {
-            String loteEmbalagem = (String) variaveis.getOrDefault("lote_embalagem",
-                    "LOTE-" + System.currentTimeMillis());
-            String embalamento = (String) variaveis.getOrDefault("embalamento", "Embalamento padrão");
-            String responsavelEmbalamento = (String) variaveis.getOrDefault("responsavel_embalamento",
-                    "Operador não identificado");
+            DadosEtiqueta dados = DadosEtiqueta.ler(variaveis);
+            String loteEmbalagem = dados.lote;
+
+            ModeloEtiqueta.Valores valores = renderizacao.valores.limpar();
+            dados.preencher(valores);
+
+            String produtoId = PREFIXO_PRODUTO
+                    + GeradorIdentificadores.codificar(GeradorIdentificadores.partilhado().proximo());
+
+            valores.texto(ModeloEtiqueta.Campo.PRODUTO_ID, produtoId);
+            ModeloEtiqueta.Saida conteudoEtiqueta = renderizacao.saida.limpar();
+            renderizar(renderizacao, valores, conteudoEtiqueta);
+
+            long inicioEscrita = System.nanoTime();
+            String caminhoEtiqueta = DestinoDocumentos.configurado().guardar(TIPO,
+                    produtoId, loteEmbalagem, conteudoEtiqueta.bytes(), conteudoEtiqueta.tamanho());
+            MetricasJob.registarFicheiro(System.nanoTime() - inicioEscrita);
+            // A etiqueta já está guardada: uma falha da impressora não desfaz o job
+            boolean impressa = false;
+            try {
+                impressa = imprimir(conteudoEtiqueta);
+            } catch (IOException e) {
+                Registo.aviso("Etiqueta %s guardada mas não impressa: %s", produtoId, e.getMessage());
+                resultado.put("erroImpressao", e.getMessage());
+            }
 
-            String dataEmbalamentoInput = (String) variaveis.get("data_embalamento");
-            String dataValidadeInput = (String) variaveis.get("validade");
+            resultado.put("sucesso", true);
+            resultado.put("etiquetaGerada", true);
+            resultado.put("produtoId", produtoId);
+            dados.resumir(resultado);
+            resultado.put("caminhoEtiqueta", caminhoEtiqueta);
+            resultado.put("formatoEtiqueta", FORMATO_ZPL ? "zpl" : "texto");
+            resultado.put("etiquetaImpressa", impressa);
+            resultado.put("timestamp", new Date().toString());
 
-            SimpleDateFormat sdfDataHora = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
-            SimpleDateFormat sdfData = new SimpleDateFormat("dd/MM/yyyy");
+        } catch (Exception e) {
+            resultado.put("sucesso", false);
+            resultado.put("etiquetaGerada", false);
+            resultado.put("erro", e.getMessage());
+        } finally {
+            devolver(renderizacao);
+        }
 
-            String dataEmbalamento;
-            String dataValidade;
+        return resultado;
+    }
 
-            if (dataEmbalamentoInput != null && !dataEmbalamentoInput.trim().isEmpty()) {
-                dataEmbalamento = dataEmbalamentoInput; // Usa a data fornecida
-            } else {
-                dataEmbalamento = sdfDataHora.format(new Date()); // Data atual
+    /**
+     * Gera as etiquetas de todas as unidades de um lote num único ficheiro.
+     *
+     * <p>
+     * Além das variáveis de {@link #gerarEtiquetaCompleta(Map)}, comuns a todas as
+     * etiquetas, é lida a variável {@code unidades}: o número de unidades do lote ou a
+     * lista das unidades (cujo texto fica no campo {@code unidade} do modelo). Cada
+     * unidade recebe um {@code produtoId} próprio; os identificadores do lote são
+     * reservados de uma vez ({@link GeradorIdentificadores#reservar(int)}) e crescem pela
+     * ordem das unidades.
+     * </p>
+     *
+     * <p>
+     * As etiquetas são renderizadas em blocos de {@value #ETIQUETAS_POR_BLOCO} no pool
+     * comum de threads, com um número limitado de blocos em curso, e escritas por ordem em
+     * {@code etiquetas_geradas/ETQL_<lote>_<timestamp>.txt} ({@code .zpl} em ZPL). O índice
+     * {@code ETQL_<lote>_<timestamp>.idx}, em texto, tem uma linha por etiqueta com o
+     * número, o {@code produtoId}, a posição (em bytes) e o tamanho da etiqueta no ficheiro.
+     * Os dois ficheiros são criados de novo; se já existirem (outro job do mesmo lote no
+     * mesmo segundo), o nome leva o sufixo {@code _2}, {@code _3}, etc., como em
+     * {@link DestinoDocumentos}. Em ZPL, cada bloco escrito é logo enviado para a impressora;
+     * se a impressora falhar, os blocos seguintes já não lhe são enviados, mas o lote continua
+     * a ser escrito e o job é bem-sucedido, com {@code etiquetaImpressa} a {@code false} e o
+     * erro em {@code erroImpressao}. Se a geração falhar, os dois ficheiros deste job são
+     * apagados (as etiquetas já enviadas ficam impressas).
+     * </p>
+     *
+     * <p>
+     * Devolve um resumo em vez das variáveis de cada etiqueta: {@code sucesso},
+     * {@code etiquetaGerada}, {@code etiquetasGeradas}, {@code primeiroProdutoId},
+     * {@code ultimoProdutoId}, as variáveis comuns do lote, {@code caminhoEtiquetas},
+     * {@code caminhoIndice}, {@code tamanhoFicheiro}, {@code formatoEtiqueta},
+     * {@code etiquetaImpressa}, {@code erroImpressao} (se a impressora falhar) e
+     * {@code timestamp}; em caso de erro, {@code erro}.
+     * </p>
+     *
+     * @param variaveis mapa de variáveis de entrada, com {@code unidades}.
+     * @return mapa de variáveis com o resumo da geração.
+     */
+    public static Map<String, Object> gerarEtiquetasLote(Map<String, Object> variaveis) {
+        Map<String, Object> resultado = new HashMap<>();
+        Path caminhoEtiquetas = null;
+        Path caminhoIndice = null;
+
+        try {
+            DadosEtiqueta dados = DadosEtiqueta.ler(variaveis);
+            Object unidades = variaveis.get("unidades");
+            List<?> nomes = unidades instanceof List ? (List<?>) unidades : null;
+            int n = nomes != null ? nomes.size()
+                    : unidades instanceof Number ? ((Number) unidades).intValue()
+                    : Integer.parseInt(String.valueOf(unidades).trim());
+            int maximo = Integer.getInteger("etiquetas.lote.maximo", MAXIMO_UNIDADES_OMISSAO);
+            if (n < 1 || n > maximo) {
+                throw new IllegalArgumentException("número de unidades inválido: " + n + " (máximo " + maximo + ")");
             }
+            long primeiroId = GeradorIdentificadores.partilhado().reservar(n);
 
-            if (dataValidadeInput != null && !dataValidadeInput.trim().isEmpty()) {
-                dataValidade = dataValidadeInput; // Usa a data fornecida
-            } else {
-                Calendar cal = Calendar.getInstance();
-
-                if (dataEmbalamentoInput != null && !dataEmbalamentoInput.trim().isEmpty()) {
-                    try {
-                        Date dataEmbalDate = sdfDataHora.parse(dataEmbalamentoInput);
-                        cal.setTime(dataEmbalDate);
-                    } catch (Exception e) {
-                        cal.setTime(new Date());
+            File pasta = new File(TIPO.getPasta());
+            if (!pasta.exists()) {
+                pasta.mkdirs();
+            }
+            String nome = criarFicheirosLote(TIPO.getPasta() + "/ETQL_" + TIPO.lotePara(dados.lote)
+                    + "_" + FORMATO_FICHEIRO.format(LocalDateTime.now()));
+            caminhoEtiquetas = Paths.get(nome + TIPO.getExtensao());
+            caminhoIndice = Paths.get(nome + ".idx");
+
+            int blocos = (n + ETIQUETAS_POR_BLOCO - 1) / ETIQUETAS_POR_BLOCO;
+            int maximoEmCurso = Math.max(2, 2 * ForkJoinPool.getCommonPoolParallelism());
+            ArrayDeque<CompletableFuture<Bloco>> emCurso = new ArrayDeque<>();
+            int proximo = 0;
+            long posicao = 0;
+            long escrita = 0;
+            boolean impressas = false;
+            String erroImpressao = null;
+            StringBuilder linha = new StringBuilder(PREFIXO_PRODUTO.length() + 64);
+
+            try (OutputStream etiquetas = Files.newOutputStream(caminhoEtiquetas, StandardOpenOption.WRITE);
+                 Writer indice = Files.newBufferedWriter(caminhoIndice, StandardCharsets.UTF_8,
+                         StandardOpenOption.WRITE)) {
+                indice.write("# numero\tprodutoId\toffset\ttamanho\n");
+                while (proximo < blocos || !emCurso.isEmpty()) {
+                    // Mantém os blocos seguintes a renderizar enquanto o mais antigo é escrito
+                    while (proximo < blocos && emCurso.size() < maximoEmCurso) {
+                        int inicio = proximo++ * ETIQUETAS_POR_BLOCO;
+                        int fim = Math.min(n, inicio + ETIQUETAS_POR_BLOCO);
+                        emCurso.add(CompletableFuture.supplyAsync(
+                                () -> renderizarBloco(dados, primeiroId, nomes, inicio, fim), ForkJoinPool.commonPool()));
+                    }
+                    Bloco bloco = emCurso.poll().join();
+
+                    long inicioEscrita = System.nanoTime();
+                    bloco.saida.escreverPara(etiquetas);
+                    escrita += System.nanoTime() - inicioEscrita;
+                    // As etiquetas seguem para a impressora bloco a bloco, sem esperar pelo lote inteiro;
+                    // depois de uma falha da impressora, o lote só é escrito no ficheiro
+                    if (erroImpressao == null) {
+                        try {
+                            impressas = imprimir(bloco.saida);
+                        } catch (IOException e) {
+                            impressas = false;
+                            erroImpressao = e.getMessage();
+                            Registo.aviso("Lote %s: impressão interrompida na unidade %d: %s",
+                                    dados.lote, bloco.inicio + 1, erroImpressao);
+                        }
                     }
-                }
 
-                cal.add(Calendar.DAY_OF_MONTH, 7);
-                dataValidade = sdfData.format(cal.getTime());
+                    for (int k = 0; k < bloco.tamanhos.length; k++) {
+                        int numero = bloco.inicio + k + 1;
+                        linha.setLength(0);
+                        linha.append(numero).append('\t').append(PREFIXO_PRODUTO);
+                        GeradorIdentificadores.codificar(GeradorIdentificadores.avancar(primeiroId, numero - 1), linha)
+                                .append('\t').append(posicao).append('\t').append(bloco.tamanhos[k]).append('\n');
+                        indice.append(linha);
+                        posicao += bloco.tamanhos[k];
+                    }
+                }
             }
-
-            String produtoId = "PROD-" + loteEmbalagem + "-" + System.currentTimeMillis();
-
-            String conteudoEtiqueta = gerarConteudoFormatado(
-                    produtoId, loteEmbalagem, embalamento,
-                    dataEmbalamento, dataValidade, responsavelEmbalamento
-            );
-
-            String caminhoEtiqueta = salvarEmFicheiro(conteudoEtiqueta, loteEmbalagem, produtoId);
+            MetricasJob.registarFicheiro(escrita);
 
             resultado.put("sucesso", true);
             resultado.put("etiquetaGerada", true);
-            resultado.put("produtoId", produtoId);
-            resultado.put("loteEmbalagem", loteEmbalagem);
-            resultado.put("embalamento", embalamento);
-            resultado.put("dataEmbalamento", dataEmbalamento);
-            resultado.put("dataValidade", dataValidade);
-            resultado.put("responsavelEmbalamento", responsavelEmbalamento);
-            resultado.put("caminhoEtiqueta", caminhoEtiqueta);
+            resultado.put("etiquetasGeradas", n);
+            resultado.put("primeiroProdutoId", PREFIXO_PRODUTO + GeradorIdentificadores.codificar(primeiroId));
+            resultado.put("ultimoProdutoId",
+                    PREFIXO_PRODUTO + GeradorIdentificadores.codificar(GeradorIdentificadores.avancar(primeiroId, n - 1)));
+            dados.resumir(resultado);
+            resultado.put("caminhoEtiquetas", caminhoEtiquetas.toString());
+            resultado.put("caminhoIndice", caminhoIndice.toString());
+            resultado.put("tamanhoFicheiro", posicao);
+            resultado.put("formatoEtiqueta", FORMATO_ZPL ? "zpl" : "texto");
+            resultado.put("etiquetaImpressa", impressas);
+            if (erroImpressao != null) {
+                resultado.put("erroImpressao", erroImpressao);
+            }
             resultado.put("timestamp", new Date().toString());
 
         } catch (Exception e) {
+            Throwable causa = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            apagar(caminhoEtiquetas);
+            apagar(caminhoIndice);
             resultado.put("sucesso", false);
             resultado.put("etiquetaGerada", false);
-            resultado.put("erro", e.getMessage());
+            resultado.put("erro", causa.getMessage());
         }
 
         return resultado;
     }
 
+    /**
+     * Renderiza as etiquetas das unidades {@code [inicio, fim)} num buffer próprio.
+     */
+    private static Bloco renderizarBloco(DadosEtiqueta dados, long primeiroId, List<?> nomes, int inicio, int fim) {
+        Bloco bloco = new Bloco(inicio, fim - inicio);
+        Renderizacao renderizacao = emprestar();
+        try {
+            ModeloEtiqueta.Valores valores = renderizacao.valores.limpar();
+            dados.preencher(valores);
+            // Os identificadores e números são reescritos nos mesmos StringBuilder para cada etiqueta
+            StringBuilder produtoId = new StringBuilder(PREFIXO_PRODUTO.length() + GeradorIdentificadores.TAMANHO_CODIGO)
+                    .append(PREFIXO_PRODUTO);
+            StringBuilder unidade = new StringBuilder(8);
+            valores.texto(ModeloEtiqueta.Campo.PRODUTO_ID, produtoId);
+            for (int i = inicio; i < fim; i++) {
+                produtoId.setLength(PREFIXO_PRODUTO.length());
+                GeradorIdentificadores.codificar(GeradorIdentificadores.avancar(primeiroId, i), produtoId);
+                if (nomes != null) {
+                    valores.texto(ModeloEtiqueta.Campo.UNIDADE, String.valueOf(nomes.get(i)));
+                } else {
+                    unidade.setLength(0);
+                    valores.texto(ModeloEtiqueta.Campo.UNIDADE, unidade.append(i + 1));
+                }
+                int antes = bloco.saida.tamanho();
+                renderizar(renderizacao, valores, bloco.saida);
+                bloco.tamanhos[i - inicio] = bloco.saida.tamanho() - antes;
+            }
+            return bloco;
+        } finally {
+            devolver(renderizacao);
+        }
+    }
+
+    /** @return buffers livres para renderizar uma etiqueta, guardados ou novos. */
+    private static Renderizacao emprestar() {
+        Renderizacao renderizacao = RENDERIZACOES.poll();
+        return renderizacao != null ? renderizacao : new Renderizacao();
+    }
+
+    /** Devolve os buffers ao conjunto; se já estiver cheio, ficam para o GC. */
+    private static void devolver(Renderizacao renderizacao) {
+        RENDERIZACOES.offer(renderizacao);
+    }
+
+    /** Renderiza uma etiqueta no formato configurado. */
+    private static void renderizar(Renderizacao renderizacao, ModeloEtiqueta.Valores valores,
+                                   ModeloEtiqueta.Saida saida) {
+        if (FORMATO_ZPL) {
+            renderizacao.zpl.renderizar(valores, saida);
+        } else {
+            MODELO.renderizar(valores, saida);
+        }
+    }
+
+    /**
+     * Envia etiquetas ZPL para a impressora configurada.
+     *
+     * @return {@code true} se foram enviadas; {@code false} no formato de texto ou sem impressora.
+     * @throws IOException se a impressora não as receber.
+     */
+    private static boolean imprimir(ModeloEtiqueta.Saida etiquetas) throws IOException {
+        Impressora impressora = FORMATO_ZPL ? Impressora.configurada() : null;
+        if (impressora == null) {
+            return false;
+        }
+        impressora.imprimir(etiquetas.bytes(), 0, etiquetas.tamanho());
+        return true;
+    }
+
+    private static boolean lerFormato() {
+        String formato = System.getProperty("etiquetas.formato", "texto").trim().toLowerCase(Locale.ROOT);
+        switch (formato) {
+            case "texto":
+                return false;
+            case "zpl":
+                Registo.info("Etiquetas geradas em ZPL");
+                return true;
+            default:
+                throw new IllegalArgumentException("Formato de etiquetas desconhecido: " + formato);
+        }
+    }
+
+    /**
+     * Cria vazios os ficheiros de etiquetas e de índice de um lote, com o nome {@code base} ou,
+     * se algum já existir, com {@code base_2}, {@code base_3}, etc.
+     *
+     * @return nome comum dos dois ficheiros criados, sem extensão.
+     */
+    private static String criarFicheirosLote(String base) throws IOException {
+        String nome = base;
+        for (int n = 2; ; n++) {
+            Path etiquetas = Paths.get(nome + TIPO.getExtensao());
+            try {
+                Files.createFile(etiquetas);
+                try {
+                    Files.createFile(Paths.get(nome + ".idx"));
+                    return nome;
+                } catch (IOException e) {
+                    Files.delete(etiquetas);
+                    throw e;
+                }
+            } catch (FileAlreadyExistsException e) {
+                nome = base + "_" + n;
+            }
+        }
+    }
+
+    private static void apagar(Path caminho) {
+        if (caminho != null) {
+            try {
+                Files.deleteIfExists(caminho);
+            } catch (IOException e) {
+                Registo.aviso("Não foi possível apagar %s: %s", caminho, e.getMessage());
+            }
+        }
+    }
+
     /**
      * Gera o conteúdo textual formatado da etiqueta.
      *
      * <p>
-     * Este método cria uma representação em texto da etiqueta, com molduras
-     * e secções para:
+     * Este método cria uma representação em texto da etiqueta, segundo o
+     * {@link ModeloEtiqueta} carregado. O modelo por omissão tem molduras e secções para:
      * <ul>
      *     <li>Informações do produto (ID, lote, embalamento);</li>
      *     <li>Datas importantes (data de embalamento e data de validade);</li>
@@ -139,7 +455,7 @@ public class GerarEtiquetas {
      *     <li>Instruções gerais de conservação e consumo.</li>
      * </ul>
      * O formato é adequado para armazenamento em ficheiro de texto ou para
-     * impressão em consola.
+     * impressão em consola. As datas são escritas tal como recebidas.
      * </p>
      *
      * @param produtoId             identificador único do produto.
@@ -150,98 +466,148 @@ public class GerarEtiquetas {
      * @param responsavelEmbalamento nome do operador responsável pelo embalamento.
      * @return string contendo o texto da etiqueta formatada.
      */
-    private static String gerarConteudoFormatado(String produtoId, String loteEmbalagem,
-                                                 String embalamento, String dataEmbalamento,
-                                                 String dataValidade, String responsavelEmbalamento) {
-
-        StringBuilder sb = new StringBuilder();
-
-        // CABEÇALHO
-        sb.append("╔══════════════════════════════════════════════╗\n");
-        sb.append("║              ETIQUETA DO PRODUTO             ║\n");
-        sb.append("╚══════════════════════════════════════════════╝\n\n");
-
-        // INFORMAÇÕES DO PRODUTO
-        sb.append("┌────────────────────────────────────────────┐\n");
-        sb.append("│    INFORMAÇÕES DO PRODUTO                  │\n");
-        sb.append("├────────────────────────────────────────────┤\n");
-        sb.append(String.format("│ %-18s: %-22s │\n", "ID", produtoId));
-        sb.append(String.format("│ %-18s: %-22s │\n", "Lote", loteEmbalagem));
-        sb.append(String.format("│ %-18s: %-22s │\n", "Embalamento", embalamento));
-        sb.append("└────────────────────────────────────────────┘\n\n");
-
-        // DATAS
-        sb.append("┌────────────────────────────────────────────┐\n");
-        sb.append("│    DATAS IMPORTANTES                       │\n");
-        sb.append("├────────────────────────────────────────────┤\n");
-        sb.append(String.format("│ %-18s: %-22s │\n", "Embalado em", dataEmbalamento));
-        sb.append(String.format("│ %-18s: %-22s │\n", "Válido até", dataValidade));
-        sb.append("└────────────────────────────────────────────┘\n\n");
-
-        // RESPONSÁVEL
-        sb.append("┌────────────────────────────────────────────┐\n");
-        sb.append("│    RESPONSÁVEL                             │\n");
-        sb.append("├────────────────────────────────────────────┤\n");
-        sb.append(String.format("│ %-18s: %-22s │\n", "Embalado por", responsavelEmbalamento));
-        sb.append("└────────────────────────────────────────────┘\n\n");
-
-        // CÓDIGO
-        sb.append("┌────────────────────────────────────────────┐\n");
-        sb.append("│     CÓDIGO DO PRODUTO                      │\n");
-        sb.append("├────────────────────────────────────────────┤\n");
-        sb.append("│ ").append(produtoId).append(" ".repeat(Math.max(0, 38 - produtoId.length()))).append("│\n");
-        sb.append("└────────────────────────────────────────────┘\n\n");
-
-        // INSTRUÇÕES
-        sb.append("┌────────────────────────────────────────────┐\n");
-        sb.append("│     INFORMAÇÕES                            │\n");
-        sb.append("├────────────────────────────────────────────┤\n");
-        sb.append("│ • Conservar em local fresco e seco         │\n");
-        sb.append("│ • Consumir até data de validade            │\n");
-        sb.append("│ • Produto inspecionado e aprovado          │\n");
-        sb.append("│ • Em caso de dúvida, contactar produção    │\n");
-        sb.append("└────────────────────────────────────────────┘\n\n");
-
-        // RODAPÉ
-        sb.append("══════════════════════════════════════════════\n");
-        sb.append("         Etiqueta gerada automaticamente      \n");
-        sb.append("══════════════════════════════════════════════\n");
-
-        return sb.toString();
+    static String gerarConteudoFormatado(String produtoId, String loteEmbalagem,
+                                         String embalamento, String dataEmbalamento,
+                                         String dataValidade, String responsavelEmbalamento) {
+        Renderizacao renderizacao = emprestar();
+        try {
+            renderizacao.valores.limpar()
+                    .texto(ModeloEtiqueta.Campo.PRODUTO_ID, produtoId)
+                    .texto(ModeloEtiqueta.Campo.LOTE, loteEmbalagem)
+                    .texto(ModeloEtiqueta.Campo.EMBALAMENTO, embalamento)
+                    .texto(ModeloEtiqueta.Campo.DATA_EMBALAMENTO, dataEmbalamento)
+                    .texto(ModeloEtiqueta.Campo.DATA_VALIDADE, dataValidade)
+                    .texto(ModeloEtiqueta.Campo.RESPONSAVEL, responsavelEmbalamento);
+            MODELO.renderizar(renderizacao.valores, renderizacao.saida.limpar());
+            return renderizacao.saida.toString();
+        } finally {
+            devolver(renderizacao);
+        }
     }
 
     /**
-     * Guarda o conteúdo da etiqueta num ficheiro de texto.
-     *
-     * <p>
-     * O ficheiro é criado na pasta {@code etiquetas_geradas} (caso não exista,
-     * é criada automaticamente). O nome do ficheiro inclui o lote e um timestamp
-     * no formato {@code yyyyMMdd_HHmmss}, no padrão {@code ETQ_<lote>_<timestamp>.txt}.
-     * </p>
-     *
-     * @param conteudo  texto completo da etiqueta a gravar.
-     * @param lote      lote associado à etiqueta (usado no nome do ficheiro).
-     * @param produtoId identificador do produto (não utilizado no nome do ficheiro,
-     *                  mas disponível para personalizações futuras).
-     * @return caminho relativo do ficheiro criado.
-     * @throws Exception se ocorrer algum erro ao criar a pasta ou escrever o ficheiro.
+     * @return modelo de etiqueta em uso.
      */
-    private static String salvarEmFicheiro(String conteudo, String lote, String produtoId) throws Exception {
-        File pasta = new File("etiquetas_geradas");
-        if (!pasta.exists()) {
-            pasta.mkdirs();
+    static ModeloEtiqueta modelo() {
+        return MODELO;
+    }
+
+    /**
+     * @return data/hora no formato {@code dd/MM/yyyy HH:mm:ss}, ou {@code null} se o texto não o seguir.
+     */
+    private static LocalDateTime lerDataHora(String texto) {
+        try {
+            return LocalDateTime.parse(texto, FORMATO_DATA_HORA);
+        } catch (DateTimeParseException e) {
+            return null;
         }
+    }
 
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HHmmss");
-        String timestamp = sdf.format(new Date());
-        String nomeFicheiro = String.format("ETQ_%s_%s.txt",
-                lote.replaceAll("[^a-zA-Z0-9-_]", ""),
-                timestamp);
+    /**
+     * @return data no formato {@code dd/MM/yyyy}, ou {@code null} se o texto não o seguir.
+     */
+    private static LocalDate lerData(String texto) {
+        try {
+            return LocalDate.parse(texto, FORMATO_DATA);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
 
-        String caminho = "etiquetas_geradas/" + nomeFicheiro;
+    /** Valores, buffer e renderizador ZPL emprestados a uma etiqueta ou a um bloco e reutilizados depois. */
+    private static final class Renderizacao {
+        final ModeloEtiqueta.Valores valores = new ModeloEtiqueta.Valores();
+        final ModeloEtiqueta.Saida saida = new ModeloEtiqueta.Saida(4096);
+        final EtiquetaZpl zpl = new EtiquetaZpl();
+    }
 
-        Files.write(Paths.get(caminho), conteudo.getBytes());
+    /** Etiquetas de unidades seguidas, renderizadas por uma tarefa do modo em lote. */
+    private static final class Bloco {
+        final int inicio;
+        final int[] tamanhos;
+        final ModeloEtiqueta.Saida saida;
+
+        Bloco(int inicio, int etiquetas) {
+            this.inicio = inicio;
+            this.tamanhos = new int[etiquetas];
+            // Texto fixo mais uma margem para os campos de cada etiqueta
+            this.saida = new ModeloEtiqueta.Saida(etiquetas
+                    * (FORMATO_ZPL ? EtiquetaZpl.TAMANHO_ESTIMADO : MODELO.tamanhoFixo() + 256));
+        }
+    }
+
+    /**
+     * Variáveis de um job comuns a todas as suas etiquetas, com os valores por omissão e
+     * as datas já lidas ou calculadas.
+     */
+    private static final class DadosEtiqueta {
+        String lote;
+        String embalamento;
+        String responsavel;
+        String dataEmbalamento;
+        String dataValidade;
+        /** Datas para o modelo: {@link LocalDateTime} e {@link LocalDate}, ou o texto recebido se não seguir o formato habitual. */
+        Object embaladoEm;
+        Object validaAte;
+
+        static DadosEtiqueta ler(Map<String, Object> variaveis) {
+            DadosEtiqueta d = new DadosEtiqueta();
+            d.lote = (String) variaveis.getOrDefault("lote_embalagem",
+                    "LOTE-" + GeradorIdentificadores.codificar(GeradorIdentificadores.partilhado().proximo()));
+            d.embalamento = (String) variaveis.getOrDefault("embalamento", "Embalamento padrão");
+            d.responsavel = (String) variaveis.getOrDefault("responsavel_embalamento",
+                    "Operador não identificado");
 
-        return caminho;
+            String dataEmbalamentoInput = (String) variaveis.get("data_embalamento");
+            String dataValidadeInput = (String) variaveis.get("validade");
+
+            LocalDateTime embaladoEm = null;
+            if (dataEmbalamentoInput != null && !dataEmbalamentoInput.trim().isEmpty()) {
+                d.dataEmbalamento = dataEmbalamentoInput; // Usa a data fornecida
+                embaladoEm = lerDataHora(dataEmbalamentoInput);
+                d.embaladoEm = embaladoEm != null ? embaladoEm : dataEmbalamentoInput;
+            } else {
+                LocalDateTime agora = LocalDateTime.now(); // Data atual
+                d.dataEmbalamento = FORMATO_DATA_HORA.format(agora);
+                d.embaladoEm = agora;
+            }
+
+            if (dataValidadeInput != null && !dataValidadeInput.trim().isEmpty()) {
+                d.dataValidade = dataValidadeInput; // Usa a data fornecida
+                LocalDate validaAte = lerData(dataValidadeInput);
+                d.validaAte = validaAte != null ? validaAte : dataValidadeInput;
+            } else {
+                LocalDate validaAte = (embaladoEm != null ? embaladoEm : LocalDateTime.now()).toLocalDate().plusDays(7);
+                d.dataValidade = FORMATO_DATA.format(validaAte);
+                d.validaAte = validaAte;
+            }
+            return d;
+        }
+
+        /** Define nos valores do modelo os campos comuns. */
+        void preencher(ModeloEtiqueta.Valores valores) {
+            valores.texto(ModeloEtiqueta.Campo.LOTE, lote)
+                    .texto(ModeloEtiqueta.Campo.EMBALAMENTO, embalamento)
+                    .texto(ModeloEtiqueta.Campo.RESPONSAVEL, responsavel);
+            data(valores, ModeloEtiqueta.Campo.DATA_EMBALAMENTO, embaladoEm);
+            data(valores, ModeloEtiqueta.Campo.DATA_VALIDADE, validaAte);
+        }
+
+        /** Acrescenta ao resultado do job as variáveis comuns. */
+        void resumir(Map<String, Object> resultado) {
+            resultado.put("loteEmbalagem", lote);
+            resultado.put("embalamento", embalamento);
+            resultado.put("dataEmbalamento", dataEmbalamento);
+            resultado.put("dataValidade", dataValidade);
+            resultado.put("responsavelEmbalamento", responsavel);
+        }
+
+        private static void data(ModeloEtiqueta.Valores valores, ModeloEtiqueta.Campo campo, Object valor) {
+            if (valor instanceof TemporalAccessor) {
+                valores.data(campo, (TemporalAccessor) valor);
+            } else {
+                valores.texto(campo, (CharSequence) valor);
+            }
+        }
     }
 }
@@ -0,0 +1,352 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Destino das etiquetas ZPL ({@link EtiquetaZpl}) para impressão.
+ *
+ * <p>
+ * A impressora é escolhida com a propriedade de sistema {@code etiquetas.impressora}:
+ * {@code <anfitrião>:<porta>} (porta 9100 por omissão, a porta RAW das impressoras
+ * Zebra) envia as etiquetas por TCP ({@link Tcp}); sem a propriedade, as etiquetas só são
+ * guardadas. Nos testes, a impressora pode ser um servidor TCP local que recebe o ZPL.
+ * Cada envio tem um tempo máximo, {@code etiquetas.impressora.timeout} em milissegundos
+ * ({@value Tcp#TEMPO_ENVIO_OMISSAO_MS} por omissão), que inclui a espera pelos envios de
+ * outras threads.
+ * </p>
+ */
+public interface Impressora extends AutoCloseable {
+
+    /** Porta RAW (JetDirect) das impressoras, usada quando {@code etiquetas.impressora} não a indica. */
+    int PORTA_OMISSAO = 9100;
+
+    /**
+     * Envia uma ou mais etiquetas completas ({@code ^XA} a {@code ^XZ}). Envios de
+     * threads diferentes não se misturam.
+     *
+     * @param dados   ZPL em UTF-8.
+     * @param inicio  posição do primeiro byte.
+     * @param tamanho número de bytes.
+     * @throws IOException se a impressora não puder receber as etiquetas ou não as receber a tempo.
+     */
+    void imprimir(byte[] dados, int inicio, int tamanho) throws IOException;
+
+    /**
+     * Fecha a ligação à impressora.
+     */
+    @Override
+    void close();
+
+    /**
+     * Impressora configurada com {@code etiquetas.impressora}, criada no primeiro uso e
+     * fechada no fim do processo.
+     *
+     * @return impressora partilhada por todos os workers, ou {@code null} se não houver.
+     * @throws IllegalArgumentException se {@code etiquetas.impressora} for inválida.
+     */
+    static Impressora configurada() {
+        return Configurada.obter();
+    }
+
+    /**
+     * Impressora de rede que recebe ZPL numa ligação TCP, mantida aberta entre envios.
+     * Se um envio falhar, a ligação é refeita e o envio repetido uma vez; uma etiqueta
+     * cortada pela falha pode assim sair duas vezes.
+     *
+     * <p>
+     * Uma impressora parada (sem papel, em pausa) deixa de ler e a escrita na ligação fica
+     * bloqueada. Por isso cada envio, contando a espera pelos de outras threads, tem um tempo
+     * máximo: ao fim dele, quem ainda espera desiste e a ligação em uso é fechada. O envio
+     * falha então com {@link SocketTimeoutException}, sem ser repetido, e o job não fica preso.
+     * </p>
+     */
+    final class Tcp implements Impressora {
+
+        /** Tempo máximo de um envio, quando {@code etiquetas.impressora.timeout} não está definido. */
+        public static final long TEMPO_ENVIO_OMISSAO_MS = 10_000;
+
+        private static final int TEMPO_LIGACAO_MS = 5000;
+
+        /** Fecha as ligações cujos envios passaram do tempo máximo. */
+        private static final ScheduledThreadPoolExecutor VIGIA = criarVigia();
+
+        private final String anfitriao;
+        private final int porta;
+        private final long tempoEnvioMs;
+        private final ReentrantLock envio = new ReentrantLock();
+        private final AtomicLong envios = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong ligacoes = new AtomicLong();
+        private final AtomicLong expirados = new AtomicLong();
+
+        private Socket socket;
+        private OutputStream saida;
+
+        /**
+         * @param anfitriao nome ou endereço da impressora.
+         * @param porta     porta TCP.
+         */
+        public Tcp(String anfitriao, int porta) {
+            this(anfitriao, porta, TEMPO_ENVIO_OMISSAO_MS);
+        }
+
+        /**
+         * @param anfitriao    nome ou endereço da impressora.
+         * @param porta        porta TCP.
+         * @param tempoEnvioMs tempo máximo de cada envio, incluindo a espera pelos de outras threads.
+         */
+        public Tcp(String anfitriao, int porta, long tempoEnvioMs) {
+            if (tempoEnvioMs < 1) {
+                throw new IllegalArgumentException("Tempo de envio inválido: " + tempoEnvioMs);
+            }
+            this.anfitriao = anfitriao;
+            this.porta = porta;
+            this.tempoEnvioMs = tempoEnvioMs;
+        }
+
+        /**
+         * Lê {@code <anfitrião>[:<porta>]}.
+         *
+         * @throws IllegalArgumentException se o endereço for inválido.
+         */
+        public static Tcp de(String endereco) {
+            return de(endereco, TEMPO_ENVIO_OMISSAO_MS);
+        }
+
+        /**
+         * Lê {@code <anfitrião>[:<porta>]}, com o tempo máximo de cada envio.
+         *
+         * @throws IllegalArgumentException se o endereço ou o tempo forem inválidos.
+         */
+        public static Tcp de(String endereco, long tempoEnvioMs) {
+            String texto = endereco.trim();
+            int separador = texto.lastIndexOf(':');
+            if (texto.isEmpty() || separador == 0) {
+                throw new IllegalArgumentException("Impressora inválida: " + endereco);
+            }
+            if (separador < 0) {
+                return new Tcp(texto, PORTA_OMISSAO, tempoEnvioMs);
+            }
+            try {
+                return new Tcp(texto.substring(0, separador), Integer.parseInt(texto.substring(separador + 1)),
+                        tempoEnvioMs);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Impressora inválida: " + endereco);
+            }
+        }
+
+        @Override
+        public void imprimir(byte[] dados, int inicio, int tamanho) throws IOException {
+            long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(tempoEnvioMs);
+            vez();
+            try {
+                for (int tentativa = 1; ; tentativa++) {
+                    try {
+                        if (saida == null) {
+                            ligar();
+                        }
+                        escrever(dados, inicio, tamanho, limite);
+                        envios.incrementAndGet();
+                        bytes.addAndGet(tamanho);
+                        return;
+                    } catch (SocketTimeoutException e) {
+                        // Repetir só voltaria a esperar pela mesma impressora parada
+                        desligar();
+                        expirados.incrementAndGet();
+                        throw e;
+                    } catch (IOException e) {
+                        desligar();
+                        if (tentativa == 2) {
+                            throw new IOException("Impressora " + this + " indisponível: " + e.getMessage(), e);
+                        }
+                    }
+                }
+            } finally {
+                envio.unlock();
+            }
+        }
+
+        /** Espera, no máximo o tempo de um envio, que os envios de outras threads terminem. */
+        private void vez() throws IOException {
+            try {
+                if (!envio.tryLock(tempoEnvioMs, TimeUnit.MILLISECONDS)) {
+                    expirados.incrementAndGet();
+                    throw new SocketTimeoutException("Impressora " + this + " ocupada há mais de "
+                            + tempoEnvioMs + " ms");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Envio para a impressora " + this + " interrompido");
+            }
+        }
+
+        /**
+         * Escreve na ligação aberta; se a escrita não terminar até {@code limite}
+         * ({@link System#nanoTime()}), a ligação é fechada, o que desbloqueia a escrita.
+         */
+        private void escrever(byte[] dados, int inicio, int tamanho, long limite) throws IOException {
+            long restante = limite - System.nanoTime();
+            if (restante <= 0) {
+                throw new SocketTimeoutException("Impressora " + this + " sem resposta em " + tempoEnvioMs + " ms");
+            }
+            Socket s = socket;
+            AtomicBoolean expirou = new AtomicBoolean();
+            ScheduledFuture<?> vigia = VIGIA.schedule(() -> {
+                expirou.set(true);
+                fechar(s);
+            }, restante, TimeUnit.NANOSECONDS);
+            try {
+                saida.write(dados, inicio, tamanho);
+                saida.flush();
+            } catch (IOException e) {
+                if (expirou.get()) {
+                    throw new SocketTimeoutException("Impressora " + this + " sem resposta em "
+                            + tempoEnvioMs + " ms");
+                }
+                throw e;
+            } finally {
+                vigia.cancel(false);
+            }
+            if (expirou.get()) {
+                // A escrita terminou, mas a ligação foi fechada mesmo no limite: o envio seguinte liga de novo
+                desligar();
+            }
+        }
+
+        private void ligar() throws IOException {
+            Socket s = new Socket();
+            try {
+                s.setTcpNoDelay(true);
+                s.connect(new InetSocketAddress(anfitriao, porta), TEMPO_LIGACAO_MS);
+                saida = s.getOutputStream();
+                socket = s;
+                ligacoes.incrementAndGet();
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+        }
+
+        private void desligar() {
+            fechar(socket);
+            socket = null;
+            saida = null;
+        }
+
+        private static void fechar(Socket s) {
+            if (s != null) {
+                try {
+                    s.close();
+                } catch (IOException e) {
+                    // a ligação já estava perdida
+                }
+            }
+        }
+
+        private static ScheduledThreadPoolExecutor criarVigia() {
+            ScheduledThreadPoolExecutor vigia = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "impressora-vigia");
+                t.setDaemon(true);
+                return t;
+            });
+            // Quase todos os envios terminam a tempo: as vigias canceladas saem logo da fila
+            vigia.setRemoveOnCancelPolicy(true);
+            return vigia;
+        }
+
+        @Override
+        public void close() {
+            envio.lock();
+            try {
+                desligar();
+            } finally {
+                envio.unlock();
+            }
+        }
+
+        /**
+         * @return envios concluídos.
+         */
+        public long getEnvios() {
+            return envios.get();
+        }
+
+        /**
+         * @return bytes enviados.
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * @return ligações abertas à impressora, incluindo as refeitas após falhas.
+         */
+        public long getLigacoes() {
+            return ligacoes.get();
+        }
+
+        /**
+         * @return envios que falharam por passarem do tempo máximo.
+         */
+        public long getExpirados() {
+            return expirados.get();
+        }
+
+        @Override
+        public String toString() {
+            return anfitriao + ":" + porta;
+        }
+    }
+
+    /** Impressora criada no primeiro uso de {@link #configurada()}. */
+    final class Configurada {
+
+        private static volatile boolean criada;
+        private static Impressora impressora;
+
+        private Configurada() {
+        }
+
+        static Impressora obter() {
+            if (!criada) {
+                synchronized (Configurada.class) {
+                    if (!criada) {
+                        impressora = criar();
+                        criada = true;
+                    }
+                }
+            }
+            return impressora;
+        }
+
+        private static Impressora criar() {
+            String endereco = System.getProperty("etiquetas.impressora");
+            if (endereco == null || endereco.trim().isEmpty()) {
+                return null;
+            }
+            Tcp tcp = Tcp.de(endereco, Long.getLong("etiquetas.impressora.timeout", Tcp.TEMPO_ENVIO_OMISSAO_MS));
+            Registo.info("Etiquetas ZPL enviadas para a impressora %s", tcp);
+            MetricasJobs.registarIndicador("impressora_envios_total", "counter",
+                    "Envios de etiquetas ZPL para a impressora", tcp::getEnvios);
+            MetricasJobs.registarIndicador("impressora_bytes_total", "counter",
+                    "Bytes de ZPL enviados para a impressora", tcp::getBytes);
+            MetricasJobs.registarIndicador("impressora_ligacoes_total", "counter",
+                    "Ligações TCP abertas à impressora", tcp::getLigacoes);
+            MetricasJobs.registarIndicador("impressora_envios_expirados_total", "counter",
+                    "Envios para a impressora que passaram do tempo máximo", tcp::getExpirados);
+            Runtime.getRuntime().addShutdownHook(new Thread(tcp::close, "impressora-fecho"));
+            return tcp;
+        }
+    }
+}
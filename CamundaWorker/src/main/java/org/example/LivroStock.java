@@ -0,0 +1,1096 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Livro de stock com reservas: cada alimento tem uma quantidade disponível e uma quantidade
+ * reservada, e um pedido com várias linhas é reservado por inteiro ou não é reservado.
+ *
+ * <p>
+ * Uma reserva ({@link #reservar(String[], int[], long)}) passa a quantidade pedida de
+ * disponível para reservada e fica pendente até ser confirmada ({@link #confirmar(long)}),
+ * quando a quantidade sai do stock, ou libertada ({@link #libertar(long)}), quando volta
+ * a ficar disponível. As reservas que passam o prazo sem confirmação são libertadas por
+ * {@link #libertarExpiradas(long)}.
+ * </p>
+ *
+ * <p>
+ * Os alimentos estão distribuídos por {@link #LISTRAS} locks ("lock striping"). Uma reserva
+ * bloqueia apenas as listras dos seus alimentos, sempre por ordem crescente para evitar
+ * deadlocks, pelo que pedidos de alimentos diferentes não disputam o mesmo lock. As
+ * quantidades só são alteradas com a listra bloqueada, mas podem ser lidas sem locks
+ * ({@link #verificar(String[], int[])}, {@link #disponivel(String)}).
+ * </p>
+ *
+ * <p>
+ * Cada alimento tem um identificador inteiro dado pelo {@link DicionarioAlimentos}, que é
+ * o índice das tabelas de quantidades. As grafias com e sem acentos ou maiúsculas do mesmo
+ * alimento ({@code "feijão"} e {@code "feijao"}) partilham a mesma entrada, e a procura de
+ * um nome não cria objetos.
+ * </p>
+ *
+ * <p>
+ * Com um {@link DiarioStock} ligado, cada movimento (reserva, confirmação, libertação,
+ * entrada e desperdício) é acrescentado ao diário com as listras ainda bloqueadas, e a
+ * operação só termina depois de o diário o dar como escrito.
+ * </p>
+ *
+ * <p>
+ * Cada alteração à quantidade disponível de um alimento aumenta a sua versão
+ * ({@link #lerVersoes(int[], int[])}), o que permite guardar o resultado de uma verificação
+ * e reutilizá-lo enquanto nenhum dos alimentos verificados mudar ({@link CacheVerificacoes}).
+ * </p>
+ *
+ * <p>
+ * Com uma {@link ReposicaoStock} ligada, cada movimento avalia o ponto de encomenda dos
+ * alimentos que movimentou, com a listra ainda bloqueada.
+ * </p>
+ *
+ * <p>
+ * As entradas com lote e validade ({@link #receber(String, int, String, long)}) ficam em
+ * {@link LotesStock}: as confirmações e os desperdícios consomem primeiro os lotes que
+ * expiram primeiro, e os lotes expirados são retirados do stock como desperdício por
+ * {@link #retirarExpirados(long)}.
+ * </p>
+ *
+ * <p>
+ * As quantidades estão num {@link ContadoresStock}: na memória do processo ou, com um
+ * {@link StockPartilhado}, num ficheiro mapeado partilhado pelos processos do mesmo host.
+ * Neste caso outro processo pode levar o stock entre a verificação e a alteração; uma
+ * reserva de várias linhas que falhe a meio devolve as linhas já reservadas e não é feita.
+ * Cada linha reservada fica registada na tabela com este processo como dono, e é devolvida
+ * ao stock por outro processo se este terminar sem fechar a reserva.
+ * </p>
+ */
+public class LivroStock {
+
+    /** Número de locks pelos quais os alimentos estão distribuídos. */
+    public static final int LISTRAS = 64;
+
+    private final DicionarioAlimentos dicionario;
+    /** Quantidades disponível e reservada de cada alimento, com a versão da disponível. */
+    private final ContadoresStock quantidades;
+    /** Os mesmos contadores, se puderem ser reconstruídos; {@code null} com um {@link StockPartilhado}. */
+    private final ContadoresStock.Reconstrucao reconstrucao;
+    private final ReentrantLock[] listras = new ReentrantLock[LISTRAS];
+
+    private final AtomicLong proximaReserva = new AtomicLong(1);
+    private final Map<Long, Reserva> pendentes = new ConcurrentHashMap<>();
+
+    /** Diário onde os movimentos são registados, ou {@code null} se o livro só existir em memória. */
+    private DiarioStock diario;
+
+    /** Pontos de encomenda avaliados a cada movimento, ou {@code null} sem reposição automática. */
+    private ReposicaoStock reposicao;
+    /** Índice do ponto de encomenda de cada alimento em {@link #reposicao}, ou {@code -1}. */
+    private int[] limiares;
+
+    /** Lotes com validade de uma parte do stock existente. */
+    private final LotesStock lotes = new LotesStock();
+
+    /**
+     * Cria o livro com as quantidades iniciais de cada alimento.
+     *
+     * <p>
+     * Se várias grafias do mesmo alimento aparecerem com quantidades (por exemplo
+     * {@code "feijão"} e {@code "feijao"}), são tratadas como o mesmo stock listado duas
+     * vezes: fica a maior quantidade, com um aviso se as quantidades forem diferentes.
+     * </p>
+     *
+     * @param inicial quantidade disponível de cada alimento.
+     */
+    public LivroStock(Map<String, Integer> inicial) {
+        this(CatalogoStock.de(inicial));
+    }
+
+    /**
+     * Cria o livro com as quantidades de um catálogo, partilhando o seu dicionário.
+     *
+     * @param catalogo quantidade disponível de cada alimento.
+     */
+    public LivroStock(CatalogoStock catalogo) {
+        this(catalogo, new ContadoresStock.Memoria(catalogo));
+    }
+
+    /**
+     * Cria o livro sobre uma tabela de stock partilhada entre processos, com os alimentos e
+     * as quantidades que a tabela tiver.
+     *
+     * @param partilhado tabela aberta com {@link StockPartilhado#abrir}.
+     */
+    public LivroStock(StockPartilhado partilhado) {
+        this(partilhado.getCatalogo(), partilhado);
+    }
+
+    private LivroStock(CatalogoStock catalogo, ContadoresStock quantidades) {
+        this.dicionario = catalogo.getDicionario();
+        this.quantidades = quantidades;
+        this.reconstrucao = quantidades instanceof ContadoresStock.Reconstrucao
+                ? (ContadoresStock.Reconstrucao) quantidades : null;
+        for (int i = 0; i < LISTRAS; i++) {
+            listras[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Verifica, sem reservar, se todos os alimentos existem com a quantidade pedida disponível.
+     * O resultado pode estar desatualizado logo a seguir; para garantir as quantidades deve
+     * ser usada uma reserva.
+     *
+     * @param alimentos   alimentos pedidos.
+     * @param quantidades quantidades correspondentes.
+     * @return {@code true} se todas as linhas podem ser atendidas.
+     */
+    public boolean verificar(String[] alimentos, int[] quantidades) {
+        for (int i = 0; i < alimentos.length; i++) {
+            int indice = dicionario.id(alimentos[i]);
+            if (indice < 0 || this.quantidades.disponivel(indice) < quantidades[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reserva todas as linhas de um pedido, ou nenhuma. Linhas repetidas do mesmo alimento
+     * são somadas; linhas com quantidade nula ou negativa não reservam nada.
+     *
+     * @param alimentos   alimentos pedidos.
+     * @param quantidades quantidades correspondentes.
+     * @param validadeMs  prazo da reserva, em milissegundos, até ser libertada por
+     *                    {@link #libertarExpiradas(long)}.
+     * @return reserva pendente, ou {@code null} se algum alimento não existir ou não tiver
+     *         a quantidade pedida disponível.
+     */
+    public Reserva reservar(String[] alimentos, int[] quantidades, long validadeMs) {
+        // Linhas como (índice << 32 | quantidade), ordenadas por índice para juntar repetidos
+        long[] linhas = new long[alimentos.length];
+        int n = 0;
+        for (int i = 0; i < alimentos.length; i++) {
+            int indice = dicionario.id(alimentos[i]);
+            if (indice < 0) {
+                return null;
+            }
+            if (quantidades[i] > 0) {
+                linhas[n++] = ((long) indice << 32) | quantidades[i];
+            }
+        }
+        Arrays.sort(linhas, 0, n);
+
+        int[] itens = new int[n];
+        int[] qtds = new int[n];
+        int m = 0;
+        long mascaraListras = 0;
+        for (int k = 0; k < n; k++) {
+            int indice = (int) (linhas[k] >>> 32);
+            int quantidade = (int) linhas[k];
+            if (m > 0 && itens[m - 1] == indice) {
+                long soma = (long) qtds[m - 1] + quantidade;
+                if (soma > Integer.MAX_VALUE) {
+                    return null;
+                }
+                qtds[m - 1] = (int) soma;
+            } else {
+                itens[m] = indice;
+                qtds[m] = quantidade;
+                m++;
+                mascaraListras |= 1L << (indice & (LISTRAS - 1));
+            }
+        }
+
+        Reserva reserva;
+        long posicao = 0;
+        bloquear(mascaraListras);
+        try {
+            for (int k = 0; k < m; k++) {
+                if (this.quantidades.disponivel(itens[k]) < qtds[k]) {
+                    return null;
+                }
+            }
+            if (!reservarItens(itens, qtds, m)) {
+                return null;
+            }
+            long expiraEm = System.currentTimeMillis() + validadeMs;
+            reserva = new Reserva(proximaReserva.getAndIncrement(),
+                    Arrays.copyOf(itens, m), Arrays.copyOf(qtds, m), mascaraListras, expiraEm,
+                    this.quantidades.registarReserva(itens, qtds, m, expiraEm));
+            pendentes.put(reserva.id, reserva);
+            if (diario != null) {
+                posicao = diario.reserva(reserva);
+            }
+        } finally {
+            desbloquear(mascaraListras);
+        }
+        aguardarDiario(posicao);
+        return reserva;
+    }
+
+    /**
+     * Reserva um lote de pedidos de uma só vez: cada pedido é reservado por inteiro ou não é
+     * reservado, como em {@link #reservar(String[], int[], long)}, mas o stock é atribuído
+     * aos pedidos do lote por ordem de {@linkplain PedidoAlimentos#getPrioridade() prioridade}
+     * (maior primeiro) e, com a mesma prioridade, pela ordem no array.
+     *
+     * <p>
+     * As listras de todos os alimentos do lote são bloqueadas uma única vez e a quantidade
+     * disponível de cada alimento é lida uma vez, por ordem crescente de identificador; os
+     * pedidos são depois avaliados sobre essa cópia. Com um diário, a operação espera uma
+     * única vez pela escrita de todas as reservas do lote.
+     * </p>
+     *
+     * @param pedidos    pedidos do lote.
+     * @param validadeMs prazo das reservas, em milissegundos.
+     * @return veredicto de cada pedido, com o mesmo índice que {@code pedidos}.
+     */
+    public VeredictoPedido[] reservarLote(PedidoAlimentos[] pedidos, long validadeMs) {
+        return avaliarLote(pedidos, true, validadeMs);
+    }
+
+    /**
+     * Avalia um lote de pedidos como {@link #reservarLote(PedidoAlimentos[], long)}, sem
+     * reservar nem usar locks: cada pedido atendido desconta o que pede ao stock visto pelos
+     * pedidos seguintes do lote. Tal como {@link #verificar(String[], int[])}, o resultado
+     * pode estar desatualizado logo a seguir.
+     *
+     * @param pedidos pedidos do lote.
+     * @return veredicto de cada pedido, sem reservas, com o mesmo índice que {@code pedidos}.
+     */
+    public VeredictoPedido[] verificarLote(PedidoAlimentos[] pedidos) {
+        return avaliarLote(pedidos, false, 0);
+    }
+
+    private VeredictoPedido[] avaliarLote(PedidoAlimentos[] pedidos, boolean reservar, long validadeMs) {
+        // 1. Identificador de cada linha e alimentos distintos do lote, por ordem crescente
+        int[] primeira = new int[pedidos.length + 1];
+        for (int i = 0; i < pedidos.length; i++) {
+            primeira[i + 1] = primeira[i] + pedidos[i].getAlimentos().length;
+        }
+        int[] linhas = new int[primeira[pedidos.length]];
+        int[] distintos = new int[linhas.length];
+        int u = 0;
+        for (int i = 0; i < pedidos.length; i++) {
+            String[] alimentos = pedidos[i].getAlimentos();
+            for (int j = 0; j < alimentos.length; j++) {
+                int indice = dicionario.id(alimentos[j]);
+                linhas[primeira[i] + j] = indice;
+                if (indice >= 0) {
+                    distintos[u++] = indice;
+                }
+            }
+        }
+        Arrays.sort(distintos, 0, u);
+        int m = 0;
+        long mascaraListras = 0;
+        for (int k = 0; k < u; k++) {
+            if (m == 0 || distintos[m - 1] != distintos[k]) {
+                distintos[m++] = distintos[k];
+                mascaraListras |= 1L << (distintos[k] & (LISTRAS - 1));
+            }
+        }
+        // Cada linha passa a apontar para a posição do seu alimento em distintos
+        for (int j = 0; j < linhas.length; j++) {
+            if (linhas[j] >= 0) {
+                linhas[j] = Arrays.binarySearch(distintos, 0, m, linhas[j]);
+            }
+        }
+
+        // 2. Ordem de atribuição: (~prioridade << 32 | índice), maior prioridade primeiro
+        long[] ordem = new long[pedidos.length];
+        for (int i = 0; i < pedidos.length; i++) {
+            ordem[i] = ((long) ~pedidos[i].getPrioridade() << 32) | i;
+        }
+        Arrays.sort(ordem);
+
+        VeredictoPedido[] veredictos = new VeredictoPedido[pedidos.length];
+        int[] restante = new int[m];
+        long[] pedido = new long[m];
+        int[] tocados = new int[m];
+        long posicao = 0;
+        if (reservar) {
+            bloquear(mascaraListras);
+        }
+        try {
+            for (int k = 0; k < m; k++) {
+                restante[k] = this.quantidades.disponivel(distintos[k]);
+            }
+            for (long chave : ordem) {
+                int i = (int) chave;
+                int[] quantidades = pedidos[i].getQuantidades();
+                int[] emFalta = new int[quantidades.length];
+                boolean[] desconhecidos = null;
+                boolean atendido = true;
+                int n = 0;
+                for (int j = 0; j < quantidades.length; j++) {
+                    int k = linhas[primeira[i] + j];
+                    int quantidade = quantidades[j];
+                    if (k < 0) {
+                        if (desconhecidos == null) {
+                            desconhecidos = new boolean[quantidades.length];
+                        }
+                        desconhecidos[j] = true;
+                        emFalta[j] = Math.max(quantidade, 0);
+                        atendido = false;
+                    } else if (quantidade > 0) {
+                        if (pedido[k] == 0) {
+                            tocados[n++] = k;
+                        }
+                        pedido[k] += quantidade;
+                        long excesso = pedido[k] - restante[k];
+                        if (excesso > 0) {
+                            emFalta[j] = (int) Math.min(quantidade, excesso);
+                            atendido = false;
+                        }
+                    }
+                }
+
+                Reserva reserva = null;
+                if (atendido) {
+                    Arrays.sort(tocados, 0, n);
+                    int[] itens = new int[n];
+                    int[] qtds = new int[n];
+                    long listrasPedido = 0;
+                    for (int t = 0; t < n; t++) {
+                        int k = tocados[t];
+                        itens[t] = distintos[k];
+                        qtds[t] = (int) pedido[k];
+                        listrasPedido |= 1L << (itens[t] & (LISTRAS - 1));
+                    }
+                    if (reservar && !reservarItens(itens, qtds, n)) {
+                        // Outro processo levou o stock: a falta mede-se contra o que ficou
+                        atendido = false;
+                        for (int t = 0; t < n; t++) {
+                            restante[tocados[t]] = this.quantidades.disponivel(itens[t]);
+                        }
+                        for (int j = 0; j < quantidades.length; j++) {
+                            int k = linhas[primeira[i] + j];
+                            if (k >= 0 && quantidades[j] > 0) {
+                                emFalta[j] = Math.max(0, Math.min(quantidades[j], quantidades[j] - restante[k]));
+                            }
+                        }
+                    } else {
+                        for (int t = 0; t < n; t++) {
+                            restante[tocados[t]] -= qtds[t];
+                        }
+                    }
+                    if (reservar && atendido) {
+                        long expiraEm = System.currentTimeMillis() + validadeMs;
+                        reserva = new Reserva(proximaReserva.getAndIncrement(), itens, qtds, listrasPedido,
+                                expiraEm, this.quantidades.registarReserva(itens, qtds, n, expiraEm));
+                        pendentes.put(reserva.id, reserva);
+                        if (diario != null) {
+                            posicao = diario.reserva(reserva);
+                        }
+                    }
+                }
+                for (int t = 0; t < n; t++) {
+                    pedido[tocados[t]] = 0;
+                }
+                veredictos[i] = new VeredictoPedido(pedidos[i], reserva, atendido, emFalta, desconhecidos);
+            }
+        } finally {
+            if (reservar) {
+                desbloquear(mascaraListras);
+            }
+        }
+        aguardarDiario(posicao);
+        return veredictos;
+    }
+
+    /**
+     * Confirma uma reserva pendente: as quantidades reservadas saem do stock.
+     *
+     * @param id identificador da reserva.
+     * @return {@code true} se a reserva estava pendente; {@code false} se já tinha sido
+     *         confirmada, libertada ou não existir.
+     */
+    public boolean confirmar(long id) {
+        return fechar(id, false);
+    }
+
+    /**
+     * Liberta uma reserva pendente: as quantidades reservadas voltam a ficar disponíveis.
+     *
+     * @param id identificador da reserva.
+     * @return {@code true} se a reserva estava pendente; {@code false} se já tinha sido
+     *         confirmada, libertada ou não existir.
+     */
+    public boolean libertar(long id) {
+        return fechar(id, true);
+    }
+
+    /**
+     * Liberta as reservas pendentes cujo prazo já passou.
+     *
+     * @param agoraMs instante atual, em milissegundos desde a época.
+     * @return número de reservas libertadas.
+     */
+    public int libertarExpiradas(long agoraMs) {
+        int libertadas = 0;
+        for (Reserva reserva : pendentes.values()) {
+            if (reserva.expiraEm <= agoraMs && fechar(reserva.id, true)) {
+                libertadas++;
+            }
+        }
+        return libertadas;
+    }
+
+    /**
+     * Regista a entrada de um alimento em stock (por exemplo, a receção de uma encomenda).
+     *
+     * @param alimento   nome do alimento; tem de existir no livro.
+     * @param quantidade quantidade recebida, positiva.
+     * @return {@code true} se a entrada foi registada; {@code false} se o alimento não existir,
+     *         a quantidade não for positiva ou o stock ultrapassar {@link Integer#MAX_VALUE}.
+     */
+    public boolean receber(String alimento, int quantidade) {
+        return receber(alimento, quantidade, null, 0);
+    }
+
+    /**
+     * Regista a entrada de um lote de um alimento, com a sua validade. A quantidade fica
+     * disponível como em {@link #receber(String, int)} e o lote passa a ser consumido por
+     * ordem de validade.
+     *
+     * @param alimento   nome do alimento; tem de existir no livro.
+     * @param quantidade quantidade recebida, positiva.
+     * @param lote       código do lote, ou {@code null} para uma entrada sem validade.
+     * @param validadeMs instante, em milissegundos desde a época, em que o lote expira.
+     * @return {@code true} se a entrada foi registada; {@code false} nos mesmos casos que
+     *         {@link #receber(String, int)}.
+     * @throws IllegalArgumentException se o lote já existir com outra validade.
+     */
+    public boolean receber(String alimento, int quantidade, String lote, long validadeMs) {
+        int indice = dicionario.id(alimento);
+        if (indice < 0 || quantidade <= 0) {
+            return false;
+        }
+        long listra = 1L << (indice & (LISTRAS - 1));
+        long posicao = 0;
+        bloquear(listra);
+        try {
+            if (lote != null) {
+                lotes.entrada(indice, dicionario.nome(indice), lote, validadeMs, quantidade);
+            }
+            int atual = quantidades.receber(indice, quantidade);
+            if (atual < 0) {
+                if (lote != null) {
+                    lotes.consumir(indice, quantidade, lote);
+                }
+                return false;
+            }
+            if (reposicao != null && limiares[indice] >= 0) {
+                reposicao.recebeu(limiares[indice], atual);
+            }
+            if (diario != null) {
+                posicao = diario.movimento(DiarioStock.ENTRADA, indice, quantidade, lote, validadeMs);
+            }
+        } finally {
+            desbloquear(listra);
+        }
+        aguardarDiario(posicao);
+        return true;
+    }
+
+    /**
+     * Retira do stock disponível uma quantidade desperdiçada (estragada, fora de validade).
+     *
+     * @param alimento   nome do alimento.
+     * @param quantidade quantidade desperdiçada, positiva.
+     * @return {@code true} se o desperdício foi registado; {@code false} se o alimento não
+     *         existir, a quantidade não for positiva ou exceder a quantidade disponível.
+     */
+    public boolean desperdicar(String alimento, int quantidade) {
+        return desperdicar(alimento, null, quantidade);
+    }
+
+    /**
+     * Retira do stock disponível uma quantidade desperdiçada, primeiro do lote indicado e
+     * depois dos lotes que expiram primeiro.
+     *
+     * @param alimento   nome do alimento.
+     * @param lote       código do lote desperdiçado, ou {@code null}.
+     * @param quantidade quantidade desperdiçada, positiva.
+     * @return {@code true} se o desperdício foi registado; {@code false} nos mesmos casos
+     *         que {@link #desperdicar(String, int)}.
+     */
+    public boolean desperdicar(String alimento, String lote, int quantidade) {
+        int indice = dicionario.id(alimento);
+        if (indice < 0 || quantidade <= 0) {
+            return false;
+        }
+        long listra = 1L << (indice & (LISTRAS - 1));
+        long posicao = 0;
+        bloquear(listra);
+        try {
+            int atual = quantidades.retirar(indice, quantidade);
+            if (atual < 0) {
+                return false;
+            }
+            lotes.consumir(indice, quantidade, lote);
+            baixou(indice, atual);
+            if (diario != null) {
+                posicao = diario.movimento(DiarioStock.DESPERDICIO, indice, quantidade, lote, 0);
+            }
+        } finally {
+            desbloquear(listra);
+        }
+        aguardarDiario(posicao);
+        return true;
+    }
+
+    /**
+     * Retira do stock os lotes cuja validade já passou, registando como desperdício a sua
+     * quantidade disponível. A parte de um lote expirado que estava reservada continua
+     * reservada e, se for confirmada, é retirada dos lotes seguintes.
+     *
+     * <p>
+     * Os lotes expirados são encontrados pelo início do índice por validade, sem percorrer
+     * os restantes: o custo é O(log n) por lote retirado.
+     * </p>
+     *
+     * @param agoraMs instante atual, em milissegundos desde a época.
+     * @return número de lotes retirados.
+     */
+    public int retirarExpirados(long agoraMs) {
+        int retirados = 0;
+        LotesStock.Lote lote;
+        while ((lote = lotes.primeiroExpirado(agoraMs)) != null) {
+            int indice = lote.id;
+            long listra = 1L << (indice & (LISTRAS - 1));
+            long posicao = 0;
+            int restante;
+            bloquear(listra);
+            try {
+                restante = lotes.remover(lote);
+                int quantidade = quantidades.retirarAte(indice, restante);
+                if (quantidade > 0) {
+                    baixou(indice, quantidades.disponivel(indice));
+                }
+                // Registado mesmo sem quantidade retirada: o lote deixa de existir
+                if (restante > 0 && diario != null) {
+                    posicao = diario.movimento(DiarioStock.EXPIRACAO, indice, quantidade,
+                            lote.getCodigo(), lote.getValidadeMs());
+                }
+            } finally {
+                desbloquear(listra);
+            }
+            aguardarDiario(posicao);
+            if (restante > 0) {
+                Registo.aviso("Lote %s de %s expirado: %d unidades retiradas do stock",
+                        lote.getCodigo(), lote.getAlimento(), restante);
+                retirados++;
+            }
+        }
+        return retirados;
+    }
+
+    /**
+     * Lotes de um alimento pela ordem em que são consumidos, limitados aos primeiros que
+     * cobrem {@code quantidade}: os lotes de onde sairia um consumo dessa quantidade.
+     *
+     * @param alimento   nome do alimento.
+     * @param quantidade quantidade a cobrir; {@link Integer#MAX_VALUE} para todos os lotes.
+     * @return lotes por ordem de validade; vazio se o alimento não existir ou não tiver lotes.
+     */
+    public List<LotesStock.Lote> lotes(String alimento, int quantidade) {
+        int indice = dicionario.id(alimento);
+        if (indice < 0) {
+            return List.of();
+        }
+        long listra = 1L << (indice & (LISTRAS - 1));
+        bloquear(listra);
+        try {
+            return lotes.primeiros(indice, quantidade);
+        } finally {
+            desbloquear(listra);
+        }
+    }
+
+    /**
+     * Lotes de todos os alimentos com validade até {@code ateMs}, por ordem de validade,
+     * incluindo os já expirados que ainda não foram retirados. Não usa locks.
+     *
+     * @param ateMs limite da validade, em milissegundos desde a época.
+     * @return lotes por ordem de validade.
+     */
+    public List<LotesStock.Lote> lotesAte(long ateMs) {
+        return lotes.ate(ateMs);
+    }
+
+    /**
+     * @return número de lotes com quantidade.
+     */
+    public int numeroLotes() {
+        return lotes.tamanho();
+    }
+
+    /**
+     * @param alimento nome do alimento.
+     * @return quantidade disponível (não reservada), ou {@code 0} se o alimento não existir.
+     */
+    public int disponivel(String alimento) {
+        int indice = dicionario.id(alimento);
+        return indice < 0 ? 0 : quantidades.disponivel(indice);
+    }
+
+    /**
+     * @param alimento nome do alimento.
+     * @return quantidade reservada e ainda não confirmada, ou {@code 0} se o alimento não existir.
+     */
+    public int reservado(String alimento) {
+        int indice = dicionario.id(alimento);
+        return indice < 0 ? 0 : quantidades.reservado(indice);
+    }
+
+    /**
+     * @return número de alimentos distintos no livro, depois de juntar as grafias repetidas.
+     */
+    public int tamanho() {
+        return dicionario.tamanho();
+    }
+
+    /**
+     * @return número de reservas pendentes.
+     */
+    public int reservasPendentes() {
+        return pendentes.size();
+    }
+
+    /**
+     * Cria um livro novo com outras quantidades disponíveis, para substituir este numa
+     * recarga do ficheiro de stock. Os alimentos deste livro que não aparecem em
+     * {@code quantidades} ficam com quantidade {@code 0}, para que as reservas pendentes
+     * possam passar para o livro novo com {@link #herdarReservas(LivroStock)}.
+     *
+     * @param quantidades novas quantidades disponíveis.
+     * @return livro novo, ainda sem reservas.
+     */
+    LivroStock comQuantidades(CatalogoStock quantidades) {
+        DicionarioAlimentos novos = quantidades.getDicionario();
+        int i = 0;
+        while (i < dicionario.tamanho() && novos.id(dicionario.nome(i)) >= 0) {
+            i++;
+        }
+        if (i == dicionario.tamanho()) {
+            // Caso habitual: nenhum alimento desapareceu e o catálogo serve tal como está
+            return new LivroStock(quantidades);
+        }
+        CatalogoStock.Construtor todas = new CatalogoStock.Construtor();
+        for (i = 0; i < novos.tamanho(); i++) {
+            todas.garantir(novos.nome(i), quantidades.quantidade(i));
+        }
+        for (i = 0; i < dicionario.tamanho(); i++) {
+            todas.garantir(dicionario.nome(i), 0);
+        }
+        return new LivroStock(todas.construir());
+    }
+
+    /**
+     * Copia para este livro as reservas pendentes de {@code anterior} (com os mesmos
+     * identificadores) e continua a sua numeração. As quantidades deste livro são as
+     * existentes, incluindo as reservadas, pelo que a quantidade disponível de cada alimento
+     * passa a ser a existente menos a reservada (no mínimo {@code 0}). {@code anterior} não
+     * deve receber movimentos durante a cópia.
+     */
+    void herdarReservas(LivroStock anterior) {
+        Fotografia foto = anterior.fotografar(() -> { });
+        for (Reserva reserva : foto.pendentes) {
+            int[] itens = new int[reserva.itens.length];
+            for (int k = 0; k < itens.length; k++) {
+                itens[k] = dicionario.id(anterior.nome(reserva.itens[k]));
+            }
+            restaurar(reserva.id, reserva.expiraEm, itens, reserva.quantidades.clone());
+        }
+        retomarNumeracao(foto.proximaReserva);
+
+        for (int i = 0; i < dicionario.tamanho(); i++) {
+            int emFalta = quantidades.reservado(i) - quantidades.disponivel(i);
+            if (emFalta > 0) {
+                Registo.aviso("Stock de %s inferior ao reservado em %d unidades", dicionario.nome(i), emFalta);
+            }
+            reconstrucao().definirDisponivel(i, Math.max(0, quantidades.disponivel(i) - quantidades.reservado(i)));
+        }
+    }
+
+    /**
+     * Copia para este livro os lotes de {@code anterior}, reduzindo os de cada alimento ao
+     * seu stock existente (disponível e reservado) neste livro, como se a diferença tivesse
+     * sido consumida. Deve ser chamado depois de {@link #herdarReservas(LivroStock)}, com
+     * {@code anterior} sem movimentos.
+     */
+    void herdarLotes(LivroStock anterior) {
+        for (LotesStock.Lote lote : anterior.lotes.todos()) {
+            int indice = dicionario.id(lote.getAlimento());
+            if (indice >= 0) {
+                lotes.entrada(indice, dicionario.nome(indice), lote.getCodigo(), lote.getValidadeMs(),
+                        lote.getQuantidade());
+            }
+        }
+        for (LotesStock.Lote lote : lotes.todos()) {
+            lotes.limitar(lote.id, quantidades.disponivel(lote.id) + quantidades.reservado(lote.id));
+        }
+    }
+
+    /**
+     * Passa a registar todos os movimentos no diário indicado. Deve ser chamado antes de o
+     * livro ser partilhado entre threads.
+     */
+    void ligarDiario(DiarioStock diario) {
+        this.diario = diario;
+    }
+
+    /**
+     * Passa a avaliar os pontos de encomenda indicados a cada movimento que mude a
+     * quantidade disponível de um alimento. Deve ser chamado antes de o livro ser partilhado
+     * entre threads, com as quantidades já finais (ver
+     * {@link ReposicaoStock#ligar(LivroStock, StockPartilhado)}).
+     */
+    void ligarReposicao(ReposicaoStock reposicao) {
+        this.limiares = reposicao.ligar(this,
+                quantidades instanceof StockPartilhado ? (StockPartilhado) quantidades : null);
+        this.reposicao = reposicao;
+    }
+
+    /**
+     * O destino não conseguiu tratar um evento de reposição: com a listra do alimento
+     * bloqueada, o alimento deixa de estar em reposição (ver {@link ReposicaoStock#falhou}).
+     *
+     * @param evento evento emitido pelos pontos de encomenda ligados a este livro ou ao
+     *               livro que ele substituiu.
+     */
+    void reposicaoFalhada(ReposicaoStock.Evento evento) {
+        int indice = dicionario.id(evento.getIngrediente());
+        if (reposicao == null || indice < 0) {
+            return;
+        }
+        long listra = 1L << (indice & (LISTRAS - 1));
+        bloquear(listra);
+        try {
+            reposicao.falhou(evento);
+        } finally {
+            desbloquear(listra);
+        }
+    }
+
+    /**
+     * @return identificador do alimento, ou {@code -1} se não existir.
+     */
+    int id(String alimento) {
+        return dicionario.id(alimento);
+    }
+
+    /**
+     * @return primeira grafia registada para o alimento com este identificador.
+     */
+    String nome(int id) {
+        return dicionario.nome(id);
+    }
+
+    /**
+     * Soma uma quantidade ao stock disponível de um alimento, sem verificações nem registo
+     * no diário. Usado apenas ao repetir o diário.
+     */
+    void ajustar(int id, int quantidade) {
+        reconstrucao().ajustar(id, quantidade);
+    }
+
+    /**
+     * Repete uma entrada do diário, com o seu lote, se tiver, sem registo no diário. Usado
+     * apenas ao recuperar o livro a partir do diário.
+     */
+    void repetirEntrada(int id, int quantidade, String lote, long validadeMs) {
+        if (lote != null) {
+            lotes.entrada(id, dicionario.nome(id), lote, validadeMs, quantidade);
+        }
+        reconstrucao().ajustar(id, quantidade);
+    }
+
+    /**
+     * Repete um desperdício do diário, que consome os lotes como o original (primeiro o lote
+     * indicado, depois por validade), sem registo no diário.
+     */
+    void repetirDesperdicio(int id, int quantidade, String lote) {
+        reconstrucao().ajustar(id, -quantidade);
+        lotes.consumir(id, quantidade, lote);
+    }
+
+    /**
+     * Repete a retirada de um lote expirado: o lote deixa de existir e sai do stock
+     * disponível a quantidade que saiu no original, sem registo no diário.
+     */
+    void repetirExpiracao(int id, int quantidade, String lote) {
+        reconstrucao().ajustar(id, -quantidade);
+        lotes.remover(id, lote);
+    }
+
+    /**
+     * Recria um lote de um snapshot, cuja quantidade já está no stock, sem registo no diário.
+     */
+    void restaurarLote(int id, String lote, long validadeMs, int quantidade) {
+        lotes.entrada(id, dicionario.nome(id), lote, validadeMs, quantidade);
+    }
+
+    /**
+     * Recria uma reserva pendente, cujas quantidades já não estão no stock disponível, sem
+     * registo no diário. Usado apenas ao recuperar o livro a partir do diário.
+     */
+    void restaurar(long id, long expiraEm, int[] itens, int[] quantidades) {
+        long mascaraListras = 0;
+        for (int k = 0; k < itens.length; k++) {
+            reconstrucao().restaurarReservado(itens[k], quantidades[k]);
+            mascaraListras |= 1L << (itens[k] & (LISTRAS - 1));
+        }
+        pendentes.put(id, new Reserva(id, itens, quantidades, mascaraListras, expiraEm, null));
+        retomarNumeracao(id + 1);
+    }
+
+    /**
+     * @return contadores deste livro, para os reconstruir.
+     * @throws IllegalStateException se o livro usar uma tabela partilhada, que nunca é
+     *                               reconstruída a partir de diários nem de recargas.
+     */
+    private ContadoresStock.Reconstrucao reconstrucao() {
+        if (reconstrucao == null) {
+            throw new IllegalStateException("o stock partilhado não é reconstruído por este processo");
+        }
+        return reconstrucao;
+    }
+
+    /**
+     * Garante que as próximas reservas têm identificador igual ou superior ao indicado.
+     */
+    void retomarNumeracao(long proxima) {
+        proximaReserva.accumulateAndGet(proxima, Math::max);
+    }
+
+    /**
+     * Tira uma fotografia consistente do livro: bloqueia todas as listras, executa
+     * {@code noCorte} (que não pode bloquear listras) e copia as quantidades disponíveis, as
+     * reservas pendentes e os lotes. Nenhum movimento fica a meio entre o livro e o diário.
+     */
+    Fotografia fotografar(Runnable noCorte) {
+        bloquear(-1L);
+        try {
+            noCorte.run();
+            int[] copia = new int[dicionario.tamanho()];
+            for (int i = 0; i < copia.length; i++) {
+                copia[i] = quantidades.disponivel(i);
+            }
+            List<LotesStock.Lote> copiaLotes = new ArrayList<>();
+            for (LotesStock.Lote lote : lotes.todos()) {
+                copiaLotes.add(lote.copia());
+            }
+            return new Fotografia(copia, new ArrayList<>(pendentes.values()), copiaLotes, proximaReserva.get());
+        } finally {
+            desbloquear(-1L);
+        }
+    }
+
+    /**
+     * Fecha uma reserva pendente: confirma-a ou, com {@code devolver}, liberta-a.
+     *
+     * <p>
+     * Com um {@link StockPartilhado}, as linhas registadas que outro processo já devolveu ao
+     * stock (este processo esteve bloqueado para lá do prazo) não voltam a ser movimentadas,
+     * e uma confirmação com alguma linha devolvida passa a libertação das restantes: o pedido
+     * já não tem o stock todo reservado.
+     * </p>
+     *
+     * @return {@code true} se a reserva foi fechada como pedido.
+     */
+    private boolean fechar(long id, boolean devolver) {
+        Reserva reserva = pendentes.get(id);
+        if (reserva == null) {
+            return false;
+        }
+        long posicao = 0;
+        boolean completa = true;
+        bloquear(reserva.listras);
+        try {
+            if (!pendentes.remove(id, reserva)) {
+                return false;
+            }
+            boolean[] devolvidas = null;
+            if (reserva.registo != null) {
+                for (int k = 0; k < reserva.itens.length; k++) {
+                    if (!quantidades.retirarRegisto(reserva.registo[k])) {
+                        if (devolvidas == null) {
+                            devolvidas = new boolean[reserva.itens.length];
+                        }
+                        devolvidas[k] = true;
+                        completa = false;
+                    }
+                }
+            }
+            boolean libertar = devolver || !completa;
+            for (int k = 0; k < reserva.itens.length; k++) {
+                if (devolvidas != null && devolvidas[k]) {
+                    continue;
+                }
+                if (libertar) {
+                    quantidades.libertar(reserva.itens[k], reserva.quantidades[k]);
+                } else {
+                    quantidades.confirmar(reserva.itens[k], reserva.quantidades[k]);
+                    lotes.consumir(reserva.itens[k], reserva.quantidades[k], null);
+                }
+            }
+            if (diario != null) {
+                posicao = diario.fecho(libertar ? DiarioStock.LIBERTACAO : DiarioStock.CONFIRMACAO, id);
+            }
+        } finally {
+            desbloquear(reserva.listras);
+        }
+        aguardarDiario(posicao);
+        return devolver || completa;
+    }
+
+    /**
+     * Identificadores dos alimentos indicados.
+     *
+     * @return identificador de cada alimento, ou {@code -1} para os que não existem.
+     */
+    int[] ids(String[] alimentos) {
+        int[] ids = new int[alimentos.length];
+        for (int i = 0; i < alimentos.length; i++) {
+            ids[i] = dicionario.id(alimentos[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * Copia para {@code destino} a versão atual de cada alimento; os identificadores
+     * negativos (alimentos inexistentes) ficam com versão {@code 0}.
+     */
+    void lerVersoes(int[] ids, int[] destino) {
+        for (int k = 0; k < ids.length; k++) {
+            destino[k] = ids[k] < 0 ? 0 : quantidades.versao(ids[k]);
+        }
+    }
+
+    /**
+     * @return {@code true} se nenhum dos alimentos mudou de quantidade disponível desde que
+     *         as versões foram lidas com {@link #lerVersoes(int[], int[])}.
+     */
+    boolean versoesIguais(int[] ids, int[] lidas) {
+        for (int k = 0; k < ids.length; k++) {
+            if (ids[k] >= 0 && quantidades.versao(ids[k]) != lidas[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reserva as quantidades de cada alimento, ou nenhuma: se um alimento já não tiver a
+     * quantidade (só possível com um {@link StockPartilhado}), os anteriores são libertados.
+     * Os pontos de encomenda só são avaliados depois de todos reservados. Chamado com as
+     * listras dos alimentos bloqueadas.
+     */
+    private boolean reservarItens(int[] itens, int[] qtds, int n) {
+        int[] atuais = new int[n];
+        for (int k = 0; k < n; k++) {
+            atuais[k] = quantidades.reservar(itens[k], qtds[k]);
+            if (atuais[k] < 0) {
+                for (int j = 0; j < k; j++) {
+                    quantidades.libertar(itens[j], qtds[j]);
+                }
+                return false;
+            }
+        }
+        for (int k = 0; k < n; k++) {
+            baixou(itens[k], atuais[k]);
+        }
+        return true;
+    }
+
+    /**
+     * A quantidade disponível de um alimento diminuiu para {@code atual}: avalia o seu ponto
+     * de encomenda, se tiver. Chamado com a listra do alimento bloqueada.
+     */
+    private void baixou(int id, int atual) {
+        if (reposicao != null && limiares[id] >= 0) {
+            reposicao.baixou(limiares[id], atual);
+        }
+    }
+
+    private void aguardarDiario(long posicao) {
+        if (diario != null) {
+            diario.aguardar(posicao);
+        }
+    }
+
+    /** Bloqueia as listras indicadas na máscara, por ordem crescente. */
+    private void bloquear(long mascara) {
+        for (long resto = mascara; resto != 0; resto &= resto - 1) {
+            listras[Long.numberOfTrailingZeros(resto)].lock();
+        }
+    }
+
+    private void desbloquear(long mascara) {
+        for (long resto = mascara; resto != 0; resto &= resto - 1) {
+            listras[Long.numberOfTrailingZeros(resto)].unlock();
+        }
+    }
+
+    /**
+     * Reserva pendente de um pedido.
+     */
+    public static class Reserva {
+
+        private final long id;
+        final int[] itens;
+        final int[] quantidades;
+        private final long listras;
+        private final long expiraEm;
+        /** Registo de cada linha no {@link StockPartilhado}, ou {@code null} se não tiver. */
+        private final long[] registo;
+
+        Reserva(long id, int[] itens, int[] quantidades, long listras, long expiraEm, long[] registo) {
+            this.id = id;
+            this.itens = itens;
+            this.quantidades = quantidades;
+            this.listras = listras;
+            this.expiraEm = expiraEm;
+            this.registo = registo;
+        }
+
+        /**
+         * @return identificador da reserva, a usar em {@link LivroStock#confirmar(long)} e
+         *         {@link LivroStock#libertar(long)}.
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return instante, em milissegundos desde a época, a partir do qual a reserva é libertada.
+         */
+        public long getExpiraEm() {
+            return expiraEm;
+        }
+    }
+
+    /**
+     * Estado do livro num corte consistente, para os snapshots do diário.
+     */
+    static class Fotografia {
+        final int[] disponivel;
+        final List<Reserva> pendentes;
+        /** Lotes com quantidade, por ordem de validade. */
+        final List<LotesStock.Lote> lotes;
+        final long proximaReserva;
+
+        Fotografia(int[] disponivel, List<Reserva> pendentes, List<LotesStock.Lote> lotes, long proximaReserva) {
+            this.disponivel = disponivel;
+            this.pendentes = pendentes;
+            this.lotes = lotes;
+            this.proximaReserva = proximaReserva;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lotes com validade do stock de um {@link LivroStock}: cada entrada de stock com lote fica
+ * registada com a sua data de validade, e o consumo retira primeiro dos lotes que expiram
+ * primeiro (FEFO, "first expired, first out").
+ *
+ * <p>
+ * Cada alimento com lotes tem um conjunto ordenado por validade, pelo que o próximo lote a
+ * consumir é encontrado em O(log n). Todos os lotes estão também num índice global por
+ * validade, que responde a consultas como "tudo o que expira nas próximas 48 horas"
+ * ({@link #ate(long)}) sem percorrer os restantes lotes.
+ * </p>
+ *
+ * <p>
+ * Os lotes cobrem uma parte do stock existente (disponível e reservado) de cada alimento,
+ * nunca mais: o stock carregado do ficheiro ou recebido sem lote não tem validade e é
+ * consumido depois de todos os lotes. Os conjuntos de cada alimento só são alterados com a
+ * listra do alimento bloqueada no livro; o índice global pode ser lido sem locks.
+ * </p>
+ */
+public final class LotesStock {
+
+    /** Ordem de consumo: validade mais próxima primeiro e, com a mesma validade, o lote mais antigo. */
+    private static final Comparator<Lote> FEFO = Comparator.<Lote>comparingLong(l -> l.validadeMs)
+            .thenComparingLong(l -> l.sequencia);
+
+    /** Lotes de cada alimento com lotes, pelo identificador do alimento no livro. */
+    private final Map<Integer, Alimento> alimentos = new ConcurrentHashMap<>();
+    /** Todos os lotes, por ordem de validade. */
+    private final ConcurrentSkipListSet<Lote> porValidade = new ConcurrentSkipListSet<>(FEFO);
+    private final AtomicLong sequencia = new AtomicLong();
+
+    /**
+     * Regista a entrada de uma quantidade num lote. Uma nova entrada num lote que o alimento
+     * já tem soma-se a ele. Chamado com a listra do alimento bloqueada.
+     *
+     * @throws IllegalArgumentException se o lote já existir com outra validade.
+     */
+    void entrada(int id, String nome, String codigo, long validadeMs, int quantidade) {
+        Alimento alimento = alimentos.computeIfAbsent(id, k -> new Alimento());
+        Lote lote = alimento.porCodigo.get(codigo);
+        if (lote != null) {
+            if (lote.validadeMs != validadeMs) {
+                throw new IllegalArgumentException("lote " + codigo + " de " + nome + " já existe com outra validade");
+            }
+            lote.quantidade += quantidade;
+        } else {
+            lote = new Lote(id, nome, codigo, validadeMs, sequencia.incrementAndGet(), quantidade);
+            alimento.porCodigo.put(codigo, lote);
+            alimento.fefo.add(lote);
+            porValidade.add(lote);
+        }
+        alimento.total += quantidade;
+    }
+
+    /**
+     * Retira uma quantidade consumida dos lotes de um alimento: primeiro do lote
+     * {@code preferido}, se existir, e depois por ordem de validade. Os lotes esgotados
+     * deixam de existir. Chamado com a listra do alimento bloqueada.
+     *
+     * @param preferido código do lote a consumir primeiro, ou {@code null}.
+     * @return quantidade retirada de lotes; o resto sai do stock sem lote.
+     */
+    int consumir(int id, int quantidade, String preferido) {
+        Alimento alimento = alimentos.get(id);
+        if (alimento == null) {
+            return 0;
+        }
+        int retirado = 0;
+        if (preferido != null) {
+            Lote lote = alimento.porCodigo.get(preferido);
+            if (lote != null) {
+                retirado += retirar(alimento, lote, quantidade);
+            }
+        }
+        while (retirado < quantidade && !alimento.fefo.isEmpty()) {
+            retirado += retirar(alimento, alimento.fefo.first(), quantidade - retirado);
+        }
+        if (alimento.fefo.isEmpty()) {
+            alimentos.remove(id);
+        }
+        return retirado;
+    }
+
+    /**
+     * Reduz os lotes de um alimento até somarem no máximo {@code existente}, consumindo-os
+     * por ordem de validade. Chamado com a listra do alimento bloqueada.
+     */
+    void limitar(int id, int existente) {
+        Alimento alimento = alimentos.get(id);
+        if (alimento != null && alimento.total > existente) {
+            consumir(id, alimento.total - Math.max(existente, 0), null);
+        }
+    }
+
+    /**
+     * Retira um lote por inteiro. Chamado com a listra do alimento bloqueada.
+     *
+     * @return quantidade que o lote tinha, ou {@code 0} se já não existia.
+     */
+    int remover(Lote lote) {
+        Alimento alimento = alimentos.get(lote.id);
+        if (alimento == null || alimento.porCodigo.get(lote.codigo) != lote) {
+            return 0;
+        }
+        int quantidade = retirar(alimento, lote, lote.quantidade);
+        if (alimento.fefo.isEmpty()) {
+            alimentos.remove(lote.id);
+        }
+        return quantidade;
+    }
+
+    /**
+     * Retira por inteiro o lote de um alimento com o código indicado, se existir. Chamado
+     * com a listra do alimento bloqueada.
+     *
+     * @return quantidade que o lote tinha, ou {@code 0} se não existia.
+     */
+    int remover(int id, String codigo) {
+        Alimento alimento = alimentos.get(id);
+        Lote lote = alimento == null ? null : alimento.porCodigo.get(codigo);
+        return lote == null ? 0 : remover(lote);
+    }
+
+    /**
+     * @return lote com a validade mais próxima, se já tiver expirado em {@code agoraMs};
+     *         {@code null} caso contrário.
+     */
+    Lote primeiroExpirado(long agoraMs) {
+        // first() lança exceção se outra thread esvaziar o índice entre isEmpty() e first()
+        Iterator<Lote> it = porValidade.iterator();
+        Lote primeiro = it.hasNext() ? it.next() : null;
+        return primeiro != null && primeiro.validadeMs <= agoraMs ? primeiro : null;
+    }
+
+    /**
+     * Lotes com validade até {@code ateMs} (inclusive), por ordem de validade, incluindo os
+     * já expirados que ainda não foram retirados. Não usa locks; custa O(log n + k) para
+     * k lotes devolvidos.
+     */
+    List<Lote> ate(long ateMs) {
+        List<Lote> lotes = new ArrayList<>();
+        for (Lote lote : porValidade.headSet(new Lote(-1, null, null, ateMs, Long.MAX_VALUE, 0), true)) {
+            lotes.add(lote.copia());
+        }
+        return lotes;
+    }
+
+    /**
+     * Lotes de um alimento por ordem de consumo, limitados aos primeiros que somam
+     * {@code quantidade}. Chamado com a listra do alimento bloqueada.
+     */
+    List<Lote> primeiros(int id, int quantidade) {
+        List<Lote> lotes = new ArrayList<>();
+        Alimento alimento = alimentos.get(id);
+        if (alimento == null) {
+            return lotes;
+        }
+        int soma = 0;
+        for (Iterator<Lote> it = alimento.fefo.iterator(); it.hasNext() && soma < quantidade; ) {
+            Lote lote = it.next();
+            lotes.add(lote.copia());
+            soma += lote.quantidade;
+        }
+        return lotes;
+    }
+
+    /**
+     * @return quantidade de um alimento coberta por lotes. Chamado com a listra do alimento bloqueada.
+     */
+    int total(int id) {
+        Alimento alimento = alimentos.get(id);
+        return alimento == null ? 0 : alimento.total;
+    }
+
+    /**
+     * @return todos os lotes, por ordem de validade, para copiar para outro livro.
+     */
+    Iterable<Lote> todos() {
+        return porValidade;
+    }
+
+    /**
+     * @return número de lotes com quantidade.
+     */
+    public int tamanho() {
+        return porValidade.size();
+    }
+
+    private int retirar(Alimento alimento, Lote lote, int quantidade) {
+        int retirado = Math.min(quantidade, lote.quantidade);
+        lote.quantidade -= retirado;
+        alimento.total -= retirado;
+        if (lote.quantidade == 0) {
+            alimento.porCodigo.remove(lote.codigo);
+            alimento.fefo.remove(lote);
+            porValidade.remove(lote);
+        }
+        return retirado;
+    }
+
+    /** Lotes de um alimento; alterados apenas com a listra do alimento bloqueada. */
+    private static final class Alimento {
+        final TreeSet<Lote> fefo = new TreeSet<>(FEFO);
+        final Map<String, Lote> porCodigo = new HashMap<>(4);
+        int total;
+    }
+
+    /**
+     * Lote de um alimento com a sua validade e a quantidade que ainda resta.
+     */
+    public static final class Lote {
+
+        final int id;
+        private final String alimento;
+        private final String codigo;
+        private final long validadeMs;
+        private final long sequencia;
+        private volatile int quantidade;
+
+        Lote(int id, String alimento, String codigo, long validadeMs, long sequencia, int quantidade) {
+            this.id = id;
+            this.alimento = alimento;
+            this.codigo = codigo;
+            this.validadeMs = validadeMs;
+            this.sequencia = sequencia;
+            this.quantidade = quantidade;
+        }
+
+        Lote copia() {
+            return new Lote(id, alimento, codigo, validadeMs, sequencia, quantidade);
+        }
+
+        /**
+         * @return alimento do lote, com o nome que tem no stock.
+         */
+        public String getAlimento() {
+            return alimento;
+        }
+
+        /**
+         * @return código do lote.
+         */
+        public String getCodigo() {
+            return codigo;
+        }
+
+        /**
+         * @return instante, em milissegundos desde a época, em que o lote expira.
+         */
+        public long getValidadeMs() {
+            return validadeMs;
+        }
+
+        /**
+         * @return quantidade que restava no lote quando foi lido.
+         */
+        public int getQuantidade() {
+            return quantidade;
+        }
+
+        @Override
+        public String toString() {
+            return alimento + "/" + codigo + " (" + quantidade + ")";
+        }
+    }
+}
@@ -8,8 +8,10 @@
 package org.example;
 
 import io.camunda.zeebe.client.ZeebeClient;
-import io.camunda.zeebe.client.api.worker.JobWorker;
+import io.camunda.zeebe.client.ZeebeClientBuilder;
+import io.camunda.zeebe.client.api.ZeebeFuture;
 import io.camunda.zeebe.client.api.response.ActivatedJob;
+import io.camunda.zeebe.client.api.response.ProcessInstanceEvent;
 import io.camunda.zeebe.client.api.worker.JobHandler;
 import io.camunda.zeebe.client.api.worker.JobClient;
 import io.camunda.zeebe.client.impl.oauth.OAuthCredentialsProvider;
@@ -20,7 +22,6 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.time.Duration;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -38,6 +39,9 @@ import java.util.Map;
  */
 public class    Main {
 
+    /** Processo de compra iniciado pela reposição automática, quando não configurado. */
+    public static final String PROCESSO_COMPRA = "Process_0gb46g6";
+
     /**
      * Ponto de entrada da aplicação.
      *
@@ -45,9 +49,14 @@ public class    Main {
      * Este método:
      * <ol>
      *     <li>Configura as credenciais OAuth para ligação ao cluster Zeebe;</li>
-     *     <li>Cria o cliente Zeebe com parâmetros de timeout e execução;</li>
+     *     <li>Cria o cliente Zeebe com parâmetros de timeout e execução
+     *         (executor por tipo de job, thread virtual por job ou pool partilhado,
+     *         ver {@link ExecucaoJobs});</li>
      *     <li>Testa a ligação ao gateway Zeebe;</li>
      *     <li>Regista os workers definidos no método {@link #setupWorkers(ZeebeClient)};</li>
+     *     <li>Liga a reposição automática do stock ao processo de compra
+     *         ({@link #ligarReposicao(ZeebeClient)});</li>
+     *     <li>Inicia o endpoint de métricas ({@link MetricasJobs});</li>
      *     <li>Mantém a thread principal ativa para que os workers continuem a correr.</li>
      * </ol>
      * </p>
@@ -63,7 +72,7 @@ public class    Main {
 
         String connectionString = clusterId + "." + region + ".zeebe.camunda.io";
 
-        System.out.println("Iniciando Worker Zeebe...");
+        Registo.info("Iniciando Worker Zeebe...");
 
         // Configuração mais robusta para evitar timeouts
         OAuthCredentialsProvider credentialsProvider = new OAuthCredentialsProviderBuilder()
@@ -74,37 +83,103 @@ public class    Main {
                 .readTimeout(Duration.ofSeconds(10)) // Timeout menor
                 .build();
 
-        try (ZeebeClient client = ZeebeClient.newClientBuilder()
+        ZeebeClientBuilder builder = clienteBase()
                 .gatewayAddress(connectionString)
-                .credentialsProvider(credentialsProvider)
-                .numJobWorkerExecutionThreads(3)
-                .defaultJobWorkerName("food-production-worker")
-                .defaultJobTimeout(Duration.ofMinutes(1))
-                .defaultJobWorkerMaxJobsActive(5)
-                .build()) {
+                .credentialsProvider(credentialsProvider);
 
-            System.out.println("Conectado ao Zeebe!");
+        try (ZeebeClient client = builder.build()) {
+
+            Registo.info("Conectado ao Zeebe!");
 
             // Testar conexão rápida
             try {
                 client.newTopologyRequest().send().join();
-                System.out.println("Conexão testada com sucesso!");
+                Registo.info("Conexão testada com sucesso!");
             } catch (Exception e) {
-                System.out.println("Aviso no teste: " + e.getMessage());
+                Registo.aviso("Aviso no teste: %s", e.getMessage());
             }
 
             // Registrar workers
             setupWorkers(client);
+            ligarReposicao(client);
+            MetricasJobs.iniciarServidor();
 
             // Manter ativo
             Thread.currentThread().join();
 
         } catch (Exception e) {
-            System.err.println("Erro: " + e.getMessage());
-            e.printStackTrace();
+            Registo.erro(e, "Erro: %s", e.getMessage());
         }
     }
 
+    /**
+     * Cria o builder do cliente Zeebe com a configuração comum dos workers, sem endereço
+     * do gateway nem credenciais.
+     *
+     * <p>
+     * É usado por {@link #main(String[])} para a ligação à Camunda Cloud e por
+     * {@code GeradorCarga} (em CamundaWorkerBenchmarks) para a ligação ao gateway local simulado.
+     * </p>
+     *
+     * @return builder com nome, timeout e {@code maxJobsActive} por omissão e o modo de execução configurado.
+     */
+    static ZeebeClientBuilder clienteBase() {
+        ZeebeClientBuilder builder = ZeebeClient.newClientBuilder()
+                .defaultJobWorkerName("food-production-worker")
+                .defaultJobTimeout(Duration.ofMinutes(1))
+                .defaultJobWorkerMaxJobsActive(5);
+
+        // Modo de execução: executor próprio por tipo de job (omissão), thread virtual por job ou pool partilhado
+        if (ExecucaoJobs.threadPorJob()) {
+            builder.jobWorkerExecutor(ExecucaoJobs.criarExecutorPorJob(), true);
+        } else {
+            builder.numJobWorkerExecutionThreads(ExecucaoJobs.THREADS_PARTILHADAS);
+        }
+        return builder;
+    }
+
+    /**
+     * Liga os eventos de reposição do stock ({@link StockManager#aoRepor}) ao processo de compra.
+     *
+     * <p>
+     * Cada alimento que atinge o ponto de encomenda inicia uma instância do processo
+     * {@code stock.reposicao.processo} (omissão {@link #PROCESSO_COMPRA}, "Seleção e Aquisição
+     * de alimentos") com as variáveis {@code ingrediente} e {@code quantidade}, que chegam ao
+     * worker {@code Emitir_Ordem_Compra}. O comando é enviado de forma assíncrona; se falhar,
+     * o alimento deixa de estar em reposição ({@link StockManager#reposicaoFalhada}) e o
+     * próximo movimento que o deixe no ponto de encomenda volta a iniciar o processo.
+     * </p>
+     *
+     * @param client cliente Zeebe já ligado ao cluster.
+     */
+    static void ligarReposicao(ZeebeClient client) {
+        String processo = System.getProperty("stock.reposicao.processo", PROCESSO_COMPRA);
+        StockManager.aoRepor(evento -> {
+            ZeebeFuture<ProcessInstanceEvent> envio;
+            try {
+                envio = client.newCreateInstanceCommand()
+                        .bpmnProcessId(processo)
+                        .latestVersion()
+                        .variables(evento.variaveis())
+                        .send();
+            } catch (RuntimeException e) {
+                StockManager.reposicaoFalhada(evento);
+                throw e;
+            }
+            envio.whenComplete((instancia, erro) -> {
+                if (erro != null) {
+                    StockManager.reposicaoFalhada(evento);
+                    Registo.erro("Processo de compra de %s não iniciado: %s",
+                            evento.getIngrediente(), erro.getMessage());
+                } else {
+                    Registo.info("Reposição de %s (%d disponíveis): processo de compra %d iniciado",
+                            evento.getIngrediente(), evento.getDisponivel(),
+                            instancia.getProcessInstanceKey());
+                }
+            });
+        });
+    }
+
     /**
      * Regista e configura todos os workers Zeebe utilizados pelo processo.
      *
@@ -115,506 +190,558 @@ public class    Main {
      *     <li><b>registar_nao_consumiveis</b>: regista produtos/alimentos não consumíveis
      *         e gera o relatório de desperdício correspondente;</li>
      *     <li><b>verificar_alimentos</b>: verifica se existe stock suficiente no armazém
-     *         para um conjunto de alimentos e quantidades;</li>
+     *         para um conjunto de alimentos e quantidades e reserva-o;</li>
      *     <li><b>Emitir_Ordem_Compra</b>: emite uma ordem de compra para o fornecedor;</li>
      *     <li><b>Enviar_amostras</b>: simula o envio de amostras pelo fornecedor;</li>
      *     <li><b>Preparar_Encomenda</b>: simula a preparação de uma encomenda;</li>
      *     <li><b>Rejeitar_Proposta</b>: regista a rejeição de uma proposta de fornecedor.</li>
      * </ul>
+     * Os handlers são declarados num {@link CatalogoWorkers}; o timeout, o {@code maxJobsActive}
+     * e o número de threads de cada tipo de job vêm de {@link ConfiguracaoWorkers}
+     * ({@code workers.properties}), e no modo isolado cada tipo tem as suas próprias vagas de
+     * execução ({@link ExecucaoJobs}).
+     * Cada worker declara as variáveis que lê ({@code fetchVariables}), de modo que o gateway
+     * só envia essas, e acede-lhes através de {@link VariaveisJob}, que descodifica cada
+     * variável apenas no primeiro acesso.
      * Cada worker trata o respetivo tipo de job, lê as variáveis do processo,
      * executa a lógica de negócio necessária e completa o job com as variáveis de saída.
+     * Os comandos de conclusão e de falha são enviados de forma assíncrona através de
+     * {@link ConclusaoJobs}, que limita o número de comandos em curso por tipo de job.
+     * Cada handler é instrumentado por um {@link MetricasJob}, que mede a ativação, a leitura
+     * das variáveis, a lógica de negócio, a escrita em ficheiro e a conclusão do job.
+     * As mensagens dos handlers são escritas de forma assíncrona pelo {@link Registo},
+     * com o tipo, a chave e o lote do job.
      * </p>
      *
      * @param client instância do {@link ZeebeClient} já ligada ao cluster,
      *               utilizada para criar e abrir os workers.
      */
-    private static void setupWorkers(ZeebeClient client) {
+    static void setupWorkers(ZeebeClient client) {
+        CatalogoWorkers catalogo = new CatalogoWorkers(ConfiguracaoWorkers.carregar());
 
         // 1. Worker: gerar_etiquetas
-        JobWorker worker1 = client.newWorker()
-                .jobType("gerar_etiquetas")
-                .handler(new JobHandler() {
-                    /**
-                     * Trata o job do tipo {@code gerar_etiquetas}.
-                     *
-                     * <p>
-                     * Lê as variáveis do job, chama {@link GerarEtiquetas#gerarEtiquetaCompleta(Map)}
-                     * para gerar a etiqueta e, em seguida, completa o job com o resultado.
-                     * Em caso de erro, completa o job com variáveis de erro identificando
-                     * que a etiqueta não foi gerada.
-                     * </p>
-                     *
-                     * @param jobClient cliente para envio de comandos relacionados com o job.
-                     * @param job       job Zeebe atualmente ativado, contendo as variáveis do processo.
-                     */
-                    @Override
-                    public void handle(JobClient jobClient, ActivatedJob job) {
-                        System.out.println("=================[Gerar Etiquetas]==============================");
-
-                        try {
-                            Map<String, Object> vars = job.getVariablesAsMap();
-
-                            Map<String, Object> resultado = GerarEtiquetas.gerarEtiquetaCompleta(vars);
-
-                            jobClient.newCompleteCommand(job.getKey())
-                                    .variables(resultado)
-                                    .send()
-                                    .join();
-
-                            System.out.println("Etiqueta gerada: " + resultado.get("produtoId"));
-
-                        } catch (Exception e) {
-                            System.err.println(" Erro: " + e.getMessage());
-
-                            Map<String, Object> erro = Map.of(
-                                    "etiquetaGerada", false,
-                                    "erro", e.getMessage()
-                            );
-
-                            jobClient.newCompleteCommand(job.getKey())
-                                    .variables(erro)
-                                    .send()
-                                    .join();
-                        }
+        MetricasJob metricas1 = catalogo.metricas("gerar_etiquetas");
+        catalogo.registar("gerar_etiquetas", new JobHandler() {
+            /**
+             * Trata o job do tipo {@code gerar_etiquetas}.
+             *
+             * <p>
+             * Lê as variáveis do job, chama {@link GerarEtiquetas#gerarEtiquetaCompleta(Map)}
+             * para gerar a etiqueta (ou {@link GerarEtiquetas#gerarEtiquetasLote(Map)}, se o
+             * job trouxer {@code unidades}) e, em seguida, completa o job com o resultado.
+             * Em caso de erro, completa o job com variáveis de erro identificando
+             * que a etiqueta não foi gerada; nas métricas, o job conta como falha.
+             * </p>
+             *
+             * @param jobClient cliente para envio de comandos relacionados com o job.
+             * @param job       job Zeebe atualmente ativado, contendo as variáveis do processo.
+             */
+            @Override
+            public void handle(JobClient jobClient, ActivatedJob job) {
+                try {
+                    long inicio = System.nanoTime();
+                    VariaveisJob vars = new VariaveisJob(job);
+                    vars.size(); // indexa as variáveis; os valores são descodificados no primeiro acesso
+                    Registo.lote(vars.texto("lote_embalagem", null));
+                    metricas1.registar(MetricasJob.Etapa.DESCODIFICACAO, System.nanoTime() - inicio);
+
+                    inicio = System.nanoTime();
+                    boolean emLote = vars.containsKey("unidades");
+                    Map<String, Object> resultado = emLote
+                            ? GerarEtiquetas.gerarEtiquetasLote(vars)
+                            : GerarEtiquetas.gerarEtiquetaCompleta(vars);
+                    metricas1.registarNegocio(System.nanoTime() - inicio);
+
+                    ConclusaoJobs.completar(jobClient, job, resultado);
+
+                    if (emLote) {
+                        Registo.info("Etiquetas geradas: %s em %s", resultado.get("etiquetasGeradas"),
+                                resultado.get("caminhoEtiquetas"));
+                    } else {
+                        Registo.info("Etiqueta gerada: %s", resultado.get("produtoId"));
                     }
-                })
-                .timeout(Duration.ofSeconds(60))
-                .maxJobsActive(3)
-                .open();
+
+                } catch (Exception e) {
+                    Registo.erro("Erro: %s", e.getMessage());
+
+                    Map<String, Object> erro = Map.of(
+                            "etiquetaGerada", false,
+                            "erro", e.getMessage()
+                    );
+
+                    ConclusaoJobs.completarComErro(jobClient, job, erro);
+                }
+            }
+        }, "lote_embalagem", "embalamento", "responsavel_embalamento",
+                "data_embalamento", "validade", "unidades");
 
         // 2. Worker: registar_nao_consumiveis
-        JobWorker worker2 = client.newWorker()
-                .jobType("registar_nao_consumiveis")
-                .handler(new JobHandler() {
-                    /**
-                     * Trata o job do tipo {@code registar_nao_consumiveis}.
-                     *
-                     * <p>
-                     * Este handler:
-                     * <ol>
-                     *     <li>Lê e regista as variáveis recebidas (alimentos, quantidades, lote, etc.);</li>
-                     *     <li>Prepara um mapa de variáveis para geração do relatório de desperdício;</li>
-                     *     <li>Invoca {@link RelatorioDesperdicio#criarRelatorioCompleto(Map)} para
-                     *     criar o relatório em ficheiro;</li>
-                     *     <li>Completa o job com informação sobre o sucesso, caminho do ficheiro,
-                     *     funcionário, lote, responsável e timestamp.</li>
-                     * </ol>
-                     * Em caso de erro, completa o job com variáveis que indicam falha no registo.
-                     * </p>
-                     *
-                     * @param jobClient cliente para envio de comandos relacionados com o job.
-                     * @param job       job Zeebe atualmente ativado, contendo as variáveis do processo.
-                     */
-                    @Override
-                    public void handle(JobClient jobClient, ActivatedJob job) {
-                        System.out.println("=================[Registar Nao Consumiveis]==============================");
-
-                        try {
-                            Map<String, Object> vars = job.getVariablesAsMap();
-
-                            System.out.println("VARIÁVEIS RECEBIDAS:");
-                            vars.forEach((key, value) ->
-                                    System.out.println("   • " + key + " = " + value));
-
-                            String alimentos = (String) vars.getOrDefault("alimentos", "");
-                            String quantidades = (String) vars.getOrDefault("quantidades", "");
-                            String lote = (String) vars.getOrDefault("lote_produto", "LOTE-NÃO-INFORMADO");
-                            String responsavelCozedura = (String) vars.getOrDefault("responsavel_cozedura", "Não informado");
-                            String funcionario = (String) vars.getOrDefault("nome_funcionario", "Anónimo");
-                            String motivo = (String) vars.getOrDefault("motivo", "qualidade_insuficiente");
-
-                            String descPreparacao = (String) vars.getOrDefault("descricao_preparacao", "N/A");
-                            String descProcedimento = (String) vars.getOrDefault("descricao_procedimento", "N/A");
-                            String equipamentos = (String) vars.getOrDefault("equipamentos", "N/A");
-
-                            Map<String, Object> variaveisParaRelatorio = new HashMap<>();
-                            variaveisParaRelatorio.put("alimentos", alimentos);
-                            variaveisParaRelatorio.put("quantidades", quantidades);
-                            variaveisParaRelatorio.put("lote_produto", lote);
-                            variaveisParaRelatorio.put("responsavel_cozedura", responsavelCozedura);
-                            variaveisParaRelatorio.put("nome_funcionario", funcionario);
-                            variaveisParaRelatorio.put("motivo", motivo);
-                            variaveisParaRelatorio.put("descricao_preparacao", descPreparacao);
-                            variaveisParaRelatorio.put("descricao_procedimento", descProcedimento);
-                            variaveisParaRelatorio.put("equipamentos", equipamentos);
-
-                            Map<String, Object> resultadoRelatorio =
-                                    RelatorioDesperdicio.criarRelatorioCompleto(variaveisParaRelatorio);
-
-                            Map<String, Object> resultado = new HashMap<>();
-
-                            resultado.putAll(resultadoRelatorio);
-
-                            resultado.put("registrado", resultadoRelatorio.get("sucesso"));
-                            resultado.put("funcionario", funcionario);
-                            resultado.put("lote", lote);
-                            resultado.put("responsavel_cozedura", responsavelCozedura);
-                            resultado.put("timestamp", new Date().toString());
-
-                            // 6. Completar o job
-                            jobClient.newCompleteCommand(job.getKey())
-                                    .variables(resultado)
-                                    .send()
-                                    .join();
-
-                            System.out.println("RELATÓRIO GERADO COM SUCESSO!");
-                            System.out.println("   Caminho: " + resultado.get("caminhoFicheiro"));
-                            System.out.println("=================[COMPLETO]==============================\n");
-
-                        } catch (Exception e) {
-                            System.err.println("ERRO: " + e.getMessage());
-                            e.printStackTrace();
-
-                            Map<String, Object> erro = new HashMap<>();
-                            erro.put("registrado", false);
-                            erro.put("erro", e.getMessage());
-                            erro.put("jobKey", job.getKey());
-
-                            jobClient.newCompleteCommand(job.getKey())
-                                    .variables(erro)
-                                    .send()
-                                    .join();
-                        }
+        MetricasJob metricas2 = catalogo.metricas("registar_nao_consumiveis");
+        catalogo.registar("registar_nao_consumiveis", new JobHandler() {
+            /**
+             * Trata o job do tipo {@code registar_nao_consumiveis}.
+             *
+             * <p>
+             * Este handler:
+             * <ol>
+             *     <li>Lê e regista as variáveis recebidas (alimentos, quantidades, lote, etc.);</li>
+             *     <li>Prepara um mapa de variáveis para geração do relatório de desperdício;</li>
+             *     <li>Invoca {@link RelatorioDesperdicio#criarRelatorioCompleto(Map)} para
+             *     criar o relatório em ficheiro;</li>
+             *     <li>Se o processo indicar stock desperdiçado em
+             *     {@code desperdicio_stock_alimentos} e {@code desperdicio_stock_quantidades}
+             *     (separados por ponto), retira-o do stock
+             *     ({@link StockManager#registarDesperdicio(PedidoAlimentos)}) e devolve em
+             *     {@code desperdicioRegistado} a quantidade retirada de cada linha (0 nas linhas
+             *     sem essa quantidade disponível). Os {@code alimentos} do relatório não saem do
+             *     stock: foram consumidos e já saíram com a confirmação da reserva em
+             *     {@code verificar_alimentos};</li>
+             *     <li>Completa o job com informação sobre o sucesso, caminho do ficheiro,
+             *     funcionário, lote, responsável e timestamp.</li>
+             * </ol>
+             * Em caso de erro, completa o job com variáveis que indicam falha no registo;
+             * nas métricas, o job conta como falha.
+             * </p>
+             *
+             * @param jobClient cliente para envio de comandos relacionados com o job.
+             * @param job       job Zeebe atualmente ativado, contendo as variáveis do processo.
+             */
+            @Override
+            public void handle(JobClient jobClient, ActivatedJob job) {
+                try {
+                    long inicio = System.nanoTime();
+                    VariaveisJob vars = new VariaveisJob(job);
+
+                    // A listagem descodifica todas as variáveis; só é feita com o nível DEBUG ativo
+                    if (Registo.ativo(Registo.Nivel.DEBUG)) {
+                        Registo.debug("VARIÁVEIS RECEBIDAS:");
+                        vars.forEach((key, value) -> Registo.debug("   • %s = %s", key, value));
+                    }
+
+                    String alimentos = vars.texto("alimentos", "");
+                    String quantidades = vars.texto("quantidades", "");
+                    String lote = vars.texto("lote_produto", "LOTE-NÃO-INFORMADO");
+                    Registo.lote(lote);
+                    String responsavelCozedura = vars.texto("responsavel_cozedura", "Não informado");
+                    String funcionario = vars.texto("nome_funcionario", "Anónimo");
+                    String motivo = vars.texto("motivo", "qualidade_insuficiente");
+
+                    String descPreparacao = vars.texto("descricao_preparacao", "N/A");
+                    String descProcedimento = vars.texto("descricao_procedimento", "N/A");
+                    String equipamentos = vars.texto("equipamentos", "N/A");
+                    String stockAlimentos = vars.texto("desperdicio_stock_alimentos", "");
+                    String stockQuantidades = vars.texto("desperdicio_stock_quantidades", "");
+                    metricas2.registar(MetricasJob.Etapa.DESCODIFICACAO, System.nanoTime() - inicio);
+
+                    Map<String, Object> variaveisParaRelatorio = new HashMap<>();
+                    variaveisParaRelatorio.put("alimentos", alimentos);
+                    variaveisParaRelatorio.put("quantidades", quantidades);
+                    variaveisParaRelatorio.put("lote_produto", lote);
+                    variaveisParaRelatorio.put("responsavel_cozedura", responsavelCozedura);
+                    variaveisParaRelatorio.put("nome_funcionario", funcionario);
+                    variaveisParaRelatorio.put("motivo", motivo);
+                    variaveisParaRelatorio.put("descricao_preparacao", descPreparacao);
+                    variaveisParaRelatorio.put("descricao_procedimento", descProcedimento);
+                    variaveisParaRelatorio.put("equipamentos", equipamentos);
+
+                    inicio = System.nanoTime();
+                    Map<String, Object> resultadoRelatorio =
+                            RelatorioDesperdicio.criarRelatorioCompleto(variaveisParaRelatorio);
+
+                    // O stock desperdiçado sai do stock (livro, diário e lotes) só com o relatório guardado
+                    String registado = null;
+                    if (!stockAlimentos.isBlank() && Boolean.TRUE.equals(resultadoRelatorio.get("sucesso"))) {
+                        registado = registarDesperdicioStock(stockAlimentos, stockQuantidades);
+                    }
+                    metricas2.registarNegocio(System.nanoTime() - inicio);
+
+                    Map<String, Object> resultado = new HashMap<>();
+
+                    resultado.putAll(resultadoRelatorio);
+
+                    resultado.put("registrado", resultadoRelatorio.get("sucesso"));
+                    if (registado != null) {
+                        resultado.put("desperdicioRegistado", registado);
                     }
-                })
-                .timeout(Duration.ofSeconds(60))
-                .maxJobsActive(3)
-                .open();
+                    resultado.put("funcionario", funcionario);
+                    resultado.put("lote", lote);
+                    resultado.put("responsavel_cozedura", responsavelCozedura);
+                    resultado.put("timestamp", new Date().toString());
+
+                    // 6. Completar o job
+                    ConclusaoJobs.completar(jobClient, job, resultado);
+
+                    Registo.info("Relatório gerado com sucesso: %s", resultado.get("caminhoFicheiro"));
+
+                } catch (Exception e) {
+                    Registo.erro(e, "ERRO: %s", e.getMessage());
+
+                    Map<String, Object> erro = new HashMap<>();
+                    erro.put("registrado", false);
+                    erro.put("erro", e.getMessage());
+                    erro.put("jobKey", job.getKey());
+
+                    ConclusaoJobs.completarComErro(jobClient, job, erro);
+                }
+            }
+        }, "alimentos", "quantidades", "lote_produto", "responsavel_cozedura", "nome_funcionario",
+                "motivo", "descricao_preparacao", "descricao_procedimento", "equipamentos",
+                "desperdicio_stock_alimentos", "desperdicio_stock_quantidades");
 
         // 3. Worker: verificar_alimentos
-        JobWorker worker3 = client.newWorker()
-                .jobType("verificar_alimentos")
-                .handler(new JobHandler() {
-                    /**
-                     * Trata o job do tipo {@code verificar_alimentos}.
-                     *
-                     * <p>
-                     * Este handler obtém listas de alimentos e quantidades a partir de
-                     * strings separadas por ponto, converte as quantidades em inteiros
-                     * e utiliza {@link StockManager#verificarPedido(String[], int[])} para
-                     * verificar se existe stock suficiente no armazém.
-                     * No fim, completa o job com a variável {@code AlimentosArmazem}
-                     * como {@code "true"} ou {@code "false"} e uma mensagem de texto.
-                     * </p>
-                     *
-                     * @param jobClient cliente para envio de comandos relacionados com o job.
-                     * @param job       job Zeebe atualmente ativado, contendo as variáveis do processo.
-                     */
-                    @Override
-                    public void handle(JobClient jobClient, ActivatedJob job) {
-                        System.out.println("=================[Verificar Stock de alimentos]==============================");
-
-                        try {
-                            Map<String, Object> vars = job.getVariablesAsMap();
-                            String alimentosStr = (String) vars.get("alimentos"); // "arroz.feijão.tomate"
-                            String quantidadesStr = (String) vars.get("quantidades"); // "5.3.2"
-
-                            // 1. Separar os dados
-                            String[] alimentos = alimentosStr.split("\\.");
-                            String[] quantidadesArray = quantidadesStr.split("\\.");
-
-                            // 2. Converter quantidades para int[]
-                            int[] quantidades = new int[quantidadesArray.length];
-                            for (int i = 0; i < quantidadesArray.length; i++) {
-                                quantidades[i] = Integer.parseInt(quantidadesArray[i].trim());
-                            }
-
-                            // 3. Verificar com StockManager
-                            boolean temTodos = StockManager.verificarPedido(alimentos, quantidades);
-
-                            // 4. Log simples
-                            System.out.println("Alimentos: " + String.join(", ", alimentos));
-                            System.out.println("Quantidades: " + Arrays.toString(quantidades));
-                            System.out.println("Resultado: " + (temTodos ? "TEM TODOS" : "FALTA ALGUM"));
-
-                            // 5. Preparar resposta SIM/NÃO para o gateway
-                            Map<String, Object> resultado = new HashMap<>();
-                            resultado.put("AlimentosArmazem", temTodos ? "true" : "false");
-                            resultado.put("mensagem", temTodos ? "Stock suficiente" : "Stock insuficiente");
-
-                            // 6. Completar
-                            jobClient.newCompleteCommand(job.getKey())
-                                    .variables(resultado)
-                                    .send()
-                                    .join();
-
-                        } catch (Exception e) {
-                            System.err.println("Erro: " + e.getMessage());
-                            jobClient.newFailCommand(job.getKey())
-                                    .retries(0)
-                                    .errorMessage("Erro na verificação: " + e.getMessage())
-                                    .send()
-                                    .join();
-                        }
+        MetricasJob metricas3 = catalogo.metricas("verificar_alimentos");
+        catalogo.registar("verificar_alimentos", new JobHandler() {
+            /**
+             * Trata o job do tipo {@code verificar_alimentos}.
+             *
+             * <p>
+             * Este handler obtém listas de alimentos e quantidades a partir de
+             * strings separadas por ponto e verifica-as com
+             * {@link StockManager#verificarPedido(String, String)}, que responde aos menus
+             * repetidos a partir da cache de verificações. Se houver stock, utiliza
+             * {@link StockManager#reservarAgrupado(PedidoAlimentos)} para
+             * reservar o pedido no armazém, por inteiro ou nada, de modo que dois
+             * pedidos simultâneos não aprovem o mesmo stock. Os pedidos que chegam ao
+             * mesmo tempo são reservados no mesmo lote, por ordem da variável opcional
+             * {@code prioridade} (maior primeiro) e de chegada.
+             * No fim, completa o job com a variável {@code AlimentosArmazem}
+             * como {@code "true"} ou {@code "false"}, uma mensagem de texto, a quantidade
+             * em falta de cada linha separada por ponto ({@code alimentosEmFalta}, por
+             * exemplo {@code "0.2.0"}) e, se o pedido foi reservado, o identificador da
+             * reserva ({@code reservaStock}).
+             * Quando o gateway aceita a conclusão, a reserva é confirmada e os alimentos saem
+             * do stock; se o job não puder ser completado, a reserva é libertada.
+             * </p>
+             *
+             * @param jobClient cliente para envio de comandos relacionados com o job.
+             * @param job       job Zeebe atualmente ativado, contendo as variáveis do processo.
+             */
+            @Override
+            public void handle(JobClient jobClient, ActivatedJob job) {
+                LivroStock.Reserva reserva = null;
+                try {
+                    long inicio = System.nanoTime();
+                    VariaveisJob vars = new VariaveisJob(job);
+                    String alimentosStr = vars.texto("alimentos", null); // "arroz.feijão.tomate"
+                    String quantidadesStr = vars.texto("quantidades", null); // "5.3.2"
+                    int prioridade = vars.get("prioridade") instanceof Number n ? n.intValue() : 0;
+                    metricas3.registar(MetricasJob.Etapa.DESCODIFICACAO, System.nanoTime() - inicio);
+
+                    // 1-2. Separar os dados e verificar; um menu repetido vem da cache já convertido
+                    inicio = System.nanoTime();
+                    VeredictoPedido veredicto = StockManager.verificarPedido(alimentosStr, quantidadesStr);
+                    String[] alimentos = veredicto.getPedido().getAlimentos();
+                    int[] quantidades = veredicto.getPedido().getQuantidades();
+
+                    // 3. Reservar com StockManager (tudo ou nada), no lote dos pedidos simultâneos;
+                    //    um pedido que já falha na verificação não tem stock para reservar
+                    if (veredicto.isAtendido()) {
+                        veredicto = StockManager.reservarAgrupado(
+                                new PedidoAlimentos(alimentos, quantidades, prioridade)).join();
+                    }
+                    reserva = veredicto.getReserva();
+                    boolean temTodos = reserva != null;
+                    metricas3.registarNegocio(System.nanoTime() - inicio);
+
+                    // 4. Log simples (os arrays são formatados pela thread de escrita do registo)
+                    Registo.info("Alimentos: %s | quantidades: %s | resultado: %s",
+                            alimentos, quantidades, temTodos ? "TEM TODOS" : "FALTA ALGUM");
+
+                    // 5. Preparar resposta SIM/NÃO para o gateway
+                    Map<String, Object> resultado = new HashMap<>();
+                    resultado.put("AlimentosArmazem", temTodos ? "true" : "false");
+                    resultado.put("mensagem", temTodos ? "Stock suficiente" : "Stock insuficiente");
+                    StringBuilder emFalta = new StringBuilder();
+                    for (int i = 0; i < veredicto.linhas(); i++) {
+                        emFalta.append(i == 0 ? "" : ".").append(veredicto.emFalta(i));
+                    }
+                    resultado.put("alimentosEmFalta", emFalta.toString());
+                    if (temTodos) {
+                        resultado.put("reservaStock", reserva.getId());
                     }
-                })
-                .timeout(Duration.ofSeconds(30))
-                .open();
 
-        // 4. Worker: Emitir Ordem de Compra
-        JobWorker worker4 = client.newWorker()
-                .jobType("Emitir_Ordem_Compra")
-                .handler(new JobHandler() {
-                    /**
-                     * Trata o job do tipo {@code Emitir_Ordem_Compra}.
-                     *
-                     * <p>
-                     * Simula a emissão de uma ordem de compra: lê as variáveis do fornecedor,
-                     * ingrediente e quantidade, escreve um log e marca nas variáveis do processo
-                     * que a ordem foi emitida ({@code ordemEmitida = true}, {@code estadoOrdem = "emitida"}).
-                     * </p>
-                     *
-                     * @param jobClient cliente para envio de comandos relacionados com o job.
-                     * @param job       job Zeebe atualmente ativado, contendo as variáveis do processo.
-                     */
-                    @Override
-                    public void handle(JobClient jobClient, ActivatedJob job) {
-                        System.out.println("=================[Emitir Ordem de Compra]==============================");
-
-                        try {
-                            Map<String, Object> vars = job.getVariablesAsMap();
-
-                            String fornecedor = (String) vars.getOrDefault("fornecedor", "N/D");
-                            String ingrediente = (String) vars.getOrDefault("ingrediente", "N/D");
-                            String quantidade = (String) vars.getOrDefault("quantidade", "N/D");
-
-                            System.out.printf("Emitir ordem de compra para %s | ingrediente: %s | quantidade: %s%n",
-                                    fornecedor, ingrediente, quantidade);
-
-                            // marca que a ordem foi emitida
-                            vars.put("ordemEmitida", true);
-                            vars.put("estadoOrdem", "emitida");
-
-                            jobClient.newCompleteCommand(job.getKey())
-                                    .variables(vars)
-                                    .send()
-                                    .join();
-
-                            System.out.println("Ordem de compra emitida com sucesso!");
-                        } catch (Exception e) {
-                            System.err.println("ERRO em Emitir_Ordem_Compra: " + e.getMessage());
-                            jobClient.newFailCommand(job.getKey())
-                                    .retries(0)
-                                    .errorMessage("Falha ao emitir ordem: " + e.getMessage())
-                                    .send()
-                                    .join();
+                    // 6. Completar; com a conclusão aceite os alimentos saem do stock, se o gateway
+                    //    recusar a reserva volta ao stock
+                    long idReserva = temTodos ? reserva.getId() : -1;
+                    ConclusaoJobs.completar(jobClient, job, resultado).whenComplete((resposta, erro) -> {
+                        if (idReserva <= 0) {
+                            return;
                         }
+                        if (erro != null) {
+                            StockManager.libertar(idReserva);
+                        } else if (!StockManager.confirmar(idReserva)) {
+                            Registo.registar(Registo.Nivel.AVISO, job,
+                                    "Reserva %d já não estava pendente; stock não confirmado", idReserva);
+                        }
+                    });
+
+                } catch (Exception e) {
+                    Registo.erro("Erro: %s", e.getMessage());
+                    if (reserva != null) {
+                        StockManager.libertar(reserva.getId());
                     }
-                })
-                .timeout(Duration.ofMinutes(2))
-                .maxJobsActive(3)
-                .open();
+                    ConclusaoJobs.falhar(jobClient, job, 0, "Erro na verificação: " + e.getMessage());
+                }
+            }
+        }, "alimentos", "quantidades", "prioridade");
+
+        // 4. Worker: Emitir Ordem de Compra
+        MetricasJob metricas4 = catalogo.metricas("Emitir_Ordem_Compra");
+        catalogo.registar("Emitir_Ordem_Compra", new JobHandler() {
+            /**
+             * Trata o job do tipo {@code Emitir_Ordem_Compra}.
+             *
+             * <p>
+             * Simula a emissão de uma ordem de compra: lê as variáveis do fornecedor,
+             * ingrediente e quantidade, escreve um log e marca nas variáveis do processo
+             * que a ordem foi emitida ({@code ordemEmitida = true}, {@code estadoOrdem = "emitida"}).
+             * </p>
+             *
+             * @param jobClient cliente para envio de comandos relacionados com o job.
+             * @param job       job Zeebe atualmente ativado, contendo as variáveis do processo.
+             */
+            @Override
+            public void handle(JobClient jobClient, ActivatedJob job) {
+                try {
+                    long inicio = System.nanoTime();
+                    VariaveisJob variaveis = new VariaveisJob(job);
+                    Map<String, Object> alteracoes = new HashMap<>();
+
+                    String fornecedor = variaveis.texto("fornecedor", "N/D");
+                    String ingrediente = variaveis.texto("ingrediente", "N/D");
+                    String quantidade = variaveis.texto("quantidade", "N/D");
+                    metricas4.registar(MetricasJob.Etapa.DESCODIFICACAO, System.nanoTime() - inicio);
+
+                    inicio = System.nanoTime();
+                    Registo.info("Emitir ordem de compra para %s | ingrediente: %s | quantidade: %s",
+                            fornecedor, ingrediente, quantidade);
+
+                    // marca que a ordem foi emitida
+                    alteracoes.put("ordemEmitida", true);
+                    alteracoes.put("estadoOrdem", "emitida");
+                    metricas4.registarNegocio(System.nanoTime() - inicio);
+
+                    ConclusaoJobs.completarAlteracoes(jobClient, job, variaveis, alteracoes);
+
+                    Registo.info("Ordem de compra emitida com sucesso!");
+                } catch (Exception e) {
+                    Registo.erro("ERRO em Emitir_Ordem_Compra: %s", e.getMessage());
+                    ConclusaoJobs.falhar(jobClient, job, 0, "Falha ao emitir ordem: " + e.getMessage());
+                }
+            }
+        }, "fornecedor", "ingrediente", "quantidade");
 
         // 5. Worker: Enviar Amostras (fornecedores)
-        JobWorker worker5 = client.newWorker()
-                .jobType("Enviar_amostras")
-                .handler(new JobHandler() {
-                    /**
-                     * Trata o job do tipo {@code Enviar_amostras}.
-                     *
-                     * <p>
-                     * Simula o envio de amostras por parte do fornecedor, regista o lote
-                     * e o ingrediente em log, e define a variável {@code amostrasEnviadas = true}
-                     * para indicar que a ação foi concluída.
-                     * </p>
-                     *
-                     * @param jobClient cliente para envio de comandos relacionados com o job.
-                     * @param job       job Zeebe atualmente ativado, contendo as variáveis do processo.
-                     */
-                    @Override
-                    public void handle(JobClient jobClient, ActivatedJob job) {
-                        System.out.println("=================[Enviar Amostras]==============================");
-
-                        try {
-                            Map<String, Object> vars = job.getVariablesAsMap();
-
-                            String loteAmostra = (String) vars.getOrDefault("lote_amostra", "LOTE-AMOSTRA-ND");
-                            String ingrediente = (String) vars.getOrDefault("ingrediente", "N/D");
-
-                            System.out.printf("Fornecedor está a enviar amostras | ingrediente: %s | lote: %s%n",
-                                    ingrediente, loteAmostra);
-
-                            vars.put("amostrasEnviadas", true);
-
-                            jobClient.newCompleteCommand(job.getKey())
-                                    .variables(vars)
-                                    .send()
-                                    .join();
-
-                            System.out.println("Amostras enviadas (simulado).");
-                        } catch (Exception e) {
-                            System.err.println("ERRO em Enviar_Amostras: " + e.getMessage());
-                            jobClient.newFailCommand(job.getKey())
-                                    .retries(0)
-                                    .errorMessage("Falha ao enviar amostras: " + e.getMessage())
-                                    .send()
-                                    .join();
-                        }
-                    }
-                })
-                .timeout(Duration.ofMinutes(1))
-                .maxJobsActive(3)
-                .open();
+        MetricasJob metricas5 = catalogo.metricas("Enviar_amostras");
+        catalogo.registar("Enviar_amostras", new JobHandler() {
+            /**
+             * Trata o job do tipo {@code Enviar_amostras}.
+             *
+             * <p>
+             * Simula o envio de amostras por parte do fornecedor, regista o lote
+             * e o ingrediente em log, e define a variável {@code amostrasEnviadas = true}
+             * para indicar que a ação foi concluída.
+             * </p>
+             *
+             * @param jobClient cliente para envio de comandos relacionados com o job.
+             * @param job       job Zeebe atualmente ativado, contendo as variáveis do processo.
+             */
+            @Override
+            public void handle(JobClient jobClient, ActivatedJob job) {
+                try {
+                    long inicio = System.nanoTime();
+                    VariaveisJob variaveis = new VariaveisJob(job);
+                    Map<String, Object> alteracoes = new HashMap<>();
+
+                    String loteAmostra = variaveis.texto("lote_amostra", "LOTE-AMOSTRA-ND");
+                    String ingrediente = variaveis.texto("ingrediente", "N/D");
+                    Registo.lote(loteAmostra);
+                    metricas5.registar(MetricasJob.Etapa.DESCODIFICACAO, System.nanoTime() - inicio);
+
+                    inicio = System.nanoTime();
+                    Registo.info("Fornecedor está a enviar amostras | ingrediente: %s | lote: %s",
+                            ingrediente, loteAmostra);
+
+                    alteracoes.put("amostrasEnviadas", true);
+                    metricas5.registarNegocio(System.nanoTime() - inicio);
+
+                    ConclusaoJobs.completarAlteracoes(jobClient, job, variaveis, alteracoes);
+
+                    Registo.info("Amostras enviadas (simulado).");
+                } catch (Exception e) {
+                    Registo.erro("ERRO em Enviar_Amostras: %s", e.getMessage());
+                    ConclusaoJobs.falhar(jobClient, job, 0, "Falha ao enviar amostras: " + e.getMessage());
+                }
+            }
+        }, "lote_amostra", "ingrediente");
 
         // 6. Worker: Preparar Encomenda
-        JobWorker worker6 = client.newWorker()
-                .jobType("Preparar_Encomenda")
-                .handler(new JobHandler() {
-                    /**
-                     * Trata o job do tipo {@code Preparar_Encomenda}.
-                     *
-                     * <p>
-                     * Simula a preparação de uma encomenda associada a uma determinada ordem.
-                     * Lê a variável {@code ordemId} para log, marca {@code encomendaPreparada = true}
-                     * e completa o job.
-                     * </p>
-                     *
-                     * @param jobClient cliente para envio de comandos relacionados com o job.
-                     * @param job       job Zeebe atualmente ativado, contendo as variáveis do processo.
-                     */
-                    @Override
-                    public void handle(JobClient jobClient, ActivatedJob job) {
-                        System.out.println("=================[Preparar Encomenda]==============================");
-
-                        try {
-                            Map<String, Object> vars = job.getVariablesAsMap();
-
-                            String ordemId = (String) vars.getOrDefault("ordemId", "ORDEM-ND");
-                            System.out.println("A preparar encomenda para ORDEM: " + ordemId);
-
-                            vars.put("encomendaPreparada", true);
-
-                            jobClient.newCompleteCommand(job.getKey())
-                                    .variables(vars)
-                                    .send()
-                                    .join();
-
-                            System.out.println("Encomenda preparada (simulado).");
-                        } catch (Exception e) {
-                            System.err.println("ERRO em Preparar_Encomenda: " + e.getMessage());
-                            jobClient.newFailCommand(job.getKey())
-                                    .retries(0)
-                                    .errorMessage("Falha ao preparar encomenda: " + e.getMessage())
-                                    .send()
-                                    .join();
-                        }
-                    }
-                })
-                .timeout(Duration.ofMinutes(2))
-                .maxJobsActive(3)
-                .open();
+        MetricasJob metricas6 = catalogo.metricas("Preparar_Encomenda");
+        catalogo.registar("Preparar_Encomenda", new JobHandler() {
+            /**
+             * Trata o job do tipo {@code Preparar_Encomenda}.
+             *
+             * <p>
+             * Simula a preparação de uma encomenda associada a uma determinada ordem.
+             * Lê a variável {@code ordemId} para log, marca {@code encomendaPreparada = true}
+             * e completa o job.
+             * </p>
+             *
+             * @param jobClient cliente para envio de comandos relacionados com o job.
+             * @param job       job Zeebe atualmente ativado, contendo as variáveis do processo.
+             */
+            @Override
+            public void handle(JobClient jobClient, ActivatedJob job) {
+                try {
+                    long inicio = System.nanoTime();
+                    VariaveisJob variaveis = new VariaveisJob(job);
+                    Map<String, Object> alteracoes = new HashMap<>();
+
+                    String ordemId = variaveis.texto("ordemId", "ORDEM-ND");
+                    metricas6.registar(MetricasJob.Etapa.DESCODIFICACAO, System.nanoTime() - inicio);
+
+                    inicio = System.nanoTime();
+                    Registo.info("A preparar encomenda para ORDEM: %s", ordemId);
+
+                    alteracoes.put("encomendaPreparada", true);
+                    metricas6.registarNegocio(System.nanoTime() - inicio);
+
+                    ConclusaoJobs.completarAlteracoes(jobClient, job, variaveis, alteracoes);
+
+                    Registo.info("Encomenda preparada (simulado).");
+                } catch (Exception e) {
+                    Registo.erro("ERRO em Preparar_Encomenda: %s", e.getMessage());
+                    ConclusaoJobs.falhar(jobClient, job, 0, "Falha ao preparar encomenda: " + e.getMessage());
+                }
+            }
+        }, "ordemId");
 
         // 7. Worker: Rejeitar Proposta
-        JobWorker worker7 = client.newWorker()
-                .jobType("Rejeitar_Proposta")
-                .handler(new JobHandler() {
-                    /**
-                     * Trata o job do tipo {@code Rejeitar_Proposta}.
-                     *
-                     * <p>
-                     * Regista a rejeição de uma proposta de fornecedor, indicando o motivo.
-                     * Define as variáveis {@code propostaRejeitada = true} e
-                     * {@code estadoProposta = "rejeitada"} e completa o job.
-                     * </p>
-                     *
-                     * @param jobClient cliente para envio de comandos relacionados com o job.
-                     * @param job       job Zeebe atualmente ativado, contendo as variáveis do processo.
-                     */
-                    @Override
-                    public void handle(JobClient jobClient, ActivatedJob job) {
-                        System.out.println("=================[Rejeitar Proposta]==============================");
-
-                        try {
-                            Map<String, Object> vars = job.getVariablesAsMap();
-
-                            String fornecedor = (String) vars.getOrDefault("fornecedor", "N/D");
-                            String motivo = (String) vars.getOrDefault("motivo_rejeicao",
-                                    "Proposta não cumpre os requisitos.");
-
-                            System.out.printf("Proposta do fornecedor %s rejeitada. Motivo: %s%n",
-                                    fornecedor, motivo);
-
-                            vars.put("propostaRejeitada", true);
-                            vars.put("estadoProposta", "rejeitada");
-
-                            jobClient.newCompleteCommand(job.getKey())
-                                    .variables(vars)
-                                    .send()
-                                    .join();
-
-                            System.out.println("Proposta marcada como REJEITADA.");
-                        } catch (Exception e) {
-                            System.err.println("ERRO em Rejeitar_Proposta: " + e.getMessage());
-                            jobClient.newFailCommand(job.getKey())
-                                    .retries(0)
-                                    .errorMessage("Falha ao rejeitar proposta: " + e.getMessage())
-                                    .send()
-                                    .join();
-                        }
-                    }
-                })
-                .timeout(Duration.ofMinutes(1))
-                .maxJobsActive(2)
-                .open();
+        MetricasJob metricas7 = catalogo.metricas("Rejeitar_Proposta");
+        catalogo.registar("Rejeitar_Proposta", new JobHandler() {
+            /**
+             * Trata o job do tipo {@code Rejeitar_Proposta}.
+             *
+             * <p>
+             * Regista a rejeição de uma proposta de fornecedor, indicando o motivo.
+             * Define as variáveis {@code propostaRejeitada = true} e
+             * {@code estadoProposta = "rejeitada"} e completa o job.
+             * </p>
+             *
+             * @param jobClient cliente para envio de comandos relacionados com o job.
+             * @param job       job Zeebe atualmente ativado, contendo as variáveis do processo.
+             */
+            @Override
+            public void handle(JobClient jobClient, ActivatedJob job) {
+                try {
+                    long inicio = System.nanoTime();
+                    VariaveisJob variaveis = new VariaveisJob(job);
+                    Map<String, Object> alteracoes = new HashMap<>();
+
+                    String fornecedor = variaveis.texto("fornecedor", "N/D");
+                    String motivo = variaveis.texto("motivo_rejeicao",
+                            "Proposta não cumpre os requisitos.");
+                    metricas7.registar(MetricasJob.Etapa.DESCODIFICACAO, System.nanoTime() - inicio);
+
+                    inicio = System.nanoTime();
+                    Registo.info("Proposta do fornecedor %s rejeitada. Motivo: %s",
+                            fornecedor, motivo);
+
+                    alteracoes.put("propostaRejeitada", true);
+                    alteracoes.put("estadoProposta", "rejeitada");
+                    metricas7.registarNegocio(System.nanoTime() - inicio);
+
+                    ConclusaoJobs.completarAlteracoes(jobClient, job, variaveis, alteracoes);
+
+                    Registo.info("Proposta marcada como REJEITADA.");
+                } catch (Exception e) {
+                    Registo.erro("ERRO em Rejeitar_Proposta: %s", e.getMessage());
+                    ConclusaoJobs.falhar(jobClient, job, 0, "Falha ao rejeitar proposta: " + e.getMessage());
+                }
+            }
+        }, "fornecedor", "motivo_rejeicao");
 
         // 8. Worker: Enviar Encomenda
-        JobWorker worker8 = client.newWorker()
-                .jobType("fornecedor_envia_encomenda")
-                .handler(new JobHandler() {
-
-                    /**
-                     * Trata o job do tipo {@code Enviar_Encomenda}.
-                     *
-                     * <p>
-                     * Simula o envio de uma encomenda para o fornecedor.
-                     * Não depende de formulários — apenas lê as variáveis existentes.
-                     * Define {@code encomendaEnviada = true} e {@code estadoEncomenda = "enviada"}.
-                     * </p>
-                     *
-                     * @param jobClient cliente para envio de comandos relacionados com o job.
-                     * @param job job Zeebe atualmente ativado.
-                     */
-                    @Override
-                    public void handle(JobClient jobClient, ActivatedJob job) {
-
-                        System.out.println("=================[Enviar Encomenda]==============================");
-
-                        try {
-                            Map<String, Object> vars = job.getVariablesAsMap();
-
-                            String fornecedor  = (String) vars.getOrDefault("fornecedor", "N/D");
-                            String ingrediente = (String) vars.getOrDefault("ingrediente", "N/D");
-                            String quantidade  = (String) vars.getOrDefault("quantidade", "N/D");
-                            String ordemId     = (String) vars.getOrDefault("ordemId", "ORDEM-ND");
-
-                            System.out.printf(
-                                    "A enviar encomenda para o fornecedor %s | ingrediente: %s | quantidade: %s | ordem: %s%n",
-                                    fornecedor, ingrediente, quantidade, ordemId
-                            );
-
-                            vars.put("encomendaEnviada", true);
-                            vars.put("estadoEncomenda", "enviada");
-
-                            jobClient.newCompleteCommand(job.getKey())
-                                    .variables(vars)
-                                    .send()
-                                    .join();
-
-                            System.out.println("Encomenda enviada com sucesso!");
-
-                        } catch (Exception e) {
-                            System.err.println("ERRO em Enviar_Encomenda: " + e.getMessage());
-
-                            jobClient.newFailCommand(job.getKey())
-                                    .retries(0)
-                                    .errorMessage("Falha ao enviar encomenda: " + e.getMessage())
-                                    .send()
-                                    .join();
-                        }
-                    }
-                })
-                .timeout(Duration.ofMinutes(2))
-                .maxJobsActive(3)
-                .open();
+        MetricasJob metricas8 = catalogo.metricas("fornecedor_envia_encomenda");
+        catalogo.registar("fornecedor_envia_encomenda", new JobHandler() {
+
+            /**
+             * Trata o job do tipo {@code Enviar_Encomenda}.
+             *
+             * <p>
+             * Simula o envio de uma encomenda para o fornecedor.
+             * Não depende de formulários — apenas lê as variáveis existentes.
+             * Define {@code encomendaEnviada = true} e {@code estadoEncomenda = "enviada"}.
+             * </p>
+             *
+             * @param jobClient cliente para envio de comandos relacionados com o job.
+             * @param job job Zeebe atualmente ativado.
+             */
+            @Override
+            public void handle(JobClient jobClient, ActivatedJob job) {
+                try {
+                    long inicio = System.nanoTime();
+                    VariaveisJob variaveis = new VariaveisJob(job);
+                    Map<String, Object> alteracoes = new HashMap<>();
+
+                    String fornecedor  = variaveis.texto("fornecedor", "N/D");
+                    String ingrediente = variaveis.texto("ingrediente", "N/D");
+                    String quantidade  = variaveis.texto("quantidade", "N/D");
+                    String ordemId     = variaveis.texto("ordemId", "ORDEM-ND");
+                    metricas8.registar(MetricasJob.Etapa.DESCODIFICACAO, System.nanoTime() - inicio);
+
+                    inicio = System.nanoTime();
+                    Registo.info(
+                            "A enviar encomenda para o fornecedor %s | ingrediente: %s | quantidade: %s | ordem: %s",
+                            fornecedor, ingrediente, quantidade, ordemId
+                    );
+
+                    alteracoes.put("encomendaEnviada", true);
+                    alteracoes.put("estadoEncomenda", "enviada");
+                    metricas8.registarNegocio(System.nanoTime() - inicio);
+
+                    ConclusaoJobs.completarAlteracoes(jobClient, job, variaveis, alteracoes);
+
+                    Registo.info("Encomenda enviada com sucesso!");
+
+                } catch (Exception e) {
+                    Registo.erro("ERRO em Enviar_Encomenda: %s", e.getMessage());
+
+                    ConclusaoJobs.falhar(jobClient, job, 0, "Falha ao enviar encomenda: " + e.getMessage());
+                }
+            }
+        }, "fornecedor", "ingrediente", "quantidade", "ordemId");
+
+        catalogo.abrir(client);
+    }
+
+    /**
+     * Retira do stock o desperdício indicado pelo processo a {@code registar_nao_consumiveis},
+     * depois de o relatório estar guardado. Um desperdício mal formado não é registado, mas
+     * não faz falhar o relatório.
+     *
+     * @param alimentos   alimentos desperdiçados, separados por ponto.
+     * @param quantidades quantidades desperdiçadas, separadas por ponto.
+     * @return quantidade retirada de cada linha, separada por ponto, ou {@code ""} se o
+     *         desperdício não pôde ser lido.
+     */
+    private static String registarDesperdicioStock(String alimentos, String quantidades) {
+        PedidoAlimentos desperdicio;
+        try {
+            desperdicio = PedidoAlimentos.ler(alimentos, quantidades);
+        } catch (IllegalArgumentException e) {
+            Registo.aviso("Desperdício de stock '%s' / '%s' não registado: %s", alimentos, quantidades, e.getMessage());
+            return "";
+        }
+        int[] retiradas = StockManager.registarDesperdicio(desperdicio);
+        StringBuilder registado = new StringBuilder();
+        for (int i = 0; i < retiradas.length; i++) {
+            registado.append(i == 0 ? "" : ".").append(retiradas[i]);
+            if (retiradas[i] == 0) {
+                Registo.aviso("Desperdício de %d %s não registado no stock",
+                        desperdicio.getQuantidades()[i], desperdicio.getAlimentos()[i]);
+            }
+        }
+        return registado.toString();
     }
 }
@@ -0,0 +1,168 @@
+package org.example;
+
+import io.camunda.zeebe.client.api.response.ActivatedJob;
+import io.camunda.zeebe.client.api.worker.JobHandler;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas de um tipo de job: um histograma de latência por etapa e contadores de resultado.
+ *
+ * <p>
+ * Cada etapa do tratamento de um job é medida num {@link Recorder} do HdrHistogram, que
+ * regista valores sem alocar memória e sem bloquear a thread do job. As etapas são:
+ * <ul>
+ *     <li>{@link Etapa#ATIVACAO} – desde a ativação do job no gateway até ao início do handler;</li>
+ *     <li>{@link Etapa#DESCODIFICACAO} – leitura das variáveis do job;</li>
+ *     <li>{@link Etapa#NEGOCIO} – lógica de negócio ({@link GerarEtiquetas},
+ *         {@link RelatorioDesperdicio}, {@link StockManager}), sem a escrita em ficheiro;</li>
+ *     <li>{@link Etapa#FICHEIRO} – escrita de etiquetas e relatórios em ficheiro;</li>
+ *     <li>{@link Etapa#CONCLUSAO} – ida e volta do comando de conclusão ou de falha ao gateway.</li>
+ * </ul>
+ * As instâncias são criadas e exportadas por {@link MetricasJobs}.
+ * </p>
+ */
+public class MetricasJob {
+
+    /** Etapas medidas no tratamento de um job. */
+    public enum Etapa {
+        ATIVACAO("ativacao"),
+        DESCODIFICACAO("descodificacao"),
+        NEGOCIO("negocio"),
+        FICHEIRO("ficheiro"),
+        CONCLUSAO("conclusao");
+
+        final String nome;
+
+        Etapa(String nome) {
+            this.nome = nome;
+        }
+    }
+
+    /** Maior latência registável; valores superiores são registados como este máximo. */
+    private static final long LATENCIA_MAXIMA_NS = TimeUnit.HOURS.toNanos(1);
+
+    /** Estado da thread que está a tratar um job: métricas do job e tempo de ficheiro acumulado. */
+    private static final ThreadLocal<EstadoThread> estadoThread = ThreadLocal.withInitial(EstadoThread::new);
+
+    private final String jobType;
+    private final Duration timeout;
+    private final Recorder[] recorders = new Recorder[Etapa.values().length];
+    private final Histogram[] intervalos = new Histogram[Etapa.values().length];
+    private final Histogram[] acumulados = new Histogram[Etapa.values().length];
+
+    final LongAdder sucessos = new LongAdder();
+    final LongAdder falhas = new LongAdder();
+    final LongAdder retentativas = new LongAdder();
+
+    MetricasJob(String jobType, Duration timeout) {
+        this.jobType = jobType;
+        this.timeout = timeout;
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new Recorder(LATENCIA_MAXIMA_NS, 3);
+            acumulados[i] = new Histogram(LATENCIA_MAXIMA_NS, 3);
+        }
+    }
+
+    /**
+     * @return tipo de job medido.
+     */
+    public String getJobType() {
+        return jobType;
+    }
+
+    /**
+     * @return timeout configurado no worker deste tipo de job.
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Envolve o handler para registar a etapa {@link Etapa#ATIVACAO} e associar a thread
+     * a estas métricas enquanto o job é tratado, para que {@link #registarFicheiro(long)}
+     * saiba a que tipo de job pertence a escrita. A thread é também associada ao job no
+     * {@link Registo}, para correlacionar as mensagens do handler.
+     *
+     * @param handler handler do worker.
+     * @return handler instrumentado.
+     */
+    public JobHandler instrumentar(JobHandler handler) {
+        return (jobClient, job) -> {
+            registarAtivacao(job);
+            EstadoThread estado = estadoThread.get();
+            estado.metricas = this;
+            estado.ficheiroNanos = 0;
+            Registo.iniciarJob(job);
+            try {
+                handler.handle(jobClient, job);
+            } finally {
+                estado.metricas = null;
+                Registo.terminarJob();
+            }
+        };
+    }
+
+    /**
+     * Regista a duração de uma etapa.
+     *
+     * @param etapa etapa medida.
+     * @param nanos duração em nanossegundos.
+     */
+    public void registar(Etapa etapa, long nanos) {
+        recorders[etapa.ordinal()].recordValue(Math.max(0, Math.min(nanos, LATENCIA_MAXIMA_NS)));
+    }
+
+    /**
+     * Regista a duração da lógica de negócio, descontando o tempo de escrita em ficheiro
+     * medido entretanto nesta thread com {@link #registarFicheiro(long)}.
+     *
+     * @param nanos duração total da chamada à lógica de negócio, em nanossegundos.
+     */
+    public void registarNegocio(long nanos) {
+        registar(Etapa.NEGOCIO, nanos - estadoThread.get().ficheiroNanos);
+    }
+
+    /**
+     * Regista o tempo de escrita em ficheiro no tipo de job tratado pela thread atual.
+     * Não faz nada se a thread não estiver a tratar um job instrumentado.
+     *
+     * @param nanos duração da escrita em nanossegundos.
+     */
+    public static void registarFicheiro(long nanos) {
+        EstadoThread estado = estadoThread.get();
+        if (estado.metricas != null) {
+            estado.ficheiroNanos += nanos;
+            estado.metricas.registar(Etapa.FICHEIRO, nanos);
+        }
+    }
+
+    /**
+     * O instante de ativação não é enviado pelo gateway, mas o prazo do job é a ativação
+     * mais o timeout do worker. Os relógios do gateway e do worker podem diferir ligeiramente.
+     */
+    private void registarAtivacao(ActivatedJob job) {
+        long ativadoEm = job.getDeadline() - timeout.toMillis();
+        registar(Etapa.ATIVACAO, TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - ativadoEm));
+    }
+
+    /**
+     * Junta os valores registados desde a última exportação ao histograma acumulado da etapa.
+     * Chamado apenas pela exportação, que é sincronizada.
+     */
+    Histogram acumulado(Etapa etapa) {
+        int i = etapa.ordinal();
+        intervalos[i] = recorders[i].getIntervalHistogram(intervalos[i]);
+        acumulados[i].add(intervalos[i]);
+        return acumulados[i];
+    }
+
+    private static class EstadoThread {
+        MetricasJob metricas;
+        long ficheiroNanos;
+    }
+}
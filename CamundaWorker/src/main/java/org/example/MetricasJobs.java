@@ -0,0 +1,195 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpServer;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Registo das métricas dos workers e endpoint HTTP local no formato de texto do Prometheus.
+ *
+ * <p>
+ * Cada worker obtém as suas métricas com {@link #registar(String, Duration)}. O endpoint
+ * {@code /metrics} (propriedade de sistema {@code metricas.porta}, omissão
+ * {@link #PORTA_OMISSAO}; um valor negativo desliga-o) exporta, por tipo de job:
+ * <ul>
+ *     <li>{@code worker_etapa_segundos} – resumo (p50, p99, p999, soma e contagem) da
+ *         duração de cada etapa, ver {@link MetricasJob.Etapa};</li>
+ *     <li>{@code worker_jobs_total} – jobs completados ({@code resultado="sucesso"}),
+ *         falhados ({@code "falha"}) e devolvidos para nova tentativa ({@code "retentativa"});</li>
+ *     <li>{@code worker_conclusoes_em_curso} – comandos de conclusão à espera de resposta;</li>
+ *     <li>{@code worker_max_jobs_ativos} – {@code maxJobsActive} atual, ver {@link ControladorConcorrencia};</li>
+ *     <li>{@code worker_variaveis_bytes_total} – bytes de variáveis enviados e poupados.</li>
+ * </ul>
+ * Outras componentes acrescentam as suas métricas com
+ * {@link #registarIndicador(String, String, String, LongSupplier)}.
+ * O endpoint escuta apenas em {@code 127.0.0.1}.
+ * </p>
+ */
+public class MetricasJobs {
+
+    /** Porta do endpoint de métricas, quando não configurada. */
+    public static final int PORTA_OMISSAO = 9464;
+
+    private static final double[] PERCENTIS = {50, 99, 99.9};
+    private static final String[] QUANTIS = {"0.5", "0.99", "0.999"};
+
+    private static final Map<String, MetricasJob> metricas = new ConcurrentHashMap<>();
+    private static final Map<String, Indicador> indicadores = new ConcurrentHashMap<>();
+
+    private static HttpServer servidor;
+
+    /**
+     * Cria (ou devolve, se já existirem) as métricas de um tipo de job.
+     *
+     * @param jobType tipo de job.
+     * @param timeout timeout configurado no worker, usado para calcular o instante de ativação.
+     * @return métricas do tipo de job.
+     */
+    public static MetricasJob registar(String jobType, Duration timeout) {
+        return metricas.computeIfAbsent(jobType, t -> new MetricasJob(t, timeout));
+    }
+
+    /**
+     * Devolve as métricas de um tipo de job, se tiverem sido registadas.
+     *
+     * @param jobType tipo de job.
+     * @return métricas do tipo de job, ou {@code null}.
+     */
+    public static MetricasJob para(String jobType) {
+        return metricas.get(jobType);
+    }
+
+    /**
+     * Regista uma métrica sem rótulos, lida de {@code valor} a cada exportação. Registar de
+     * novo o mesmo nome substitui a métrica anterior.
+     *
+     * @param nome  nome da métrica.
+     * @param tipo  tipo Prometheus ({@code gauge} ou {@code counter}).
+     * @param ajuda descrição da métrica.
+     * @param valor fonte do valor atual.
+     */
+    public static void registarIndicador(String nome, String tipo, String ajuda, LongSupplier valor) {
+        indicadores.put(nome, new Indicador(tipo, ajuda, valor));
+    }
+
+    /**
+     * Inicia o endpoint HTTP de métricas na porta configurada, se ainda não estiver ativo.
+     */
+    public static synchronized void iniciarServidor() {
+        int porta = Integer.getInteger("metricas.porta", PORTA_OMISSAO);
+        if (porta < 0 || servidor != null) {
+            return;
+        }
+        try {
+            servidor = HttpServer.create(new InetSocketAddress("127.0.0.1", porta), 0);
+            servidor.createContext("/metrics", troca -> {
+                byte[] corpo = exportar().getBytes(StandardCharsets.UTF_8);
+                troca.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                troca.sendResponseHeaders(200, corpo.length);
+                try (OutputStream out = troca.getResponseBody()) {
+                    out.write(corpo);
+                }
+            });
+            servidor.start();
+            Registo.info("Métricas disponíveis em http://127.0.0.1:%d/metrics", servidor.getAddress().getPort());
+        } catch (IOException e) {
+            Registo.aviso("Não foi possível iniciar o endpoint de métricas: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Gera o texto de todas as métricas no formato de exposição do Prometheus.
+     *
+     * @return métricas em formato de texto.
+     */
+    static synchronized String exportar() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("# HELP worker_etapa_segundos Duração de cada etapa do tratamento de um job.\n");
+        sb.append("# TYPE worker_etapa_segundos summary\n");
+        for (MetricasJob m : metricas.values()) {
+            for (MetricasJob.Etapa etapa : MetricasJob.Etapa.values()) {
+                Histogram h = m.acumulado(etapa);
+                String rotulos = "job_type=\"" + m.getJobType() + "\",etapa=\"" + etapa.nome + "\"";
+                for (int i = 0; i < PERCENTIS.length; i++) {
+                    sb.append("worker_etapa_segundos{").append(rotulos)
+                            .append(",quantile=\"").append(QUANTIS[i]).append("\"} ")
+                            .append(segundos(h.getValueAtPercentile(PERCENTIS[i]))).append('\n');
+                }
+                sb.append("worker_etapa_segundos_sum{").append(rotulos).append("} ")
+                        .append(segundos(h.getMean() * h.getTotalCount())).append('\n');
+                sb.append("worker_etapa_segundos_count{").append(rotulos).append("} ")
+                        .append(h.getTotalCount()).append('\n');
+            }
+        }
+
+        sb.append("# HELP worker_jobs_total Jobs tratados, por resultado.\n");
+        sb.append("# TYPE worker_jobs_total counter\n");
+        for (MetricasJob m : metricas.values()) {
+            contador(sb, m, "sucesso", m.sucessos.sum());
+            contador(sb, m, "falha", m.falhas.sum());
+            contador(sb, m, "retentativa", m.retentativas.sum());
+        }
+
+        sb.append("# HELP worker_conclusoes_em_curso Comandos de conclusão enviados e sem resposta.\n");
+        sb.append("# TYPE worker_conclusoes_em_curso gauge\n");
+        for (MetricasJob m : metricas.values()) {
+            sb.append("worker_conclusoes_em_curso{job_type=\"").append(m.getJobType()).append("\"} ")
+                    .append(ConclusaoJobs.emCurso(m.getJobType())).append('\n');
+        }
+
+        sb.append("# HELP worker_max_jobs_ativos maxJobsActive atual de cada worker (controlo adaptativo).\n");
+        sb.append("# TYPE worker_max_jobs_ativos gauge\n");
+        for (MetricasJob m : metricas.values()) {
+            int limite = ControladorConcorrencia.limite(m.getJobType());
+            if (limite > 0) {
+                sb.append("worker_max_jobs_ativos{job_type=\"").append(m.getJobType()).append("\"} ")
+                        .append(limite).append('\n');
+            }
+        }
+
+        sb.append("# HELP worker_variaveis_bytes_total Bytes de variáveis enviados e poupados nas conclusões.\n");
+        sb.append("# TYPE worker_variaveis_bytes_total counter\n");
+        sb.append("worker_variaveis_bytes_total{tipo=\"enviados\"} ").append(ConclusaoJobs.bytesEnviados()).append('\n');
+        sb.append("worker_variaveis_bytes_total{tipo=\"poupados\"} ").append(ConclusaoJobs.bytesPoupados()).append('\n');
+
+        for (Map.Entry<String, Indicador> e : indicadores.entrySet()) {
+            Indicador indicador = e.getValue();
+            sb.append("# HELP ").append(e.getKey()).append(' ').append(indicador.ajuda).append('\n');
+            sb.append("# TYPE ").append(e.getKey()).append(' ').append(indicador.tipo).append('\n');
+            sb.append(e.getKey()).append(' ').append(indicador.valor.getAsLong()).append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    private static void contador(StringBuilder sb, MetricasJob m, String resultado, long valor) {
+        sb.append("worker_jobs_total{job_type=\"").append(m.getJobType())
+                .append("\",resultado=\"").append(resultado).append("\"} ").append(valor).append('\n');
+    }
+
+    private static String segundos(double nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private static class Indicador {
+        final String tipo;
+        final String ajuda;
+        final LongSupplier valor;
+
+        Indicador(String tipo, String ajuda, LongSupplier valor) {
+            this.tipo = tipo;
+            this.ajuda = ajuda;
+            this.valor = valor;
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Modelo de etiqueta compilado: o texto fixo da etiqueta, já codificado em UTF-8, intercalado
+ * com espaços para os campos de cada produto.
+ *
+ * <p>
+ * O modelo é um ficheiro de texto com a etiqueta tal como é impressa, onde cada campo é
+ * indicado por {@code {campo}}, {@code {campo:largura}} ou {@code {campo:largura:padrão}}:
+ * <ul>
+ *     <li>{@code campo} – um dos nomes de {@link Campo} ({@code produtoId}, {@code lote},
+ *         {@code embalamento}, {@code dataEmbalamento}, {@code dataValidade},
+ *         {@code responsavel}, {@code unidade});</li>
+ *     <li>{@code largura} – número mínimo de caracteres; o valor é alinhado à esquerda e
+ *         completado com espaços, mas nunca cortado (como {@code %-Ns});</li>
+ *     <li>{@code padrão} – padrão de {@link DateTimeFormatter} usado quando o valor é uma data.</li>
+ * </ul>
+ * <code>{{</code> escreve uma chaveta. O modelo por omissão é o recurso {@code etiqueta.modelo};
+ * outro ficheiro pode ser indicado com a propriedade de sistema {@code etiquetas.modelo}.
+ * </p>
+ *
+ * <p>
+ * O modelo é compilado uma vez e partilhado entre threads. {@link #renderizar(Valores, Saida)}
+ * copia os segmentos fixos e codifica os campos diretamente para uma {@link Saida}
+ * reutilizável, sem criar strings; os formatadores de datas são criados na compilação.
+ * </p>
+ */
+public final class ModeloEtiqueta {
+
+    /** Recurso lido quando {@code etiquetas.modelo} não está definido. */
+    public static final String RECURSO_OMISSAO = "etiqueta.modelo";
+
+    /**
+     * Campos que um modelo pode usar.
+     */
+    public enum Campo {
+        PRODUTO_ID("produtoId"),
+        LOTE("lote"),
+        EMBALAMENTO("embalamento"),
+        DATA_EMBALAMENTO("dataEmbalamento"),
+        DATA_VALIDADE("dataValidade"),
+        RESPONSAVEL("responsavel"),
+        /** Unidade do lote, nas etiquetas geradas em lote. */
+        UNIDADE("unidade");
+
+        private final String nome;
+
+        Campo(String nome) {
+            this.nome = nome;
+        }
+
+        /**
+         * @return nome do campo no modelo.
+         */
+        public String getNome() {
+            return nome;
+        }
+
+        static Campo porNome(String nome) {
+            for (Campo campo : values()) {
+                if (campo.nome.equals(nome)) {
+                    return campo;
+                }
+            }
+            throw new IllegalArgumentException("campo desconhecido no modelo de etiqueta: " + nome);
+        }
+    }
+
+    /** Texto fixo antes de cada espaço; o último segmento vem depois do último espaço. */
+    private final byte[][] segmentos;
+    private final Espaco[] espacos;
+    private final int tamanhoFixo;
+
+    private ModeloEtiqueta(List<byte[]> segmentos, List<Espaco> espacos) {
+        this.segmentos = segmentos.toArray(new byte[0][]);
+        this.espacos = espacos.toArray(new Espaco[0]);
+        int tamanho = 0;
+        for (byte[] segmento : this.segmentos) {
+            tamanho += segmento.length;
+        }
+        this.tamanhoFixo = tamanho;
+    }
+
+    /**
+     * Carrega o modelo do ficheiro {@code etiquetas.modelo} ou do recurso por omissão.
+     *
+     * @return modelo compilado.
+     * @throws IllegalStateException    se o ficheiro não existir ou não puder ser lido.
+     * @throws IllegalArgumentException se o modelo for inválido.
+     */
+    public static ModeloEtiqueta carregar() {
+        String caminho = System.getProperty("etiquetas.modelo");
+        String texto;
+        try {
+            if (caminho != null) {
+                texto = Files.readString(Path.of(caminho), StandardCharsets.UTF_8);
+            } else {
+                try (InputStream is = ModeloEtiqueta.class.getClassLoader().getResourceAsStream(RECURSO_OMISSAO)) {
+                    if (is == null) {
+                        throw new IllegalStateException(RECURSO_OMISSAO + " não encontrado!");
+                    }
+                    texto = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Erro ao ler o modelo de etiqueta: " + e.getMessage(), e);
+        }
+        ModeloEtiqueta modelo = compilar(texto);
+        Registo.info("Modelo de etiqueta lido de %s: %d campos", caminho != null ? caminho : RECURSO_OMISSAO,
+                modelo.espacos.length);
+        return modelo;
+    }
+
+    /**
+     * Compila o texto de um modelo.
+     *
+     * @param texto modelo, no formato descrito na classe.
+     * @return modelo compilado.
+     * @throws IllegalArgumentException se um campo não estiver fechado, for desconhecido ou
+     *                                  tiver uma largura ou um padrão inválidos.
+     */
+    public static ModeloEtiqueta compilar(String texto) {
+        List<byte[]> segmentos = new ArrayList<>();
+        List<Espaco> espacos = new ArrayList<>();
+        StringBuilder fixo = new StringBuilder();
+        int i = 0;
+        while (i < texto.length()) {
+            char c = texto.charAt(i);
+            if (c != '{') {
+                fixo.append(c);
+                i++;
+            } else if (texto.startsWith("{{", i)) {
+                fixo.append('{');
+                i += 2;
+            } else {
+                int fim = texto.indexOf('}', i);
+                if (fim < 0) {
+                    throw new IllegalArgumentException("campo por fechar no modelo de etiqueta, na posição " + i);
+                }
+                segmentos.add(fixo.toString().getBytes(StandardCharsets.UTF_8));
+                fixo.setLength(0);
+                espacos.add(Espaco.ler(texto.substring(i + 1, fim)));
+                i = fim + 1;
+            }
+        }
+        segmentos.add(fixo.toString().getBytes(StandardCharsets.UTF_8));
+        return new ModeloEtiqueta(segmentos, espacos);
+    }
+
+    /**
+     * Escreve a etiqueta no fim da saída. Um campo sem valor fica em branco.
+     *
+     * @param valores valores dos campos.
+     * @param saida   saída onde a etiqueta é acrescentada.
+     */
+    public void renderizar(Valores valores, Saida saida) {
+        saida.garantir(tamanhoFixo);
+        for (int i = 0; i < espacos.length; i++) {
+            saida.escrever(segmentos[i]);
+            Espaco espaco = espacos[i];
+            int antes = saida.caracteres;
+            Object valor = valores.valores[espaco.campo.ordinal()];
+            if (valor instanceof CharSequence) {
+                saida.append((CharSequence) valor);
+            } else if (valor instanceof TemporalAccessor && espaco.formato != null) {
+                espaco.formato.formatTo((TemporalAccessor) valor, saida);
+            } else if (valor != null) {
+                saida.append(valor.toString());
+            }
+            for (int n = espaco.largura - (saida.caracteres - antes); n > 0; n--) {
+                saida.append(' ');
+            }
+        }
+        saida.escrever(segmentos[espacos.length]);
+    }
+
+    /**
+     * @return tamanho, em bytes, do texto fixo do modelo (uma etiqueta com todos os campos vazios).
+     */
+    public int tamanhoFixo() {
+        return tamanhoFixo;
+    }
+
+    /** Espaço de um campo no modelo. */
+    private static final class Espaco {
+        final Campo campo;
+        final int largura;
+        /** Formatador das datas, ou {@code null} se o campo não tiver padrão. */
+        final DateTimeFormatter formato;
+
+        private Espaco(Campo campo, int largura, DateTimeFormatter formato) {
+            this.campo = campo;
+            this.largura = largura;
+            this.formato = formato;
+        }
+
+        static Espaco ler(String definicao) {
+            String[] partes = definicao.split(":", 3);
+            Campo campo = Campo.porNome(partes[0].trim());
+            int largura = 0;
+            if (partes.length > 1 && !partes[1].isBlank()) {
+                try {
+                    largura = Integer.parseInt(partes[1].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("largura inválida no campo " + definicao + " do modelo de etiqueta");
+                }
+            }
+            DateTimeFormatter formato = null;
+            if (partes.length > 2) {
+                formato = DateTimeFormatter.ofPattern(partes[2]);
+            }
+            return new Espaco(campo, largura, formato);
+        }
+    }
+
+    /**
+     * Valores dos campos de uma etiqueta. Reutilizável: cada campo guarda o último valor
+     * definido até {@link #limpar()}. Não é thread-safe.
+     */
+    public static final class Valores {
+
+        private final Object[] valores = new Object[Campo.values().length];
+
+        /**
+         * Define um campo de texto.
+         *
+         * @return estes valores.
+         */
+        public Valores texto(Campo campo, CharSequence valor) {
+            valores[campo.ordinal()] = valor;
+            return this;
+        }
+
+        /**
+         * Define um campo de data, escrito com o padrão do campo no modelo.
+         *
+         * @return estes valores.
+         */
+        public Valores data(Campo campo, TemporalAccessor valor) {
+            valores[campo.ordinal()] = valor;
+            return this;
+        }
+
+        /**
+         * @return valor do campo ({@link CharSequence} ou {@link TemporalAccessor}), ou {@code null}.
+         */
+        Object valor(Campo campo) {
+            return valores[campo.ordinal()];
+        }
+
+        /**
+         * Apaga todos os valores.
+         *
+         * @return estes valores.
+         */
+        public Valores limpar() {
+            Arrays.fill(valores, null);
+            return this;
+        }
+    }
+
+    /**
+     * Buffer de bytes UTF-8 onde as etiquetas são escritas, reutilizável entre etiquetas.
+     * Também é um {@link Appendable}, para os formatadores escreverem nele diretamente.
+     * Não é thread-safe.
+     */
+    public static final class Saida implements Appendable {
+
+        private byte[] bytes;
+        private int tamanho;
+        /** Caracteres (UTF-16) escritos, para completar os campos até à largura. */
+        private int caracteres;
+        /** Primeira metade de um par substituto à espera da segunda, ou {@code 0}. */
+        private char alto;
+
+        /**
+         * Cria uma saída vazia.
+         *
+         * @param capacidade capacidade inicial, em bytes.
+         */
+        public Saida(int capacidade) {
+            bytes = new byte[Math.max(capacidade, 16)];
+        }
+
+        /**
+         * Esvazia a saída, mantendo a capacidade.
+         *
+         * @return esta saída.
+         */
+        public Saida limpar() {
+            tamanho = 0;
+            caracteres = 0;
+            alto = 0;
+            return this;
+        }
+
+        /**
+         * @return número de bytes escritos.
+         */
+        public int tamanho() {
+            return tamanho;
+        }
+
+        /**
+         * @return buffer interno; os bytes válidos são {@code [0, tamanho())}.
+         */
+        public byte[] bytes() {
+            return bytes;
+        }
+
+        /**
+         * Escreve o conteúdo num stream.
+         *
+         * @throws IOException se a escrita falhar.
+         */
+        public void escreverPara(OutputStream os) throws IOException {
+            os.write(bytes, 0, tamanho);
+        }
+
+        @Override
+        public Saida append(CharSequence texto) {
+            return append(texto, 0, texto.length());
+        }
+
+        @Override
+        public Saida append(CharSequence texto, int inicio, int fim) {
+            garantir((fim - inicio) * 3);
+            for (int i = inicio; i < fim; i++) {
+                codificar(texto.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Saida append(char c) {
+            garantir(3);
+            codificar(c);
+            return this;
+        }
+
+        /** Conteúdo como texto. Cria uma {@link String}; para ficheiros usar {@link #escreverPara(OutputStream)}. */
+        @Override
+        public String toString() {
+            return new String(bytes, 0, tamanho, StandardCharsets.UTF_8);
+        }
+
+        void escrever(byte[] segmento) {
+            if (alto != 0) {
+                alto = 0;
+                bytes[tamanho++] = '?';
+            }
+            garantir(segmento.length);
+            System.arraycopy(segmento, 0, bytes, tamanho, segmento.length);
+            tamanho += segmento.length;
+        }
+
+        void garantir(int mais) {
+            if (tamanho + mais > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, tamanho + mais));
+            }
+        }
+
+        /** Codifica um carácter em UTF-8; os substitutos isolados são escritos como {@code '?'}, como em {@link String#getBytes}. */
+        private void codificar(char c) {
+            caracteres++;
+            if (alto != 0) {
+                char h = alto;
+                alto = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int cp = Character.toCodePoint(h, c);
+                    bytes[tamanho++] = (byte) (0xF0 | (cp >> 18));
+                    bytes[tamanho++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    bytes[tamanho++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    bytes[tamanho++] = (byte) (0x80 | (cp & 0x3F));
+                    return;
+                }
+                bytes[tamanho++] = '?';
+                garantir(3);
+            }
+            if (c < 0x80) {
+                bytes[tamanho++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[tamanho++] = (byte) (0xC0 | (c >> 6));
+                bytes[tamanho++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                // Os 4 bytes do par ficam reservados quando chegar a segunda metade
+                alto = c;
+                garantir(4);
+            } else if (Character.isLowSurrogate(c)) {
+                bytes[tamanho++] = '?';
+            } else {
+                bytes[tamanho++] = (byte) (0xE0 | (c >> 12));
+                bytes[tamanho++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[tamanho++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.example;
+
+/**
+ * Pedido de alimentos recebido pelo worker {@code verificar_alimentos}.
+ *
+ * <p>
+ * O processo envia os alimentos e as quantidades em duas strings separadas por ponto,
+ * por exemplo {@code alimentos = "arroz.feijão.tomate"} e {@code quantidades = "5.3.2"}.
+ * Esta classe converte-as em dois arrays com o mesmo índice para cada linha do pedido.
+ * </p>
+ *
+ * <p>
+ * Quando vários pedidos são avaliados no mesmo lote ({@link LivroStock#reservarLote}), o
+ * stock é atribuído primeiro aos pedidos de maior {@linkplain #getPrioridade() prioridade}
+ * e, com a mesma prioridade, pela ordem de chegada.
+ * </p>
+ */
+public class PedidoAlimentos {
+
+    private final String[] alimentos;
+    private final int[] quantidades;
+    private final int prioridade;
+
+    /**
+     * Cria um pedido a partir dos arrays de alimentos e quantidades, com prioridade {@code 0}.
+     *
+     * @param alimentos   nomes dos alimentos pedidos.
+     * @param quantidades quantidades correspondentes a cada alimento.
+     * @throws IllegalArgumentException se os arrays tiverem tamanhos diferentes.
+     */
+    public PedidoAlimentos(String[] alimentos, int[] quantidades) {
+        this(alimentos, quantidades, 0);
+    }
+
+    /**
+     * Cria um pedido a partir dos arrays de alimentos e quantidades.
+     *
+     * @param alimentos   nomes dos alimentos pedidos.
+     * @param quantidades quantidades correspondentes a cada alimento.
+     * @param prioridade  prioridade do pedido num lote; maior é atendido primeiro.
+     * @throws IllegalArgumentException se os arrays tiverem tamanhos diferentes.
+     */
+    public PedidoAlimentos(String[] alimentos, int[] quantidades, int prioridade) {
+        if (alimentos.length != quantidades.length) {
+            throw new IllegalArgumentException(alimentos.length + " alimentos para "
+                    + quantidades.length + " quantidades");
+        }
+        this.alimentos = alimentos;
+        this.quantidades = quantidades;
+        this.prioridade = prioridade;
+    }
+
+    /**
+     * Converte as strings separadas por ponto num pedido.
+     *
+     * @param alimentosStr   alimentos separados por ponto (por exemplo, {@code "arroz.feijão"}).
+     * @param quantidadesStr quantidades separadas por ponto (por exemplo, {@code "5.3"}).
+     * @return pedido com os alimentos e as quantidades convertidas para inteiros.
+     * @throws NumberFormatException    se alguma quantidade não for um número inteiro.
+     * @throws IllegalArgumentException se o número de alimentos e de quantidades for diferente.
+     */
+    public static PedidoAlimentos ler(String alimentosStr, String quantidadesStr) {
+        return ler(alimentosStr, quantidadesStr, 0);
+    }
+
+    /**
+     * Converte as strings separadas por ponto num pedido com a prioridade indicada.
+     *
+     * @param alimentosStr   alimentos separados por ponto.
+     * @param quantidadesStr quantidades separadas por ponto.
+     * @param prioridade     prioridade do pedido num lote; maior é atendido primeiro.
+     * @return pedido com os alimentos e as quantidades convertidas para inteiros.
+     * @throws NumberFormatException    se alguma quantidade não for um número inteiro.
+     * @throws IllegalArgumentException se o número de alimentos e de quantidades for diferente.
+     */
+    public static PedidoAlimentos ler(String alimentosStr, String quantidadesStr, int prioridade) {
+        // 1. Separar os dados
+        String[] alimentos = alimentosStr.split("\\.");
+        String[] quantidadesArray = quantidadesStr.split("\\.");
+
+        // 2. Converter quantidades para int[]
+        int[] quantidades = new int[quantidadesArray.length];
+        for (int i = 0; i < quantidadesArray.length; i++) {
+            quantidades[i] = Integer.parseInt(quantidadesArray[i].trim());
+        }
+
+        return new PedidoAlimentos(alimentos, quantidades, prioridade);
+    }
+
+    /**
+     * @return nomes dos alimentos pedidos.
+     */
+    public String[] getAlimentos() {
+        return alimentos;
+    }
+
+    /**
+     * @return quantidades pedidas, com o mesmo índice que {@link #getAlimentos()}.
+     */
+    public int[] getQuantidades() {
+        return quantidades;
+    }
+
+    /**
+     * @return prioridade do pedido num lote; maior é atendido primeiro.
+     */
+    public int getPrioridade() {
+        return prioridade;
+    }
+}
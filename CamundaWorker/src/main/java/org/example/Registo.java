@@ -0,0 +1,389 @@
+package org.example;
+
+import io.camunda.zeebe.client.api.response.ActivatedJob;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Registo (log) assíncrono dos workers, com níveis e correlação por job.
+ *
+ * <p>
+ * As mensagens são colocadas num buffer circular de tamanho fixo, sem locks, e escritas
+ * na consola por uma única thread de fundo. A thread do job apenas copia o formato e os
+ * argumentos para uma posição do buffer: a formatação ({@link String#format}) e a escrita
+ * em {@code System.out}/{@code System.err} acontecem na thread de escrita. Se o buffer
+ * estiver cheio a mensagem é descartada, em vez de bloquear o job, e o número de mensagens
+ * descartadas é indicado no registo logo que haja espaço.
+ * </p>
+ *
+ * <p>
+ * Cada mensagem leva o tipo de job, a chave do job e o lote associados à thread que a
+ * registou ({@link #iniciarJob(ActivatedJob)}, {@link #lote(String)}), por exemplo:
+ * <pre>
+ * 2025-05-10 14:03:22.117 INFO  [gerar_etiquetas job=2251799813685249 lote=EMB-2025-001] Etiqueta gerada: ...
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Configuração através de propriedades de sistema:
+ * <ul>
+ *     <li>{@code registo.nivel} – nível mínimo registado: {@code DEBUG}, {@code INFO} (omissão),
+ *         {@code AVISO} ou {@code ERRO};</li>
+ *     <li>{@code registo.capacidade} – número de mensagens no buffer, arredondado para uma
+ *         potência de 2 (omissão: {@link #CAPACIDADE_OMISSAO}).</li>
+ * </ul>
+ * </p>
+ */
+public class Registo {
+
+    /** Níveis de registo, do mais detalhado ao mais grave. */
+    public enum Nivel {
+        DEBUG, INFO, AVISO, ERRO
+    }
+
+    /** Número de mensagens no buffer, quando não configurado. */
+    public static final int CAPACIDADE_OMISSAO = 8192;
+
+    /** Tempo de espera da thread de escrita quando o buffer está vazio. */
+    private static final long ESPERA_VAZIO_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final DateTimeFormatter FORMATO_DATA =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final Nivel nivelMinimo = Nivel.valueOf(
+            System.getProperty("registo.nivel", "INFO").trim().toUpperCase(Locale.ROOT));
+
+    private static final Evento[] eventos;
+    private static final int mascara;
+
+    /**
+     * Número de sequência de cada posição: igual à posição de escrita quando está livre
+     * e à posição mais um quando tem uma mensagem por escrever.
+     */
+    private static final AtomicLongArray sequencias;
+
+    /** Próxima posição a reservar pelas threads que registam. */
+    private static final AtomicLong cauda = new AtomicLong();
+
+    /** Próxima posição a escrever; só é alterada pela thread de escrita. */
+    private static long cabeca;
+
+    private static final LongAdder descartados = new LongAdder();
+
+    private static final ThreadLocal<Contexto> contexto = ThreadLocal.withInitial(Contexto::new);
+
+    private static final Thread escritor;
+
+    private static volatile boolean aTerminar;
+
+    static {
+        int capacidade = Integer.highestOneBit(
+                Math.max(2, Integer.getInteger("registo.capacidade", CAPACIDADE_OMISSAO)) * 2 - 1);
+        eventos = new Evento[capacidade];
+        sequencias = new AtomicLongArray(capacidade);
+        for (int i = 0; i < capacidade; i++) {
+            eventos[i] = new Evento();
+            sequencias.set(i, i);
+        }
+        mascara = capacidade - 1;
+
+        escritor = new Thread(Registo::escrever, "registo-escritor");
+        escritor.setDaemon(true);
+        escritor.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Registo::terminar, "registo-termino"));
+    }
+
+    /**
+     * Indica se as mensagens de um nível são registadas. Deve ser usado antes de preparar
+     * mensagens caras, como a listagem de todas as variáveis de um job.
+     *
+     * @param nivel nível a verificar.
+     * @return {@code true} se o nível estiver ativo.
+     */
+    public static boolean ativo(Nivel nivel) {
+        return nivel.compareTo(nivelMinimo) >= 0;
+    }
+
+    /**
+     * Associa a thread atual a um job; as mensagens seguintes levam o tipo e a chave do job.
+     *
+     * @param job job que a thread vai tratar.
+     */
+    public static void iniciarJob(ActivatedJob job) {
+        Contexto c = contexto.get();
+        c.jobKey = job.getKey();
+        c.jobType = job.getType();
+        c.lote = null;
+    }
+
+    /**
+     * Indica o lote tratado pelo job atual, para correlacionar as mensagens seguintes.
+     *
+     * @param lote identificador do lote (pode ser {@code null}).
+     */
+    public static void lote(String lote) {
+        contexto.get().lote = lote;
+    }
+
+    /**
+     * Desassocia a thread atual do job que estava a tratar.
+     */
+    public static void terminarJob() {
+        Contexto c = contexto.get();
+        c.jobKey = -1;
+        c.jobType = null;
+        c.lote = null;
+    }
+
+    /**
+     * Regista uma mensagem de nível {@link Nivel#DEBUG}.
+     *
+     * @param formato formato da mensagem, como em {@link String#format(String, Object...)}.
+     * @param args    argumentos do formato.
+     */
+    public static void debug(String formato, Object... args) {
+        publicar(Nivel.DEBUG, null, null, formato, args);
+    }
+
+    /**
+     * Regista uma mensagem de nível {@link Nivel#INFO}.
+     *
+     * @param formato formato da mensagem, como em {@link String#format(String, Object...)}.
+     * @param args    argumentos do formato.
+     */
+    public static void info(String formato, Object... args) {
+        publicar(Nivel.INFO, null, null, formato, args);
+    }
+
+    /**
+     * Regista uma mensagem de nível {@link Nivel#AVISO}.
+     *
+     * @param formato formato da mensagem, como em {@link String#format(String, Object...)}.
+     * @param args    argumentos do formato.
+     */
+    public static void aviso(String formato, Object... args) {
+        publicar(Nivel.AVISO, null, null, formato, args);
+    }
+
+    /**
+     * Regista uma mensagem de nível {@link Nivel#ERRO}.
+     *
+     * @param formato formato da mensagem, como em {@link String#format(String, Object...)}.
+     * @param args    argumentos do formato.
+     */
+    public static void erro(String formato, Object... args) {
+        publicar(Nivel.ERRO, null, null, formato, args);
+    }
+
+    /**
+     * Regista uma mensagem de nível {@link Nivel#ERRO} seguida do stack trace da exceção.
+     *
+     * @param causa   exceção a registar.
+     * @param formato formato da mensagem, como em {@link String#format(String, Object...)}.
+     * @param args    argumentos do formato.
+     */
+    public static void erro(Throwable causa, String formato, Object... args) {
+        publicar(Nivel.ERRO, null, causa, formato, args);
+    }
+
+    /**
+     * Regista uma mensagem sobre um job indicado explicitamente, para código que não corre
+     * na thread do job (por exemplo, as respostas do gateway em {@link ConclusaoJobs}).
+     *
+     * @param nivel   nível da mensagem.
+     * @param job     job a que a mensagem se refere.
+     * @param formato formato da mensagem, como em {@link String#format(String, Object...)}.
+     * @param args    argumentos do formato.
+     */
+    public static void registar(Nivel nivel, ActivatedJob job, String formato, Object... args) {
+        publicar(nivel, job, null, formato, args);
+    }
+
+    /**
+     * Devolve o número de mensagens descartadas por o buffer estar cheio.
+     *
+     * @return mensagens descartadas desde o arranque.
+     */
+    public static long descartados() {
+        return descartados.sum();
+    }
+
+    /**
+     * Reserva uma posição livre do buffer e copia a mensagem para ela. Cada posição é
+     * reservada por um CAS na cauda; a sequência da posição publica a mensagem à thread
+     * de escrita.
+     */
+    private static void publicar(Nivel nivel, ActivatedJob job, Throwable causa, String formato, Object[] args) {
+        if (!ativo(nivel)) {
+            return;
+        }
+        long posicao;
+        while (true) {
+            posicao = cauda.get();
+            long sequencia = sequencias.get((int) posicao & mascara);
+            if (sequencia < posicao) {
+                descartados.increment();
+                return;
+            }
+            if (sequencia == posicao && cauda.compareAndSet(posicao, posicao + 1)) {
+                break;
+            }
+        }
+
+        int i = (int) posicao & mascara;
+        Evento e = eventos[i];
+        e.instante = System.currentTimeMillis();
+        e.nivel = nivel;
+        if (job != null) {
+            e.jobKey = job.getKey();
+            e.jobType = job.getType();
+            e.lote = null;
+        } else {
+            Contexto c = contexto.get();
+            e.jobKey = c.jobKey;
+            e.jobType = c.jobType;
+            e.lote = c.lote;
+        }
+        e.formato = formato;
+        e.args = args;
+        e.causa = causa;
+        sequencias.lazySet(i, posicao + 1);
+    }
+
+    /**
+     * Ciclo da thread de escrita: escreve as mensagens publicadas por ordem e espera
+     * brevemente quando o buffer está vazio.
+     */
+    private static void escrever() {
+        StringBuilder linha = new StringBuilder(256);
+        long descartadosIndicados = 0;
+        while (true) {
+            boolean escreveu = false;
+            while (escreverSeguinte(linha)) {
+                escreveu = true;
+            }
+            long totalDescartados = descartados.sum();
+            if (totalDescartados != descartadosIndicados) {
+                System.err.println("AVISO: " + (totalDescartados - descartadosIndicados)
+                        + " mensagens de registo descartadas (buffer cheio)");
+                descartadosIndicados = totalDescartados;
+            }
+            if (escreveu) {
+                System.out.flush();
+            } else if (aTerminar) {
+                return;
+            } else {
+                LockSupport.parkNanos(ESPERA_VAZIO_NS);
+            }
+        }
+    }
+
+    /**
+     * Escreve a mensagem na cabeça do buffer, se já tiver sido publicada, e liberta a posição.
+     *
+     * @return {@code true} se foi escrita uma mensagem.
+     */
+    private static boolean escreverSeguinte(StringBuilder linha) {
+        int i = (int) cabeca & mascara;
+        if (sequencias.get(i) != cabeca + 1) {
+            return false;
+        }
+        Evento e = eventos[i];
+        linha.setLength(0);
+        FORMATO_DATA.formatTo(Instant.ofEpochMilli(e.instante), linha);
+        linha.append(' ').append(String.format(Locale.ROOT, "%-5s", e.nivel)).append(' ');
+        if (e.jobType != null) {
+            linha.append('[').append(e.jobType).append(" job=").append(e.jobKey);
+            if (e.lote != null) {
+                linha.append(" lote=").append(e.lote);
+            }
+            linha.append("] ");
+        }
+        linha.append(formatar(e.formato, e.args));
+        if (e.causa != null) {
+            StringWriter traco = new StringWriter();
+            e.causa.printStackTrace(new PrintWriter(traco));
+            linha.append(System.lineSeparator()).append(traco.toString().stripTrailing());
+        }
+        Nivel nivel = e.nivel;
+
+        e.formato = null;
+        e.args = null;
+        e.causa = null;
+        sequencias.lazySet(i, cabeca + mascara + 1);
+        cabeca++;
+
+        if (nivel.compareTo(Nivel.AVISO) >= 0) {
+            System.out.flush();
+            System.err.println(linha);
+        } else {
+            System.out.println(linha);
+        }
+        return true;
+    }
+
+    /**
+     * Formata a mensagem. Os argumentos que são arrays são convertidos com
+     * {@link Arrays#toString}, para que a thread do job os possa passar sem os converter.
+     */
+    private static String formatar(String formato, Object[] args) {
+        if (args == null || args.length == 0) {
+            return formato;
+        }
+        for (int k = 0; k < args.length; k++) {
+            if (args[k] instanceof Object[]) {
+                args[k] = Arrays.toString((Object[]) args[k]);
+            } else if (args[k] instanceof int[]) {
+                args[k] = Arrays.toString((int[]) args[k]);
+            }
+        }
+        try {
+            return String.format(Locale.ROOT, formato, args);
+        } catch (RuntimeException ex) {
+            return formato + " " + Arrays.toString(args);
+        }
+    }
+
+    /**
+     * Escreve as mensagens ainda no buffer antes de a JVM terminar.
+     */
+    private static void terminar() {
+        aTerminar = true;
+        LockSupport.unpark(escritor);
+        try {
+            escritor.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Posição do buffer, reutilizada por todas as mensagens que lá passam. */
+    private static class Evento {
+        long instante;
+        Nivel nivel;
+        long jobKey;
+        String jobType;
+        String lote;
+        String formato;
+        Object[] args;
+        Throwable causa;
+    }
+
+    /** Job tratado pela thread atual. */
+    private static class Contexto {
+        long jobKey = -1;
+        String jobType;
+        String lote;
+    }
+}
@@ -1,8 +1,6 @@
 package org.example;
 
-import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
@@ -15,8 +13,9 @@ import java.util.Map;
  * A classe {@code RelatorioDesperdicio} recebe um mapa flexível de variáveis
  * (tipicamente provenientes de um processo BPMN) e gera um relatório de texto
  * com os detalhes dos alimentos desperdiçados, motivos, responsáveis e
- * informações de contexto. O relatório é gravado em ficheiro de texto e é
- * devolvido um conjunto de variáveis com o resultado da operação.
+ * informações de contexto. O relatório é guardado no {@link DestinoDocumentos}
+ * configurado (arquivo ou ficheiro de texto) e é devolvido um conjunto de variáveis
+ * com o resultado da operação.
  * </p>
  */
 public class RelatorioDesperdicio {
@@ -42,11 +41,13 @@ public class RelatorioDesperdicio {
      * </p>
      *
      * <p>
-     * O método gera o conteúdo textual do relatório, grava-o em ficheiro e devolve
+     * O método gera o conteúdo textual do relatório, guarda-o no destino de documentos e devolve
      * um mapa de resultado que inclui, entre outros:
      * <ul>
      *     <li>{@code sucesso} – {@code true} se o relatório foi criado sem erros;</li>
-     *     <li>{@code caminhoFicheiro} – caminho do ficheiro de relatório gerado;</li>
+     *     <li>{@code relatorioId} – identificador do relatório no destino, {@code DESP-}
+     *         seguido de um identificador de {@link GeradorIdentificadores};</li>
+     *     <li>{@code caminhoFicheiro} – caminho do ficheiro de relatório gerado ou posição no arquivo;</li>
      *     <li>{@code lote}, {@code responsavelCozedura}, {@code funcionario};</li>
      *     <li>{@code timestamp} – data/hora em que o relatório foi gerado;</li>
      *     <li>em caso de erro, {@code erro} – mensagem de erro.</li>
@@ -77,9 +78,17 @@ public class RelatorioDesperdicio {
                     funcionario, motivo, descPreparacao, descProcedimento, equipamentos
             );
 
-            String caminhoFicheiro = salvarFicheiro(conteudo, lote);
+            String relatorioId = "DESP-"
+                    + GeradorIdentificadores.codificar(GeradorIdentificadores.partilhado().proximo());
+            byte[] bytes = conteudo.getBytes(StandardCharsets.UTF_8);
+
+            long inicioEscrita = System.nanoTime();
+            String caminhoFicheiro = DestinoDocumentos.configurado().guardar(DestinoDocumentos.Tipo.RELATORIO,
+                    relatorioId, lote, bytes, bytes.length);
+            MetricasJob.registarFicheiro(System.nanoTime() - inicioEscrita);
 
             resultado.put("sucesso", true);
+            resultado.put("relatorioId", relatorioId);
             resultado.put("caminhoFicheiro", caminhoFicheiro);
             resultado.put("lote", lote);
             resultado.put("responsavelCozedura", responsavelCozedura);
@@ -195,42 +204,4 @@ public class RelatorioDesperdicio {
 
         return sb.toString();
     }
-
-    /**
-     * Guarda o conteúdo do relatório num ficheiro de texto.
-     *
-     * <p>
-     * O ficheiro é criado na pasta {@code relatorios}. Caso a pasta não exista,
-     * é criada automaticamente. O nome do ficheiro é gerado no formato
-     * {@code DESP_<lote>_<timestamp>.txt}, onde o lote é sanitizado para conter
-     * apenas caracteres alfanuméricos (os restantes são substituídos por {@code "_"}).
-     * O {@code timestamp} segue o formato {@code yyyyMMdd_HHmmss}.
-     * </p>
-     *
-     * @param conteudo texto completo do relatório a gravar.
-     * @param lote     lote associado ao relatório (usado no nome do ficheiro).
-     * @return caminho relativo do ficheiro de relatório criado.
-     * @throws Exception se ocorrer algum erro ao criar a pasta ou escrever o ficheiro.
-     */
-    private static String salvarFicheiro(String conteudo, String lote) throws Exception {
-        // Criar pasta se não existir
-        File pasta = new File("relatorios");
-        if (!pasta.exists()) {
-            pasta.mkdirs();
-        }
-
-        // Gerar nome do ficheiro
-        SimpleDateFormat sdfFile = new SimpleDateFormat("yyyyMMdd_HHmmss");
-        String timestamp = sdfFile.format(new Date());
-        String nomeFicheiro = String.format("DESP_%s_%s.txt",
-                lote.replaceAll("[^a-zA-Z0-9]", "_"),
-                timestamp);
-
-        String caminho = "relatorios/" + nomeFicheiro;
-
-        // Escrever ficheiro
-        Files.write(Paths.get(caminho), conteudo.getBytes());
-
-        return caminho;
-    }
 }
@@ -0,0 +1,370 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Pontos de encomenda do stock: quando a quantidade disponível de um alimento desce até ao
+ * seu ponto de encomenda, é emitido um {@link Evento} de reposição com o alimento e a
+ * quantidade a encomendar.
+ *
+ * <p>
+ * Os pontos são lidos de um ficheiro JSON no formato
+ * <pre>
+ * {
+ *   "arroz":  {"ponto": 10, "quantidade": 50},
+ *   "feijão": {"ponto": 5,  "quantidade": 30}
+ * }
+ * </pre>
+ * e avaliados pelo {@link LivroStock} a cada movimento, apenas para os alimentos
+ * movimentados: não há varrimentos periódicos do stock, e o custo por movimento é
+ * constante, qualquer que seja o número de alimentos.
+ * </p>
+ *
+ * <p>
+ * Cada alimento emite um único evento por descida: fica "em reposição" até uma entrada de
+ * stock ({@link LivroStock#receber(String, int)}) ou uma recarga do ficheiro de stock o
+ * deixarem acima do ponto. Reservas libertadas não contam, para que um alimento que oscile
+ * à volta do ponto não gere encomendas repetidas.
+ * </p>
+ *
+ * <p>
+ * Os eventos são entregues por ordem ao destino definido com {@link #definirDestino(Consumer)}
+ * pela thread {@code stock-reposicao}, fora dos locks do livro; até haver destino ficam numa
+ * fila limitada. Se a fila estiver cheia, o evento é descartado e o alimento volta a ser
+ * avaliado no movimento seguinte. O mesmo acontece quando o destino não consegue tratar o
+ * evento (por exemplo, o processo de compra não foi iniciado) e o assinala com
+ * {@link LivroStock#reposicaoFalhada(Evento)}.
+ * </p>
+ *
+ * <p>
+ * Ligado a um livro sobre um {@link StockPartilhado}, o estado "em reposição" de cada
+ * alimento fica na tabela partilhada: só o processo que o marcar emite o evento, pelo que
+ * vários processos de workers não iniciam um processo de compra cada um. Se esse processo
+ * terminar antes de o evento ser tratado, o alimento fica em reposição até receber stock.
+ * </p>
+ */
+public final class ReposicaoStock {
+
+    /** Número de eventos à espera de entrega. */
+    public static final int CAPACIDADE_FILA = 4096;
+
+    private static final JsonFactory FABRICA = new JsonFactory();
+
+    private final DicionarioAlimentos nomes;
+    private final int[] pontos;
+    private final int[] lotes;
+    /**
+     * Alimentos em reposição, se o estado ficar neste processo. Cada posição só é alterada
+     * com a listra do alimento bloqueada no livro em uso, ou com o livro trocado sob o lock
+     * de escrita de {@link StockManager}.
+     */
+    private final boolean[] emReposicao;
+    /**
+     * Número de eventos emitidos por cada alimento, alterado como {@link #emReposicao}. Uma
+     * falha de entrega só tira o alimento de reposição se o evento falhado for o último.
+     */
+    private final int[] emissoes;
+    /** Nome de cada alimento no stock ligado, que pode ter outra grafia. */
+    private final String[] ingredientes;
+    /** Tabela onde fica o estado de reposição, ou {@code null} se ficar neste processo. */
+    private StockPartilhado partilhado;
+    /** Identificador de cada alimento na tabela partilhada, ou {@code -1}. */
+    private final int[] ids;
+
+    private final BlockingQueue<Evento> fila = new ArrayBlockingQueue<>(CAPACIDADE_FILA);
+    private final CountDownLatch comDestino = new CountDownLatch(1);
+    private volatile Consumer<Evento> destino;
+    private final AtomicLong emitidos = new AtomicLong();
+    private final AtomicLong descartados = new AtomicLong();
+    private final AtomicLong falhados = new AtomicLong();
+
+    private ReposicaoStock(DicionarioAlimentos nomes, int[] pontos, int[] lotes) {
+        this.nomes = nomes;
+        this.pontos = pontos;
+        this.lotes = lotes;
+        this.emReposicao = new boolean[nomes.tamanho()];
+        this.emissoes = new int[nomes.tamanho()];
+        this.ingredientes = new String[nomes.tamanho()];
+        this.ids = new int[nomes.tamanho()];
+        Thread thread = new Thread(this::entregar, "stock-reposicao");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Lê e valida um ficheiro de pontos de encomenda.
+     *
+     * @param in conteúdo do ficheiro; não é fechado.
+     * @return pontos de encomenda lidos.
+     * @throws IOException              se o conteúdo não for JSON válido.
+     * @throws IllegalArgumentException se algum alimento não tiver {@code ponto} e
+     *                                  {@code quantidade} inteiros, com quantidade positiva.
+     */
+    public static ReposicaoStock ler(InputStream in) throws IOException {
+        DicionarioAlimentos.Construtor c = new DicionarioAlimentos.Construtor();
+        int[] pontos = new int[16];
+        int[] lotes = new int[16];
+        try (JsonParser p = FABRICA.createParser(in)) {
+            p.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("os pontos de encomenda têm de ser um objeto "
+                        + "{alimento: {ponto, quantidade}}");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String nome = p.currentName();
+                if (p.nextToken() != JsonToken.START_OBJECT) {
+                    throw new IllegalArgumentException("ponto de encomenda inválido para " + nome);
+                }
+                int ponto = -1;
+                int lote = 0;
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String campo = p.currentName();
+                    if (p.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+                        throw new IllegalArgumentException(campo + " inválido para " + nome + ": " + p.getText());
+                    }
+                    if (campo.equals("ponto")) {
+                        ponto = p.getIntValue();
+                    } else if (campo.equals("quantidade")) {
+                        lote = p.getIntValue();
+                    }
+                }
+                if (ponto < 0 || lote <= 0) {
+                    throw new IllegalArgumentException("ponto de encomenda de " + nome
+                            + " sem ponto ou quantidade positiva");
+                }
+                int id = c.acrescentar(nome);
+                if (id >= pontos.length) {
+                    pontos = Arrays.copyOf(pontos, pontos.length * 2);
+                    lotes = Arrays.copyOf(lotes, lotes.length * 2);
+                }
+                pontos[id] = ponto;
+                lotes[id] = lote;
+            }
+        }
+        int n = c.tamanho();
+        return new ReposicaoStock(c.construir(), Arrays.copyOf(pontos, n), Arrays.copyOf(lotes, n));
+    }
+
+    /**
+     * Define para onde são entregues os eventos de reposição, incluindo os que esperavam.
+     *
+     * @param destino recetor dos eventos, chamado pela thread {@code stock-reposicao}.
+     */
+    public void definirDestino(Consumer<Evento> destino) {
+        this.destino = destino;
+        comDestino.countDown();
+    }
+
+    /**
+     * @return número de alimentos com ponto de encomenda.
+     */
+    public int tamanho() {
+        return nomes.tamanho();
+    }
+
+    /**
+     * @return número de eventos de reposição emitidos.
+     */
+    public long getEmitidos() {
+        return emitidos.get();
+    }
+
+    /**
+     * @return número de eventos descartados por a fila estar cheia.
+     */
+    public long getDescartados() {
+        return descartados.get();
+    }
+
+    /**
+     * @return número de eventos que o destino não conseguiu tratar.
+     */
+    public long getFalhados() {
+        return falhados.get();
+    }
+
+    /**
+     * Associa os pontos de encomenda aos alimentos de um livro e avalia cada um com a
+     * quantidade disponível atual: os que estão acima do ponto deixam de estar em reposição
+     * e os que estão abaixo, se ainda não estavam, emitem um evento. Deve ser chamado antes de
+     * o livro receber movimentos.
+     *
+     * @param partilhado tabela partilhada do livro, onde passa a ficar o estado de
+     *                   reposição, ou {@code null} se o livro for só deste processo.
+     * @return para cada identificador de alimento do livro, o índice do seu ponto de
+     *         encomenda, ou {@code -1}.
+     */
+    int[] ligar(LivroStock livro, StockPartilhado partilhado) {
+        this.partilhado = partilhado;
+        Arrays.fill(ids, -1);
+        int[] indices = new int[livro.tamanho()];
+        Arrays.fill(indices, -1);
+        for (int c = 0; c < nomes.tamanho(); c++) {
+            String nome = nomes.nome(c);
+            int id = livro.id(nome);
+            if (id < 0) {
+                Registo.aviso("Ponto de encomenda de %s, que não existe no stock", nome);
+                continue;
+            }
+            indices[id] = c;
+            ids[c] = id;
+            ingredientes[c] = livro.nome(id);
+            int disponivel = livro.disponivel(nome);
+            if (disponivel > pontos[c]) {
+                recebeu(c, disponivel);
+            } else {
+                baixou(c, disponivel);
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * A quantidade disponível do alimento {@code c} diminuiu: emite um evento se desceu até
+     * ao ponto de encomenda e o alimento ainda não estava em reposição.
+     */
+    void baixou(int c, int disponivel) {
+        if (disponivel > pontos[c]) {
+            return;
+        }
+        int emissao;
+        if (partilhado != null) {
+            emissao = partilhado.marcarReposicao(ids[c]);
+            if (emissao < 0) {
+                return;
+            }
+        } else {
+            if (emReposicao[c]) {
+                return;
+            }
+            emReposicao[c] = true;
+            emissao = ++emissoes[c];
+        }
+        if (fila.offer(new Evento(c, emissao, ingredientes[c], lotes[c], disponivel))) {
+            emitidos.incrementAndGet();
+        } else {
+            desmarcar(c, emissao);
+            descartados.incrementAndGet();
+        }
+    }
+
+    /**
+     * O alimento {@code c} recebeu stock: se ficou acima do ponto de encomenda, a reposição
+     * terminou e uma nova descida volta a emitir um evento.
+     */
+    void recebeu(int c, int disponivel) {
+        if (disponivel > pontos[c]) {
+            if (partilhado != null) {
+                partilhado.desmarcarReposicao(ids[c]);
+            } else {
+                emReposicao[c] = false;
+            }
+        }
+    }
+
+    /**
+     * O evento não chegou ao destino: se ainda for o último do seu alimento, o alimento deixa
+     * de estar em reposição e o movimento seguinte que o deixe no ponto de encomenda volta a
+     * emitir um evento. Chamado com a listra do alimento bloqueada no livro em uso.
+     */
+    void falhou(Evento evento) {
+        if (desmarcar(evento.alimento, evento.emissao)) {
+            falhados.incrementAndGet();
+        }
+    }
+
+    /**
+     * Tira o alimento {@code c} de reposição se o evento {@code emissao} ainda for o último
+     * que emitiu.
+     *
+     * @return {@code true} se o alimento deixou de estar em reposição.
+     */
+    private boolean desmarcar(int c, int emissao) {
+        if (partilhado != null) {
+            return partilhado.reposicaoFalhada(ids[c], emissao);
+        }
+        if (emReposicao[c] && emissoes[c] == emissao) {
+            emReposicao[c] = false;
+            return true;
+        }
+        return false;
+    }
+
+    private void entregar() {
+        try {
+            comDestino.await();
+            while (true) {
+                Evento evento = fila.take();
+                try {
+                    destino.accept(evento);
+                } catch (RuntimeException e) {
+                    Registo.erro(e, "Reposição de %s não entregue", evento.ingrediente);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Pedido de reposição de um alimento que desceu até ao ponto de encomenda.
+     */
+    public static final class Evento {
+
+        /** Índice do alimento nos pontos de encomenda. */
+        final int alimento;
+        /** Número do evento entre os emitidos pelo alimento. */
+        final int emissao;
+        private final String ingrediente;
+        private final int quantidade;
+        private final int disponivel;
+
+        Evento(int alimento, int emissao, String ingrediente, int quantidade, int disponivel) {
+            this.alimento = alimento;
+            this.emissao = emissao;
+            this.ingrediente = ingrediente;
+            this.quantidade = quantidade;
+            this.disponivel = disponivel;
+        }
+
+        /**
+         * @return alimento a repor, com o nome que tem no stock.
+         */
+        public String getIngrediente() {
+            return ingrediente;
+        }
+
+        /**
+         * @return quantidade a encomendar.
+         */
+        public int getQuantidade() {
+            return quantidade;
+        }
+
+        /**
+         * @return quantidade disponível quando o ponto de encomenda foi atingido.
+         */
+        public int getDisponivel() {
+            return disponivel;
+        }
+
+        /**
+         * @return variáveis do processo de compra: {@code ingrediente} e {@code quantidade},
+         *         as lidas pelo worker {@code Emitir_Ordem_Compra}.
+         */
+        public Map<String, Object> variaveis() {
+            return Map.of("ingrediente", ingrediente, "quantidade", quantidade);
+        }
+    }
+}
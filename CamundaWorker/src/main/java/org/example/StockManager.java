@@ -1,8 +1,27 @@
 package org.example;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 /**
  * Classe responsável por gerir o stock de alimentos da aplicação.
@@ -10,7 +29,80 @@ import java.util.Map;
  * <p>
  * A classe {@code StockManager} carrega automaticamente um ficheiro JSON com o
  * stock de alimentos disponível e fornece métodos para verificar se uma lista
- * de alimentos e quantidades pode ser retirada do stock.
+ * de alimentos e quantidades pode ser retirada do stock e para a reservar.
+ * </p>
+ *
+ * <p>
+ * O stock é mantido num {@link LivroStock}: um pedido é reservado por inteiro ou não é
+ * reservado, e dois pedidos simultâneos nunca reservam a mesma quantidade. As reservas
+ * ficam pendentes até serem confirmadas ou libertadas; as que não o forem dentro do prazo
+ * ({@code stock.reserva.validade}, duração ISO-8601, omissão {@link #VALIDADE_RESERVA_OMISSAO})
+ * são libertadas automaticamente.
+ * </p>
+ *
+ * <p>
+ * Os movimentos de stock são persistidos num {@link DiarioStock} na pasta
+ * {@code stock.diario.pasta} (omissão {@code stock_diario}); ao arrancar, o stock é
+ * recuperado do diário e o ficheiro JSON só fornece as quantidades dos alimentos que o
+ * diário ainda não conhece. Outras propriedades: {@code stock.diario.segmento} (bytes por
+ * segmento), {@code stock.diario.sincrono} ({@code false} para não esperar pela escrita em
+ * disco) e {@code stock.diario=false}, que mantém o stock apenas em memória.
+ * </p>
+ *
+ * <p>
+ * Com a propriedade {@code stock.partilhado}, as quantidades ficam num {@link StockPartilhado}:
+ * um ficheiro mapeado em memória, partilhado por todos os processos de workers do mesmo host
+ * que indiquem o mesmo ficheiro. O primeiro processo cria-o com o seu ficheiro de stock; os
+ * restantes adotam os alimentos e as quantidades que lá estão. Neste modo não há diário (o
+ * ficheiro partilhado já guarda o stock) nem recarga do ficheiro de stock; os lotes com
+ * validade são avaliados em cada processo, e os pontos de encomenda também, mas o estado
+ * "em reposição" de cada alimento fica na tabela, para que só um processo emita o evento
+ * de cada descida. Ao terminar, o processo
+ * liberta as suas reservas pendentes; as de um processo que termine sem o fazer são devolvidas
+ * ao stock pelos restantes, que registam cada linha reservada numa das
+ * {@code stock.partilhado.reservas} linhas da tabela (omissão
+ * {@link StockPartilhado#RESERVAS_OMISSAO}, fixada por quem cria o ficheiro).
+ * </p>
+ *
+ * <p>
+ * Com a propriedade {@code stock.ficheiro}, o stock inicial é lido desse ficheiro em vez do
+ * recurso {@code stock_alimentos.json}, e o ficheiro é vigiado: quando muda, é lido e
+ * validado pela thread {@code stock-recarga} e, se for válido, as suas quantidades (as
+ * existentes, incluindo as reservadas) passam para um livro novo, publicado numa única
+ * troca de referência. As reservas pendentes passam para o livro novo. {@link #verificarPedido(String[], int[])} nunca
+ * bloqueia e vê sempre um livro completo; os movimentos esperam apenas pela troca. A versão
+ * em uso é exportada na métrica {@code stock_versao}.
+ * </p>
+ *
+ * <p>
+ * Vários pedidos podem ser avaliados de uma só vez ({@link #reservarLote(PedidoAlimentos[])},
+ * {@link #verificarLote(PedidoAlimentos[])}), com o stock atribuído por prioridade e ordem de
+ * chegada e a quantidade em falta de cada linha. {@link #reservarAgrupado(PedidoAlimentos)}
+ * junta os pedidos que chegam dentro de uma janela ({@code stock.lote.janela}, duração
+ * ISO-8601, omissão {@link #JANELA_LOTE_OMISSAO}; {@code PT0S} desliga o agrupamento) num
+ * lote de até {@code stock.lote.maximo} pedidos (omissão {@link #MAXIMO_LOTE_OMISSAO}).
+ * </p>
+ *
+ * <p>
+ * {@link #verificarPedido(String, String)} guarda o resultado de cada pedido numa
+ * {@link CacheVerificacoes} de {@code stock.cache.entradas} entradas (omissão
+ * {@link #ENTRADAS_CACHE_OMISSAO}; {@code 0} desliga a cache), válido enquanto o stock não
+ * for recarregado e nenhum dos alimentos do pedido mudar de quantidade disponível.
+ * </p>
+ *
+ * <p>
+ * Os pontos de encomenda ({@link ReposicaoStock}) são lidos do ficheiro indicado em
+ * {@code stock.reposicao} ou, se existir, do recurso {@code stock_reposicao.json}. A cada
+ * movimento que deixe um alimento no seu ponto de encomenda é emitido um único evento de
+ * reposição, entregue ao destino definido com {@link #aoRepor(Consumer)}.
+ * </p>
+ *
+ * <p>
+ * As entradas de perecíveis podem indicar o lote e a validade
+ * ({@link #receberLote(String, int, String, Instant)}); as confirmações e os desperdícios
+ * consomem primeiro os lotes que expiram primeiro ({@link LotesStock}). A cada segundo, os
+ * lotes expirados saem do stock como desperdício, e {@link #aExpirar(Duration)} dá os lotes
+ * que expiram dentro de um prazo sem percorrer os restantes.
  * </p>
  *
  * <p>
@@ -27,61 +119,369 @@ import java.util.Map;
  */
 public class StockManager {
 
+    /** Prazo das reservas, quando não configurado. */
+    public static final Duration VALIDADE_RESERVA_OMISSAO = Duration.ofMinutes(30);
+
+    /** Janela de agrupamento dos pedidos em lotes, quando não configurada. */
+    public static final Duration JANELA_LOTE_OMISSAO = Duration.ofMillis(2);
+
+    /** Número máximo de pedidos por lote, quando não configurado. */
+    public static final int MAXIMO_LOTE_OMISSAO = 64;
+
+    /** Número de entradas da cache de verificações, quando não configurado. */
+    public static final int ENTRADAS_CACHE_OMISSAO = 4096;
+
+    /** Pausa sem alterações ao ficheiro de stock antes de o recarregar, em milissegundos. */
+    private static final long ESPERA_RECARGA_MS = 200;
+
+    /** Livro com as quantidades disponíveis e reservadas de cada alimento. */
+    private static volatile LivroStock livro;
+
     /**
-     * Estrutura que mantém em memória o stock disponível, onde:
-     * <ul>
-     *     <li>Chave → nome do alimento (minúsculas);</li>
-     *     <li>Valor → quantidade disponível.</li>
-     * </ul>
+     * Os movimentos usam o livro com o lock de leitura; a recarga troca-o com o de escrita,
+     * para nenhum movimento ficar no livro antigo depois de as reservas passarem para o novo.
      */
-    private static Map<String, Integer> stock;
+    private static final ReentrantReadWriteLock troca = new ReentrantReadWriteLock();
+
+    /** Versão do stock em uso: 1 no arranque, mais 1 a cada recarga. */
+    private static volatile long versao;
+    private static final AtomicLong recargasFalhadas = new AtomicLong();
+    private static final AtomicLong lotesExpirados = new AtomicLong();
+    /** CRC do conteúdo do ficheiro de stock em uso, para ignorar alterações sem efeito. */
+    private static long crcCarregado;
+
+    /** Diário onde os movimentos do livro são persistidos, ou {@code null} sem persistência. */
+    private static DiarioStock diario;
+
+    /** Tabela de stock partilhada com os outros processos, ou {@code null} se o stock for só deste. */
+    private static StockPartilhado partilhado;
+
+    private static final long validadeReservaMs = Duration.parse(
+            System.getProperty("stock.reserva.validade", VALIDADE_RESERVA_OMISSAO.toString())).toMillis();
+
+    /** Agrupador dos pedidos em lotes, ou {@code null} com o agrupamento desligado. */
+    private static final AgrupadorPedidos agrupador;
+
+    /** Pontos de encomenda, ou {@code null} sem reposição automática. */
+    private static ReposicaoStock reposicao;
+
+    /** Cache das verificações de pedidos repetidos, ou {@code null} se estiver desligada. */
+    private static final CacheVerificacoes cache;
 
     // Bloco estático executado automaticamente ao carregar a classe.
     static {
-        carregarStock();
+        String ficheiro = System.getProperty("stock.ficheiro");
+        carregarStock(ficheiro == null ? null : Paths.get(ficheiro));
+        carregarReposicao();
+        MetricasJobs.registarIndicador("stock_versao", "gauge",
+                "Versão do stock em uso; aumenta a cada recarga do ficheiro de stock.", () -> versao);
+        MetricasJobs.registarIndicador("stock_recargas_falhadas_total", "counter",
+                "Alterações ao ficheiro de stock rejeitadas por erro de leitura ou validação.",
+                recargasFalhadas::get);
+        MetricasJobs.registarIndicador("stock_lotes_validade", "gauge",
+                "Lotes de stock com validade e quantidade por consumir.", () -> livro.numeroLotes());
+        MetricasJobs.registarIndicador("stock_lotes_validade_expirados_total", "counter",
+                "Lotes de stock retirados como desperdício por terem passado a validade.", lotesExpirados::get);
+        if (partilhado != null) {
+            MetricasJobs.registarIndicador("stock_partilhado_reservas_recuperadas_total", "counter",
+                    "Linhas de reservas de processos terminados devolvidas ao stock partilhado.",
+                    partilhado::getRecuperadas);
+            MetricasJobs.registarIndicador("stock_partilhado_reservas_sem_registo_total", "counter",
+                    "Reservas feitas sem registo na tabela partilhada por falta de linhas livres.",
+                    partilhado::getSemRegisto);
+        }
+
+        int entradas = Integer.getInteger("stock.cache.entradas", ENTRADAS_CACHE_OMISSAO);
+        if (entradas <= 0) {
+            cache = null;
+        } else {
+            cache = new CacheVerificacoes(entradas);
+            MetricasJobs.registarIndicador("stock_cache_acertos_total", "counter",
+                    "Verificações de pedidos respondidas pela cache.", cache::getAcertos);
+            MetricasJobs.registarIndicador("stock_cache_falhas_total", "counter",
+                    "Verificações de pedidos calculadas por falta de entrada válida na cache.", cache::getFalhas);
+            MetricasJobs.registarIndicador("stock_cache_despejos_total", "counter",
+                    "Entradas retiradas da cache de verificações por falta de espaço.", cache::getDespejos);
+            MetricasJobs.registarIndicador("stock_cache_invalidacoes_total", "counter",
+                    "Entradas da cache de verificações encontradas desatualizadas.", cache::getInvalidacoes);
+        }
+
+        Duration janela = Duration.parse(System.getProperty("stock.lote.janela", JANELA_LOTE_OMISSAO.toString()));
+        if (janela.isZero() || janela.isNegative()) {
+            agrupador = null;
+        } else {
+            agrupador = new AgrupadorPedidos(janela,
+                    Integer.getInteger("stock.lote.maximo", MAXIMO_LOTE_OMISSAO), StockManager::reservarLote);
+            MetricasJobs.registarIndicador("stock_lotes_total", "counter",
+                    "Lotes de pedidos de stock avaliados pelo agrupador.", agrupador::getLotes);
+            MetricasJobs.registarIndicador("stock_lotes_pedidos_total", "counter",
+                    "Pedidos de stock avaliados em lotes pelo agrupador.", agrupador::getPedidos);
+        }
+
+        ScheduledExecutorService expiracao = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stock-reservas");
+            t.setDaemon(true);
+            return t;
+        });
+        expiracao.scheduleWithFixedDelay(() -> {
+            int libertadas = movimento(l -> l.libertarExpiradas(System.currentTimeMillis()));
+            if (libertadas > 0) {
+                Registo.aviso("%d reservas de stock expiradas e libertadas", libertadas);
+            }
+            lotesExpirados.addAndGet(movimento(l -> l.retirarExpirados(System.currentTimeMillis())));
+            if (partilhado != null) {
+                int recuperadas = partilhado.recuperarReservas(System.currentTimeMillis());
+                if (recuperadas > 0) {
+                    Registo.aviso("%d linhas de reservas de processos terminados devolvidas ao stock partilhado",
+                            recuperadas);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+
+        if (ficheiro != null && partilhado != null) {
+            Registo.aviso("Stock partilhado em uso: alterações a %s não são recarregadas", ficheiro);
+        } else if (ficheiro != null) {
+            vigiar(Paths.get(ficheiro));
+        }
     }
 
     /**
-     * Carrega o stock de alimentos a partir do ficheiro JSON {@code stock_alimentos.json}.
+     * Carrega o stock de alimentos a partir do ficheiro JSON {@code stock_alimentos.json}
+     * ou, se indicado, do ficheiro externo.
      *
      * <p>
-     * Este método utiliza Jackson para converter o ficheiro num {@link Map}.
+     * O ficheiro é lido em streaming para um {@link CatalogoStock}, sem passar por um
+     * {@code Map}, pelo que o custo em memória se mantém baixo com milhões de alimentos.
      * Caso o ficheiro não seja encontrado ou ocorra algum erro de leitura, é lançada
      * uma {@link RuntimeException}, impedindo a aplicação de continuar sem stock válido.
      * </p>
+     *
+     * @param ficheiro ficheiro externo de stock, ou {@code null} para usar o recurso.
      */
-    private static void carregarStock() {
+    private static void carregarStock(Path ficheiro) {
         try {
-            ObjectMapper mapper = new ObjectMapper();
-
-            InputStream is = StockManager.class
-                    .getClassLoader()
-                    .getResourceAsStream("stock_alimentos.json");
-
+            InputStream is = ficheiro != null
+                    ? Files.newInputStream(ficheiro)
+                    : StockManager.class.getClassLoader().getResourceAsStream("stock_alimentos.json");
             if (is == null) {
                 throw new RuntimeException("stock_alimentos.json não encontrado!");
             }
+            CRC32 crc = new CRC32();
+            CatalogoStock stock = ler(is, crc);
 
-            stock = mapper.readValue(
-                    is,
-                    new com.fasterxml.jackson.core.type.TypeReference<Map<String, Integer>>() {}
-            );
+            String tabela = System.getProperty("stock.partilhado");
+            if (tabela != null) {
+                partilhado = StockPartilhado.abrir(Paths.get(tabela), stock,
+                        Integer.getInteger("stock.partilhado.reservas", StockPartilhado.RESERVAS_OMISSAO));
+                livro = new LivroStock(partilhado);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    livro.libertarExpiradas(Long.MAX_VALUE);
+                    partilhado.forcar();
+                }, "stock-partilhado-fecho"));
+                Registo.info("Stock partilhado %s em %s: %d alimentos", partilhado.isCriado() ? "criado" : "aberto",
+                        tabela, livro.tamanho());
+            } else if (Boolean.parseBoolean(System.getProperty("stock.diario", "true"))) {
+                diario = DiarioStock.abrir(
+                        Paths.get(System.getProperty("stock.diario.pasta", "stock_diario")),
+                        stock,
+                        Integer.getInteger("stock.diario.segmento", DiarioStock.TAMANHO_SEGMENTO_OMISSAO),
+                        Boolean.parseBoolean(System.getProperty("stock.diario.sincrono", "true")));
+                livro = diario.getLivro();
+                Runtime.getRuntime().addShutdownHook(new Thread(diario::close, "stock-diario-fecho"));
+            } else {
+                livro = new LivroStock(stock);
+            }
+            versao = 1;
+            crcCarregado = crc.getValue();
 
-            System.out.println("Stock carregado: " + stock.size() + " itens");
+            Registo.info("Stock carregado: %d itens (%d alimentos distintos)", stock.getLinhas(), livro.tamanho());
 
         } catch (Exception e) {
-            System.err.println("ERRO ao carregar stock: " + e.getMessage());
+            Registo.erro("ERRO ao carregar stock: %s", e.getMessage());
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Lê os pontos de encomenda do ficheiro {@code stock.reposicao} ou do recurso
+     * {@code stock_reposicao.json} e liga-os ao livro. Sem nenhum dos dois, não há
+     * reposição automática; um ficheiro inválido impede o arranque, como o de stock.
+     */
+    private static void carregarReposicao() {
+        String ficheiro = System.getProperty("stock.reposicao");
+        try (InputStream is = ficheiro != null
+                ? Files.newInputStream(Paths.get(ficheiro))
+                : StockManager.class.getClassLoader().getResourceAsStream("stock_reposicao.json")) {
+            if (is == null) {
+                return;
+            }
+            reposicao = ReposicaoStock.ler(is);
+        } catch (IOException | IllegalArgumentException e) {
+            Registo.erro("ERRO ao carregar os pontos de encomenda: %s", e.getMessage());
+            throw new RuntimeException(e);
+        }
+        livro.ligarReposicao(reposicao);
+        MetricasJobs.registarIndicador("stock_reposicoes_total", "counter",
+                "Eventos de reposição emitidos por alimentos que atingiram o ponto de encomenda.",
+                reposicao::getEmitidos);
+        MetricasJobs.registarIndicador("stock_reposicoes_descartadas_total", "counter",
+                "Eventos de reposição descartados por a fila de entrega estar cheia.",
+                reposicao::getDescartados);
+        MetricasJobs.registarIndicador("stock_reposicoes_falhadas_total", "counter",
+                "Eventos de reposição que o destino não conseguiu tratar; o alimento volta a ser avaliado.",
+                reposicao::getFalhados);
+        Registo.info("Pontos de encomenda carregados: %d alimentos", reposicao.tamanho());
+    }
+
+    /**
+     * Define o destino dos eventos de reposição (por exemplo, iniciar o processo de compra).
+     * Os eventos emitidos antes, incluindo os dos alimentos que já arrancaram abaixo do
+     * ponto de encomenda, são entregues logo a seguir. Sem pontos de encomenda, não faz nada.
+     *
+     * @param destino recetor dos eventos, chamado pela thread {@code stock-reposicao}.
+     */
+    public static void aoRepor(Consumer<ReposicaoStock.Evento> destino) {
+        if (reposicao != null) {
+            reposicao.definirDestino(destino);
+        }
+    }
+
+    /**
+     * Assinala que o destino não conseguiu tratar um evento de reposição (por exemplo, o
+     * processo de compra não foi iniciado). O alimento deixa de estar em reposição, e o
+     * próximo movimento que o deixe no ponto de encomenda volta a emitir um evento.
+     *
+     * @param evento evento recebido pelo destino definido com {@link #aoRepor(Consumer)}.
+     */
+    public static void reposicaoFalhada(ReposicaoStock.Evento evento) {
+        movimento(l -> {
+            l.reposicaoFalhada(evento);
+            return null;
+        });
+    }
+
+    /**
+     * Lê e valida um ficheiro de stock (ver {@link CatalogoStock#ler(InputStream)}), somando
+     * ao mesmo tempo o CRC do conteúdo. Fecha {@code in}.
+     */
+    private static CatalogoStock ler(InputStream in, CRC32 crc) throws IOException {
+        try (CheckedInputStream verificado = new CheckedInputStream(in, crc)) {
+            return CatalogoStock.ler(verificado);
+        }
+    }
+
+    /**
+     * Recarrega o ficheiro de stock: se for válido e diferente do que está em uso, as suas
+     * quantidades passam a ser as existentes de cada alimento. As reservas pendentes mantêm-se
+     * e a quantidade reservada é descontada da existente. Os alimentos que deixarem de
+     * constar do ficheiro ficam com quantidade {@code 0}.
+     * Os pontos de encomenda são avaliados de novo com as quantidades recarregadas, e os
+     * lotes de cada alimento são reduzidos ao seu novo stock, pelos que expiram primeiro.
+     *
+     * @param ficheiro ficheiro de stock.
+     * @return {@code true} se o stock foi substituído.
+     */
+    static boolean recarregar(Path ficheiro) {
+        CatalogoStock stock;
+        CRC32 crc = new CRC32();
+        try {
+            stock = ler(Files.newInputStream(ficheiro), crc);
+        } catch (IOException | IllegalArgumentException e) {
+            recargasFalhadas.incrementAndGet();
+            Registo.aviso("Ficheiro de stock %s rejeitado, mantém-se a versão %d: %s", ficheiro, versao, e.getMessage());
+            return false;
+        }
+        if (crc.getValue() == crcCarregado) {
+            return false;
+        }
+
+        // O livro novo é criado sem bloquear; só a passagem das reservas e a troca bloqueiam os movimentos
+        LivroStock novo = livro.comQuantidades(stock);
+        troca.writeLock().lock();
+        try {
+            novo.herdarReservas(livro);
+            novo.herdarLotes(livro);
+            if (reposicao != null) {
+                novo.ligarReposicao(reposicao);
+            }
+            if (diario != null) {
+                try {
+                    diario.trocarLivro(novo);
+                } catch (IOException e) {
+                    Registo.erro(e, "Snapshot do stock recarregado não gravado; um reinício antes do "
+                            + "próximo snapshot volta às quantidades anteriores");
+                }
+            }
+            livro = novo;
+            crcCarregado = crc.getValue();
+            versao++;
+        } finally {
+            troca.writeLock().unlock();
+        }
+        Registo.info("Stock recarregado de %s: versão %d, %d alimentos, %d reservas pendentes",
+                ficheiro, versao, novo.tamanho(), novo.reservasPendentes());
+        return true;
+    }
+
+    /**
+     * Vigia a pasta do ficheiro de stock e recarrega-o quando muda, depois de
+     * {@link #ESPERA_RECARGA_MS} ms sem novas alterações (editores e cópias escrevem o
+     * ficheiro em vários passos).
+     */
+    private static void vigiar(Path ficheiro) {
+        Path absoluto = ficheiro.toAbsolutePath();
+        Path nome = absoluto.getFileName();
+        Thread thread = new Thread(() -> {
+            try (WatchService servico = absoluto.getFileSystem().newWatchService()) {
+                absoluto.getParent().register(servico, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                while (true) {
+                    WatchKey chave = servico.take();
+                    boolean alterado = consumir(chave, nome);
+                    while (alterado && (chave = servico.poll(ESPERA_RECARGA_MS, TimeUnit.MILLISECONDS)) != null) {
+                        consumir(chave, nome);
+                    }
+                    if (alterado) {
+                        recarregar(absoluto);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                Registo.erro(e, "Vigilância do ficheiro de stock %s terminada", absoluto);
+            }
+        }, "stock-recarga");
+        thread.setDaemon(true);
+        thread.start();
+        Registo.info("A vigiar alterações ao ficheiro de stock %s", absoluto);
+    }
+
+    /** Consome os eventos de uma chave e indica se algum diz respeito ao ficheiro {@code nome}. */
+    private static boolean consumir(WatchKey chave, Path nome) {
+        boolean alterado = false;
+        for (WatchEvent<?> evento : chave.pollEvents()) {
+            alterado |= evento.kind() == StandardWatchEventKinds.OVERFLOW || nome.equals(evento.context());
+        }
+        chave.reset();
+        return alterado;
+    }
+
+    /**
+     * @return versão do stock em uso: 1 no arranque, mais 1 a cada recarga do ficheiro.
+     */
+    public static long versao() {
+        return versao;
+    }
+
     /**
      * Verifica se todos os alimentos requisitados existem no stock em quantidade suficiente.
      *
      * <p>
      * As listas de alimentos e quantidades devem ter o mesmo tamanho, onde cada índice
      * corresponde ao alimento e à quantidade desejada.
-     * O nome do alimento é normalizado para minúsculas antes da verificação.
+     * O nome do alimento é comparado sem distinguir maiúsculas nem acentos. A verificação
+     * não usa locks; durante uma recarga do ficheiro de stock vê o livro antigo ou o novo,
+     * nunca um livro a meio de ser carregado.
      * </p>
      *
      * <p>Exemplo:</p>
@@ -97,19 +497,223 @@ public class StockManager {
      *         {@code false} caso falte algum.
      */
     public static boolean verificarPedido(String[] alimentos, int[] quantidades) {
-        for (int i = 0; i < alimentos.length; i++) {
+        return livro.verificar(alimentos, quantidades);
+    }
+
+    /**
+     * Verifica, sem reservar, um pedido recebido como strings separadas por ponto
+     * ({@link PedidoAlimentos#ler(String, String)}), com a quantidade em falta de cada linha.
+     *
+     * <p>
+     * O resultado fica na cache de verificações: um pedido com as mesmas strings é
+     * respondido sem ser convertido nem verificado de novo, e o mesmo menu noutra ordem ou
+     * grafia sem ser verificado de novo, enquanto o stock não for recarregado e nenhum dos
+     * seus alimentos mudar de quantidade disponível.
+     * </p>
+     *
+     * @param alimentosStr   alimentos separados por ponto (por exemplo, {@code "arroz.feijão"}).
+     * @param quantidadesStr quantidades separadas por ponto (por exemplo, {@code "5.3"}).
+     * @return veredicto do pedido, sem reserva; {@link VeredictoPedido#getPedido()} dá o pedido convertido.
+     * @throws NumberFormatException    se alguma quantidade não for um número inteiro.
+     * @throws IllegalArgumentException se o número de alimentos e de quantidades for diferente.
+     */
+    public static VeredictoPedido verificarPedido(String alimentosStr, String quantidadesStr) {
+        // A versão é lida antes do livro: numa recarga a meio, a entrada fica com a versão antiga e é invalidada
+        long versaoAtual = versao;
+        LivroStock atual = livro;
+        if (cache == null) {
+            return atual.verificarLote(new PedidoAlimentos[]{PedidoAlimentos.ler(alimentosStr, quantidadesStr)})[0];
+        }
+        return cache.verificar(alimentosStr, quantidadesStr, versaoAtual, atual);
+    }
+
+    /**
+     * Reserva todos os alimentos de um pedido, ou nenhum.
+     *
+     * <p>
+     * A reserva fica pendente até {@link #confirmar(long)} ou {@link #libertar(long)}, ou
+     * até expirar o prazo das reservas.
+     * </p>
+     *
+     * @param alimentos   lista de alimentos pedidos.
+     * @param quantidades lista de quantidades correspondentes.
+     * @return reserva pendente, ou {@code null} se faltar algum alimento.
+     */
+    public static LivroStock.Reserva reservar(String[] alimentos, int[] quantidades) {
+        return movimento(l -> l.reservar(alimentos, quantidades, validadeReservaMs));
+    }
+
+    /**
+     * Reserva um lote de pedidos: cada um é reservado por inteiro ou não é reservado, com o
+     * stock atribuído por ordem de prioridade e, com a mesma prioridade, pela ordem no array
+     * (ver {@link LivroStock#reservarLote(PedidoAlimentos[], long)}).
+     *
+     * @param pedidos pedidos do lote.
+     * @return veredicto de cada pedido, com a reserva dos atendidos e a quantidade em falta
+     *         de cada linha.
+     */
+    public static VeredictoPedido[] reservarLote(PedidoAlimentos[] pedidos) {
+        return movimento(l -> l.reservarLote(pedidos, validadeReservaMs));
+    }
+
+    /**
+     * Avalia um lote de pedidos como {@link #reservarLote(PedidoAlimentos[])}, sem reservar.
+     * Tal como {@link #verificarPedido(String[], int[])}, não usa locks.
+     *
+     * @param pedidos pedidos do lote.
+     * @return veredicto de cada pedido, sem reservas.
+     */
+    public static VeredictoPedido[] verificarLote(PedidoAlimentos[] pedidos) {
+        return livro.verificarLote(pedidos);
+    }
+
+    /**
+     * Reserva um pedido no próximo lote do agrupador, junto com os pedidos que chegarem
+     * dentro da janela {@code stock.lote.janela}. Com o agrupamento desligado, o pedido é
+     * reservado logo, como um lote de um só pedido.
+     *
+     * @param pedido pedido de alimentos.
+     * @return veredicto do pedido, quando o lote for avaliado.
+     */
+    public static CompletableFuture<VeredictoPedido> reservarAgrupado(PedidoAlimentos pedido) {
+        if (agrupador == null) {
+            try {
+                return CompletableFuture.completedFuture(reservarLote(new PedidoAlimentos[]{pedido})[0]);
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return agrupador.submeter(pedido);
+    }
+
+    /**
+     * Confirma uma reserva: os alimentos reservados saem do stock.
+     *
+     * @param idReserva identificador da reserva.
+     * @return {@code true} se a reserva estava pendente.
+     */
+    public static boolean confirmar(long idReserva) {
+        return movimento(l -> l.confirmar(idReserva));
+    }
 
-            String alimento = alimentos[i].trim().toLowerCase();
-            int quantidade = quantidades[i];
+    /**
+     * Liberta uma reserva: os alimentos reservados voltam a ficar disponíveis.
+     *
+     * @param idReserva identificador da reserva.
+     * @return {@code true} se a reserva estava pendente.
+     */
+    public static boolean libertar(long idReserva) {
+        return movimento(l -> l.libertar(idReserva));
+    }
 
-            Integer stockDisponivel = stock.get(alimento);
+    /**
+     * Regista a entrada de um alimento em stock.
+     *
+     * @param alimento   nome do alimento.
+     * @param quantidade quantidade recebida.
+     * @return {@code true} se a entrada foi registada; {@code false} se o alimento não
+     *         existir ou a quantidade não for positiva.
+     */
+    public static boolean receber(String alimento, int quantidade) {
+        return movimento(l -> l.receber(alimento, quantidade));
+    }
 
-            // Se o item não existir ou a quantidade for insuficiente
-            if (stockDisponivel == null || stockDisponivel < quantidade) {
-                return false;
+    /**
+     * Retira do stock uma quantidade desperdiçada de um alimento.
+     *
+     * @param alimento   nome do alimento.
+     * @param quantidade quantidade desperdiçada.
+     * @return {@code true} se o desperdício foi registado; {@code false} se o alimento não
+     *         existir ou não houver essa quantidade disponível.
+     */
+    public static boolean registarDesperdicio(String alimento, int quantidade) {
+        return movimento(l -> l.desperdicar(alimento, quantidade));
+    }
+
+    /**
+     * Retira do stock as quantidades desperdiçadas de várias linhas, cada uma como
+     * {@link #registarDesperdicio(String, int)}.
+     *
+     * @param desperdicio alimentos e quantidades desperdiçadas.
+     * @return quantidade retirada de cada linha: a indicada, ou {@code 0} se o alimento
+     *         não existir ou não houver essa quantidade disponível.
+     */
+    public static int[] registarDesperdicio(PedidoAlimentos desperdicio) {
+        String[] alimentos = desperdicio.getAlimentos();
+        int[] quantidades = desperdicio.getQuantidades();
+        int[] retiradas = new int[alimentos.length];
+        for (int i = 0; i < alimentos.length; i++) {
+            if (registarDesperdicio(alimentos[i], quantidades[i])) {
+                retiradas[i] = quantidades[i];
             }
         }
+        return retiradas;
+    }
+
+    /**
+     * Regista a entrada de um lote de um alimento com a sua validade. O lote é consumido
+     * antes dos que expiram depois dele e, se chegar à validade com quantidade disponível,
+     * essa quantidade sai do stock como desperdício.
+     *
+     * @param alimento   nome do alimento.
+     * @param quantidade quantidade recebida.
+     * @param lote       código do lote; uma nova entrada no mesmo lote soma-se a ele.
+     * @param validade   instante em que o lote expira.
+     * @return {@code true} se a entrada foi registada; {@code false} se o alimento não
+     *         existir ou a quantidade não for positiva.
+     * @throws IllegalArgumentException se o lote já existir com outra validade.
+     */
+    public static boolean receberLote(String alimento, int quantidade, String lote, Instant validade) {
+        return movimento(l -> l.receber(alimento, quantidade, lote, validade.toEpochMilli()));
+    }
+
+    /**
+     * Retira do stock uma quantidade desperdiçada de um lote de um alimento; o que o lote não
+     * cobrir sai dos lotes que expiram primeiro.
+     *
+     * @param alimento   nome do alimento.
+     * @param lote       código do lote.
+     * @param quantidade quantidade desperdiçada.
+     * @return {@code true} se o desperdício foi registado; {@code false} se o alimento não
+     *         existir ou não houver essa quantidade disponível.
+     */
+    public static boolean registarDesperdicio(String alimento, String lote, int quantidade) {
+        return movimento(l -> l.desperdicar(alimento, lote, quantidade));
+    }
 
-        return true; // Todos os alimentos estão disponíveis.
+    /**
+     * Lotes de onde sairia o consumo de uma quantidade de um alimento, pela ordem em que são
+     * consumidos (primeiro o que expira primeiro).
+     *
+     * @param alimento   nome do alimento.
+     * @param quantidade quantidade a consumir.
+     * @return lotes que cobrem a quantidade, ou todos se não chegarem; o resto sai do
+     *         stock sem lote.
+     */
+    public static List<LotesStock.Lote> lotesAConsumir(String alimento, int quantidade) {
+        return livro.lotes(alimento, quantidade);
+    }
+
+    /**
+     * Lotes de todos os alimentos que expiram dentro de um prazo (por exemplo, as próximas
+     * 48 horas), por ordem de validade.
+     *
+     * @param prazo prazo a partir de agora.
+     * @return lotes com validade até agora mais {@code prazo}.
+     */
+    public static List<LotesStock.Lote> aExpirar(Duration prazo) {
+        return livro.lotesAte(System.currentTimeMillis() + prazo.toMillis());
+    }
+
+    /**
+     * Executa um movimento no livro em uso, sem deixar que uma recarga o troque a meio.
+     */
+    private static <T> T movimento(Function<LivroStock, T> operacao) {
+        troca.readLock().lock();
+        try {
+            return operacao.apply(livro);
+        } finally {
+            troca.readLock().unlock();
+        }
     }
 }
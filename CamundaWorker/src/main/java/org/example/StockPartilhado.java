@@ -0,0 +1,628 @@
+package org.example;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tabela de stock num ficheiro mapeado em memória, partilhada por todos os processos de
+ * workers do mesmo host: cada processo vê as mesmas quantidades, sem passar pela rede.
+ *
+ * <p>
+ * Formato do ficheiro, na ordem de bytes nativa do host:
+ * <pre>
+ * cabeçalho (64 bytes): MAGIA, FORMATO, estado (0 a criar, 1 pronto), n, início dos nomes,
+ *                       número de linhas de reservas
+ * n entradas de 24 bytes: quantidades (disponível nos 32 bits baixos, reservada nos altos), versão,
+ *                         reposição (número de eventos emitidos e o bit "em reposição")
+ * linhas de reservas de 32 bytes: estado, início do processo dono, expiração, alimento, quantidade
+ * nomes: para cada alimento, comprimento (int) e nome em UTF-8, pela ordem das entradas
+ * </pre>
+ * Cada alteração é um compare-and-set sobre as quantidades de um alimento, que passa
+ * unidades entre disponível e reservado numa única operação; um pedido de várias linhas que
+ * falhe a meio devolve as linhas já reservadas. Os locks do {@link LivroStock} continuam a
+ * ordenar as threads de cada processo, mas não os processos entre si.
+ * </p>
+ *
+ * <p>
+ * O primeiro processo cria o ficheiro com as quantidades do seu ficheiro de stock; os
+ * seguintes, e os que arrancarem mais tarde, adotam os alimentos e as quantidades que lá
+ * estão. A criação é protegida por um lock sobre o ficheiro. Para mudar os alimentos, o
+ * ficheiro tem de ser apagado com todos os processos parados.
+ * </p>
+ *
+ * <p>
+ * As reservas de cada processo ficam no seu {@link LivroStock}, mas cada linha reservada é
+ * também registada na tabela ({@link #registarReserva(int[], int[], long)}) com o PID e o
+ * instante de arranque do processo dono e a expiração da reserva. Se o processo terminar
+ * sem fechar as suas reservas (um {@code kill -9}, um erro de memória), as linhas ficariam
+ * reservadas para sempre; {@link #recuperarReservas(long)}, chamado ao abrir a tabela e a
+ * cada segundo por {@link StockManager}, devolve ao stock disponível as linhas cujo dono já
+ * terminou e as que expiraram há mais de {@link #TOLERANCIA_EXPIRADAS_MS} (dono bloqueado).
+ * O estado de cada linha só muda por compare-and-set, com uma geração que impede confundir
+ * uma linha reutilizada: quem a retirar primeiro, o dono ou outro processo, é quem mexe nas
+ * quantidades. Os processos têm de partilhar o espaço de PIDs (o mesmo host ou contentor).
+ * </p>
+ *
+ * <p>
+ * O estado "em reposição" de cada alimento ({@link ReposicaoStock}) também fica na tabela,
+ * para que uma descida ao ponto de encomenda emita um único evento, no processo que a
+ * marcar primeiro ({@link #marcarReposicao(int)}), e não um por processo.
+ * </p>
+ */
+public final class StockPartilhado implements ContadoresStock {
+
+    /** "STKP", escrito na ordem nativa: um ficheiro de outro host com outra ordem é recusado. */
+    static final int MAGIA = 0x53544B50;
+    static final int FORMATO = 3;
+
+    /** Número de linhas de reservas registadas na tabela, quando não configurado. */
+    public static final int RESERVAS_OMISSAO = 1 << 16;
+
+    /**
+     * Tempo depois da expiração a partir do qual qualquer processo devolve uma linha cujo
+     * dono ainda existe; até lá, é o dono que a liberta.
+     */
+    public static final long TOLERANCIA_EXPIRADAS_MS = 60_000;
+
+    private static final int CABECALHO = 64;
+    private static final int ENTRADA = 24;
+    private static final int POS_ESTADO = 8;
+    private static final int POS_N = 12;
+    private static final int POS_NOMES = 16;
+    private static final int POS_RESERVAS = 24;
+    private static final int PRONTO = 1;
+
+    private static final int RESERVA = 32;
+    /** Estado de uma linha de reserva: geração (24 bits), PID do dono (32 bits) e fase (8 bits). */
+    private static final int LIVRE = 0;
+    private static final int A_REGISTAR = 1;
+    private static final int REGISTADA = 2;
+    private static final long MASCARA_GERACAO = (1L << 24) - 1;
+
+    /** Bit "em reposição" da palavra de reposição de cada entrada; os 32 bits baixos contam as emissões. */
+    private static final long EM_REPOSICAO = 1L << 32;
+
+    /** PID e instante de arranque deste processo, que identificam o dono das linhas que regista. */
+    private static final long PID = ProcessHandle.current().pid();
+    private static final long INICIO = inicio(ProcessHandle.current());
+
+    /** Acesso atómico a longs alinhados de um buffer direto (o mapeamento do ficheiro). */
+    private static final VarHandle LONGO =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final MappedByteBuffer mapeamento;
+    /** O mesmo mapeamento, com o tipo exato que o {@link #LONGO} aceita. */
+    private final ByteBuffer tabela;
+    private final int n;
+    private final int reservas;
+    private final CatalogoStock catalogo;
+    private final boolean criado;
+
+    /** Linha a partir da qual este processo procura uma linha de reserva livre. */
+    private final AtomicInteger cursor = new AtomicInteger();
+    private final AtomicLong semRegisto = new AtomicLong();
+    private final AtomicLong recuperadas = new AtomicLong();
+
+    private StockPartilhado(MappedByteBuffer mapeamento, int n, int reservas, CatalogoStock catalogo,
+                            boolean criado) {
+        this.mapeamento = mapeamento;
+        this.tabela = mapeamento;
+        this.n = n;
+        this.reservas = reservas;
+        this.catalogo = catalogo;
+        this.criado = criado;
+    }
+
+    /**
+     * Abre a tabela partilhada ou, se ainda não existir, cria-a com as quantidades de
+     * {@code inicial} e {@link #RESERVAS_OMISSAO} linhas de reservas.
+     *
+     * @param ficheiro ficheiro da tabela.
+     * @param inicial  stock a usar se a tabela for criada por este processo.
+     * @return tabela aberta; o livro deve usar o dicionário de {@link #getCatalogo()}.
+     * @throws IOException se o ficheiro não puder ser lido, criado ou mapeado, ou não for
+     *                     uma tabela de stock.
+     */
+    public static StockPartilhado abrir(Path ficheiro, CatalogoStock inicial) throws IOException {
+        return abrir(ficheiro, inicial, RESERVAS_OMISSAO);
+    }
+
+    /**
+     * Abre a tabela partilhada ou, se ainda não existir, cria-a com as quantidades de
+     * {@code inicial}. Ao abrir, devolve ao stock as reservas de processos que terminaram
+     * sem as fechar ({@link #recuperarReservas(long)}).
+     *
+     * @param ficheiro ficheiro da tabela.
+     * @param inicial  stock a usar se a tabela for criada por este processo.
+     * @param reservas linhas de reservas da tabela, se for criada por este processo.
+     * @return tabela aberta; o livro deve usar o dicionário de {@link #getCatalogo()}.
+     * @throws IOException se o ficheiro não puder ser lido, criado ou mapeado, ou não for
+     *                     uma tabela de stock.
+     */
+    public static StockPartilhado abrir(Path ficheiro, CatalogoStock inicial, int reservas) throws IOException {
+        try (FileChannel canal = FileChannel.open(ficheiro, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Só um processo de cada vez cria ou valida a tabela
+            FileLock bloqueio = canal.lock();
+            try {
+                boolean criar = canal.size() < CABECALHO || !pronto(canal);
+                if (criar) {
+                    criar(canal, inicial, reservas);
+                }
+                ByteBuffer cabecalho = ByteBuffer.allocate(CABECALHO).order(ByteOrder.nativeOrder());
+                canal.read(cabecalho, 0);
+                if (cabecalho.getInt(0) != MAGIA) {
+                    throw new IOException(ficheiro + " não é uma tabela de stock partilhada deste host");
+                }
+                if (cabecalho.getInt(4) != FORMATO) {
+                    throw new IOException(ficheiro + " tem o formato " + cabecalho.getInt(4) + " (esperado "
+                            + FORMATO + "); apague-o com todos os processos parados");
+                }
+                int n = cabecalho.getInt(POS_N);
+                long inicioNomes = cabecalho.getLong(POS_NOMES);
+                int linhas = cabecalho.getInt(POS_RESERVAS);
+
+                // O mapeamento continua válido depois de o canal ser fechado
+                MappedByteBuffer tabela = canal.map(FileChannel.MapMode.READ_WRITE, CABECALHO,
+                        (long) n * ENTRADA + (long) linhas * RESERVA);
+                tabela.order(ByteOrder.nativeOrder());
+                CatalogoStock catalogo = criar ? inicial : lerNomes(canal, inicioNomes, n);
+                StockPartilhado partilhado = new StockPartilhado(tabela, n, linhas, catalogo, criar);
+                int recuperadas = partilhado.recuperarReservas(System.currentTimeMillis());
+                if (recuperadas > 0) {
+                    Registo.aviso("Stock partilhado %s: %d linhas de reservas de processos terminados "
+                            + "devolvidas ao stock", ficheiro, recuperadas);
+                }
+                return partilhado;
+            } finally {
+                bloqueio.release();
+            }
+        }
+    }
+
+    private static boolean pronto(FileChannel canal) throws IOException {
+        ByteBuffer estado = ByteBuffer.allocate(4).order(ByteOrder.nativeOrder());
+        canal.read(estado, POS_ESTADO);
+        return estado.getInt(0) == PRONTO;
+    }
+
+    /**
+     * Escreve a tabela com o estado "a criar", força-a para o disco e só depois a marca
+     * como pronta: um processo que termine a meio deixa uma tabela que o seguinte recria.
+     */
+    private static void criar(FileChannel canal, CatalogoStock inicial, int reservas) throws IOException {
+        int n = inicial.tamanho();
+        if ((long) n * ENTRADA + (long) reservas * RESERVA > Integer.MAX_VALUE) {
+            throw new IOException("tabela de stock partilhada demasiado grande: " + n + " alimentos e "
+                    + reservas + " linhas de reservas");
+        }
+        long inicioNomes = CABECALHO + (long) n * ENTRADA + (long) reservas * RESERVA;
+        canal.truncate(0);
+
+        ByteBuffer cabecalho = ByteBuffer.allocate(CABECALHO).order(ByteOrder.nativeOrder());
+        cabecalho.putInt(0, MAGIA).putInt(4, FORMATO).putInt(POS_ESTADO, 0).putInt(POS_N, n)
+                .putLong(POS_NOMES, inicioNomes).putInt(POS_RESERVAS, reservas);
+        canal.write(cabecalho, 0);
+
+        ByteBuffer bloco = ByteBuffer.allocate(ENTRADA * 4096).order(ByteOrder.nativeOrder());
+        long posicao = CABECALHO;
+        for (int i = 0; i < n; i++) {
+            bloco.putLong(compor(inicial.quantidade(i), 0)).putLong(0).putLong(0);
+            if (!bloco.hasRemaining() || i == n - 1) {
+                bloco.flip();
+                posicao += escrever(canal, bloco, posicao);
+                bloco.clear();
+            }
+        }
+        // Linhas de reservas livres: tudo a zero
+        ByteBuffer zeros = ByteBuffer.allocate(bloco.capacity());
+        for (long falta = (long) reservas * RESERVA; falta > 0; falta -= zeros.limit()) {
+            zeros.clear().limit((int) Math.min(zeros.capacity(), falta));
+            posicao += escrever(canal, zeros, posicao);
+        }
+
+        DicionarioAlimentos nomes = inicial.getDicionario();
+        for (int i = 0; i < n; i++) {
+            byte[] nome = nomes.nome(i).getBytes(StandardCharsets.UTF_8);
+            if (bloco.remaining() < 4 + nome.length) {
+                bloco.flip();
+                posicao += escrever(canal, bloco, posicao);
+                bloco = ByteBuffer.allocate(Math.max(bloco.capacity(), 4 + nome.length)).order(ByteOrder.nativeOrder());
+            }
+            bloco.putInt(nome.length).put(nome);
+        }
+        bloco.flip();
+        escrever(canal, bloco, posicao);
+        canal.force(false);
+
+        canal.write(ByteBuffer.allocate(4).order(ByteOrder.nativeOrder()).putInt(0, PRONTO), POS_ESTADO);
+        canal.force(false);
+    }
+
+    private static int escrever(FileChannel canal, ByteBuffer bloco, long posicao) throws IOException {
+        int escritos = 0;
+        while (bloco.hasRemaining()) {
+            escritos += canal.write(bloco, posicao + escritos);
+        }
+        return escritos;
+    }
+
+    /**
+     * Lê os nomes da tabela para um catálogo cujos identificadores são as posições das
+     * entradas. As quantidades do catálogo não são usadas: as da tabela são as que contam.
+     */
+    private static CatalogoStock lerNomes(FileChannel canal, long inicio, int n) throws IOException {
+        MappedByteBuffer nomes = canal.map(FileChannel.MapMode.READ_ONLY, inicio, canal.size() - inicio);
+        nomes.order(ByteOrder.nativeOrder());
+        CatalogoStock.Construtor c = new CatalogoStock.Construtor();
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < n; i++) {
+            int comprimento = nomes.getInt();
+            if (comprimento > bytes.length) {
+                bytes = new byte[comprimento];
+            }
+            nomes.get(bytes, 0, comprimento);
+            if (c.garantir(new String(bytes, 0, comprimento, StandardCharsets.UTF_8), 0) != i) {
+                throw new IOException("tabela de stock partilhada com nomes repetidos");
+            }
+        }
+        return c.construir();
+    }
+
+    /**
+     * @return catálogo com os alimentos da tabela, pela ordem das entradas.
+     */
+    public CatalogoStock getCatalogo() {
+        return catalogo;
+    }
+
+    /**
+     * @return {@code true} se a tabela foi criada por este processo.
+     */
+    public boolean isCriado() {
+        return criado;
+    }
+
+    /**
+     * Pede ao sistema operativo que escreva no disco as quantidades alteradas. Sem isto,
+     * as alterações sobrevivem ao fim de qualquer processo, mas não a uma falha do host.
+     */
+    public void forcar() {
+        mapeamento.force();
+    }
+
+    @Override
+    public int tamanho() {
+        return n;
+    }
+
+    @Override
+    public int disponivel(int id) {
+        return (int) quantidades(id);
+    }
+
+    @Override
+    public int reservado(int id) {
+        return (int) (quantidades(id) >>> 32);
+    }
+
+    @Override
+    public int versao(int id) {
+        return (int) (long) LONGO.getVolatile(tabela, posicao(id) + 8);
+    }
+
+    @Override
+    public int reservar(int id, int quantidade) {
+        while (true) {
+            long atual = quantidades(id);
+            int disponivel = (int) atual;
+            if (disponivel < quantidade) {
+                return -1;
+            }
+            if (trocar(id, atual, compor(disponivel - quantidade, (int) (atual >>> 32) + quantidade))) {
+                return disponivel - quantidade;
+            }
+        }
+    }
+
+    @Override
+    public int libertar(int id, int quantidade) {
+        while (true) {
+            long atual = quantidades(id);
+            int disponivel = (int) atual + quantidade;
+            if (trocar(id, atual, compor(disponivel, (int) (atual >>> 32) - quantidade))) {
+                return disponivel;
+            }
+        }
+    }
+
+    @Override
+    public void confirmar(int id, int quantidade) {
+        // Só muda a reservada: a versão, que segue a disponível, mantém-se
+        int posicao = posicao(id);
+        while (true) {
+            long atual = (long) LONGO.getVolatile(tabela, posicao);
+            if (LONGO.compareAndSet(tabela, posicao, atual, compor((int) atual, (int) (atual >>> 32) - quantidade))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int receber(int id, int quantidade) {
+        while (true) {
+            long atual = quantidades(id);
+            int disponivel = (int) atual;
+            if (disponivel > Integer.MAX_VALUE - quantidade) {
+                return -1;
+            }
+            if (trocar(id, atual, compor(disponivel + quantidade, (int) (atual >>> 32)))) {
+                return disponivel + quantidade;
+            }
+        }
+    }
+
+    @Override
+    public int retirar(int id, int quantidade) {
+        while (true) {
+            long atual = quantidades(id);
+            int disponivel = (int) atual;
+            if (disponivel < quantidade) {
+                return -1;
+            }
+            if (trocar(id, atual, compor(disponivel - quantidade, (int) (atual >>> 32)))) {
+                return disponivel - quantidade;
+            }
+        }
+    }
+
+    @Override
+    public int retirarAte(int id, int quantidade) {
+        while (true) {
+            long atual = quantidades(id);
+            int retirado = Math.max(0, Math.min(quantidade, (int) atual));
+            if (retirado == 0) {
+                return 0;
+            }
+            if (trocar(id, atual, compor((int) atual - retirado, (int) (atual >>> 32)))) {
+                return retirado;
+            }
+        }
+    }
+
+    /**
+     * Marca o alimento como em reposição, se ainda não estava em nenhum processo.
+     *
+     * @return número do evento a emitir por este processo, ou {@code -1} se o alimento já
+     *         estava em reposição.
+     */
+    int marcarReposicao(int id) {
+        int posicao = posicao(id) + 16;
+        while (true) {
+            long atual = (long) LONGO.getVolatile(tabela, posicao);
+            if ((atual & EM_REPOSICAO) != 0) {
+                return -1;
+            }
+            int emissao = (int) atual + 1;
+            if (LONGO.compareAndSet(tabela, posicao, atual, EM_REPOSICAO | (emissao & 0xFFFFFFFFL))) {
+                return emissao;
+            }
+        }
+    }
+
+    /** O alimento ficou acima do ponto de encomenda: deixa de estar em reposição. */
+    void desmarcarReposicao(int id) {
+        int posicao = posicao(id) + 16;
+        while (true) {
+            long atual = (long) LONGO.getVolatile(tabela, posicao);
+            if ((atual & EM_REPOSICAO) == 0
+                    || LONGO.compareAndSet(tabela, posicao, atual, atual & ~EM_REPOSICAO)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * O evento {@code emissao} do alimento não foi tratado: se ainda for o último emitido,
+     * o alimento deixa de estar em reposição.
+     *
+     * @return {@code true} se o alimento deixou de estar em reposição.
+     */
+    boolean reposicaoFalhada(int id, int emissao) {
+        long esperado = EM_REPOSICAO | (emissao & 0xFFFFFFFFL);
+        return LONGO.compareAndSet(tabela, posicao(id) + 16, esperado, esperado & ~EM_REPOSICAO);
+    }
+
+    /**
+     * Regista na tabela as linhas de uma reserva acabada de fazer, com este processo como
+     * dono, para que outro processo as possa devolver se este terminar sem as fechar.
+     *
+     * @return registo de cada linha, a entregar a {@link #retirarRegisto(long)}, ou
+     *         {@code null} se não houver linhas de reservas livres; neste caso a reserva
+     *         fica sem registo e, se o processo terminar, as suas quantidades não voltam.
+     */
+    @Override
+    public long[] registarReserva(int[] itens, int[] quantidades, int n, long expiraEm) {
+        long[] registos = new long[n];
+        for (int k = 0; k < n; k++) {
+            registos[k] = registar(itens[k], quantidades[k], expiraEm);
+            if (registos[k] < 0) {
+                for (int j = 0; j < k; j++) {
+                    retirarRegisto(registos[j]);
+                }
+                if (semRegisto.getAndIncrement() == 0) {
+                    Registo.aviso("Stock partilhado sem linhas de reservas livres (%d): as reservas ficam "
+                            + "sem registo até haver linhas livres", reservas);
+                }
+                return null;
+            }
+        }
+        return registos;
+    }
+
+    /**
+     * Retira o registo de uma linha de reserva que este processo vai fechar.
+     *
+     * @return {@code true} se a linha ainda era deste processo; {@code false} se outro
+     *         processo já a devolveu ao stock ({@link #recuperarReservas(long)}), pelo que
+     *         as suas quantidades já não estão reservadas.
+     */
+    @Override
+    public boolean retirarRegisto(long registo) {
+        int posicao = posicaoReserva((int) registo);
+        long geracao = registo >>> 32;
+        return LONGO.compareAndSet(tabela, posicao, estado(geracao, PID, REGISTADA), estado(geracao, PID, LIVRE));
+    }
+
+    /**
+     * Devolve ao stock disponível as linhas de reservas cujo processo dono terminou, ou que
+     * expiraram há mais de {@link #TOLERANCIA_EXPIRADAS_MS}. Uma linha cujo dono terminou a
+     * meio do registo fica livre sem devolver as quantidades: é a janela, de poucas
+     * instruções, em que uma reserva feita ainda não está registada.
+     *
+     * @param agoraMs instante atual, em milissegundos desde a época.
+     * @return número de linhas devolvidas ao stock.
+     */
+    public int recuperarReservas(long agoraMs) {
+        Map<Long, Long> inicios = new HashMap<>();
+        int devolvidas = 0;
+        for (int linha = 0; linha < reservas; linha++) {
+            int posicao = posicaoReserva(linha);
+            long estado = (long) LONGO.getAcquire(tabela, posicao);
+            int fase = (int) (estado & 0xFF);
+            if (fase == LIVRE) {
+                continue;
+            }
+            long pid = (estado >>> 8) & 0xFFFFFFFFL;
+            long inicioDono = tabela.getLong(posicao + 8);
+            long expiraEm = tabela.getLong(posicao + 16);
+            int alimento = tabela.getInt(posicao + 24);
+            int quantidade = tabela.getInt(posicao + 28);
+            boolean vivo = vivo(pid, inicioDono, inicios);
+            if (fase == REGISTADA ? vivo && expiraEm + TOLERANCIA_EXPIRADAS_MS > agoraMs : vivo) {
+                continue;
+            }
+            long livre = estado(estado >>> 40, pid, LIVRE);
+            if (!LONGO.compareAndSet(tabela, posicao, estado, livre)) {
+                continue;
+            }
+            if (fase == REGISTADA && alimento >= 0 && alimento < n && quantidade > 0) {
+                libertar(alimento, quantidade);
+                devolvidas++;
+            }
+        }
+        recuperadas.addAndGet(devolvidas);
+        return devolvidas;
+    }
+
+    /**
+     * @return linhas de reservas devolvidas ao stock por {@link #recuperarReservas(long)}.
+     */
+    public long getRecuperadas() {
+        return recuperadas.get();
+    }
+
+    /**
+     * @return reservas feitas sem registo por falta de linhas de reservas livres.
+     */
+    public long getSemRegisto() {
+        return semRegisto.get();
+    }
+
+    /**
+     * Ocupa uma linha de reserva livre, a partir do cursor deste processo.
+     *
+     * @return registo da linha (geração nos 32 bits altos, linha nos baixos), ou {@code -1}
+     *         se não houver linhas livres.
+     */
+    private long registar(int alimento, int quantidade, long expiraEm) {
+        int inicio = reservas == 0 ? 0 : Math.floorMod(cursor.getAndIncrement(), reservas);
+        for (int i = 0; i < reservas; i++) {
+            int linha = inicio + i < reservas ? inicio + i : inicio + i - reservas;
+            int posicao = posicaoReserva(linha);
+            long estado = (long) LONGO.getVolatile(tabela, posicao);
+            if ((estado & 0xFF) != LIVRE) {
+                continue;
+            }
+            long geracao = ((estado >>> 40) + 1) & MASCARA_GERACAO;
+            if (!LONGO.compareAndSet(tabela, posicao, estado, estado(geracao, PID, A_REGISTAR))) {
+                continue;
+            }
+            tabela.putLong(posicao + 8, INICIO);
+            tabela.putLong(posicao + 16, expiraEm);
+            tabela.putInt(posicao + 24, alimento);
+            tabela.putInt(posicao + 28, quantidade);
+            // Publica os campos: quem vir a linha registada vê-os escritos
+            LONGO.setRelease(tabela, posicao, estado(geracao, PID, REGISTADA));
+            return (geracao << 32) | linha;
+        }
+        return -1;
+    }
+
+    /**
+     * @return {@code true} se o processo {@code pid} existe e é o que registou a linha (o
+     *         PID pode ter sido reutilizado por outro processo, arrancado noutro instante).
+     */
+    private static boolean vivo(long pid, long inicioDono, Map<Long, Long> inicios) {
+        if (pid == PID) {
+            return inicioDono == INICIO;
+        }
+        long inicio = inicios.computeIfAbsent(pid, p -> ProcessHandle.of(p)
+                .filter(ProcessHandle::isAlive)
+                .map(StockPartilhado::inicio)
+                .orElse(-1L));
+        return inicio != -1 && (inicio == 0 || inicioDono == 0 || inicio == inicioDono);
+    }
+
+    /** @return instante de arranque do processo em milissegundos, ou {@code 0} se o sistema não o der. */
+    private static long inicio(ProcessHandle processo) {
+        return processo.info().startInstant().map(Instant::toEpochMilli).orElse(0L);
+    }
+
+    private static long estado(long geracao, long pid, int fase) {
+        return (geracao & MASCARA_GERACAO) << 40 | (pid & 0xFFFFFFFFL) << 8 | fase;
+    }
+
+    private int posicaoReserva(int linha) {
+        return n * ENTRADA + linha * RESERVA;
+    }
+
+    private long quantidades(int id) {
+        return (long) LONGO.getVolatile(tabela, posicao(id));
+    }
+
+    /**
+     * Troca as quantidades de um alimento se ainda forem {@code esperado}; se trocar, aumenta
+     * a versão do alimento.
+     */
+    private boolean trocar(int id, long esperado, long novo) {
+        int posicao = posicao(id);
+        if (!LONGO.compareAndSet(tabela, posicao, esperado, novo)) {
+            return false;
+        }
+        LONGO.getAndAdd(tabela, posicao + 8, 1L);
+        return true;
+    }
+
+    private static int posicao(int id) {
+        return id * ENTRADA;
+    }
+
+    private static long compor(int disponivel, int reservado) {
+        return ((long) reservado << 32) | (disponivel & 0xFFFFFFFFL);
+    }
+}
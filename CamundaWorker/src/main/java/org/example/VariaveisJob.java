@@ -0,0 +1,217 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.camunda.zeebe.client.api.response.ActivatedJob;
+
+import java.nio.CharBuffer;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Vista preguiçosa e só de leitura sobre as variáveis de um job Zeebe.
+ *
+ * <p>
+ * Ao contrário de {@code job.getVariablesAsMap()}, que descodifica todo o JSON das
+ * variáveis para um {@link HashMap} em cada chamada, esta classe percorre o JSON uma
+ * única vez apenas para saber onde começa e acaba o valor de cada variável, sem o materializar.
+ * Cada valor só é descodificado no primeiro acesso e fica guardado em cache.
+ * </p>
+ *
+ * <p>
+ * Em conjunto com {@code fetchVariables(...)} no worker (apenas as variáveis declaradas
+ * são enviadas pelo gateway), evita-se descodificar campos grandes que o handler não usa,
+ * como {@code descricao_preparacao}.
+ * </p>
+ *
+ * <p>
+ * A classe implementa {@link Map} para poder ser passada diretamente a
+ * {@link GerarEtiquetas#gerarEtiquetaCompleta(Map)} e
+ * {@link RelatorioDesperdicio#criarRelatorioCompleto(Map)}.
+ * </p>
+ */
+public class VariaveisJob extends AbstractMap<String, Object> {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** Marcador para valores ainda não descodificados. */
+    private static final Object NAO_DESCODIFICADO = new Object();
+
+    /** JSON original das variáveis. */
+    private final char[] json;
+
+    /** Posição (em caracteres) do início e do fim do valor de cada variável. */
+    private Map<String, int[]> posicoesValores;
+
+    /** Valores já descodificados. */
+    private final Map<String, Object> valores = new HashMap<>();
+
+    /**
+     * Cria a vista sobre as variáveis do job indicado.
+     *
+     * @param job job Zeebe ativado.
+     */
+    public VariaveisJob(ActivatedJob job) {
+        this(job.getVariables());
+    }
+
+    /**
+     * Cria a vista sobre um documento JSON de variáveis.
+     *
+     * @param json objeto JSON com as variáveis (pode ser {@code null} ou vazio).
+     */
+    public VariaveisJob(String json) {
+        this.json = json == null ? new char[0] : json.toCharArray();
+    }
+
+    /**
+     * Devolve o valor da variável como texto.
+     *
+     * @param nome    nome da variável.
+     * @param omissao valor a devolver se a variável não existir.
+     * @return valor textual da variável, ou {@code omissao} se não existir.
+     *         Valores não textuais (números, booleanos) são convertidos com {@link String#valueOf(Object)}.
+     */
+    public String texto(String nome, String omissao) {
+        if (!containsKey(nome)) {
+            return omissao;
+        }
+        Object valor = get(nome);
+        return valor == null ? null : String.valueOf(valor);
+    }
+
+    /**
+     * Devolve o tamanho, em bytes UTF-8, das variáveis recebidas que não estão em
+     * {@code enviadas}, contando cada uma como o membro {@code "nome":valor,} que seria
+     * reenviado ao gateway se as variáveis de entrada fossem devolvidas por inteiro.
+     *
+     * @param enviadas nomes das variáveis enviadas na conclusão.
+     * @return bytes das variáveis de entrada deixadas de fora.
+     */
+    public long bytesOmitidos(Set<String> enviadas) {
+        CharBuffer texto = CharBuffer.wrap(json);
+        long bytes = 0;
+        for (Entry<String, int[]> e : indice().entrySet()) {
+            if (!enviadas.contains(e.getKey())) {
+                int[] posicao = e.getValue();
+                bytes += bytesUtf8(e.getKey(), 0, e.getKey().length()) + 4
+                        + bytesUtf8(texto, posicao[0], posicao[1]);
+            }
+        }
+        return bytes;
+    }
+
+    /** Bytes de {@code texto[inicio, fim)} em UTF-8; um par surrogate ocupa 4 bytes. */
+    private static long bytesUtf8(CharSequence texto, int inicio, int fim) {
+        long bytes = 0;
+        for (int i = inicio; i < fim; i++) {
+            char c = texto.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public boolean containsKey(Object nome) {
+        return indice().containsKey(nome);
+    }
+
+    @Override
+    public Object get(Object nome) {
+        int[] posicao = indice().get(nome);
+        if (posicao == null) {
+            return null;
+        }
+        Object valor = valores.getOrDefault(nome, NAO_DESCODIFICADO);
+        if (valor == NAO_DESCODIFICADO) {
+            valor = descodificar(posicao[0], posicao[1]);
+            valores.put((String) nome, valor);
+        }
+        return valor;
+    }
+
+    @Override
+    public int size() {
+        return indice().size();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        Map<String, Object> todos = new LinkedHashMap<>();
+        for (String nome : indice().keySet()) {
+            todos.put(nome, get(nome));
+        }
+        return todos.entrySet();
+    }
+
+    /**
+     * Percorre o JSON uma vez, registando onde começa e acaba o valor de cada variável.
+     * Os valores são saltados sem serem descodificados: o fim de cada valor é o início
+     * do token seguinte (próxima chave ou fim do objeto), sem a vírgula e os espaços.
+     */
+    private Map<String, int[]> indice() {
+        if (posicoesValores != null) {
+            return posicoesValores;
+        }
+        Map<String, int[]> indice = new LinkedHashMap<>();
+        if (json.length > 0) {
+            try (JsonParser p = MAPPER.getFactory().createParser(json, 0, json.length)) {
+                if (p.nextToken() == JsonToken.START_OBJECT) {
+                    int[] anterior = null;
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        if (anterior != null) {
+                            anterior[1] = fimValor((int) p.currentTokenLocation().getCharOffset());
+                        }
+                        String nome = p.currentName();
+                        p.nextToken();
+                        anterior = new int[]{(int) p.currentTokenLocation().getCharOffset(), json.length};
+                        indice.put(nome, anterior);
+                        p.skipChildren();
+                    }
+                    if (anterior != null) {
+                        anterior[1] = fimValor((int) p.currentTokenLocation().getCharOffset());
+                    }
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException("Variáveis do job inválidas: " + e.getMessage(), e);
+            }
+        }
+        posicoesValores = indice;
+        return indice;
+    }
+
+    /**
+     * Recua a partir do token seguinte, saltando espaços e a vírgula separadora.
+     */
+    private int fimValor(int inicioTokenSeguinte) {
+        int fim = inicioTokenSeguinte;
+        while (fim > 0 && (Character.isWhitespace(json[fim - 1]) || json[fim - 1] == ',')) {
+            fim--;
+        }
+        return fim;
+    }
+
+    /**
+     * Descodifica o valor JSON entre as posições indicadas.
+     */
+    private Object descodificar(int inicio, int fim) {
+        try (JsonParser p = MAPPER.getFactory().createParser(json, inicio, fim - inicio)) {
+            return MAPPER.readValue(p, Object.class);
+        } catch (Exception e) {
+            throw new IllegalStateException("Variável inválida na posição " + inicio + ": " + e.getMessage(), e);
+        }
+    }
+}
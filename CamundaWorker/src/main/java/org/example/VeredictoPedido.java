@@ -0,0 +1,78 @@
+package org.example;
+
+/**
+ * Resultado de um pedido avaliado num lote ({@link LivroStock#reservarLote(PedidoAlimentos[], long)}
+ * ou {@link LivroStock#verificarLote(PedidoAlimentos[])}): se foi atendido e, para cada linha,
+ * a quantidade que faltou.
+ *
+ * <p>
+ * A falta de cada linha é medida contra o stock que ainda restava quando chegou a vez do
+ * pedido, depois dos pedidos com mais prioridade ou chegados antes. Linhas repetidas do
+ * mesmo alimento somam-se pela ordem do pedido, pelo que a falta fica nas últimas. Um
+ * alimento inexistente falta por inteiro e impede o pedido de ser atendido, mesmo com
+ * quantidade nula.
+ * </p>
+ */
+public final class VeredictoPedido {
+
+    private final PedidoAlimentos pedido;
+    private final LivroStock.Reserva reserva;
+    private final boolean atendido;
+    private final int[] emFalta;
+    /** Linhas com alimentos inexistentes, ou {@code null} se não houver nenhuma. */
+    private final boolean[] desconhecidos;
+
+    VeredictoPedido(PedidoAlimentos pedido, LivroStock.Reserva reserva, boolean atendido, int[] emFalta,
+                    boolean[] desconhecidos) {
+        this.pedido = pedido;
+        this.reserva = reserva;
+        this.atendido = atendido;
+        this.emFalta = emFalta;
+        this.desconhecidos = desconhecidos;
+    }
+
+    /**
+     * @return pedido avaliado.
+     */
+    public PedidoAlimentos getPedido() {
+        return pedido;
+    }
+
+    /**
+     * @return {@code true} se todas as linhas do pedido puderam ser atendidas.
+     */
+    public boolean isAtendido() {
+        return atendido;
+    }
+
+    /**
+     * @return reserva pendente do pedido, ou {@code null} se não foi atendido ou se o lote
+     *         foi apenas verificado.
+     */
+    public LivroStock.Reserva getReserva() {
+        return reserva;
+    }
+
+    /**
+     * @return número de linhas do pedido.
+     */
+    public int linhas() {
+        return emFalta.length;
+    }
+
+    /**
+     * @param linha índice da linha no pedido.
+     * @return quantidade pedida na linha que não havia em stock ({@code 0} se a linha foi atendida).
+     */
+    public int emFalta(int linha) {
+        return emFalta[linha];
+    }
+
+    /**
+     * @param linha índice da linha no pedido.
+     * @return {@code true} se o alimento da linha não existe no stock.
+     */
+    public boolean desconhecido(int linha) {
+        return desconhecidos != null && desconhecidos[linha];
+    }
+}
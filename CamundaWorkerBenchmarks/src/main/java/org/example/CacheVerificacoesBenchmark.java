@@ -0,0 +1,101 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks da verificação de menus repetidos, com e sem a {@link CacheVerificacoes}.
+ *
+ * <p>
+ * Cada operação verifica o menu seguinte de um conjunto de {@code menus} menus distintos,
+ * percorrido em ciclo; as strings são copiadas a cada operação, como as que chegam
+ * descodificadas de um job. Com mais menus do que a capacidade da cache
+ * ({@link StockManager#ENTRADAS_CACHE_OMISSAO}), as entradas são despejadas antes de voltarem
+ * a ser usadas. Os modos são:
+ * <ul>
+ *     <li><b>semCache</b>: {@link PedidoAlimentos#ler(String, String)} e
+ *         {@link StockManager#verificarLote(PedidoAlimentos[])};</li>
+ *     <li><b>comCache</b>: {@link StockManager#verificarPedido(String, String)};</li>
+ *     <li><b>comCacheEAlteracoes</b>: como {@code comCache}, com uma entrada de stock de um
+ *         dos alimentos dos menus a cada 64 operações, que invalida as entradas que o usam.</li>
+ * </ul>
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dstock.diario=false")
+public class CacheVerificacoesBenchmark {
+
+    /** Número de menus distintos no tráfego. */
+    @Param({"16", "1024", "16384"})
+    public int menus;
+
+    /** Número de linhas de cada menu. */
+    @Param({"10"})
+    public int linhas;
+
+    private String[] alimentos;
+    private String[] quantidades;
+    private int proximo;
+
+    @Setup
+    public void preparar() {
+        alimentos = new String[menus];
+        quantidades = new String[menus];
+        String todos = DadosBenchmark.alimentos(DadosBenchmark.ALIMENTOS.length + linhas);
+        for (int k = 0; k < menus; k++) {
+            // Menus diferentes: outra sequência de alimentos ou outra quantidade na última linha
+            String[] nomes = todos.split("\\.");
+            StringBuilder a = new StringBuilder();
+            StringBuilder q = new StringBuilder();
+            for (int i = 0; i < linhas; i++) {
+                a.append(i > 0 ? "." : "").append(nomes[(k + i) % DadosBenchmark.ALIMENTOS.length]);
+                q.append(i > 0 ? "." : "").append(i + 1 < linhas ? 1 + i % 3 : 1 + k / DadosBenchmark.ALIMENTOS.length);
+            }
+            alimentos[k] = a.toString();
+            quantidades[k] = q.toString();
+        }
+    }
+
+    @Benchmark
+    public VeredictoPedido semCache() {
+        int k = seguinte();
+        PedidoAlimentos pedido = PedidoAlimentos.ler(new String(alimentos[k]), new String(quantidades[k]));
+        return StockManager.verificarLote(new PedidoAlimentos[]{pedido})[0];
+    }
+
+    @Benchmark
+    public VeredictoPedido comCache() {
+        int k = seguinte();
+        return StockManager.verificarPedido(new String(alimentos[k]), new String(quantidades[k]));
+    }
+
+    @Benchmark
+    public VeredictoPedido comCacheEAlteracoes() {
+        int k = seguinte();
+        if ((proximo & 63) == 0) {
+            StockManager.receber(DadosBenchmark.ALIMENTOS[k % DadosBenchmark.ALIMENTOS.length], 1);
+        }
+        return StockManager.verificarPedido(new String(alimentos[k]), new String(quantidades[k]));
+    }
+
+    private int seguinte() {
+        int k = proximo;
+        proximo = k + 1 == menus ? 0 : k + 1;
+        return k;
+    }
+}
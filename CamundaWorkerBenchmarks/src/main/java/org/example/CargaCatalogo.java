@@ -0,0 +1,125 @@
+package org.example;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Mede o tempo de carga e a memória ocupada pelo ficheiro de stock, fora do JMH.
+ *
+ * <p>
+ * Para cada tamanho em {@code catalogo.tamanhos} (omissão {@code 10000,1000000,10000000})
+ * gera um ficheiro de stock com esse número de alimentos (um em cada quatro com acentos)
+ * e compara:
+ * <ol>
+ *     <li><b>Map</b>: {@link ObjectMapper#readValue} para um
+ *         {@code Map<String, Integer>}, como o stock era lido antes;</li>
+ *     <li><b>Catálogo</b>: {@link CatalogoStock#ler(InputStream)}, em streaming;</li>
+ *     <li><b>Livro</b>: o catálogo e o {@link LivroStock} criado a partir dele, que é o que
+ *         fica em memória durante a execução.</li>
+ * </ol>
+ * O tempo é o melhor de {@code catalogo.repeticoes} cargas (omissão 3); a memória é a
+ * diferença no heap usado, depois de um GC, com o resultado ainda referenciado.
+ * </p>
+ *
+ * <p>
+ * O {@code Map} com 10 milhões de alimentos precisa de vários GiB de heap; sem memória, a
+ * linha mostra {@code sem memória}. Execução:
+ * <pre>
+ * java -Xmx6g -cp CamundaWorkerBenchmarks/target/benchmarks.jar org.example.CargaCatalogo
+ * </pre>
+ * </p>
+ */
+public class CargaCatalogo {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** Resultado de uma carga, mantido referenciado enquanto o heap é medido. */
+    private static Object retido;
+
+    private interface Carga {
+        Object carregar(Path ficheiro) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String[] tamanhos = System.getProperty("catalogo.tamanhos", "10000,1000000,10000000").split(",");
+        int repeticoes = Integer.getInteger("catalogo.repeticoes", 3);
+
+        System.out.printf("%-10s %12s %12s %10s %14s %12s%n",
+                "Modo", "Alimentos", "Ficheiro MB", "Carga (s)", "Heap (MB)", "Bytes/item");
+        for (String t : tamanhos) {
+            int n = Integer.parseInt(t.trim());
+            Path ficheiro = Files.createTempFile("stock-", ".json");
+            try {
+                gerar(ficheiro, n);
+                double mb = Files.size(ficheiro) / 1e6;
+                medir("Map", n, mb, ficheiro, repeticoes, f -> {
+                    try (InputStream in = Files.newInputStream(f)) {
+                        return MAPPER.readValue(in, new TypeReference<Map<String, Integer>>() {});
+                    }
+                });
+                medir("Catálogo", n, mb, ficheiro, repeticoes, CargaCatalogo::catalogo);
+                medir("Livro", n, mb, ficheiro, repeticoes, f -> new LivroStock(catalogo(f)));
+            } finally {
+                Files.delete(ficheiro);
+            }
+        }
+    }
+
+    private static CatalogoStock catalogo(Path ficheiro) throws IOException {
+        try (InputStream in = Files.newInputStream(ficheiro)) {
+            return CatalogoStock.ler(in);
+        }
+    }
+
+    private static void medir(String modo, int n, double mb, Path ficheiro, int repeticoes, Carga carga)
+            throws IOException {
+        try {
+            long antes = heapUsado();
+            double melhor = Double.MAX_VALUE;
+            for (int r = 0; r < repeticoes; r++) {
+                retido = null;
+                long inicio = System.nanoTime();
+                retido = carga.carregar(ficheiro);
+                melhor = Math.min(melhor, (System.nanoTime() - inicio) / 1e9);
+            }
+            long heap = heapUsado() - antes;
+            System.out.printf("%-10s %12d %12.1f %10.2f %14.1f %12.1f%n",
+                    modo, n, mb, melhor, heap / 1e6, (double) heap / n);
+        } catch (OutOfMemoryError e) {
+            retido = null;
+            System.out.printf("%-10s %12d %12.1f %10s %14s %12s%n", modo, n, mb, "-", "sem memória", "-");
+        } finally {
+            retido = null;
+        }
+    }
+
+    /** Gera um ficheiro de stock com {@code n} alimentos de nomes distintos. */
+    private static void gerar(Path ficheiro, int n) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(ficheiro, StandardCharsets.UTF_8)) {
+            out.write("{\n");
+            for (int i = 0; i < n; i++) {
+                out.write(i % 4 == 0 ? "  \"feijão-" : "  \"alimento-");
+                out.write(Integer.toString(i));
+                out.write("\": ");
+                out.write(Integer.toString(i % 1000));
+                out.write(i + 1 < n ? ",\n" : "\n");
+            }
+            out.write("}\n");
+        }
+    }
+
+    private static long heapUsado() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
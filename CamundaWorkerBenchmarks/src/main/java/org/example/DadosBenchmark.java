@@ -0,0 +1,82 @@
+package org.example;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gera os dados de entrada usados pelos benchmarks, com tamanhos realistas:
+ * de pedidos pequenos (uma linha) até pedidos com milhares de linhas.
+ */
+class DadosBenchmark {
+
+    /** Alimentos existentes em {@code stock_alimentos.json}. */
+    static final String[] ALIMENTOS = {
+            "arroz", "feijão", "tomate", "batata", "cenoura", "frango", "peixe", "ovos",
+            "macarrão", "carne", "alface", "cebola", "pão", "leite", "queijo", "iogurte",
+            "banana", "maçã", "laranja", "espinafre", "brócolos", "couve", "azeite", "sal", "açúcar"
+    };
+
+    /**
+     * Alimentos separados por ponto, tal como chegam ao worker {@code verificar_alimentos}.
+     */
+    static String alimentos(int linhas) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < linhas; i++) {
+            if (i > 0) {
+                sb.append('.');
+            }
+            sb.append(ALIMENTOS[i % ALIMENTOS.length]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Quantidades separadas por ponto, pequenas o suficiente para existirem em stock.
+     */
+    static String quantidades(int linhas) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < linhas; i++) {
+            if (i > 0) {
+                sb.append('.');
+            }
+            sb.append(1 + i % 5);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Variáveis do worker {@code registar_nao_consumiveis} para um relatório com o número de linhas indicado.
+     */
+    static Map<String, Object> variaveisRelatorio(int linhas) {
+        Map<String, Object> vars = new HashMap<>();
+        vars.put("alimentos", alimentos(linhas));
+        vars.put("quantidades", quantidades(linhas));
+        vars.put("lote_produto", "LOTE-BENCH");
+        vars.put("responsavel_cozedura", "Maria Silva");
+        vars.put("nome_funcionario", "João Costa");
+        vars.put("motivo", "qualidade_insuficiente");
+        vars.put("descricao_preparacao", "Cozer em lume brando, mexendo regularmente.");
+        vars.put("descricao_procedimento", "Procedimento normal de cozedura e arrefecimento.");
+        vars.put("equipamentos", "Fogão industrial, panela 50L, termómetro");
+        return vars;
+    }
+
+    /**
+     * Variáveis do worker {@code gerar_etiquetas}, com campos de texto do tamanho indicado.
+     */
+    static Map<String, Object> variaveisEtiqueta(int tamanhoCampos) {
+        Map<String, Object> vars = new HashMap<>();
+        vars.put("lote_embalagem", "EMB-BENCH");
+        vars.put("embalamento", texto("Caixa térmica ", tamanhoCampos));
+        vars.put("responsavel_embalamento", texto("Ana Santos ", tamanhoCampos));
+        vars.put("data_embalamento", "17/12/2025 10:49:17");
+        return vars;
+    }
+
+    /**
+     * Repete o texto até ter exatamente o tamanho indicado.
+     */
+    static String texto(String base, int tamanho) {
+        return base.repeat(tamanho / base.length() + 1).substring(0, tamanho);
+    }
+}
@@ -0,0 +1,85 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark dos destinos de documentos ({@link DestinoDocumentos}) com 8 threads a
+ * guardar etiquetas ao mesmo tempo, como vários jobs {@code gerar_etiquetas} em paralelo.
+ *
+ * <p>
+ * {@code ficheiros} cria um ficheiro por etiqueta em {@code etiquetas_geradas} (na
+ * diretoria onde o benchmark é executado), sem {@code fsync}; {@code arquivo} e
+ * {@code arquivo-assincrono} acrescentam a um {@link ArquivoDocumentos} numa pasta
+ * temporária, o primeiro à espera do {@code fsync} em grupo de cada etiqueta.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class DestinoDocumentosBenchmark {
+
+    @Param({"ficheiros", "arquivo", "arquivo-assincrono"})
+    public String destino;
+
+    private final AtomicLong sequencia = new AtomicLong();
+    private byte[] etiqueta;
+    private Path pasta;
+    private DestinoDocumentos documentos;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        etiqueta = GerarEtiquetas.gerarConteudoFormatado("PROD-EMB-BENCH-1734432557000", "EMB-BENCH",
+                "Caixa térmica", "17/12/2025 10:49:17", "24/12/2025", "Ana Santos").getBytes(StandardCharsets.UTF_8);
+        if (destino.equals("ficheiros")) {
+            documentos = new DestinoDocumentos.Ficheiros();
+        } else {
+            pasta = Files.createTempDirectory("arquivo-documentos");
+            documentos = ArquivoDocumentos.abrir(pasta, ArquivoDocumentos.TAMANHO_SEGMENTO_OMISSAO,
+                    destino.equals("arquivo"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void terminar() throws IOException {
+        documentos.close();
+        if (pasta != null) {
+            try (Stream<Path> ficheiros = Files.list(pasta)) {
+                for (Path f : (Iterable<Path>) ficheiros::iterator) {
+                    Files.delete(f);
+                }
+            }
+            Files.delete(pasta);
+        }
+    }
+
+    @Benchmark
+    public String guardar() throws IOException {
+        return documentos.guardar(DestinoDocumentos.Tipo.ETIQUETA, "PROD-EMB-BENCH-" + sequencia.incrementAndGet(),
+                "EMB-BENCH", etiqueta, etiqueta.length);
+    }
+}
@@ -0,0 +1,93 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks da geração de etiquetas ({@link GerarEtiquetas}).
+ *
+ * <p>
+ * {@code gerarEtiquetaCompleta} inclui a escrita no destino de documentos configurado
+ * ({@code -Ddocumentos.destino}, na diretoria onde o benchmark é executado; ver
+ * {@link DestinoDocumentosBenchmark}); {@code gerarConteudoFormatado} mede apenas
+ * a construção do texto da etiqueta, devolvido como {@code String}; {@code renderizarModelo}
+ * mede a renderização do {@link ModeloEtiqueta} para um buffer reutilizado, que é o que o
+ * worker entrega ao destino (comparar o {@code gc.alloc.rate.norm} dos dois).
+ * {@code gerarEtiquetasLote} gera as {@value #UNIDADES_LOTE} etiquetas de um lote num só
+ * ficheiro; o seu tempo compara-se com {@value #UNIDADES_LOTE} x {@code gerarEtiquetaCompleta}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EtiquetasBenchmark {
+
+    /** Unidades do lote gerado por {@link #gerarEtiquetasLote()}. */
+    static final int UNIDADES_LOTE = 500;
+
+    /** Tamanho dos campos de texto livre da etiqueta (embalamento, responsável). */
+    @Param({"10", "100", "1000"})
+    public int tamanhoCampos;
+
+    private Map<String, Object> variaveis;
+    private Map<String, Object> variaveisLote;
+    private String embalamento;
+    private String responsavel;
+    private final ModeloEtiqueta.Valores valores = new ModeloEtiqueta.Valores();
+    private final ModeloEtiqueta.Saida saida = new ModeloEtiqueta.Saida(4096);
+
+    @Setup
+    public void preparar() {
+        variaveis = DadosBenchmark.variaveisEtiqueta(tamanhoCampos);
+        embalamento = (String) variaveis.get("embalamento");
+        responsavel = (String) variaveis.get("responsavel_embalamento");
+        variaveisLote = new HashMap<>(variaveis);
+        variaveisLote.put("unidades", UNIDADES_LOTE);
+        valores.texto(ModeloEtiqueta.Campo.PRODUTO_ID, "PROD-EMB-BENCH-1734432557000")
+                .texto(ModeloEtiqueta.Campo.LOTE, "EMB-BENCH")
+                .texto(ModeloEtiqueta.Campo.EMBALAMENTO, embalamento)
+                .data(ModeloEtiqueta.Campo.DATA_EMBALAMENTO, LocalDateTime.of(2025, 12, 17, 10, 49, 17))
+                .data(ModeloEtiqueta.Campo.DATA_VALIDADE, LocalDate.of(2025, 12, 24))
+                .texto(ModeloEtiqueta.Campo.RESPONSAVEL, responsavel);
+    }
+
+    @Benchmark
+    public Map<String, Object> gerarEtiquetaCompleta() {
+        return GerarEtiquetas.gerarEtiquetaCompleta(variaveis);
+    }
+
+    @Benchmark
+    public Map<String, Object> gerarEtiquetasLote() {
+        return GerarEtiquetas.gerarEtiquetasLote(variaveisLote);
+    }
+
+    @Benchmark
+    public String gerarConteudoFormatado() {
+        return GerarEtiquetas.gerarConteudoFormatado("PROD-EMB-BENCH-1734432557000", "EMB-BENCH",
+                embalamento, "17/12/2025 10:49:17", "24/12/2025", responsavel);
+    }
+
+    @Benchmark
+    public int renderizarModelo() {
+        GerarEtiquetas.modelo().renderizar(valores, saida.limpar());
+        return saida.tamanho();
+    }
+}
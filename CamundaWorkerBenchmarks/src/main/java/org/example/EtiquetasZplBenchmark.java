@@ -0,0 +1,88 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks das etiquetas ZPL ({@link EtiquetaZpl}), em etiquetas por segundo numa thread.
+ *
+ * <p>
+ * {@code codigo128} e {@code codigoQR} medem só a codificação dos dois códigos de uma
+ * etiqueta; {@code renderizarZpl} mede a etiqueta completa, com os códigos rasterizados
+ * e comprimidos, para um buffer reutilizado; {@code renderizarTexto} é a etiqueta de texto
+ * do {@link ModeloEtiqueta}, para comparação. Cada operação usa um {@code produtoId}
+ * diferente, para os códigos não se repetirem.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EtiquetasZplBenchmark {
+
+    private static final int IDENTIFICADORES = 1024;
+
+    private final String[] produtos = new String[IDENTIFICADORES];
+    private final String[] conteudosQR = new String[IDENTIFICADORES];
+    private final ModeloEtiqueta.Valores valores = new ModeloEtiqueta.Valores();
+    private final ModeloEtiqueta.Saida saida = new ModeloEtiqueta.Saida(EtiquetaZpl.TAMANHO_ESTIMADO);
+    private final EtiquetaZpl zpl = new EtiquetaZpl();
+    private int proximo;
+
+    @Setup
+    public void preparar() {
+        GeradorIdentificadores gerador = new GeradorIdentificadores(1);
+        for (int i = 0; i < IDENTIFICADORES; i++) {
+            produtos[i] = GerarEtiquetas.PREFIXO_PRODUTO + GeradorIdentificadores.codificar(gerador.proximo());
+            conteudosQR[i] = produtos[i] + "|EMB-BENCH|2025-12-24";
+        }
+        valores.texto(ModeloEtiqueta.Campo.LOTE, "EMB-BENCH")
+                .texto(ModeloEtiqueta.Campo.EMBALAMENTO, "Caixa térmica")
+                .data(ModeloEtiqueta.Campo.DATA_EMBALAMENTO, LocalDateTime.of(2025, 12, 17, 10, 49, 17))
+                .data(ModeloEtiqueta.Campo.DATA_VALIDADE, LocalDate.of(2025, 12, 24))
+                .texto(ModeloEtiqueta.Campo.RESPONSAVEL, "Ana Santos");
+    }
+
+    private int seguinte() {
+        proximo = (proximo + 1) & (IDENTIFICADORES - 1);
+        return proximo;
+    }
+
+    @Benchmark
+    public boolean[] codigo128() {
+        return Codigo128.codificar(produtos[seguinte()]);
+    }
+
+    @Benchmark
+    public CodigoQR codigoQR() {
+        return CodigoQR.codificar(conteudosQR[seguinte()], CodigoQR.Correcao.M);
+    }
+
+    @Benchmark
+    public int renderizarZpl() {
+        valores.texto(ModeloEtiqueta.Campo.PRODUTO_ID, produtos[seguinte()]);
+        zpl.renderizar(valores, saida.limpar());
+        return saida.tamanho();
+    }
+
+    @Benchmark
+    public int renderizarTexto() {
+        valores.texto(ModeloEtiqueta.Campo.PRODUTO_ID, produtos[seguinte()]);
+        GerarEtiquetas.modelo().renderizar(valores, saida.limpar());
+        return saida.tamanho();
+    }
+}
@@ -0,0 +1,35 @@
+package org.example;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Ponto de entrada de {@code target/benchmarks.jar}.
+ *
+ * <p>
+ * Aceita os mesmos argumentos que a linha de comandos do JMH (por exemplo, um filtro
+ * {@code Etiquetas} ou {@code -p linhas=1000}) e acrescenta sempre o {@link GCProfiler},
+ * para que cada resultado venha acompanhado da taxa de alocação
+ * ({@code gc.alloc.rate.norm}, em bytes por operação).
+ * </p>
+ */
+public class ExecutarBenchmarks {
+
+    /**
+     * Executa os benchmarks selecionados com o profiler de GC ativo.
+     *
+     * @param args argumentos da linha de comandos do JMH.
+     * @throws Exception se os argumentos forem inválidos ou a execução falhar.
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions linhaComandos = new CommandLineOptions(args);
+        Options opcoes = new OptionsBuilder()
+                .parent(linhaComandos)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opcoes).run();
+    }
+}
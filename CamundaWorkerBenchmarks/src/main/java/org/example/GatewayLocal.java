@@ -0,0 +1,460 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.camunda.zeebe.gateway.protocol.GatewayGrpc;
+import io.camunda.zeebe.gateway.protocol.GatewayOuterClass.ActivateJobsRequest;
+import io.camunda.zeebe.gateway.protocol.GatewayOuterClass.ActivateJobsResponse;
+import io.camunda.zeebe.gateway.protocol.GatewayOuterClass.ActivatedJob;
+import io.camunda.zeebe.gateway.protocol.GatewayOuterClass.CompleteJobRequest;
+import io.camunda.zeebe.gateway.protocol.GatewayOuterClass.CompleteJobResponse;
+import io.camunda.zeebe.gateway.protocol.GatewayOuterClass.FailJobRequest;
+import io.camunda.zeebe.gateway.protocol.GatewayOuterClass.FailJobResponse;
+import io.camunda.zeebe.gateway.protocol.GatewayOuterClass.TopologyRequest;
+import io.camunda.zeebe.gateway.protocol.GatewayOuterClass.TopologyResponse;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gateway Zeebe simulado, a correr no próprio processo.
+ *
+ * <p>
+ * A classe {@code GatewayLocal} implementa o serviço gRPC do gateway Zeebe apenas para
+ * os pedidos usados pelos workers: {@code ActivateJobs} (com long polling),
+ * {@code CompleteJob}, {@code FailJob} e {@code Topology}. Permite ligar o
+ * {@code ZeebeClient} real de {@link Main} a um gateway local, sem o cluster na Camunda
+ * Cloud, e medir o desempenho dos workers com a carga gerada por {@link GeradorCarga}.
+ * </p>
+ *
+ * <p>
+ * Os jobs são criados com {@link #criarJob(String, Map)}. Respeita-se a lista
+ * {@code fetchVariables} de cada pedido de ativação e o timeout de cada job: jobs
+ * ativados que não são completados até ao prazo voltam à fila, e os comandos sobre jobs
+ * que já não estão ativos são recusados e contados como erros de conclusão. Para cada
+ * tipo de job são registados os jobs criados, completados, falhados e expirados e a
+ * latência entre a criação e a conclusão do job.
+ * </p>
+ */
+public class GatewayLocal extends GatewayGrpc.GatewayImplBase {
+
+    /** Timeout de long polling usado quando o pedido de ativação não indica nenhum. */
+    private static final long REQUEST_TIMEOUT_OMISSAO_MS = 10_000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Server servidor;
+
+    private final ScheduledExecutorService agendador = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "gateway-local");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicLong proximaChave = new AtomicLong(1);
+
+    /** Jobs por ativar, por tipo de job. Protegido pelo monitor do gateway. */
+    private final Map<String, ArrayDeque<JobSimulado>> porAtivar = new HashMap<>();
+
+    /** Pedidos de ativação em long polling, por tipo de job. Protegido pelo monitor do gateway. */
+    private final Map<String, ArrayDeque<PedidoAtivacao>> emEspera = new HashMap<>();
+
+    /** Jobs ativados e ainda não completados, por chave. */
+    private final Map<Long, JobSimulado> ativos = new ConcurrentHashMap<>();
+
+    /** Comandos de conclusão ou falha recusados por o job já não estar ativo. */
+    private final AtomicLong errosConclusao = new AtomicLong();
+
+    /** Estatísticas por tipo de job. */
+    private final Map<String, Estatisticas> estatisticas = new ConcurrentHashMap<>();
+
+    private GatewayLocal(int porta) throws IOException {
+        this.servidor = NettyServerBuilder.forPort(porta).addService(this).build().start();
+        agendador.scheduleAtFixedRate(this::expirarJobs, 100, 100, TimeUnit.MILLISECONDS);
+        Registo.info("Gateway local a escutar na porta %d", servidor.getPort());
+    }
+
+    /**
+     * Inicia o gateway local na porta indicada.
+     *
+     * @param porta porta TCP onde o gateway aceita ligações gRPC em texto simples
+     *              ({@code 0} escolhe uma porta livre).
+     * @return gateway iniciado.
+     * @throws IOException se não for possível abrir a porta.
+     */
+    public static GatewayLocal iniciar(int porta) throws IOException {
+        return new GatewayLocal(porta);
+    }
+
+    /**
+     * Devolve a porta onde o gateway está a escutar.
+     *
+     * @return porta TCP do gateway.
+     */
+    public int getPorta() {
+        return servidor.getPort();
+    }
+
+    /**
+     * Para o gateway e liberta a porta.
+     */
+    public void parar() {
+        agendador.shutdownNow();
+        servidor.shutdownNow();
+    }
+
+    /**
+     * Cria um job do tipo indicado, pronto a ser ativado por um worker.
+     *
+     * @param tipo      tipo de job (por exemplo, {@code gerar_etiquetas}).
+     * @param variaveis variáveis da instância de processo; o mapa não é copiado e não
+     *                  deve ser alterado depois de criado o job.
+     */
+    public void criarJob(String tipo, Map<String, Object> variaveis) {
+        JobSimulado job = new JobSimulado(proximaChave.getAndIncrement(), tipo, variaveis);
+        estatisticas(tipo).criados.incrementAndGet();
+        enfileirar(job);
+    }
+
+    /**
+     * Devolve as estatísticas recolhidas, por tipo de job (ordenadas por nome).
+     *
+     * @return mapa tipo de job → estatísticas.
+     */
+    public Map<String, Estatisticas> getEstatisticas() {
+        return new TreeMap<>(estatisticas);
+    }
+
+    /**
+     * Devolve o número de comandos de conclusão ou falha recusados, por o job já não
+     * estar ativo (por exemplo, completado depois de o prazo expirar).
+     *
+     * @return número de erros de conclusão.
+     */
+    public long getErrosConclusao() {
+        return errosConclusao.get();
+    }
+
+    /**
+     * Devolve o número de jobs criados que ainda não foram completados nem falhados.
+     *
+     * @return jobs por ativar mais jobs ativados.
+     */
+    public long jobsPendentes() {
+        long pendentes = 0;
+        for (Estatisticas e : estatisticas.values()) {
+            pendentes += e.criados.get() - e.completados.get() - e.falhados.get();
+        }
+        return pendentes;
+    }
+
+    @Override
+    public void activateJobs(ActivateJobsRequest pedido, StreamObserver<ActivateJobsResponse> resposta) {
+        PedidoAtivacao ativacao = new PedidoAtivacao(pedido, resposta);
+        List<JobSimulado> jobs;
+        synchronized (this) {
+            jobs = retirar(pedido.getType(), pedido.getMaxJobsToActivate());
+            if (jobs.isEmpty() && pedido.getRequestTimeout() >= 0) {
+                long timeout = pedido.getRequestTimeout() == 0
+                        ? REQUEST_TIMEOUT_OMISSAO_MS : pedido.getRequestTimeout();
+                emEspera.computeIfAbsent(pedido.getType(), t -> new ArrayDeque<>()).add(ativacao);
+                ativacao.timeout = agendador.schedule(() -> expirarPedido(ativacao), timeout, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+        responder(ativacao, jobs);
+    }
+
+    @Override
+    public void completeJob(CompleteJobRequest pedido, StreamObserver<CompleteJobResponse> resposta) {
+        JobSimulado job = ativos.remove(pedido.getJobKey());
+        if (job == null) {
+            rejeitar(pedido.getJobKey(), resposta);
+            return;
+        }
+        Estatisticas e = estatisticas(job.tipo);
+        e.completados.incrementAndGet();
+        e.latencias.registar(System.nanoTime() - job.criadoEm);
+        resposta.onNext(CompleteJobResponse.getDefaultInstance());
+        resposta.onCompleted();
+    }
+
+    @Override
+    public void failJob(FailJobRequest pedido, StreamObserver<FailJobResponse> resposta) {
+        JobSimulado job = ativos.remove(pedido.getJobKey());
+        if (job == null) {
+            rejeitar(pedido.getJobKey(), resposta);
+            return;
+        }
+        if (pedido.getRetries() > 0) {
+            job.retries = pedido.getRetries();
+            enfileirar(job);
+        } else {
+            Estatisticas e = estatisticas(job.tipo);
+            e.falhados.incrementAndGet();
+            e.latencias.registar(System.nanoTime() - job.criadoEm);
+        }
+        resposta.onNext(FailJobResponse.getDefaultInstance());
+        resposta.onCompleted();
+    }
+
+    @Override
+    public void topology(TopologyRequest pedido, StreamObserver<TopologyResponse> resposta) {
+        resposta.onNext(TopologyResponse.newBuilder()
+                .setClusterSize(1)
+                .setPartitionsCount(1)
+                .setReplicationFactor(1)
+                .setGatewayVersion("local")
+                .build());
+        resposta.onCompleted();
+    }
+
+    /**
+     * Coloca o job na fila do seu tipo e, se houver pedidos de ativação à espera,
+     * entrega-lhes os jobs disponíveis.
+     */
+    private void enfileirar(JobSimulado job) {
+        List<PedidoAtivacao> servidos = new ArrayList<>();
+        List<List<JobSimulado>> entregas = new ArrayList<>();
+        synchronized (this) {
+            porAtivar.computeIfAbsent(job.tipo, t -> new ArrayDeque<>()).add(job);
+            ArrayDeque<PedidoAtivacao> pedidos = emEspera.get(job.tipo);
+            while (pedidos != null && !pedidos.isEmpty() && !porAtivar.get(job.tipo).isEmpty()) {
+                PedidoAtivacao ativacao = pedidos.poll();
+                ativacao.timeout.cancel(false);
+                servidos.add(ativacao);
+                entregas.add(retirar(job.tipo, ativacao.pedido.getMaxJobsToActivate()));
+            }
+        }
+        for (int i = 0; i < servidos.size(); i++) {
+            responder(servidos.get(i), entregas.get(i));
+        }
+    }
+
+    /**
+     * Retira até {@code max} jobs da fila do tipo indicado. Deve ser chamado com o monitor do gateway.
+     */
+    private List<JobSimulado> retirar(String tipo, int max) {
+        ArrayDeque<JobSimulado> fila = porAtivar.get(tipo);
+        List<JobSimulado> jobs = new ArrayList<>();
+        while (fila != null && !fila.isEmpty() && jobs.size() < max) {
+            jobs.add(fila.poll());
+        }
+        return jobs;
+    }
+
+    /**
+     * Responde ao pedido de ativação com os jobs indicados (possivelmente nenhum).
+     */
+    private void responder(PedidoAtivacao ativacao, List<JobSimulado> jobs) {
+        ActivateJobsRequest pedido = ativacao.pedido;
+        try {
+            if (!jobs.isEmpty()) {
+                long prazo = System.currentTimeMillis() + pedido.getTimeout();
+                ActivateJobsResponse.Builder resposta = ActivateJobsResponse.newBuilder();
+                for (JobSimulado job : jobs) {
+                    job.prazo = prazo;
+                    ativos.put(job.chave, job);
+                    resposta.addJobs(ActivatedJob.newBuilder()
+                            .setKey(job.chave)
+                            .setType(job.tipo)
+                            .setProcessInstanceKey(job.chave)
+                            .setBpmnProcessId("Process_0bd9jqj")
+                            .setProcessDefinitionVersion(1)
+                            .setProcessDefinitionKey(1)
+                            .setElementId(job.tipo)
+                            .setElementInstanceKey(job.chave)
+                            .setCustomHeaders("{}")
+                            .setWorker(pedido.getWorker())
+                            .setRetries(job.retries)
+                            .setDeadline(prazo)
+                            .setVariables(projetar(job.variaveis, pedido.getFetchVariableList()))
+                            .setTenantId("<default>"));
+                }
+                ativacao.resposta.onNext(resposta.build());
+            }
+            ativacao.resposta.onCompleted();
+        } catch (RuntimeException e) {
+            // O worker desligou-se entretanto: os jobs voltam à fila
+            for (JobSimulado job : jobs) {
+                if (ativos.remove(job.chave) != null) {
+                    enfileirar(job);
+                }
+            }
+        }
+    }
+
+    /**
+     * Serializa apenas as variáveis pedidas (todas, se a lista estiver vazia).
+     */
+    private static String projetar(Map<String, Object> variaveis, List<String> pedidas) {
+        try {
+            if (pedidas.isEmpty()) {
+                return MAPPER.writeValueAsString(variaveis);
+            }
+            StringWriter out = new StringWriter();
+            try (JsonGenerator gen = MAPPER.getFactory().createGenerator(out)) {
+                gen.writeStartObject();
+                for (String nome : pedidas) {
+                    if (variaveis.containsKey(nome)) {
+                        gen.writeFieldName(nome);
+                        MAPPER.writeValue(gen, variaveis.get(nome));
+                    }
+                }
+                gen.writeEndObject();
+            }
+            return out.toString();
+        } catch (IOException e) {
+            throw new IllegalStateException("Variáveis não serializáveis: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Responde com lista vazia a um pedido em long polling cujo timeout expirou.
+     */
+    private void expirarPedido(PedidoAtivacao ativacao) {
+        synchronized (this) {
+            ArrayDeque<PedidoAtivacao> pedidos = emEspera.get(ativacao.pedido.getType());
+            if (pedidos == null || !pedidos.remove(ativacao)) {
+                return; // já foi servido
+            }
+        }
+        responder(ativacao, List.of());
+    }
+
+    /**
+     * Devolve à fila os jobs ativados cujo prazo expirou sem conclusão.
+     */
+    private void expirarJobs() {
+        long agora = System.currentTimeMillis();
+        for (JobSimulado job : ativos.values()) {
+            if (job.prazo < agora && ativos.remove(job.chave, job)) {
+                estatisticas(job.tipo).expirados.incrementAndGet();
+                enfileirar(job);
+            }
+        }
+    }
+
+    private void rejeitar(long chave, StreamObserver<?> resposta) {
+        // Job desconhecido, já completado ou expirado: tal como o gateway real, devolve NOT_FOUND
+        errosConclusao.incrementAndGet();
+        resposta.onError(Status.NOT_FOUND
+                .withDescription("Job " + chave + " não encontrado")
+                .asRuntimeException());
+    }
+
+    private Estatisticas estatisticas(String tipo) {
+        return estatisticas.computeIfAbsent(tipo, t -> new Estatisticas());
+    }
+
+    /**
+     * Job criado no gateway local.
+     */
+    private static class JobSimulado {
+        final long chave;
+        final String tipo;
+        final Map<String, Object> variaveis;
+        final long criadoEm = System.nanoTime();
+        volatile int retries = 3;
+        volatile long prazo;
+
+        JobSimulado(long chave, String tipo, Map<String, Object> variaveis) {
+            this.chave = chave;
+            this.tipo = tipo;
+            this.variaveis = variaveis;
+        }
+    }
+
+    /**
+     * Pedido de ativação em curso (possivelmente em long polling).
+     */
+    private static class PedidoAtivacao {
+        final ActivateJobsRequest pedido;
+        final StreamObserver<ActivateJobsResponse> resposta;
+        ScheduledFuture<?> timeout;
+
+        PedidoAtivacao(ActivateJobsRequest pedido, StreamObserver<ActivateJobsResponse> resposta) {
+            this.pedido = pedido;
+            this.resposta = resposta;
+        }
+    }
+
+    /**
+     * Estatísticas de um tipo de job no gateway local.
+     */
+    public static class Estatisticas {
+        final AtomicLong criados = new AtomicLong();
+        final AtomicLong completados = new AtomicLong();
+        final AtomicLong falhados = new AtomicLong();
+        final AtomicLong expirados = new AtomicLong();
+        final Latencias latencias = new Latencias();
+
+        public long getCriados() {
+            return criados.get();
+        }
+
+        public long getCompletados() {
+            return completados.get();
+        }
+
+        public long getFalhados() {
+            return falhados.get();
+        }
+
+        public long getExpirados() {
+            return expirados.get();
+        }
+
+        /**
+         * Devolve o percentil indicado da latência entre a criação e a conclusão do job.
+         *
+         * @param percentil percentil entre 0 e 100 (por exemplo, {@code 99.9}).
+         * @return latência em nanossegundos, ou 0 se não houver amostras.
+         */
+        public long percentil(double percentil) {
+            return latencias.percentil(percentil);
+        }
+    }
+
+    /**
+     * Amostras de latência guardadas num array de primitivos.
+     */
+    private static class Latencias {
+        private long[] amostras = new long[1024];
+        private int total;
+
+        synchronized void registar(long nanos) {
+            if (total == amostras.length) {
+                amostras = Arrays.copyOf(amostras, total * 2);
+            }
+            amostras[total++] = nanos;
+        }
+
+        synchronized long percentil(double percentil) {
+            if (total == 0) {
+                return 0;
+            }
+            long[] ordenadas = Arrays.copyOf(amostras, total);
+            Arrays.sort(ordenadas);
+            int indice = (int) Math.ceil(percentil / 100.0 * total) - 1;
+            return ordenadas[Math.max(0, Math.min(total - 1, indice))];
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.example;
+
+import io.camunda.zeebe.client.ZeebeClient;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Gerador de carga para os workers de {@link Main}, sem ligação à Camunda Cloud.
+ *
+ * <p>
+ * Inicia um {@link GatewayLocal}, liga-lhe um {@code ZeebeClient} configurado tal como
+ * em produção ({@link Main#clienteBase()}), regista os oito workers com
+ * {@link Main#setupWorkers(ZeebeClient)} e cria jobs à taxa pedida, com a mistura de
+ * tipos de job indicada. No fim, espera que os jobs pendentes terminem e apresenta o
+ * débito, as latências p50/p99/p999 entre a criação e a conclusão de cada job e os erros.
+ * </p>
+ *
+ * <p>
+ * Configuração através de propriedades de sistema:
+ * <ul>
+ *     <li>{@code carga.taxa} – jobs criados por segundo, no total (omissão: 200);</li>
+ *     <li>{@code carga.duracao} – duração da geração, em segundos (omissão: 30);</li>
+ *     <li>{@code carga.mix} – pesos por tipo de job, no formato
+ *         {@code gerar_etiquetas=1,verificar_alimentos=4} (omissão: todos com peso 1);</li>
+ *     <li>{@code carga.porta} – porta do gateway local (omissão: 26500).</li>
+ * </ul>
+ * Durante a carga, as métricas dos workers estão disponíveis no endpoint de {@link MetricasJobs}.
+ * Os workers {@code gerar_etiquetas} e {@code registar_nao_consumiveis} escrevem ficheiros
+ * nas pastas {@code etiquetas_geradas} e {@code relatorios} da diretoria atual.
+ * </p>
+ *
+ * <p>
+ * Execução:
+ * <pre>
+ * java -cp CamundaWorkerBenchmarks/target/benchmarks.jar org.example.GeradorCarga
+ * </pre>
+ * </p>
+ */
+public class GeradorCarga {
+
+    /** Tipos de job tratados pelos workers de {@link Main}. */
+    static final List<String> TIPOS_JOB = List.of(
+            "gerar_etiquetas", "registar_nao_consumiveis", "verificar_alimentos",
+            "Emitir_Ordem_Compra", "Enviar_amostras", "Preparar_Encomenda",
+            "Rejeitar_Proposta", "fornecedor_envia_encomenda");
+
+    /** Tempo máximo de espera pelos jobs pendentes no fim da geração. */
+    private static final long ESPERA_FINAL_MS = 60_000;
+
+    /**
+     * Ponto de entrada do gerador de carga.
+     *
+     * @param args argumentos da linha de comandos (não utilizados).
+     * @throws Exception se não for possível iniciar o gateway local.
+     */
+    public static void main(String[] args) throws Exception {
+        double taxa = Double.parseDouble(System.getProperty("carga.taxa", "200"));
+        int duracao = Integer.getInteger("carga.duracao", 30);
+        int porta = Integer.getInteger("carga.porta", 26500);
+        Map<String, Integer> mix = lerMix(System.getProperty("carga.mix", ""));
+
+        System.out.printf("Carga: %.0f jobs/s durante %d s, mistura %s%n", taxa, duracao, mix);
+
+        GatewayLocal gateway = GatewayLocal.iniciar(porta);
+        try (ZeebeClient client = Main.clienteBase()
+                .grpcAddress(URI.create("http://localhost:" + gateway.getPorta()))
+                .usePlaintext()
+                .build()) {
+
+            Main.setupWorkers(client);
+            MetricasJobs.iniciarServidor();
+
+            long inicio = System.nanoTime();
+            gerar(gateway, taxa, duracao, mix);
+
+            long limite = System.currentTimeMillis() + ESPERA_FINAL_MS;
+            while (gateway.jobsPendentes() > 0 && System.currentTimeMillis() < limite) {
+                Thread.sleep(50);
+            }
+            double segundos = (System.nanoTime() - inicio) / 1e9;
+
+            imprimirRelatorio(gateway, segundos);
+        } finally {
+            gateway.parar();
+        }
+    }
+
+    /**
+     * Cria jobs no gateway à taxa indicada, escolhendo o tipo de cada job de acordo com os pesos.
+     */
+    private static void gerar(GatewayLocal gateway, double taxa, int duracao, Map<String, Integer> mix)
+            throws InterruptedException {
+        String[] tipos = new String[mix.values().stream().mapToInt(Integer::intValue).sum()];
+        int i = 0;
+        for (Map.Entry<String, Integer> e : mix.entrySet()) {
+            for (int k = 0; k < e.getValue(); k++) {
+                tipos[i++] = e.getKey();
+            }
+        }
+
+        Map<String, Map<String, Object>> modelos = new LinkedHashMap<>();
+        for (String tipo : mix.keySet()) {
+            modelos.put(tipo, variaveisModelo(tipo));
+        }
+
+        long inicio = System.nanoTime();
+        long fim = inicio + duracao * 1_000_000_000L;
+        long criados = 0;
+        while (System.nanoTime() < fim) {
+            long devidos = (long) ((System.nanoTime() - inicio) / 1e9 * taxa);
+            for (; criados < devidos; criados++) {
+                String tipo = tipos[ThreadLocalRandom.current().nextInt(tipos.length)];
+                gateway.criarJob(tipo, modelos.get(tipo));
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Variáveis típicas de uma instância de processo que chega a cada tipo de job,
+     * incluindo os campos de texto livre que os workers não leem.
+     */
+    static Map<String, Object> variaveisModelo(String tipo) {
+        Map<String, Object> vars = new LinkedHashMap<>();
+        vars.put("descricao_preparacao", "Cozer em lume brando, mexendo regularmente. ".repeat(40));
+        vars.put("descricao_procedimento", "Procedimento normal de cozedura e arrefecimento.");
+        vars.put("equipamentos", "Fogão industrial, panela 50L, termómetro");
+        vars.put("alimentos", "arroz.feijão.tomate.cebola");
+        vars.put("quantidades", "5.3.2.1");
+        vars.put("lote_produto", "LOTE-2025-001");
+        vars.put("responsavel_cozedura", "Maria Silva");
+        vars.put("nome_funcionario", "João Costa");
+        vars.put("motivo", "qualidade_insuficiente");
+        vars.put("fornecedor", "Hortofrutícolas do Minho");
+        vars.put("ingrediente", "arroz");
+        vars.put("quantidade", "50");
+        vars.put("ordemId", "ORDEM-2025-042");
+        vars.put("lote_amostra", "AMOSTRA-7");
+        vars.put("motivo_rejeicao", "Preço acima do orçamento");
+        if (tipo.equals("gerar_etiquetas")) {
+            vars.put("lote_embalagem", "EMB-2025-001");
+            vars.put("embalamento", "Caixa térmica 1kg");
+            vars.put("responsavel_embalamento", "Ana Santos");
+        }
+        return Map.copyOf(vars);
+    }
+
+    /**
+     * Lê a mistura de tipos de job no formato {@code tipo=peso,tipo=peso}.
+     * Uma mistura vazia atribui peso 1 a todos os tipos.
+     */
+    static Map<String, Integer> lerMix(String mix) {
+        Map<String, Integer> pesos = new LinkedHashMap<>();
+        if (mix.isBlank()) {
+            TIPOS_JOB.forEach(t -> pesos.put(t, 1));
+            return pesos;
+        }
+        for (String parte : mix.split(",")) {
+            String[] kv = parte.split("=");
+            String tipo = kv[0].trim();
+            if (!TIPOS_JOB.contains(tipo)) {
+                throw new IllegalArgumentException("Tipo de job desconhecido: " + tipo);
+            }
+            int peso = kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1;
+            if (peso > 0) {
+                pesos.put(tipo, peso);
+            }
+        }
+        return pesos;
+    }
+
+    private static void imprimirRelatorio(GatewayLocal gateway, double segundos) {
+        long completados = 0;
+        System.out.println();
+        System.out.println("=================[Resultado da carga]==============================");
+        System.out.printf("%-28s %8s %8s %7s %8s %9s %9s %9s%n",
+                "Tipo de job", "Criados", "Compl.", "Falhas", "Expir.", "p50 ms", "p99 ms", "p999 ms");
+        for (Map.Entry<String, GatewayLocal.Estatisticas> e : gateway.getEstatisticas().entrySet()) {
+            GatewayLocal.Estatisticas est = e.getValue();
+            completados += est.getCompletados();
+            System.out.printf("%-28s %8d %8d %7d %8d %9.2f %9.2f %9.2f%n",
+                    e.getKey(), est.getCriados(), est.getCompletados(), est.getFalhados(), est.getExpirados(),
+                    est.percentil(50) / 1e6, est.percentil(99) / 1e6, est.percentil(99.9) / 1e6);
+        }
+        System.out.printf("Débito: %.1f jobs/s (%d completados em %.1f s)%n",
+                completados / segundos, completados, segundos);
+        System.out.println("Erros de conclusão: " + gateway.getErrosConclusao()
+                + " | jobs pendentes: " + gateway.jobsPendentes());
+    }
+}
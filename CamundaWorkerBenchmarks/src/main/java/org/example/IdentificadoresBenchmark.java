@@ -0,0 +1,58 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark do {@link GeradorIdentificadores} com 8 threads a pedir identificadores ao
+ * mesmo gerador, como vários jobs de etiquetas e relatórios em paralelo no mesmo worker.
+ *
+ * <p>
+ * Acima de 4096 identificadores por milissegundo o gerador avança para os milissegundos
+ * seguintes; numa medição longa chega a esperar pelo relógio
+ * ({@link GeradorIdentificadores#ADIANTAMENTO_MAXIMO_MS}), o que limita {@code proximo}
+ * a cerca de 4 milhões por segundo.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class IdentificadoresBenchmark {
+
+    private final GeradorIdentificadores gerador = new GeradorIdentificadores(1);
+
+    @State(Scope.Thread)
+    public static class Codigo {
+        final StringBuilder texto = new StringBuilder(GeradorIdentificadores.TAMANHO_CODIGO);
+    }
+
+    @Benchmark
+    public long proximo() {
+        return gerador.proximo();
+    }
+
+    @Benchmark
+    public StringBuilder proximoCodificado(Codigo codigo) {
+        codigo.texto.setLength(0);
+        return GeradorIdentificadores.codificar(gerador.proximo(), codigo.texto);
+    }
+
+    @Benchmark
+    public long reservarLote() {
+        return gerador.reservar(GerarEtiquetas.ETIQUETAS_POR_BLOCO);
+    }
+}
@@ -0,0 +1,130 @@
+package org.example;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Envio de etiquetas ZPL para uma impressora, fora do JMH, contra a {@link ImpressoraLocal}.
+ *
+ * <p>
+ * Com {@code etiquetas.formato=zpl} e a impressora simulada em {@code etiquetas.impressora}:
+ * <ol>
+ *     <li><b>Etiquetas individuais</b>: {@code impressao.threads} threads geram, ao mesmo
+ *         tempo, {@code impressao.etiquetas} etiquetas com
+ *         {@link GerarEtiquetas#gerarEtiquetaCompleta(Map)}; a impressora tem de receber
+ *         todas, inteiras;</li>
+ *     <li><b>Lote</b>: um job com {@code impressao.lote} unidades
+ *         ({@link GerarEtiquetas#gerarEtiquetasLote(Map)}); o que a impressora recebe tem de
+ *         ser, byte a byte, o ficheiro {@code ETQL_*.zpl} escrito pelo worker.</li>
+ * </ol>
+ * </p>
+ *
+ * <p>
+ * Configuração através de propriedades de sistema: {@code impressao.threads} (omissão 8),
+ * {@code impressao.etiquetas} (omissão 20000) e {@code impressao.lote} (omissão 20000). As
+ * etiquetas individuais vão para um arquivo de documentos numa pasta temporária. Execução:
+ * <pre>
+ * java -cp CamundaWorkerBenchmarks/target/benchmarks.jar org.example.ImpressaoZpl
+ * </pre>
+ * </p>
+ */
+public class ImpressaoZpl {
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("impressao.threads", 8);
+        int etiquetas = Integer.getInteger("impressao.etiquetas", 20_000);
+        int lote = Integer.getInteger("impressao.lote", 20_000);
+
+        Path arquivo = Files.createTempDirectory("arquivo-documentos");
+        boolean ok;
+        try (ImpressoraLocal impressora = new ImpressoraLocal()) {
+            // Antes de GerarEtiquetas ser carregada: o formato e a impressora são lidos uma vez
+            System.setProperty("etiquetas.formato", "zpl");
+            System.setProperty("etiquetas.impressora", impressora.getEndereco());
+            System.setProperty("documentos.arquivo.pasta", arquivo.toString());
+            System.setProperty("etiquetas.lote.maximo", String.valueOf(Math.max(lote, 1)));
+
+            ok = individuais(impressora, threads, etiquetas);
+            ok &= lote(impressora, lote);
+        } finally {
+            DestinoDocumentos.configurado().close();
+            try (Stream<Path> ficheiros = Files.list(arquivo)) {
+                for (Path f : (Iterable<Path>) ficheiros::iterator) {
+                    Files.delete(f);
+                }
+            }
+            Files.delete(arquivo);
+        }
+
+        if (!ok) {
+            System.out.println("\nFALHOU: etiquetas perdidas ou diferentes do que foi escrito");
+            System.exit(1);
+        }
+        System.out.println("\nTodas as etiquetas chegaram à impressora.");
+    }
+
+    private static boolean individuais(ImpressoraLocal impressora, int threads, int etiquetas) throws Exception {
+        Map<String, Object> variaveis = DadosBenchmark.variaveisEtiqueta(10);
+        AtomicBoolean falhou = new AtomicBoolean();
+        List<Thread> lista = new ArrayList<>();
+        long inicio = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int minhas = etiquetas / threads + (t < etiquetas % threads ? 1 : 0);
+            lista.add(new Thread(() -> {
+                for (int i = 0; i < minhas; i++) {
+                    Map<String, Object> resultado = GerarEtiquetas.gerarEtiquetaCompleta(variaveis);
+                    if (!Boolean.TRUE.equals(resultado.get("etiquetaImpressa"))) {
+                        System.err.println("Etiqueta não impressa: " + resultado.get("erro"));
+                        falhou.set(true);
+                        return;
+                    }
+                }
+            }));
+        }
+        lista.forEach(Thread::start);
+        for (Thread thread : lista) {
+            thread.join();
+        }
+        boolean chegaram = impressora.esperar(etiquetas, 10_000);
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        boolean ok = !falhou.get() && chegaram && impressora.getEtiquetas() == etiquetas;
+        System.out.printf("Etiquetas individuais: %d threads, %d etiquetas, %d recebidas em %d ligação(ões): "
+                        + "%.0f etiquetas/s -> %s%n",
+                threads, etiquetas, impressora.getEtiquetas(), impressora.getLigacoes(), etiquetas / segundos,
+                ok ? "ok" : "FALHOU");
+        return ok;
+    }
+
+    private static boolean lote(ImpressoraLocal impressora, int unidades) throws Exception {
+        impressora.limpar();
+        Map<String, Object> variaveis = new HashMap<>(DadosBenchmark.variaveisEtiqueta(10));
+        variaveis.put("unidades", unidades);
+
+        long inicio = System.nanoTime();
+        Map<String, Object> resultado = GerarEtiquetas.gerarEtiquetasLote(variaveis);
+        boolean chegaram = impressora.esperar(unidades, 10_000);
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        boolean ok = Boolean.TRUE.equals(resultado.get("sucesso")) && chegaram;
+        if (ok) {
+            Path ficheiro = Paths.get((String) resultado.get("caminhoEtiquetas"));
+            ok = Arrays.equals(Files.readAllBytes(ficheiro), impressora.getRecebido());
+            Files.delete(ficheiro);
+            Files.delete(Paths.get((String) resultado.get("caminhoIndice")));
+        } else {
+            System.err.println("Lote falhou: " + resultado.get("erro"));
+        }
+        System.out.printf("Lote: %d unidades, %d recebidas, %.0f etiquetas/s -> %s%n",
+                unidades, impressora.getEtiquetas(), unidades / segundos, ok ? "ok" : "FALHOU");
+        return ok;
+    }
+}
@@ -0,0 +1,144 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Impressora ZPL simulada: servidor TCP local que aceita ligações como uma impressora
+ * de rede na porta RAW, conta as etiquetas recebidas (cada {@code ^XZ}) e guarda os bytes,
+ * para comparar com o que o worker escreveu.
+ *
+ * <p>
+ * Usada pelo {@link ImpressaoZpl} no lugar de uma impressora real, com
+ * {@code -Detiquetas.impressora=127.0.0.1:<porta>}.
+ * </p>
+ */
+public class ImpressoraLocal implements AutoCloseable {
+
+    private final ServerSocket servidor;
+    private final AtomicLong etiquetas = new AtomicLong();
+    private final AtomicLong ligacoes = new AtomicLong();
+    private final ByteArrayOutputStream recebido = new ByteArrayOutputStream();
+
+    /**
+     * Abre o servidor numa porta livre do endereço local e começa a aceitar ligações.
+     *
+     * @throws IOException se não for possível abrir a porta.
+     */
+    public ImpressoraLocal() throws IOException {
+        servidor = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread aceitar = new Thread(this::aceitar, "impressora-local");
+        aceitar.setDaemon(true);
+        aceitar.start();
+    }
+
+    /**
+     * @return endereço para {@code etiquetas.impressora}.
+     */
+    public String getEndereco() {
+        return servidor.getInetAddress().getHostAddress() + ":" + servidor.getLocalPort();
+    }
+
+    /**
+     * @return etiquetas completas recebidas.
+     */
+    public long getEtiquetas() {
+        return etiquetas.get();
+    }
+
+    /**
+     * @return ligações aceites.
+     */
+    public long getLigacoes() {
+        return ligacoes.get();
+    }
+
+    /**
+     * @return cópia de todos os bytes recebidos.
+     */
+    public byte[] getRecebido() {
+        synchronized (recebido) {
+            return recebido.toByteArray();
+        }
+    }
+
+    /**
+     * Apaga os bytes recebidos e a contagem de etiquetas.
+     */
+    public void limpar() {
+        synchronized (recebido) {
+            recebido.reset();
+            etiquetas.set(0);
+        }
+    }
+
+    /**
+     * Espera até terem chegado {@code n} etiquetas.
+     *
+     * @return {@code true} se chegaram antes de {@code tempoMs}.
+     */
+    public boolean esperar(long n, long tempoMs) throws InterruptedException {
+        long limite = System.currentTimeMillis() + tempoMs;
+        while (etiquetas.get() < n) {
+            if (System.currentTimeMillis() > limite) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    private void aceitar() {
+        while (!servidor.isClosed()) {
+            try {
+                Socket socket = servidor.accept();
+                ligacoes.incrementAndGet();
+                Thread ler = new Thread(() -> ler(socket), "impressora-local-" + ligacoes.get());
+                ler.setDaemon(true);
+                ler.start();
+            } catch (IOException e) {
+                // servidor fechado
+            }
+        }
+    }
+
+    private void ler(Socket socket) {
+        byte[] buffer = new byte[64 * 1024];
+        // Estado da procura de ^XZ entre leituras: 0 nada, 1 depois de ^, 2 depois de ^X
+        int estado = 0;
+        try (InputStream in = socket.getInputStream()) {
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                long fim = 0;
+                for (int i = 0; i < n; i++) {
+                    byte b = buffer[i];
+                    if (b == '^') {
+                        estado = 1;
+                    } else if (estado == 1 && b == 'X') {
+                        estado = 2;
+                    } else if (estado == 2 && b == 'Z') {
+                        fim++;
+                        estado = 0;
+                    } else {
+                        estado = 0;
+                    }
+                }
+                synchronized (recebido) {
+                    recebido.write(buffer, 0, n);
+                    etiquetas.addAndGet(fim);
+                }
+            }
+        } catch (IOException e) {
+            // ligação fechada pelo cliente
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        servidor.close();
+    }
+}
@@ -0,0 +1,151 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Compara a reserva de pedidos um a um com a reserva em lotes pelo {@link AgrupadorPedidos},
+ * fora do JMH.
+ *
+ * <p>
+ * {@code lotes.clientes} threads (omissão 32, como jobs {@code verificar_alimentos} em
+ * simultâneo) reservam pedidos de {@code lotes.linhas} alimentos aleatórios (omissão 3)
+ * num livro com diário síncrono, durante {@code lotes.duracao} segundos (omissão 5) por modo.
+ * Os modos são as janelas em {@code lotes.janelas} (durações ISO-8601, omissão
+ * {@code PT0S,PT0.0005S,PT0.002S}); {@code PT0S} reserva cada pedido com
+ * {@link LivroStock#reservar(String[], int[], long)}. Mostra os pedidos por segundo, a
+ * latência (mediana e percentil 99), o tamanho médio dos lotes e se
+ * {@code disponível + reservado} se manteve igual ao stock inicial.
+ * Execução:
+ * <pre>
+ * java -cp CamundaWorkerBenchmarks/target/benchmarks.jar org.example.LotesPedidos
+ * </pre>
+ * </p>
+ */
+public class LotesPedidos {
+
+    private static final int STOCK_INICIAL = 1_000_000_000;
+    private static final int ALIMENTOS = 1024;
+
+    public static void main(String[] args) throws Exception {
+        int clientes = Integer.getInteger("lotes.clientes", 32);
+        int linhas = Integer.getInteger("lotes.linhas", 3);
+        int duracao = Integer.getInteger("lotes.duracao", 5);
+        String[] janelas = System.getProperty("lotes.janelas", "PT0S,PT0.0005S,PT0.002S").split(",");
+
+        System.out.printf("%d clientes, %d linhas por pedido, %d s por modo, diário síncrono%n",
+                clientes, linhas, duracao);
+        System.out.printf("%-12s %12s %12s %12s %12s %10s%n",
+                "Janela", "Pedidos/s", "p50 (µs)", "p99 (µs)", "Lote médio", "Invariante");
+        boolean ok = true;
+        for (String j : janelas) {
+            ok &= medir(Duration.parse(j.trim()), clientes, linhas, duracao);
+        }
+        if (!ok) {
+            System.out.println("\nFALHOU: quantidades inconsistentes depois das reservas");
+            System.exit(1);
+        }
+    }
+
+    private static boolean medir(Duration janela, int clientes, int linhas, int duracao) throws Exception {
+        Map<String, Integer> inicial = new LinkedHashMap<>();
+        String[] nomes = new String[ALIMENTOS];
+        for (int i = 0; i < ALIMENTOS; i++) {
+            nomes[i] = "alimento-" + i;
+            inicial.put(nomes[i], STOCK_INICIAL);
+        }
+        Path pasta = Files.createTempDirectory("lotes-stock");
+        DiarioStock diario = DiarioStock.abrir(pasta, CatalogoStock.de(inicial),
+                DiarioStock.TAMANHO_SEGMENTO_OMISSAO, true);
+        LivroStock livro = diario.getLivro();
+        AgrupadorPedidos agrupador = janela.isZero() ? null
+                : new AgrupadorPedidos(janela, StockManager.MAXIMO_LOTE_OMISSAO, p -> livro.reservarLote(p, 60_000));
+
+        AtomicBoolean parar = new AtomicBoolean();
+        long[][] latencias = new long[clientes][];
+        int[] contagens = new int[clientes];
+        List<Thread> lista = new ArrayList<>();
+        for (int t = 0; t < clientes; t++) {
+            final int id = t;
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+                long[] amostras = new long[1 << 16];
+                int n = 0;
+                while (!parar.get()) {
+                    String[] alimentos = new String[linhas];
+                    int[] quantidades = new int[linhas];
+                    for (int k = 0; k < linhas; k++) {
+                        alimentos[k] = nomes[aleatorio.nextInt(ALIMENTOS)];
+                        quantidades[k] = 1 + aleatorio.nextInt(5);
+                    }
+                    long inicio = System.nanoTime();
+                    if (agrupador == null) {
+                        livro.reservar(alimentos, quantidades, 60_000);
+                    } else {
+                        agrupador.submeter(new PedidoAlimentos(alimentos, quantidades)).join();
+                    }
+                    if (n == amostras.length) {
+                        amostras = Arrays.copyOf(amostras, n * 2);
+                    }
+                    amostras[n++] = System.nanoTime() - inicio;
+                }
+                latencias[id] = amostras;
+                contagens[id] = n;
+            });
+            lista.add(thread);
+        }
+
+        long inicio = System.nanoTime();
+        lista.forEach(Thread::start);
+        Thread.sleep(duracao * 1000L);
+        parar.set(true);
+        for (Thread thread : lista) {
+            thread.join();
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        int total = 0;
+        for (int c : contagens) {
+            total += c;
+        }
+        long[] todas = new long[total];
+        int p = 0;
+        for (int t = 0; t < clientes; t++) {
+            System.arraycopy(latencias[t], 0, todas, p, contagens[t]);
+            p += contagens[t];
+        }
+        Arrays.sort(todas);
+
+        boolean invariante = true;
+        for (String nome : nomes) {
+            invariante &= livro.disponivel(nome) >= 0
+                    && livro.disponivel(nome) + livro.reservado(nome) == STOCK_INICIAL;
+        }
+        double loteMedio = agrupador == null ? 1 : (double) agrupador.getPedidos() / Math.max(1, agrupador.getLotes());
+        System.out.printf("%-12s %12.0f %12.1f %12.1f %12.1f %10s%n", janela, total / segundos,
+                todas[total / 2] / 1e3, todas[(int) (total * 0.99)] / 1e3, loteMedio, invariante ? "ok" : "FALHOU");
+
+        diario.close();
+        apagar(pasta);
+        return invariante;
+    }
+
+    private static void apagar(Path pasta) throws IOException {
+        try (Stream<Path> ficheiros = Files.walk(pasta)) {
+            for (Path f : (Iterable<Path>) ficheiros.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(f);
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Mede o tempo de recuperação do {@link DiarioStock}, fora do JMH.
+ *
+ * <p>
+ * Escreve {@code recuperacao.movimentos} movimentos (omissão 10 milhões: reservas,
+ * confirmações, libertações, entradas e desperdícios, metade das entradas com lote e
+ * validade) num livro com diário, fecha-o e volta a abri-lo a partir da pasta, confirmando
+ * que cada alimento recuperado tem as mesmas quantidades disponível e reservada e os
+ * mesmos lotes. Os lotes expiram num relógio simulado, que avança um milissegundo por
+ * movimento e retira os expirados a cada {@link #INTERVALO_EXPIRACAO} movimentos. Corre
+ * duas vezes:
+ * <ol>
+ *     <li><b>Repetição completa</b>: um único segmento de 1 GiB, sem snapshots, pelo que
+ *         a recuperação repete todos os movimentos;</li>
+ *     <li><b>Com snapshots</b>: segmentos de {@link DiarioStock#TAMANHO_SEGMENTO_OMISSAO}
+ *         bytes, em que a recuperação parte do último snapshot.</li>
+ * </ol>
+ * </p>
+ *
+ * <p>
+ * Outras propriedades: {@code recuperacao.alimentos} (omissão 1024) e
+ * {@code recuperacao.pasta} (omissão uma pasta temporária, apagada no fim). Execução:
+ * <pre>
+ * java -cp CamundaWorkerBenchmarks/target/benchmarks.jar org.example.RecuperacaoDiario
+ * </pre>
+ * </p>
+ */
+public class RecuperacaoDiario {
+
+    private static final int STOCK_INICIAL = 1_000_000_000;
+    /** Movimentos entre duas retiradas de lotes expirados. */
+    private static final int INTERVALO_EXPIRACAO = 1000;
+
+    public static void main(String[] args) throws IOException {
+        long movimentos = Long.getLong("recuperacao.movimentos", 10_000_000L);
+        int nAlimentos = Integer.getInteger("recuperacao.alimentos", 1024);
+        String pastaBase = System.getProperty("recuperacao.pasta");
+        Path base = pastaBase == null ? Files.createTempDirectory("diario-stock") : Paths.get(pastaBase);
+
+        Map<String, Integer> inicial = new LinkedHashMap<>();
+        String[] nomes = new String[nAlimentos];
+        for (int i = 0; i < nAlimentos; i++) {
+            nomes[i] = "alimento-" + i;
+            inicial.put(nomes[i], STOCK_INICIAL);
+        }
+
+        System.out.printf("%-20s %12s %12s %16s %10s%n",
+                "Modo", "Movimentos", "Escrita (s)", "Recuperação (s)", "Estado");
+        boolean ok = medir("repetição completa", base.resolve("completo"), inicial, nomes, movimentos, 1 << 30);
+        ok &= medir("com snapshots", base.resolve("snapshots"), inicial, nomes, movimentos,
+                DiarioStock.TAMANHO_SEGMENTO_OMISSAO);
+
+        if (pastaBase == null) {
+            apagar(base);
+        }
+        if (!ok) {
+            System.out.println("\nFALHOU: o stock recuperado é diferente do stock escrito");
+            System.exit(1);
+        }
+    }
+
+    private static boolean medir(String modo, Path pasta, Map<String, Integer> inicial, String[] nomes,
+                                 long movimentos, int tamanhoSegmento) throws IOException {
+        apagar(pasta);
+        long inicio = System.nanoTime();
+        DiarioStock diario = DiarioStock.abrir(pasta, CatalogoStock.de(inicial), tamanhoSegmento, false);
+        LivroStock livro = diario.getLivro();
+        escrever(livro, nomes, movimentos);
+        diario.close();
+        double escrita = (System.nanoTime() - inicio) / 1e9;
+
+        inicio = System.nanoTime();
+        DiarioStock recuperado = DiarioStock.abrir(pasta, CatalogoStock.de(inicial), tamanhoSegmento, false);
+        double recuperacao = (System.nanoTime() - inicio) / 1e9;
+        LivroStock novo = recuperado.getLivro();
+
+        boolean ok = novo.reservasPendentes() == livro.reservasPendentes();
+        for (String nome : nomes) {
+            ok &= novo.disponivel(nome) == livro.disponivel(nome) && novo.reservado(nome) == livro.reservado(nome);
+        }
+        ok &= descrever(novo.lotesAte(Long.MAX_VALUE)).equals(descrever(livro.lotesAte(Long.MAX_VALUE)));
+        recuperado.close();
+        System.out.printf("%-20s %12d %12.2f %16.2f %10s%n", modo, movimentos, escrita, recuperacao,
+                ok ? "ok" : "FALHOU");
+        return ok;
+    }
+
+    /**
+     * Escreve movimentos aleatórios: ciclos de reserva seguida de confirmação ou libertação,
+     * com entradas e desperdícios pelo meio. Algumas reservas ficam pendentes.
+     */
+    private static void escrever(LivroStock livro, String[] nomes, long movimentos) {
+        SplittableRandom aleatorio = new SplittableRandom(42);
+        String[][] pedidos = {new String[1], new String[2], new String[3]};
+        int[] quantidades = new int[3];
+        long[] abertas = new long[64];
+        int nAbertas = 0;
+        long feitos = 0;
+        long lotes = 0;
+        while (feitos < movimentos) {
+            int tipo = aleatorio.nextInt(10);
+            if (feitos % INTERVALO_EXPIRACAO == 0) {
+                livro.retirarExpirados(feitos);
+            }
+            if (tipo == 0 && aleatorio.nextBoolean()) {
+                livro.receber(nomes[aleatorio.nextInt(nomes.length)], 1 + aleatorio.nextInt(10));
+            } else if (tipo == 0) {
+                livro.receber(nomes[aleatorio.nextInt(nomes.length)], 1 + aleatorio.nextInt(10),
+                        "L" + lotes++, feitos + aleatorio.nextInt(100_000));
+            } else if (tipo == 1) {
+                // Um lote recente, que pode não ser deste alimento: o resto sai por validade
+                String lote = lotes == 0 ? null : "L" + (lotes - 1 - aleatorio.nextInt((int) Math.min(lotes, 100)));
+                livro.desperdicar(nomes[aleatorio.nextInt(nomes.length)], lote, 1 + aleatorio.nextInt(3));
+            } else if (nAbertas == abertas.length || (nAbertas > 0 && tipo < 6)) {
+                int k = aleatorio.nextInt(nAbertas);
+                long id = abertas[k];
+                abertas[k] = abertas[--nAbertas];
+                if (tipo % 2 == 0) {
+                    livro.confirmar(id);
+                } else {
+                    livro.libertar(id);
+                }
+            } else {
+                int linhas = 1 + aleatorio.nextInt(3);
+                String[] pedido = pedidos[linhas - 1];
+                for (int k = 0; k < linhas; k++) {
+                    pedido[k] = nomes[aleatorio.nextInt(nomes.length)];
+                    quantidades[k] = 1 + aleatorio.nextInt(5);
+                }
+                LivroStock.Reserva reserva = livro.reservar(pedido, quantidades, 60_000);
+                if (reserva != null) {
+                    abertas[nAbertas++] = reserva.getId();
+                }
+            }
+            feitos++;
+        }
+    }
+
+    private static List<String> descrever(List<LotesStock.Lote> lotes) {
+        List<String> descricao = new ArrayList<>(lotes.size());
+        for (LotesStock.Lote lote : lotes) {
+            descricao.add(lote + "@" + lote.getValidadeMs());
+        }
+        return descricao;
+    }
+
+    private static void apagar(Path pasta) throws IOException {
+        if (!Files.exists(pasta)) {
+            return;
+        }
+        try (Stream<Path> ficheiros = Files.walk(pasta)) {
+            for (Path f : (Iterable<Path>) ficheiros.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(f);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark da criação de relatórios de desperdício ({@link RelatorioDesperdicio}),
+ * incluindo a escrita no destino de documentos configurado ({@code -Ddocumentos.destino}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelatorioBenchmark {
+
+    /** Número de linhas (alimento e quantidade) do relatório. */
+    @Param({"1", "10", "100", "1000", "5000"})
+    public int linhas;
+
+    private Map<String, Object> variaveis;
+
+    @Setup
+    public void preparar() {
+        variaveis = DadosBenchmark.variaveisRelatorio(linhas);
+    }
+
+    @Benchmark
+    public Map<String, Object> criarRelatorioCompleto() {
+        return RelatorioDesperdicio.criarRelatorioCompleto(variaveis);
+    }
+}
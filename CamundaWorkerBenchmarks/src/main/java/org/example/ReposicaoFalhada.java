@@ -0,0 +1,141 @@
+package org.example;
+
+import io.camunda.zeebe.client.ZeebeClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifica que um alimento cujo evento de reposição não foi tratado volta a emitir eventos,
+ * fora do JMH.
+ *
+ * <p>
+ * Corre duas verificações:
+ * <ol>
+ *     <li><b>Livro</b>: um {@link LivroStock} com um ponto de encomenda, cujo destino dá os
+ *         eventos como falhados com {@link LivroStock#reposicaoFalhada}. Confirma que, depois
+ *         de uma falha, a descida seguinte emite um evento novo, e que a falha de um evento
+ *         antigo não tira de reposição um alimento que entretanto emitiu outro;</li>
+ *     <li><b>Processo de compra</b>: {@link Main#ligarReposicao} ligado a um
+ *         {@link GatewayLocal}, que não implementa {@code CreateProcessInstance}, pelo que
+ *         cada processo de compra falha. Retira arroz do stock em três passos a partir do
+ *         ponto de encomenda e confirma que cada passo emite um evento e que todos ficam
+ *         como falhados (métricas {@code stock_reposicoes_total} e
+ *         {@code stock_reposicoes_falhadas_total}).</li>
+ * </ol>
+ * </p>
+ *
+ * <p>
+ * Usa o stock e os pontos de encomenda dos recursos do worker, sem diário. Execução:
+ * <pre>
+ * java -cp CamundaWorkerBenchmarks/target/benchmarks.jar org.example.ReposicaoFalhada
+ * </pre>
+ * </p>
+ */
+public class ReposicaoFalhada {
+
+    private static final long ESPERA_MS = 10_000;
+
+    /** Arroz em {@code stock_alimentos.json} e o seu ponto em {@code stock_reposicao.json}. */
+    private static final int ARROZ_INICIAL = 50;
+    private static final int PONTO_ARROZ = 10;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("stock.diario", "false");
+        System.setProperty("metricas.porta", "-1");
+
+        boolean ok = verificarLivro();
+        ok &= verificarProcessoCompra();
+
+        System.out.println(ok ? "\nOK" : "\nFALHOU: um alimento com a reposição falhada não voltou a ser reposto");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static boolean verificarLivro() throws IOException, InterruptedException {
+        LivroStock livro = new LivroStock(Map.of("arroz", 20));
+        ReposicaoStock reposicao = ReposicaoStock.ler(new ByteArrayInputStream(
+                "{\"arroz\": {\"ponto\": 10, \"quantidade\": 50}}".getBytes(StandardCharsets.UTF_8)));
+        livro.ligarReposicao(reposicao);
+        BlockingQueue<ReposicaoStock.Evento> eventos = new LinkedBlockingQueue<>();
+        reposicao.definirDestino(eventos::add);
+
+        livro.desperdicar("arroz", 10);
+        ReposicaoStock.Evento primeiro = eventos.poll(ESPERA_MS, TimeUnit.MILLISECONDS);
+        livro.desperdicar("arroz", 1);
+        boolean semRepeticao = eventos.poll(200, TimeUnit.MILLISECONDS) == null;
+
+        livro.reposicaoFalhada(primeiro);
+        livro.desperdicar("arroz", 1);
+        ReposicaoStock.Evento segundo = eventos.poll(ESPERA_MS, TimeUnit.MILLISECONDS);
+
+        boolean ok = primeiro != null && semRepeticao && segundo != null;
+        if (ok) {
+            // O segundo evento ainda está em curso: a falha repetida do primeiro não o pode anular
+            livro.reposicaoFalhada(primeiro);
+            livro.desperdicar("arroz", 1);
+            ok = eventos.poll(200, TimeUnit.MILLISECONDS) == null;
+
+            livro.reposicaoFalhada(segundo);
+            livro.desperdicar("arroz", 1);
+            ok &= eventos.poll(ESPERA_MS, TimeUnit.MILLISECONDS) != null;
+        }
+        System.out.printf("%-20s emitidos %d, falhados %d: %s%n", "Livro",
+                reposicao.getEmitidos(), reposicao.getFalhados(), ok ? "ok" : "FALHOU");
+        return ok;
+    }
+
+    private static boolean verificarProcessoCompra() throws Exception {
+        GatewayLocal gateway = GatewayLocal.iniciar(0);
+        try (ZeebeClient client = Main.clienteBase()
+                .grpcAddress(URI.create("http://localhost:" + gateway.getPorta()))
+                .usePlaintext()
+                .build()) {
+            Main.ligarReposicao(client);
+            // Os alimentos que arrancam abaixo do ponto de encomenda também emitem e falham
+            boolean ok = aguardarFalhados();
+            long emitidos = indicador("stock_reposicoes_total");
+
+            ok &= StockManager.registarDesperdicio("arroz", ARROZ_INICIAL - PONTO_ARROZ);
+            ok &= aguardarFalhados();
+            for (int passo = 0; passo < 2; passo++) {
+                ok &= StockManager.registarDesperdicio("arroz", 1);
+                ok &= aguardarFalhados();
+            }
+
+            long novos = indicador("stock_reposicoes_total") - emitidos;
+            ok &= novos == 3;
+            System.out.printf("%-20s eventos novos %d (esperados 3), falhados %d: %s%n", "Processo de compra",
+                    novos, indicador("stock_reposicoes_falhadas_total"), ok ? "ok" : "FALHOU");
+            return ok;
+        } finally {
+            gateway.parar();
+        }
+    }
+
+    /** Espera até todos os eventos de reposição emitidos terem sido dados como falhados. */
+    private static boolean aguardarFalhados() throws InterruptedException {
+        long limite = System.currentTimeMillis() + ESPERA_MS;
+        while (System.currentTimeMillis() < limite) {
+            if (indicador("stock_reposicoes_falhadas_total") == indicador("stock_reposicoes_total")) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+
+    private static long indicador(String nome) {
+        for (String linha : MetricasJobs.exportar().split("\n")) {
+            if (linha.startsWith(nome + " ")) {
+                return Long.parseLong(linha.substring(nome.length() + 1));
+            }
+        }
+        throw new IllegalStateException("Métrica " + nome + " não registada");
+    }
+}
@@ -0,0 +1,55 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks do caminho do worker {@code verificar_alimentos}: a leitura das strings
+ * separadas por ponto ({@link PedidoAlimentos#ler(String, String)}) e a verificação
+ * do pedido no stock ({@link StockManager#verificarPedido(String[], int[])}). O stock fica
+ * apenas em memória ({@code -Dstock.diario=false}), sem diário em disco.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dstock.diario=false")
+public class StockBenchmark {
+
+    /** Número de linhas do pedido. */
+    @Param({"1", "10", "100", "1000", "5000"})
+    public int linhas;
+
+    private String alimentosStr;
+    private String quantidadesStr;
+    private PedidoAlimentos pedido;
+
+    @Setup
+    public void preparar() {
+        alimentosStr = DadosBenchmark.alimentos(linhas);
+        quantidadesStr = DadosBenchmark.quantidades(linhas);
+        pedido = PedidoAlimentos.ler(alimentosStr, quantidadesStr);
+    }
+
+    @Benchmark
+    public PedidoAlimentos lerPedido() {
+        return PedidoAlimentos.ler(alimentosStr, quantidadesStr);
+    }
+
+    @Benchmark
+    public boolean verificarPedido() {
+        return StockManager.verificarPedido(pedido.getAlimentos(), pedido.getQuantidades());
+    }
+}
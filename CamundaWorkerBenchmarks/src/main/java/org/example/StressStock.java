@@ -0,0 +1,202 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Teste de carga do {@link LivroStock}, fora do JMH.
+ *
+ * <p>
+ * Executa duas verificações:
+ * <ol>
+ *     <li><b>Último stock</b>: muitas threads tentam reservar e confirmar, ao mesmo tempo,
+ *         unidades de um alimento com pouco stock, pedido com outra grafia ({@code "Feijao"}
+ *         para {@code "feijão"}). O total confirmado tem de ser exatamente o stock inicial;</li>
+ *     <li><b>Escalabilidade</b>: com 1, 2, 4, ... threads (até ao número de processadores),
+ *         cada thread reserva pedidos de várias linhas de alimentos aleatórios e confirma
+ *         ou liberta cada reserva. Mostra as operações por segundo e, no fim de cada passo,
+ *         confirma que para cada alimento {@code inicial = disponível + reservado + confirmado}.</li>
+ * </ol>
+ * </p>
+ *
+ * <p>
+ * Configuração através de propriedades de sistema: {@code stress.alimentos} (omissão 1024),
+ * {@code stress.linhas} (linhas por pedido, omissão 3), {@code stress.duracao} (segundos
+ * por passo, omissão 5) e {@code stress.threads} (máximo de threads, omissão o número de
+ * processadores). Execução:
+ * <pre>
+ * java -cp CamundaWorkerBenchmarks/target/benchmarks.jar org.example.StressStock
+ * </pre>
+ * </p>
+ */
+public class StressStock {
+
+    /** Stock inicial de cada alimento no teste de escalabilidade. */
+    private static final int STOCK_INICIAL = 1_000_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int nAlimentos = Integer.getInteger("stress.alimentos", 1024);
+        int linhas = Integer.getInteger("stress.linhas", 3);
+        int duracao = Integer.getInteger("stress.duracao", 5);
+        int maxThreads = Integer.getInteger("stress.threads", Runtime.getRuntime().availableProcessors());
+
+        boolean ok = ultimoStock(Math.max(4, maxThreads));
+
+        System.out.printf("%nEscalabilidade: %d alimentos, %d linhas por pedido, %d s por passo%n",
+                nAlimentos, linhas, duracao);
+        System.out.printf("%8s %14s %10s %10s%n", "Threads", "Pedidos/s", "Aceleração", "Invariante");
+        double base = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            Resultado r = escalabilidade(nAlimentos, linhas, duracao, threads);
+            if (threads == 1) {
+                base = r.pedidosPorSegundo;
+            }
+            System.out.printf("%8d %14.0f %9.2fx %10s%n", threads, r.pedidosPorSegundo,
+                    r.pedidosPorSegundo / base, r.invariante ? "ok" : "FALHOU");
+            ok &= r.invariante;
+            if (threads < maxThreads && threads * 2 > maxThreads) {
+                threads = maxThreads / 2;
+            }
+        }
+
+        if (!ok) {
+            System.out.println("\nFALHOU: stock vendido em excesso ou quantidades inconsistentes");
+            System.exit(1);
+        }
+        System.out.println("\nSem vendas em excesso.");
+    }
+
+    /**
+     * Várias threads disputam o stock de um único alimento, reservando uma unidade de cada vez.
+     */
+    private static boolean ultimoStock(int threads) throws InterruptedException {
+        final int stock = 10_000;
+        Map<String, Integer> inicial = new LinkedHashMap<>();
+        inicial.put("arroz", stock);
+        inicial.put("feijão", stock);
+        LivroStock livro = new LivroStock(inicial);
+
+        AtomicInteger confirmados = new AtomicInteger();
+        CountDownLatch partida = new CountDownLatch(1);
+        List<Thread> lista = new ArrayList<>();
+        String[] alimentos = {"arroz", "Feijao"};
+        int[] quantidades = {1, 1};
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    partida.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                LivroStock.Reserva reserva;
+                while ((reserva = livro.reservar(alimentos, quantidades, 60_000)) != null) {
+                    if (livro.confirmar(reserva.getId())) {
+                        confirmados.incrementAndGet();
+                    }
+                }
+            });
+            lista.add(thread);
+            thread.start();
+        }
+        partida.countDown();
+        for (Thread thread : lista) {
+            thread.join();
+        }
+
+        boolean ok = confirmados.get() == stock && livro.disponivel("arroz") == 0
+                && livro.reservado("arroz") == 0 && livro.disponivel("feijão") == 0;
+        System.out.printf("Último stock: %d threads, %d pedidos confirmados para %d unidades -> %s%n",
+                threads, confirmados.get(), stock, ok ? "ok" : "FALHOU");
+        return ok;
+    }
+
+    private static Resultado escalabilidade(int nAlimentos, int linhas, int duracao, int threads)
+            throws InterruptedException {
+        Map<String, Integer> inicial = new LinkedHashMap<>();
+        String[] nomes = new String[nAlimentos];
+        for (int i = 0; i < nAlimentos; i++) {
+            nomes[i] = "alimento-" + i;
+            inicial.put(nomes[i], STOCK_INICIAL);
+        }
+        LivroStock livro = new LivroStock(inicial);
+
+        AtomicBoolean parar = new AtomicBoolean();
+        long[][] confirmadosPorThread = new long[threads][nAlimentos];
+        long[] pedidosPorThread = new long[threads];
+        List<Thread> lista = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+                String[] alimentos = new String[linhas];
+                int[] indices = new int[linhas];
+                int[] quantidades = new int[linhas];
+                long[] confirmados = confirmadosPorThread[id];
+                long pedidos = 0;
+                while (!parar.get()) {
+                    for (int k = 0; k < linhas; k++) {
+                        indices[k] = aleatorio.nextInt(nAlimentos);
+                        alimentos[k] = nomes[indices[k]];
+                        quantidades[k] = 1 + aleatorio.nextInt(5);
+                    }
+                    LivroStock.Reserva reserva = livro.reservar(alimentos, quantidades, 60_000);
+                    if (reserva != null) {
+                        if (aleatorio.nextInt(4) == 0 && livro.confirmar(reserva.getId())) {
+                            for (int k = 0; k < linhas; k++) {
+                                confirmados[indices[k]] += quantidades[k];
+                            }
+                        } else {
+                            livro.libertar(reserva.getId());
+                        }
+                    }
+                    pedidos++;
+                }
+                pedidosPorThread[id] = pedidos;
+            });
+            lista.add(thread);
+        }
+
+        long inicio = System.nanoTime();
+        lista.forEach(Thread::start);
+        Thread.sleep(duracao * 1000L);
+        parar.set(true);
+        for (Thread thread : lista) {
+            thread.join();
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        long pedidos = 0;
+        for (long p : pedidosPorThread) {
+            pedidos += p;
+        }
+        boolean invariante = livro.reservasPendentes() == 0;
+        for (int i = 0; i < nAlimentos; i++) {
+            long confirmado = 0;
+            for (long[] c : confirmadosPorThread) {
+                confirmado += c[i];
+            }
+            int disponivel = livro.disponivel(nomes[i]);
+            int reservado = livro.reservado(nomes[i]);
+            if (disponivel < 0 || reservado != 0 || disponivel + reservado + confirmado != STOCK_INICIAL) {
+                invariante = false;
+            }
+        }
+        return new Resultado(pedidos / segundos, invariante);
+    }
+
+    private static class Resultado {
+        final double pedidosPorSegundo;
+        final boolean invariante;
+
+        Resultado(double pedidosPorSegundo, boolean invariante) {
+            this.pedidosPorSegundo = pedidosPorSegundo;
+            this.invariante = invariante;
+        }
+    }
+}
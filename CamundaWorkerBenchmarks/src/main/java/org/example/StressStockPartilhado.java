@@ -0,0 +1,306 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Teste de carga do {@link StockPartilhado} com vários processos, fora do JMH.
+ *
+ * <p>
+ * Cada passo lança {@code stress.processos} JVMs filhas sobre a mesma tabela partilhada, que
+ * este processo cria antes de as lançar:
+ * <ol>
+ *     <li><b>Último stock</b>: todos os processos reservam e confirmam, ao mesmo tempo,
+ *         pedidos de uma unidade de dois alimentos com pouco stock. O total confirmado, somado
+ *         em todos os processos, tem de ser exatamente o stock inicial. O arroz tem um ponto de
+ *         encomenda, e a descida até ele tem de emitir um único evento de reposição entre
+ *         todos os processos;</li>
+ *     <li><b>Carga</b>: cada processo, com {@code stress.threads} threads, reserva pedidos de
+ *         várias linhas de alimentos aleatórios e confirma ou liberta cada reserva. No fim
+ *         confirma, na tabela, que para cada alimento
+ *         {@code inicial = disponível + reservado + confirmado} e que nada ficou reservado;</li>
+ *     <li><b>Queda</b>: a mesma carga, mas no fim cada thread deixa uma reserva pendente e o
+ *         processo termina com {@link Runtime#halt(int)}, sem libertar nada. Este processo
+ *         confirma que as reservas ficaram na tabela, devolve-as com
+ *         {@link StockPartilhado#recuperarReservas(long)} e verifica as mesmas quantidades.</li>
+ * </ol>
+ * </p>
+ *
+ * <p>
+ * Configuração através de propriedades de sistema: {@code stress.processos} (omissão 4),
+ * {@code stress.threads} (threads por processo, omissão 2), {@code stress.alimentos}
+ * (omissão 256), {@code stress.linhas} (linhas por pedido, omissão 3) e
+ * {@code stress.duracao} (segundos de carga, omissão 5). Execução:
+ * <pre>
+ * java -cp CamundaWorkerBenchmarks/target/benchmarks.jar org.example.StressStockPartilhado
+ * </pre>
+ * </p>
+ */
+public class StressStockPartilhado {
+
+    /** Stock inicial de cada alimento no passo de carga. */
+    private static final int STOCK_INICIAL = 1_000_000;
+    /** Stock dos alimentos disputados no passo do último stock. */
+    private static final int STOCK_ULTIMO = 20_000;
+    /** Pontos de encomenda ligados pelos processos no passo do último stock. */
+    private static final String PONTOS_ULTIMO = "{\"arroz\": {\"ponto\": " + STOCK_ULTIMO / 2
+            + ", \"quantidade\": 100}}";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("filho")) {
+            filho(args);
+            return;
+        }
+        int processos = Integer.getInteger("stress.processos", 4);
+        int threads = Integer.getInteger("stress.threads", 2);
+        int nAlimentos = Integer.getInteger("stress.alimentos", 256);
+        int linhas = Integer.getInteger("stress.linhas", 3);
+        int duracao = Integer.getInteger("stress.duracao", 5);
+
+        boolean ok = ultimoStock(processos, threads);
+        ok &= carga(processos, threads, nAlimentos, linhas, duracao, false);
+        ok &= carga(processos, threads, nAlimentos, linhas, duracao, true);
+
+        if (!ok) {
+            System.out.println("\nFALHOU: stock vendido em excesso ou quantidades inconsistentes entre processos");
+            System.exit(1);
+        }
+        System.out.println("\nSem vendas em excesso entre processos.");
+    }
+
+    private static boolean ultimoStock(int processos, int threads) throws Exception {
+        Path ficheiro = Files.createTempFile("stock-partilhado", ".bin");
+        try {
+            Map<String, Integer> inicial = new LinkedHashMap<>();
+            inicial.put("arroz", STOCK_ULTIMO);
+            inicial.put("feijão", STOCK_ULTIMO);
+            LivroStock livro = new LivroStock(StockPartilhado.abrir(ficheiro, CatalogoStock.de(inicial)));
+
+            long confirmados = 0;
+            long eventos = 0;
+            for (String linha : lancar(processos, ficheiro, "ultimo", threads, 0, 0, 0)) {
+                String[] campos = linha.split(",");
+                confirmados += Long.parseLong(campos[0]);
+                eventos += Long.parseLong(campos[1]);
+            }
+            boolean ok = confirmados == STOCK_ULTIMO && eventos == 1 && livro.disponivel("arroz") == 0
+                    && livro.reservado("arroz") == 0 && livro.disponivel("feijão") == 0
+                    && livro.reservado("feijão") == 0;
+            System.out.printf("Último stock: %d processos x %d threads, %d pedidos confirmados para %d unidades, "
+                            + "%d eventos de reposição -> %s%n",
+                    processos, threads, confirmados, STOCK_ULTIMO, eventos, ok ? "ok" : "FALHOU");
+            return ok;
+        } finally {
+            Files.deleteIfExists(ficheiro);
+        }
+    }
+
+    private static boolean carga(int processos, int threads, int nAlimentos, int linhas, int duracao,
+                                 boolean queda) throws Exception {
+        Path ficheiro = Files.createTempFile("stock-partilhado", ".bin");
+        try {
+            Map<String, Integer> inicial = new LinkedHashMap<>();
+            for (int i = 0; i < nAlimentos; i++) {
+                inicial.put("alimento-" + i, STOCK_INICIAL);
+            }
+            StockPartilhado partilhado = StockPartilhado.abrir(ficheiro, CatalogoStock.de(inicial));
+            LivroStock livro = new LivroStock(partilhado);
+
+            long[] confirmados = new long[nAlimentos];
+            long pedidos = 0;
+            String passo = queda ? "queda" : "carga";
+            for (String linha : lancar(processos, ficheiro, passo, threads, nAlimentos, linhas, duracao)) {
+                String[] campos = linha.split(",");
+                pedidos += Long.parseLong(campos[0]);
+                for (int i = 0; i < nAlimentos; i++) {
+                    confirmados[i] += Long.parseLong(campos[i + 1]);
+                }
+            }
+
+            boolean ok = true;
+            String recuperacao = "";
+            if (queda) {
+                long reservado = 0;
+                for (int i = 0; i < nAlimentos; i++) {
+                    reservado += livro.reservado("alimento-" + i);
+                }
+                int recuperadas = partilhado.recuperarReservas(System.currentTimeMillis());
+                ok = reservado > 0 && recuperadas > 0;
+                recuperacao = String.format(", %d unidades em %d linhas recuperadas", reservado, recuperadas);
+            }
+            for (int i = 0; i < nAlimentos; i++) {
+                int disponivel = livro.disponivel("alimento-" + i);
+                int reservado = livro.reservado("alimento-" + i);
+                if (disponivel < 0 || reservado != 0 || disponivel + reservado + confirmados[i] != STOCK_INICIAL) {
+                    ok = false;
+                }
+            }
+            System.out.printf("%s: %d processos x %d threads, %d alimentos, %d linhas por pedido: "
+                            + "%.0f pedidos/s%s -> %s%n", queda ? "Queda" : "Carga",
+                    processos, threads, nAlimentos, linhas, pedidos / (double) duracao, recuperacao,
+                    ok ? "ok" : "FALHOU");
+            return ok;
+        } finally {
+            Files.deleteIfExists(ficheiro);
+        }
+    }
+
+    /**
+     * Lança os processos filhos com o mesmo classpath e espera por eles.
+     *
+     * @return última linha escrita por cada processo (o seu resultado).
+     */
+    private static List<String> lancar(int processos, Path ficheiro, String passo, int threads, int nAlimentos,
+                                       int linhas, int duracao) throws IOException, InterruptedException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> lista = new ArrayList<>();
+        for (int p = 0; p < processos; p++) {
+            lista.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    StressStockPartilhado.class.getName(), "filho", ficheiro.toString(), passo,
+                    String.valueOf(threads), String.valueOf(nAlimentos), String.valueOf(linhas),
+                    String.valueOf(duracao))
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start());
+        }
+        List<String> resultados = new ArrayList<>();
+        for (Process processo : lista) {
+            String ultima = null;
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(processo.getInputStream(), StandardCharsets.UTF_8))) {
+                for (String linha; (linha = in.readLine()) != null; ) {
+                    ultima = linha;
+                }
+            }
+            if (processo.waitFor() != 0 || ultima == null) {
+                throw new IllegalStateException("processo filho terminou com erro");
+            }
+            resultados.add(ultima);
+        }
+        return resultados;
+    }
+
+    /**
+     * Processo filho: abre a tabela criada pelo pai e executa um passo, escrevendo o
+     * resultado na última linha do stdout.
+     */
+    private static void filho(String[] args) throws Exception {
+        Thread.setDefaultUncaughtExceptionHandler((thread, erro) -> {
+            erro.printStackTrace();
+            Runtime.getRuntime().halt(1);
+        });
+        LivroStock livro = new LivroStock(StockPartilhado.abrir(Paths.get(args[1]), CatalogoStock.de(Map.of())));
+        int threads = Integer.parseInt(args[3]);
+        int nAlimentos = Integer.parseInt(args[4]);
+        int linhas = Integer.parseInt(args[5]);
+        int duracao = Integer.parseInt(args[6]);
+        AtomicLong eventos = new AtomicLong();
+        if (args[2].equals("ultimo")) {
+            ReposicaoStock reposicao = ReposicaoStock.ler(
+                    new ByteArrayInputStream(PONTOS_ULTIMO.getBytes(StandardCharsets.UTF_8)));
+            livro.ligarReposicao(reposicao);
+            reposicao.definirDestino(evento -> eventos.incrementAndGet());
+        }
+
+        AtomicBoolean parar = new AtomicBoolean();
+        AtomicLong ultimos = new AtomicLong();
+        long[][] confirmadosPorThread = new long[threads][nAlimentos];
+        long[] pedidosPorThread = new long[threads];
+        List<Thread> lista = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            lista.add(new Thread(() -> {
+                if (args[2].equals("ultimo")) {
+                    String[] alimentos = {"arroz", "Feijao"};
+                    int[] quantidades = {1, 1};
+                    while (true) {
+                        LivroStock.Reserva reserva = livro.reservar(alimentos, quantidades, 60_000);
+                        if (reserva != null) {
+                            if (livro.confirmar(reserva.getId())) {
+                                ultimos.incrementAndGet();
+                            }
+                        } else if (livro.disponivel("arroz") == 0 || livro.disponivel("feijão") == 0) {
+                            // Uma reserva recusada com stock visível foi desfeita por outro processo; tenta de novo
+                            return;
+                        }
+                    }
+                }
+                ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+                String[] alimentos = new String[linhas];
+                int[] indices = new int[linhas];
+                int[] quantidades = new int[linhas];
+                long[] confirmados = confirmadosPorThread[id];
+                long pedidos = 0;
+                while (!parar.get()) {
+                    for (int k = 0; k < linhas; k++) {
+                        indices[k] = aleatorio.nextInt(nAlimentos);
+                        alimentos[k] = "alimento-" + indices[k];
+                        quantidades[k] = 1 + aleatorio.nextInt(5);
+                    }
+                    LivroStock.Reserva reserva = livro.reservar(alimentos, quantidades, 60_000);
+                    if (reserva != null) {
+                        if (aleatorio.nextInt(4) == 0 && livro.confirmar(reserva.getId())) {
+                            for (int k = 0; k < linhas; k++) {
+                                confirmados[indices[k]] += quantidades[k];
+                            }
+                        } else {
+                            livro.libertar(reserva.getId());
+                        }
+                    }
+                    pedidos++;
+                }
+                if (args[2].equals("queda")) {
+                    // Fica pendente: o processo termina sem a fechar
+                    livro.reservar(alimentos, quantidades, 60_000);
+                }
+                pedidosPorThread[id] = pedidos;
+            }));
+        }
+        lista.forEach(Thread::start);
+        if (!args[2].equals("ultimo")) {
+            Thread.sleep(duracao * 1000L);
+            parar.set(true);
+        }
+        for (Thread thread : lista) {
+            thread.join();
+        }
+
+        if (args[2].equals("ultimo")) {
+            // Dá tempo à thread stock-reposicao para entregar o evento, se este processo o emitiu
+            Thread.sleep(500);
+            System.out.println(ultimos.get() + "," + eventos.get());
+            return;
+        }
+        StringBuilder resultado = new StringBuilder();
+        long pedidos = 0;
+        for (long p : pedidosPorThread) {
+            pedidos += p;
+        }
+        resultado.append(pedidos);
+        for (int i = 0; i < nAlimentos; i++) {
+            long confirmado = 0;
+            for (long[] c : confirmadosPorThread) {
+                confirmado += c[i];
+            }
+            resultado.append(',').append(confirmado);
+        }
+        System.out.println(resultado);
+        if (args[2].equals("queda")) {
+            // Termina como um kill -9: sem shutdown hooks nem libertação das reservas
+            System.out.flush();
+            Runtime.getRuntime().halt(0);
+        }
+    }
+}